@@ -28,6 +28,10 @@ public class VariableReference extends Node implements Expression {
         return ident;
     }
 
+    public boolean hasDimensions() {
+        return hasDimensions;
+    }
+
     @Override
     public void accept(NodeVisitor visitor) {
         visitor.visit(this);
@@ -0,0 +1,94 @@
+package co2;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+// Block and branch frequencies of a profiled DLX run, read back from the data file written by
+// DlxProfiler.writeData(). The Compiler uses them for profile-guided optimization (see
+// Compiler.setProfile). Records are keyed by block ID, so a profile only lines up with builds of
+// the same source; blocks it does not know count as never executed.
+public class BlockProfile {
+
+    // a block is hot when it was entered at least HOT_MIN_ENTRIES times and at least
+    // 1/HOT_FRACTION as often as the most frequently entered block
+    public static final long HOT_MIN_ENTRIES = 64;
+    public static final long HOT_FRACTION = 10;
+
+    private final Map<Integer, Long> entries = new HashMap<>();
+    private final Map<Integer, Long> instructions = new HashMap<>();
+    private final Map<Integer, Long> taken = new HashMap<>();
+    private final Map<Integer, Long> notTaken = new HashMap<>();
+    private long maxEntries = 0;
+
+    public static BlockProfile read (String dataFile) throws IOException {
+        BlockProfile profile = new BlockProfile();
+        try (BufferedReader reader = new BufferedReader(new FileReader(dataFile))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String[] fields = line.split("\t");
+                try {
+                    switch (fields[0]) {
+                        case "block":
+                            // block <block ID> <start pc> <entries> <instructions>
+                            profile.addBlock(Integer.parseInt(fields[1]), Long.parseLong(fields[3]), Long.parseLong(fields[4]));
+                            break;
+                        case "branch":
+                            // branch <pc> <block ID> <taken> <not taken>
+                            profile.addBranch(Integer.parseInt(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4]));
+                            break;
+                        default:
+                            // totals, opcodes, pcs and calls are not needed by the optimizer
+                            break;
+                    }
+                }
+                catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    throw new IOException("Malformed profile record at line " + lineNumber + ": \"" + line + "\"");
+                }
+            }
+        }
+        return profile;
+    }
+
+    private void addBlock (int blockID, long blockEntries, long blockInstructions) {
+        entries.merge(blockID, blockEntries, Long::sum);
+        instructions.merge(blockID, blockInstructions, Long::sum);
+        maxEntries = Math.max(maxEntries, entries.get(blockID));
+    }
+
+    private void addBranch (int blockID, long branchTaken, long branchNotTaken) {
+        taken.merge(blockID, branchTaken, Long::sum);
+        notTaken.merge(blockID, branchNotTaken, Long::sum);
+    }
+
+    // times control reached the first instruction of the block
+    public long entries (int blockID) {
+        return entries.getOrDefault(blockID, 0L);
+    }
+
+    // instructions executed inside the block
+    public long instructions (int blockID) {
+        return instructions.getOrDefault(blockID, 0L);
+    }
+
+    public long taken (int blockID) {
+        return taken.getOrDefault(blockID, 0L);
+    }
+
+    public long notTaken (int blockID) {
+        return notTaken.getOrDefault(blockID, 0L);
+    }
+
+    public boolean isHot (int blockID) {
+        long count = entries(blockID);
+        return count >= HOT_MIN_ENTRIES && count * HOT_FRACTION >= maxEntries;
+    }
+
+    public boolean isEmpty () {
+        return entries.isEmpty();
+    }
+}
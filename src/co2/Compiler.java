@@ -13,8 +13,12 @@ import java.nio.file.Files;
 import java.security.GeneralSecurityException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -25,6 +29,8 @@ import java.util.Deque;
 import java.util.Set;
 import java.util.Stack;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import ast.AST;
 import ast.Addition;
@@ -63,6 +69,24 @@ import ir.cfg.BasicBlock;
 import ir.cfg.Block;
 import ir.cfg.CFGPrinter;
 import ir.cfg.IRGenerator;
+import ir.dataflow.AvailableExpressions;
+import ir.dataflow.Bits;
+import ir.dataflow.ConstantPropagation;
+import ir.dataflow.CopyPropagation;
+import ir.dataflow.DataflowResult;
+import ir.dataflow.DataflowSolver;
+import ir.dataflow.DefUse;
+import ir.dataflow.Dominators;
+import ir.dataflow.Liveness;
+import ir.dataflow.LoopNesting;
+import ir.dataflow.ReachingDefinitions;
+import ir.dataflow.ValueTable;
+import ir.dataflow.VariableNumbering;
+import ir.regalloc.Coalescing;
+import ir.regalloc.GraphColoring;
+import ir.regalloc.InterferenceGraph;
+import ir.regalloc.LinearScan;
+import ir.regalloc.LiveInterval;
 import ir.tac.Add;
 import ir.tac.And;
 import ir.tac.Assign;
@@ -78,12 +102,15 @@ import ir.tac.Comparison;
 import ir.tac.Div;
 import ir.tac.End;
 import ir.tac.Literal;
+import ir.tac.Load;
 import ir.tac.Mod;
 import ir.tac.Mul;
 import ir.tac.Neg;
 import ir.tac.Or;
+import ir.tac.Phi;
 import ir.tac.Pow;
 import ir.tac.Return;
+import ir.tac.Store;
 import ir.tac.Sub;
 import ir.tac.TAC;
 import ir.tac.TACList;
@@ -957,6 +984,7 @@ public class Compiler {
 
                 expressionsList.add(new Symbol(currType));
                 identList.add(new Symbol(currIdent));
+                miniVarialeDeclarationList.put(currIdent.lexeme(), currType.kind().toString());
             } while (accept(Token.Kind.COMMA));
             expect(Token.Kind.CLOSE_PAREN);
         }
@@ -1397,18 +1425,20 @@ public class Compiler {
 
     public String optimization(List<String> args, boolean isLoop, boolean isMax) {
         List<String> optimizationArgs = new ArrayList<>(args);
-        isMax = !isMax;
-        // isLoop = !isLoop;
 
         if (isMax) {
             // System.out.println("update to max");
             optimizationArgs.clear();
             optimizationArgs.clear();
+            optimizationArgs.add("sccp");
             optimizationArgs.add("cp");
             optimizationArgs.add("cf");
             optimizationArgs.add("cpp");
-            optimizationArgs.add("cse");
+            optimizationArgs.add("gvn");
+            optimizationArgs.add("licm");
+            optimizationArgs.add("sr");
             optimizationArgs.add("dce");
+            optimizationArgs.add("inl");
             isLoop = true;
         }
         else {
@@ -1424,106 +1454,36 @@ public class Compiler {
             e.printStackTrace();
         }
 
+        // inlining first, the functions it leaves without calls are orphans then
+        if (optimizationArgs.contains("inl")) {
+            inlineFunctions(file);
+        }
         orphanFunctionElimination(file);
         resetAllBlocks();
         uninitializedVars(file);
         resetAllBlocks();
 
-        // loop for optimization until convergence
-        // if true, then loop, if not then stop after one
+        // profile-guided loop unrolling, before the passes so they can clean up the copies
+        if (profile != null) {
+            unrollHotLoops(file);
+        }
+
+        constructSSA(file);
+
+        // Every pass solves its dataflow problem to a fixed point over the whole CFG, so one run
+        // of a pass leaves nothing for a second run of the same pass. With -loop the sequence is
+        // repeated while some pass still changes the code, as passes enable each other.
         if (isLoop) {
             do {
                 overallConvergence = false;
                 for (String currOptimization : optimizationArgs) {
-                    hasConverged = false;
-                    switch (currOptimization) {
-                        case "cp":
-                            while (!hasConverged) {
-                                hasConverged = true;
-                                constantPropagation(file);
-                                resetAllBlocks();
-                            }
-                            break;
-                        case "cf":
-                            while (!hasConverged) {
-                                hasConverged = true;
-                                constantFolding(file); 
-                                resetAllBlocks(); 
-                            }
-                            break;
-                        case "cpp":
-                            while (!hasConverged) {
-                                hasConverged = true;
-                                copyPropagation(file); 
-                                resetAllBlocks();
-                            }
-                            break;
-                        case "cse":
-                            while (!hasConverged) {
-                                hasConverged = true;
-                                commonSubExpressionElimination(file);
-                                resetAllBlocks();
-                            }
-                            break;
-                        case "dce":
-                            while (!hasConverged) {
-                                hasConverged = true;
-                                deadCodeElimination(file);
-                                resetAllBlocks();
-                            }
-                            break;
-                    }
-                    resetAllBlocks();
+                    runOptimization(currOptimization, file);
                 }
             } while(overallConvergence);
         }
         else {
             for (String currOptimization : optimizationArgs) {
-                hasConverged = false;
-                switch (currOptimization) {
-                    case "cp":
-                        while (!hasConverged) {
-                            hasConverged = true;
-                            constantPropagation(file);
-                            resetAllBlocks();
-                        }
-                        break;
-                    case "cf":
-                        while (!hasConverged) {
-                            hasConverged = true;
-                            constantFolding(file);  
-                            resetAllBlocks();
-                        }
-                        break;
-                    case "cpp":
-                        while (!hasConverged) {
-                            hasConverged = true;
-                            copyPropagation(file); 
-                            resetAllBlocks();
-                        }
-                        break;
-                    case "cse":
-                        while (!hasConverged) {
-                            hasConverged = true;
-                            commonSubExpressionElimination(file);
-                            resetAllBlocks();
-                        }
-                        break;
-                    case "dce":
-                        while (!hasConverged) {
-                            hasConverged = true;
-                            deadCodeElimination(file);
-                            resetAllBlocks();
-                        }
-                        break;
-                }
-                overallConvergence = hasConverged;
-                resetAllBlocks();
-            }
-            try {
-                file.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+                runOptimization(currOptimization, file);
             }
         }
         try {
@@ -1536,6 +1496,41 @@ public class Compiler {
         return irHead.asDotGraph();
     }
 
+    private void runOptimization(String optimization, FileWriter file) {
+        switch (optimization) {
+            case "sccp":
+                sparseConditionalConstantPropagation(file);
+                break;
+            case "cp":
+                constantPropagation(file);
+                break;
+            case "cf":
+                constantFolding(file);
+                break;
+            case "cpp":
+                copyPropagation(file);
+                break;
+            case "cse":
+                commonSubExpressionElimination(file);
+                break;
+            case "gvn":
+                globalValueNumbering(file);
+                break;
+            case "licm":
+                loopInvariantCodeMotion(file);
+                break;
+            case "sr":
+                strengthReduction(file);
+                break;
+            case "dce":
+                deadCodeElimination(file);
+                break;
+            case "inl":
+                // runs once before SSA (see optimization)
+                break;
+        }
+    }
+
     public void resetAllBlocks() {
         Queue<BasicBlock> blockQueue = new LinkedList<>();
         blockQueue.add(this.irHead);
@@ -1550,24 +1545,48 @@ public class Compiler {
         }
     }
 
-    private void deadCodeElimination(FileWriter file) {
-        Set<String> liveVariables = new HashSet<>();
-
-        for (BasicBlock funcBlock : this.irHead.getFunctionsMap().values()) {
-            funcBlock.setInstructionList(deadCodeEliminationSingleBlock(funcBlock.getInstructions(), file, liveVariables));
-        }
+    // the main computation and every function are separate CFGs for the dataflow passes
+    private List<BasicBlock> getControlFlowGraphRoots() {
+        List<BasicBlock> roots = new ArrayList<>();
+        roots.add(irHead);
+        roots.addAll(irHead.getFunctionsMap().values());
+        return roots;
+    }
 
-        Queue<BasicBlock> blockQueue = new LinkedList<>();
-        blockQueue.add(this.irHead);
-        while (!blockQueue.isEmpty()) {
-            BasicBlock nextBlock = blockQueue.remove();
-            nextBlock.markVisited();
-            nextBlock.setInstructionList(deadCodeEliminationSingleBlock(nextBlock.getInstructions(), file, liveVariables));
+    // function entries, where the call edges of the CFG end
+    private Set<BasicBlock> getFunctionEntryBlocks() {
+        return new HashSet<>(irHead.getFunctionsMap().values());
+    }
 
-            for (BasicBlock nextSuccessor : nextBlock.getSuccessors().keySet()) {
-                // if not visited
-                if (!nextSuccessor.visited())
-                    blockQueue.add(nextSuccessor); 
+    private void deadCodeElimination(FileWriter file) {
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            List<BasicBlock> blocks = DataflowSolver.reversePostorder(root, functionEntries);
+            // everything may still be read once a function returns
+            Liveness liveness = new Liveness(new VariableNumbering(blocks), root != irHead, true);
+            DataflowResult<long[]> result = DataflowSolver.solve(root, liveness, functionEntries);
+
+            for (BasicBlock block : result.blocks()) {
+                if (result.out(block) == null) {
+                    continue;
+                }
+                long[] liveVariables = liveness.copy(result.out(block));
+                List<TAC> instructions = block.getInstructions().getInstructions();
+                for (int i = instructions.size() - 1; i >= 0; i--) {
+                    TAC instruction = instructions.get(i);
+                    if (liveness.isDead(instruction, liveVariables)) {
+                        instructions.remove(i);
+                        try {
+                            file.write("DCE: Removed instruction " + instruction.getID() + ", as instruction was dead.\n");
+                            hasConverged = false;
+                            overallConvergence = true;
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                        continue;
+                    }
+                    liveness.step(instruction, liveVariables);
+                }
             }
         }
     }
@@ -1614,326 +1633,735 @@ public class Compiler {
         }
     }
 
+    // A use is reported when no write of the variable reaches it on any path, and the variable is
+    // set to 0 right before it. Functions only check the variables they write themselves, the
+    // others are parameters or globals set by the caller.
     private void uninitializedVars(FileWriter file) {
-        Set<String> initizalizedVars = new HashSet<>();
-        Queue<BasicBlock> blockQueue = new LinkedList<>();
-        blockQueue.add(this.irHead);
-        while (!blockQueue.isEmpty()) {
-            BasicBlock nextBlock = blockQueue.remove();
-            if (!nextBlock.visited()) {
-                for (int i = 0; i < nextBlock.getInstructions().getInstructions().size(); i++) {
-                    TAC instruction = nextBlock.getInstructions().getInstructions().get(i);
-
-                    // covering for instructions like Call, that dont have dest and are not necessary
-                    if (instruction.getDest() != null) {
-                        // add variable that is initizalized
-                        initizalizedVars.add(instruction.getDest().getSymbol().token().lexeme());
-                    }
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        Map<BasicBlock, Set<String>> locals = getLocalVariables();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            List<BasicBlock> blocks = DataflowSolver.reversePostorder(root, functionEntries);
+            VariableNumbering variables = new VariableNumbering(blocks);
+            ReachingDefinitions reachingDefinitions = new ReachingDefinitions(blocks, variables);
+            DataflowResult<long[]> result = DataflowSolver.solve(root, reachingDefinitions, functionEntries);
+            Set<String> parameters = new HashSet<>();
+            for (Variable parameter : root.getParameters()) {
+                parameters.add(DefUse.name(parameter));
+            }
+
+            Set<String> initizalizedVars = new HashSet<>();
+            for (BasicBlock block : result.blocks()) {
+                if (result.in(block) == null) {
+                    continue;
+                }
+                long[] reaching = reachingDefinitions.copy(result.in(block));
+                List<TAC> instructions = block.getInstructions().getInstructions();
+                for (int i = 0; i < instructions.size(); i++) {
+                    TAC instruction = instructions.get(i);
 
                     // see if vars used has been initizalized
-                    Set<Variable> instructionReferences = getVariableReferences(instruction);
-                    for (Variable v : instructionReferences) {
-                        if (!(initizalizedVars.contains(v.getSymbol().token().lexeme()))) {
-                            try {
-                                // add variable to set, and add instruction to set value to 0
-                                initizalizedVars.add(v.getSymbol().token().lexeme());
-                                nextBlock.getInstructions().getInstructions().add(i, new Assign(TACList.getNextTACNumber(), v, new Literal(new Symbol(new Token("0", 0, 0)))));
-                                i++;
-                                // write to file and update convergence
-                                file.write("Warning, Uninitialized variable " + v + ". Set " + v + " to 0.\n");
-                                hasConverged = false;
-                                overallConvergence = true;
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
+                    for (Variable v : getVariableReferences(instruction)) {
+                        String lexeme = v.getSymbol().token().lexeme();
+                        int number = variables.numberOf(lexeme);
+                        boolean isUninitialized;
+                        if (number < 0) {
+                            // only passed to user functions, never written here
+                            isUninitialized = root == irHead && !reachingDefinitions.isWrittenByCall(reaching);
+                        }
+                        else {
+                            // a function may read the globals its callers set, and the caller sets the parameters
+                            isUninitialized = reachingDefinitions.isUndefined(number, reaching)
+                                && (root == irHead || (reachingDefinitions.isDefined(number) && locals.get(root).contains(lexeme)
+                                                       && !parameters.contains(lexeme)));
+                        }
+                        if (!isUninitialized || initizalizedVars.contains(lexeme)) {
+                            continue;
+                        }
+                        try {
+                            // add variable to set, and add instruction to set value to 0
+                            initizalizedVars.add(lexeme);
+                            TAC initialization = new Assign(TACList.getNextTACNumber(), v, new Literal(new Symbol(new Token("0", 0, 0))));
+                            instructions.add(i, initialization);
+                            reachingDefinitions.step(initialization, reaching);
+                            i++;
+                            // write to file and update convergence
+                            file.write("Warning, Uninitialized variable " + v + ". Set " + v + " to 0.\n");
+                            hasConverged = false;
+                            overallConvergence = true;
+                        } catch (IOException e) {
+                            e.printStackTrace();
                         }
                     }
+                    reachingDefinitions.step(instruction, reaching);
                 }
-                nextBlock.markVisited();
-            }
-
-            for (BasicBlock nextSuccessor : nextBlock.getSuccessors().keySet()) {
-                if (!nextSuccessor.visited())
-                    blockQueue.add(nextSuccessor);
             }
-        }  
+        }
     }
 
 
     private void constantPropagation(FileWriter file) {
-        // System.out.println("1");
-        for (BasicBlock funcBlock : this.irHead.getFunctionsMap().values()) {
-            funcBlock.setInstructionList(constantPropagationSingleBlock(funcBlock.getInstructions(), file));
-        }
-        
-        Queue<BasicBlock> blockQueue = new LinkedList<>();
-        blockQueue.add(this.irHead);
-        while (!blockQueue.isEmpty()) {
-            BasicBlock nextBlock = blockQueue.remove();
-            if (!nextBlock.visited()) {
-                nextBlock.markVisited();
-                nextBlock.setInstructionList(constantPropagationSingleBlock(nextBlock.getInstructions(), file));
-            }
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            ConstantPropagation analysis = new ConstantPropagation();
+            DataflowResult<Map<String, Literal>> result = DataflowSolver.solve(root, analysis, functionEntries);
 
-            for (BasicBlock nextSuccessor : nextBlock.getSuccessors().keySet()) {
-                // if not visited
-                if (!nextSuccessor.visited())
-                    blockQueue.add(nextSuccessor);
+            for (BasicBlock block : result.blocks()) {
+                if (result.in(block) == null) {
+                    continue;
+                }
+                Map<String, Literal> constants = analysis.copy(result.in(block));
+                List<TAC> instructions = block.getInstructions().getInstructions();
+                for (int i = 0; i < instructions.size(); i++) {
+                    TAC instruction = instructions.get(i);
+                    TAC propagated = propagateConstants(instruction, constants);
+                    if (propagated != null) {
+                        instructions.set(i, propagated);
+                        instruction = propagated;
+                        try {
+                            file.write( "CP: Assigned " + instruction.getDest().getSymbol().token().lexeme() + " to the constant value " + getPropagatedConstant(instruction, constants) + ".\n");
+                            hasConverged = false;
+                            overallConvergence = true;
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                    analysis.step(instruction, constants);
+                }
             }
         }
     }
-    private void constantFolding(FileWriter file) {
 
-        for (BasicBlock funcBlock : this.irHead.getFunctionsMap().values()) {
-            funcBlock.setInstructionList(constantFoldingSingleBlock(funcBlock.getInstructions(), file));
+    // instruction with its constant operands replaced by literals, null if there is nothing to replace
+    private TAC propagateConstants(TAC instruction, Map<String, Literal> constants) {
+        if (instruction instanceof Assign) {
+            Assign assignInstruction = (Assign) instruction;
+            if (assignInstruction.getRight() instanceof Variable && constants.containsKey(assignInstruction.getRight().getSymbol().token().lexeme())) {
+                return new Assign(assignInstruction.getID(), assignInstruction.getDest(), constants.get(assignInstruction.getRight().getSymbol().token().lexeme()));
+            }
+            return null;
+        }
+        if (!(instruction instanceof Add || instruction instanceof Sub || instruction instanceof Mul || instruction instanceof Pow || instruction instanceof Mod)) {
+            return null;
         }
 
-        Queue<BasicBlock> blockQueue = new LinkedList<>();
-        blockQueue.add(this.irHead);
-        while (!blockQueue.isEmpty()) {
-            BasicBlock nextBlock = blockQueue.remove();
-            if (!nextBlock.visited()) {
-                nextBlock.setInstructionList(constantFoldingSingleBlock(nextBlock.getInstructions(), file));
-                nextBlock.markVisited();
-            }
+        Value left = DefUse.operands(instruction).get(0);
+        Value right = DefUse.operands(instruction).get(1);
+        Value newLeft = (left instanceof Variable && constants.containsKey(left.getSymbol().token().lexeme())) ? constants.get(left.getSymbol().token().lexeme()) : left;
+        Value newRight = (right instanceof Variable && constants.containsKey(right.getSymbol().token().lexeme())) ? constants.get(right.getSymbol().token().lexeme()) : right;
+        if (newLeft == left && newRight == right) {
+            return null;
+        }
 
-            for (BasicBlock nextSuccessor : nextBlock.getSuccessors().keySet()) {
-                if (!nextSuccessor.visited())
-                    blockQueue.add(nextSuccessor);
-            }
+        if (instruction instanceof Add) {
+            return new Add(instruction.getID(), instruction.getDest(), newLeft, newRight);
+        }
+        if (instruction instanceof Sub) {
+            return new Sub(instruction.getID(), instruction.getDest(), newLeft, newRight);
+        }
+        if (instruction instanceof Mul) {
+            return new Mul(instruction.getID(), instruction.getDest(), newLeft, newRight);
+        }
+        if (instruction instanceof Pow) {
+            return new Pow(instruction.getID(), instruction.getDest(), newLeft, newRight);
         }
+        return new Mod(instruction.getID(), instruction.getDest(), newLeft, newRight);
     }
 
-    private void copyPropagation(FileWriter file) {
-        // System.out.println("here");
-        Queue<BasicBlock> blockQueue = new LinkedList<>();
-        HashMap<String, Variable> liveVariables = new HashMap<>();
+    // for the log: the literal an assignment now copies, or the literal operands of an operation
+    private String getPropagatedConstant(TAC instruction, Map<String, Literal> constants) {
+        if (instruction instanceof Assign) {
+            return ((Assign) instruction).getRight().toString();
+        }
+        List<String> literals = new ArrayList<>();
+        for (Value operand : DefUse.operands(instruction)) {
+            if (operand instanceof Literal) {
+                literals.add(operand.toString());
+            }
+        }
+        return String.join(", ", literals);
+    }
+
+    // Lattice value of SCCP for a variable that may hold more than one value. Compared by
+    // identity; a variable without any value yet is simply missing from the map.
+    private static final Literal OVERDEFINED = new Literal(new Symbol(new Token("0", 0, 0)));
+
+    // state of SCCP for the function being analyzed
+    private Set<String> sccpTracked;
+    private Set<String> sccpComparisons;
+    private Map<String, Literal> sccpValues;
+    private Map<BasicBlock, Set<BasicBlock>> sccpExecutableEdges;
+
+    // Sparse conditional constant propagation (Wegman and Zadeck) over the SSA form. Values only
+    // flow along edges found executable so far, and a branch whose comparison is constant makes
+    // only one of its edges executable, so constants reach through branches and phis the
+    // dataflow passes have to give up on. Only the variables of the function with a single
+    // definition are tracked, everything else is overdefined.
+    //
+    // Afterwards constant definitions become assignments of the literal, constant branches
+    // become BRA and the edges that can never be taken leave the CFG, with the blocks only they
+    // reached.
+    private void sparseConditionalConstantPropagation(FileWriter file) {
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        Map<BasicBlock, Set<String>> locals = getLocalVariables();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            List<BasicBlock> blocks = DataflowSolver.reversePostorder(root, functionEntries);
+
+            Map<TAC, BasicBlock> blockOf = new HashMap<>();
+            Map<String, List<TAC>> users = new HashMap<>();
+            Map<String, Integer> numDefinitions = new HashMap<>();
+            sccpComparisons = new HashSet<>();
+            Set<String> uses = new HashSet<>();
+            for (BasicBlock block : blocks) {
+                for (TAC instruction : block.getInstructions()) {
+                    blockOf.put(instruction, block);
+                    Variable dest = DefUse.def(instruction);
+                    if (dest != null) {
+                        numDefinitions.merge(DefUse.name(dest), 1, Integer::sum);
+                        if (instruction instanceof Comparison) {
+                            sccpComparisons.add(DefUse.name(dest));
+                        }
+                    }
+                    uses.clear();
+                    DefUse.uses(instruction, uses);
+                    for (String use : uses) {
+                        users.computeIfAbsent(use, name -> new ArrayList<>()).add(instruction);
+                    }
+                }
+            }
+            sccpTracked = new HashSet<>();
+            for (Map.Entry<String, Integer> definitions : numDefinitions.entrySet()) {
+                if (definitions.getValue() == 1 && locals.get(root).contains(definitions.getKey())) {
+                    sccpTracked.add(definitions.getKey());
+                }
+            }
 
-        for (BasicBlock funcBlock : this.irHead.getFunctionsMap().values()) {
-            funcBlock.setInstructionList(copyPropagationSingleBlock(funcBlock.getInstructions(), file, liveVariables));
-        }
+            sccpValues = new HashMap<>();
+            sccpExecutableEdges = new HashMap<>();
+            Set<BasicBlock> executable = new HashSet<>();
+            Deque<BasicBlock[]> edgeWorklist = new ArrayDeque<>();
+            Deque<TAC> instructionWorklist = new ArrayDeque<>();
 
-        blockQueue.add(this.irHead);
-        while (!blockQueue.isEmpty()) {
-            BasicBlock nextBlock = blockQueue.remove();
-            if (!nextBlock.visited()) {
-                nextBlock.setInstructionList(copyPropagationSingleBlock(nextBlock.getInstructions(), file, liveVariables));
-                nextBlock.markVisited();
+            executable.add(root);
+            edgeWorklist.add(new BasicBlock[] {null, root});
+            while (!edgeWorklist.isEmpty() || !instructionWorklist.isEmpty()) {
+                if (!edgeWorklist.isEmpty()) {
+                    BasicBlock[] edge = edgeWorklist.poll();
+                    BasicBlock block = edge[1];
+                    if (edge[0] != null && !sccpExecutableEdges.computeIfAbsent(edge[0], from -> new HashSet<>()).add(block)) {
+                        continue;
+                    }
+                    // a block seen before only has new phi arguments
+                    boolean firstVisit = edge[0] == null || executable.add(block);
+                    for (TAC instruction : block.getInstructions()) {
+                        if (firstVisit || instruction instanceof Phi) {
+                            visitSCCP(instruction, block, users, instructionWorklist);
+                        }
+                    }
+                    if (firstVisit) {
+                        for (BasicBlock successor : getExecutableSuccessors(block, functionEntries)) {
+                            edgeWorklist.add(new BasicBlock[] {block, successor});
+                        }
+                    }
+                    continue;
+                }
+                TAC instruction = instructionWorklist.poll();
+                BasicBlock block = blockOf.get(instruction);
+                if (!executable.contains(block)) {
+                    continue;
+                }
+                if (instruction instanceof BRA || getBranchVariable(instruction) != null) {
+                    for (BasicBlock successor : getExecutableSuccessors(block, functionEntries)) {
+                        edgeWorklist.add(new BasicBlock[] {block, successor});
+                    }
+                }
+                else {
+                    visitSCCP(instruction, block, users, instructionWorklist);
+                }
             }
 
-            for (BasicBlock nextSuccessor : nextBlock.getSuccessors().keySet()) {
-                if (!nextSuccessor.visited())
-                    blockQueue.add(nextSuccessor);
-            }
-            // CFGPrinter.LegiblePrint(nextBlock.getInstructions());
+            rewriteSCCP(blocks, executable, functionEntries, file);
         }
     }
 
-    private void commonSubExpressionElimination(FileWriter file) {
-        Queue<BasicBlock> blockQueue = new LinkedList<>();
-        HashMap<String, Variable> commonSubexpressions = new HashMap<>();
+    // lowers the value of the variable the instruction defines, the users of a changed value are revisited
+    private void visitSCCP(TAC instruction, BasicBlock block, Map<String, List<TAC>> users, Deque<TAC> instructionWorklist) {
+        Variable dest = DefUse.def(instruction);
+        if (dest == null || !sccpTracked.contains(DefUse.name(dest))) {
+            return;
+        }
+        String name = DefUse.name(dest);
+        Literal value;
+        if (instruction instanceof Phi) {
+            value = null;
+            for (Map.Entry<BasicBlock, Value> argument : ((Phi) instruction).getArguments().entrySet()) {
+                if (sccpExecutableEdges.getOrDefault(argument.getKey(), Collections.emptySet()).contains(block)) {
+                    value = meetSCCP(value, valueSCCP(argument.getValue()));
+                }
+            }
+        }
+        else {
+            value = evaluateSCCP(instruction);
+        }
 
-        for (BasicBlock funcBlock : this.irHead.getFunctionsMap().values()) {
-            funcBlock.setInstructionList(commonSubExpressionEliminationSingleBlock(funcBlock.getInstructions(), file, commonSubexpressions));
+        Literal old = sccpValues.get(name);
+        value = meetSCCP(old, value);
+        if (value == old) {
+            return;
         }
+        sccpValues.put(name, value);
+        instructionWorklist.addAll(users.getOrDefault(name, Collections.emptyList()));
+    }
 
-        blockQueue.add(this.irHead);
-        while (!blockQueue.isEmpty()) {
-            BasicBlock nextBlock = blockQueue.remove();
-            if (!nextBlock.visited()) {
-                nextBlock.setInstructionList(commonSubExpressionEliminationSingleBlock(nextBlock.getInstructions(), file, commonSubexpressions));
-                nextBlock.markVisited();
+    // constant the instruction computes from its operands, null while one of them has no value yet
+    private Literal evaluateSCCP(TAC instruction) {
+        if (instruction instanceof Assign) {
+            if (((Assign) instruction).getRight() == null) {
+                return OVERDEFINED;
             }
+            return valueSCCP(((Assign) instruction).getRight());
+        }
+        boolean isComparison = instruction instanceof Comparison;
+        if (!(isComparison || instruction instanceof Add || instruction instanceof Sub || instruction instanceof Mul
+                || instruction instanceof Div || instruction instanceof Mod)) {
+            return OVERDEFINED;
+        }
+        Literal left = valueSCCP(DefUse.operands(instruction).get(0));
+        Literal right = valueSCCP(DefUse.operands(instruction).get(1));
+        if (left == OVERDEFINED || right == OVERDEFINED) {
+            return OVERDEFINED;
+        }
+        if (left == null || right == null) {
+            return null;
+        }
 
-            for (BasicBlock nextSuccessor : nextBlock.getSuccessors().keySet()) {
-                if (!nextSuccessor.visited())
-                    blockQueue.add(nextSuccessor);
+        try {
+            float rightNumber = Float.parseFloat(right.toString());
+            if (isComparison) {
+                // the sign CMP leaves for the branch
+                int sign = Float.compare(Float.parseFloat(left.toString()), rightNumber);
+                return new Literal(new Symbol(new Token("" + Integer.signum(sign), 0, 0)));
+            }
+            if ((instruction instanceof Div || instruction instanceof Mod) && rightNumber == 0) {
+                // the program traps at run time
+                return OVERDEFINED;
+            }
+            Literal folded;
+            int id = instruction.getID();
+            if (instruction instanceof Add) {
+                folded = getConstantFoldingAddition(new Add(id, instruction.getDest(), left, right));
             }
-            // CFGPrinter.LegiblePrint(nextBlock.getInstructions());
+            else if (instruction instanceof Sub) {
+                folded = getConstantFoldingSubtraction(new Sub(id, instruction.getDest(), left, right));
+            }
+            else if (instruction instanceof Mul) {
+                folded = getConstantFoldingMultiplication(new Mul(id, instruction.getDest(), left, right));
+            }
+            else if (instruction instanceof Div) {
+                folded = getConstantFoldingDivision(new Div(id, instruction.getDest(), left, right));
+            }
+            else {
+                folded = getConstantFoldingModulo(new Mod(id, instruction.getDest(), left, right));
+            }
+            return Float.isFinite(Float.parseFloat(folded.toString())) ? folded : OVERDEFINED;
+        }
+        catch (NumberFormatException | ArithmeticException e) {
+            // booleans, float modulo
+            return OVERDEFINED;
         }
     }
 
-    private TACList constantPropagationSingleBlock(TACList currInstructions, FileWriter file) {
-        HashMap<String, Literal> liveVariables = new HashMap<>();
+    // Lattice value of an operand. Comparison results only steer branches: for the program they
+    // are a relation, not the sign the analysis keeps for them.
+    private Literal valueSCCP(Value value) {
+        if (value instanceof Literal) {
+            return (Literal) value;
+        }
+        if (!(value instanceof Variable)) {
+            return OVERDEFINED;
+        }
+        String name = DefUse.name((Variable) value);
+        if (!sccpTracked.contains(name) || sccpComparisons.contains(name)) {
+            return OVERDEFINED;
+        }
+        return sccpValues.get(name);
+    }
 
-        for (int i = 0; i < currInstructions.getInstructions().size(); i++) {
-            TAC instruction = currInstructions.getInstructions().get(i);
+    private Literal meetSCCP(Literal left, Literal right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left == OVERDEFINED || right == OVERDEFINED || !left.toString().equals(right.toString())) {
+            return OVERDEFINED;
+        }
+        return left;
+    }
 
-            if (instruction instanceof Assign) {
-                Assign assignInstruction = (Assign) instruction;
-                
-                // cast and check for kill operator, reassigning constant
-                if (liveVariables.keySet().contains(assignInstruction.getDest().getSymbol().token().lexeme())) {
-                    liveVariables.remove(assignInstruction.getDest().getSymbol().token().lexeme());
+    // Successors control may reach from the block given the values so far: the target of a BRA
+    // ending the block, the taken side of a constant branch, none while the branch has no value
+    // yet, otherwise every successor. A BRA to the block itself, as IRGenerator leaves after loops,
+    // does nothing; any other BRA with instructions after it leaves every successor reachable.
+    private List<BasicBlock> getExecutableSuccessors(BasicBlock block, Set<BasicBlock> functionEntries) {
+        List<BasicBlock> successors = new ArrayList<>();
+        List<TAC> instructions = block.getInstructions().getInstructions();
+        for (TAC instruction : instructions) {
+            if (instruction instanceof BRA) {
+                BasicBlock target = ((BRA) instruction).getTrueBasicBlock();
+                if (target == null || target == block) {
+                    continue;
                 }
-
-                // cast and check for gen operator
-                if (assignInstruction.getRight() instanceof Literal) {
-                    liveVariables.put(assignInstruction.getDest().getSymbol().token().lexeme(), (Literal) assignInstruction.getRight());
+                if (instruction != instructions.get(instructions.size() - 1)) {
+                    break;
                 }
+                successors.add(target);
+                return successors;
+            }
+            Variable condition = getBranchVariable(instruction);
+            if (condition == null) {
+                continue;
+            }
+            String name = DefUse.name(condition);
+            Literal value = sccpTracked.contains(name) ? sccpValues.get(name) : OVERDEFINED;
+            if (value == null) {
+                return successors;
+            }
+            if (value != OVERDEFINED && sccpComparisons.contains(name) && getBranchTrueBlock(instruction) != null && getBranchFalseBlock(instruction) != null) {
+                successors.add(isBranchTaken(instruction, value) ? getBranchTrueBlock(instruction) : getBranchFalseBlock(instruction));
+                return successors;
+            }
+            break;
+        }
+        for (BasicBlock successor : DataflowSolver.successorsOf(block)) {
+            if (!functionEntries.contains(successor)) {
+                successors.add(successor);
+            }
+        }
+        return successors;
+    }
 
-                // assigning constant
-                if (liveVariables.keySet().contains(assignInstruction.getRight().getSymbol().token().lexeme())) {
-                    currInstructions.getInstructions().set(i, new Assign(assignInstruction.getID(), assignInstruction.getDest(), liveVariables.get(assignInstruction.getRight().getSymbol().token().lexeme())));
-                    i--;
+    // whether the branch jumps for the sign its comparison left, as on DLX
+    private boolean isBranchTaken(TAC branch, Literal sign) {
+        int value = Integer.parseInt(sign.toString());
+        if (branch instanceof BEQ) {
+            return value == 0;
+        }
+        if (branch instanceof BNE) {
+            return value != 0;
+        }
+        if (branch instanceof BLT) {
+            return value < 0;
+        }
+        if (branch instanceof BLE) {
+            return value <= 0;
+        }
+        if (branch instanceof BGT) {
+            return value > 0;
+        }
+        return value >= 0;
+    }
 
-                    try {
-                        file.write( "CP: Assigned " + assignInstruction.getDest().getSymbol().token().lexeme() + " to the constant value " + liveVariables.get(assignInstruction.getRight().getSymbol().token().lexeme()) + ".\n");
-                        hasConverged = false;
-                        overallConvergence = true;
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
+    private void rewriteSCCP(List<BasicBlock> blocks, Set<BasicBlock> executable, Set<BasicBlock> functionEntries, FileWriter file) {
+        List<String> changes = new ArrayList<>();
+        for (BasicBlock block : blocks) {
+            if (!executable.contains(block)) {
+                continue;
             }
-            else if (instruction instanceof Add) {
-                Add addInstruction = (Add) instruction;
-
-                // assigning constant right
-                if (liveVariables.keySet().contains(addInstruction.getRight().getSymbol().token().lexeme())) {
-                    currInstructions.getInstructions().set(i, new Add(addInstruction.getID(), addInstruction.getDest(), addInstruction.getLeft(), liveVariables.get(addInstruction.getRight().getSymbol().token().lexeme())));
-                    i--;
-                    
-                    try {
-                        file.write( "CP: Assigned " + addInstruction.getDest().getSymbol().token().lexeme() + " to the constant value " + liveVariables.get(addInstruction.getRight().getSymbol().token().lexeme()) + ".\n");
-                        hasConverged = false;
-                        overallConvergence = true;
-                    } catch (IOException e) {
-                        e.printStackTrace();
+            Set<BasicBlock> edges = sccpExecutableEdges.getOrDefault(block, Collections.emptySet());
+            List<TAC> instructions = block.getInstructions().getInstructions();
+            List<TAC> phiReplacements = new ArrayList<>();
+            for (int i = 0; i < instructions.size(); i++) {
+                TAC instruction = instructions.get(i);
+                Variable dest = DefUse.def(instruction);
+                Literal value = (dest == null || !sccpTracked.contains(DefUse.name(dest))) ? null : sccpValues.get(DefUse.name(dest));
+                boolean isConstant = value != null && value != OVERDEFINED;
+
+                if (instruction instanceof Phi) {
+                    Phi phi = (Phi) instruction;
+                    phi.getArguments().keySet().removeIf(predecessor -> !sccpExecutableEdges.getOrDefault(predecessor, Collections.emptySet()).contains(block));
+                    if (isConstant || phi.getArguments().size() == 1) {
+                        Value right = isConstant ? value : phi.getArguments().values().iterator().next();
+                        phiReplacements.add(new Assign(phi.getID(), dest, right));
+                        instructions.remove(i);
+                        i--;
+                        changes.add("SCCP: Replaced phi of " + dest + " with " + right + ".\n");
                     }
                     continue;
                 }
-
-                // assigning constant left
-                if (liveVariables.keySet().contains(addInstruction.getLeft().getSymbol().token().lexeme())) {
-                    currInstructions.getInstructions().set(i, new Add(addInstruction.getID(), addInstruction.getDest(), liveVariables.get(addInstruction.getLeft().getSymbol().token().lexeme()), addInstruction.getRight()));
-
-                    try {
-                        file.write( "CP: Assigned " + addInstruction.getDest().getSymbol().token().lexeme() + " to the constant value " +  liveVariables.get(addInstruction.getLeft().getSymbol().token().lexeme()) + ".\n");
-                        hasConverged = false;
-                        overallConvergence = true;
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+                if (isConstant && !(instruction instanceof Call) && !(instruction instanceof Comparison)
+                        && !(instruction instanceof Assign && ((Assign) instruction).getRight() instanceof Literal)) {
+                    instructions.set(i, new Assign(instruction.getID(), dest, value));
+                    changes.add("SCCP: Assigned " + dest + " to the constant value " + value + ".\n");
+                    continue;
+                }
+                Variable condition = getBranchVariable(instruction);
+                if (condition != null && edges.size() == 1) {
+                    BasicBlock target = edges.iterator().next();
+                    instructions.set(i, new BRA(instruction.getID(), target));
+                    changes.add("SCCP: Branch " + instruction.getID() + " always goes to bb" + target.getID() + ".\n");
                 }
             }
-            else if (instruction instanceof Sub) {
-                Sub addInstruction = (Sub) instruction;
-
-                // assigning constant right
-                if (liveVariables.keySet().contains(addInstruction.getRight().getSymbol().token().lexeme())) {
-                    currInstructions.getInstructions().set(i, new Sub(addInstruction.getID(), addInstruction.getDest(), addInstruction.getLeft(), liveVariables.get(addInstruction.getRight().getSymbol().token().lexeme())));
-                    i--;
+            int firstNonPhi = 0;
+            while (firstNonPhi < instructions.size() && instructions.get(firstNonPhi) instanceof Phi) {
+                firstNonPhi++;
+            }
+            instructions.addAll(firstNonPhi, phiReplacements);
 
-                    try {
-                        file.write( "CP: Assigned " + addInstruction.getDest().getSymbol().token().lexeme() + " to the constant value " + liveVariables.get(addInstruction.getRight().getSymbol().token().lexeme()) + ".\n");
-                        hasConverged = false;
-                        overallConvergence = true;
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    continue;
+            for (BasicBlock successor : new ArrayList<>(block.getSuccessors().keySet())) {
+                if (!functionEntries.contains(successor) && !edges.contains(successor)) {
+                    block.removeSuccessor(successor.getID());
+                    successor.removePredecessor(block.getID());
+                    changes.add("SCCP: Removed edge bb" + block.getID() + " -> bb" + successor.getID() + ", as it is never taken.\n");
                 }
+            }
+        }
 
-                // assigning constant left
-                if (liveVariables.keySet().contains(addInstruction.getLeft().getSymbol().token().lexeme())) {
-                    currInstructions.getInstructions().set(i, new Sub(addInstruction.getID(), addInstruction.getDest(), liveVariables.get(addInstruction.getLeft().getSymbol().token().lexeme()), addInstruction.getRight()));
+        for (String change : changes) {
+            try {
+                file.write(change);
+                hasConverged = false;
+                overallConvergence = true;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-                    try {
-                        file.write( "CP: Assigned " + addInstruction.getDest().getSymbol().token().lexeme() + " to the constant value " + liveVariables.get(addInstruction.getLeft().getSymbol().token().lexeme()) + ".\n");
-                        hasConverged = false;
-                        overallConvergence = true;
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
+    private void constantFolding(FileWriter file) {
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            for (BasicBlock block : DataflowSolver.reversePostorder(root, functionEntries)) {
+                block.setInstructionList(constantFoldingSingleBlock(block.getInstructions(), file));
             }
-            else if (instruction instanceof Mul) {
-                Mul addInstruction = (Mul) instruction;
+        }
+    }
 
-                // assigning constant right
-                if (liveVariables.keySet().contains(addInstruction.getRight().getSymbol().token().lexeme())) {
-                    currInstructions.getInstructions().set(i, new Mul(addInstruction.getID(), addInstruction.getDest(), addInstruction.getLeft(), liveVariables.get(addInstruction.getRight().getSymbol().token().lexeme())));
-                    i--;
+    private void copyPropagation(FileWriter file) {
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            CopyPropagation analysis = new CopyPropagation();
+            DataflowResult<Map<String, Variable>> result = DataflowSolver.solve(root, analysis, functionEntries);
 
-                    try {
-                        file.write( "CP: Assigned " + addInstruction.getDest().getSymbol().token().lexeme() + " to the constant value " + liveVariables.get(addInstruction.getRight().getSymbol().token().lexeme()) + ".\n");
-                        hasConverged = false;
-                        overallConvergence = true;
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+            for (BasicBlock block : result.blocks()) {
+                if (result.in(block) == null) {
                     continue;
                 }
+                Map<String, Variable> copies = analysis.copy(result.in(block));
+                List<TAC> instructions = block.getInstructions().getInstructions();
+                for (int i = 0; i < instructions.size(); i++) {
+                    TAC instruction = instructions.get(i);
+                    if (instruction instanceof Assign && ((Assign) instruction).getRight() instanceof Variable) {
+                        Assign assignInstruction = (Assign) instruction;
+                        Variable source = CopyPropagation.sourceOf((Variable) assignInstruction.getRight(), copies);
+                        if (source != assignInstruction.getRight()
+                                && !source.getSymbol().token().lexeme().equals(assignInstruction.getDest().getSymbol().token().lexeme())) {
+                            instruction = new Assign(assignInstruction.getID(), assignInstruction.getDest(), source);
+                            instructions.set(i, instruction);
+                            try {
+                                file.write( "CPP: Assigned " + instruction.getDest() + " with " + source + ".\n");
+                                hasConverged = false;
+                                overallConvergence = true;
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                            }
+                        }
+                    }
+                    analysis.step(instruction, copies);
+                }
+            }
+        }
+    }
 
-                // assigning constant left
-                if (liveVariables.keySet().contains(addInstruction.getLeft().getSymbol().token().lexeme())) {
-                    currInstructions.getInstructions().set(i, new Mul(addInstruction.getID(), addInstruction.getDest(), liveVariables.get(addInstruction.getLeft().getSymbol().token().lexeme()), addInstruction.getRight()));
+    private void commonSubExpressionElimination(FileWriter file) {
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            AvailableExpressions analysis = new AvailableExpressions(DataflowSolver.reversePostorder(root, functionEntries));
+            DataflowResult<long[]> result = DataflowSolver.solve(root, analysis, functionEntries);
 
-                    try {
-                        file.write( "CP: Assigned " + addInstruction.getDest().getSymbol().token().lexeme() + " to the constant value " + liveVariables.get(addInstruction.getLeft().getSymbol().token().lexeme()) + ".\n");
-                        hasConverged = false;
-                        overallConvergence = true;
-                    } catch (IOException e) {
-                        e.printStackTrace();
+            for (BasicBlock block : result.blocks()) {
+                if (result.in(block) == null) {
+                    continue;
+                }
+                long[] commonSubexpressions = analysis.copy(result.in(block));
+                List<TAC> instructions = block.getInstructions().getInstructions();
+                for (int i = 0; i < instructions.size(); i++) {
+                    TAC instruction = instructions.get(i);
+                    String instructionStringRepresentation = AvailableExpressions.expressionOf(instruction);
+                    Variable holder = (instructionStringRepresentation == null) ? null : analysis.holderOf(instructionStringRepresentation, commonSubexpressions);
+                    if (holder != null) {
+                        if (!holder.getSymbol().token().lexeme().equals(instruction.getDest().getSymbol().token().lexeme())) {
+                            instructions.set(i, new Assign(instruction.getID(), instruction.getDest(), holder));
+                            try {
+                                file.write("CSE: Assigned " + instruction.getDest() + " with " + instructionStringRepresentation + " to " + holder.getSymbol().token().lexeme() + ".\n");
+                                hasConverged = false;
+                                overallConvergence = true;
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                            }
+                            instruction = instructions.get(i);
+                        }
                     }
+                    analysis.step(instruction, commonSubexpressions);
                 }
             }
-            else if (instruction instanceof Pow) {
-                Pow addInstruction = (Pow) instruction;
+        }
+    }
 
-                // assigning constant right
-                if (liveVariables.keySet().contains(addInstruction.getRight().getSymbol().token().lexeme())) {
-                    currInstructions.getInstructions().set(i, new Pow(addInstruction.getID(), addInstruction.getDest(), addInstruction.getLeft(), liveVariables.get(addInstruction.getRight().getSymbol().token().lexeme())));
-                    i--;
+    // Global value numbering over the SSA form, after Briggs, Cooper and Simpson's dominator-based
+    // scheme. Walking the dominator tree, every variable of the function with a single
+    // definition gets a value number, copies share the number of their source, and a binary
+    // operation or comparison is looked up by its operator and operand numbers (see ValueTable).
+    // When a dominating instruction already computed the same value the instruction becomes a
+    // copy of its dest, which cpp and dce clean up. Unlike cse this also matches b + a with
+    // a + b and needs no dataflow problem, but variables with several definitions are left to cse.
+    private void globalValueNumbering(FileWriter file) {
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        Map<BasicBlock, Set<String>> locals = getLocalVariables();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            Dominators dominators = new Dominators(root, functionEntries);
+            Set<String> numbered = getSingleDefinitionLocals(dominators.blocks(), locals.get(root));
+            numberValues(dominators.entry(), dominators, new ValueTable(), numbered, file);
+        }
+    }
 
-                    try {
-                        file.write( "CP: Assigned " + addInstruction.getDest().getSymbol().token().lexeme() + " to the constant value " + liveVariables.get(addInstruction.getRight().getSymbol().token().lexeme()) + ".\n");
-                        hasConverged = false;
-                        overallConvergence = true;
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    continue;
+    // variables of the function defined exactly once, not counting self assignments
+    private Set<String> getSingleDefinitionLocals(List<BasicBlock> blocks, Set<String> locals) {
+        Map<String, Integer> numDefinitions = new HashMap<>();
+        for (BasicBlock block : blocks) {
+            for (TAC instruction : block.getInstructions()) {
+                Variable dest = DefUse.def(instruction);
+                if (dest != null && !isSelfAssignment(instruction)) {
+                    numDefinitions.merge(DefUse.name(dest), 1, Integer::sum);
                 }
+            }
+        }
+        Set<String> singleDefinitionLocals = new HashSet<>();
+        for (Map.Entry<String, Integer> definitions : numDefinitions.entrySet()) {
+            if (definitions.getValue() == 1 && locals.contains(definitions.getKey())) {
+                singleDefinitionLocals.add(definitions.getKey());
+            }
+        }
+        return singleDefinitionLocals;
+    }
+
+    // x = x, as IRGenerator leaves after reading into x, does not change the value of x
+    private boolean isSelfAssignment(TAC instruction) {
+        if (!(instruction instanceof Assign) || !(((Assign) instruction).getRight() instanceof Variable)) {
+            return false;
+        }
+        return DefUse.name((Variable) ((Assign) instruction).getRight()).equals(DefUse.name(((Assign) instruction).getDest()));
+    }
 
-                // assigning constant left
-                if (liveVariables.keySet().contains(addInstruction.getLeft().getSymbol().token().lexeme())) {
-                    currInstructions.getInstructions().set(i, new Pow(addInstruction.getID(), addInstruction.getDest(), liveVariables.get(addInstruction.getLeft().getSymbol().token().lexeme()), addInstruction.getRight()));
+    private void numberValues(BasicBlock block, Dominators dominators, ValueTable values, Set<String> numbered, FileWriter file) {
+        values.enterScope();
+        List<TAC> instructions = block.getInstructions().getInstructions();
+        for (int i = 0; i < instructions.size(); i++) {
+            TAC instruction = instructions.get(i);
+            Variable dest = DefUse.def(instruction);
+            if (dest == null || !numbered.contains(DefUse.name(dest)) || isSelfAssignment(instruction)) {
+                continue;
+            }
 
+            int number = -1;
+            if (instruction instanceof Phi) {
+                // a phi of one value is that value, arguments from blocks not visited yet have no number
+                for (Value argument : ((Phi) instruction).getArguments().values()) {
+                    int argumentNumber = values.numberOf(argument);
+                    if (argumentNumber < 0 || (number >= 0 && argumentNumber != number)) {
+                        number = -1;
+                        break;
+                    }
+                    number = argumentNumber;
+                }
+            }
+            else if (instruction instanceof Assign) {
+                number = values.numberOf(((Assign) instruction).getRight());
+            }
+            else {
+                ValueTable.Key key = values.keyOf(instruction);
+                Variable holder = (key == null) ? null : values.holderOf(key);
+                if (holder != null) {
+                    instructions.set(i, new Assign(instruction.getID(), dest, holder));
+                    number = values.numberOf(holder);
                     try {
-                        file.write( "CP: Assigned " + addInstruction.getDest().getSymbol().token().lexeme() + " to the constant value " + liveVariables.get(addInstruction.getLeft().getSymbol().token().lexeme()) + ".\n");
+                        file.write("GVN: Assigned " + dest + " to " + holder + ", as both have value number " + number + ".\n");
                         hasConverged = false;
                         overallConvergence = true;
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
                 }
+                else if (key != null) {
+                    values.setHolder(key, dest);
+                }
             }
-            else if (instruction instanceof Mod) {
-                Mod addInstruction = (Mod) instruction;
-
-                // assigning constant right
-                if (liveVariables.keySet().contains(addInstruction.getRight().getSymbol().token().lexeme())) {
-                    currInstructions.getInstructions().set(i, new Mod(addInstruction.getID(), addInstruction.getDest(), addInstruction.getLeft(), liveVariables.get(addInstruction.getRight().getSymbol().token().lexeme())));
-                    i--;
+            values.setNumber(dest, (number < 0) ? values.newNumber() : number);
+        }
+
+        for (BasicBlock child : dominators.children(block)) {
+            numberValues(child, dominators, values, numbered, file);
+        }
+        values.exitScope();
+    }
+
+    // Loop-invariant code motion over the natural loops (see LoopNesting), inner loops first.
+    // An instruction is invariant when every variable it reads is defined outside the loop or by
+    // an instruction hoisted already; it then moves into the preheader in front of the loop's
+    // condition block. It must be an Add, Sub, Mul, And, Or, Neg, comparison or copy, which
+    // cannot trap when the loop runs zero times, and define a variable of the function with a
+    // single definition, so the earlier definition is the same value everywhere. That variable
+    // must not be live on entry to the header: otherwise a read in the loop ahead of the
+    // definition, or after a loop that ran zero times, would see the hoisted value instead of the
+    // one from before the loop. Variables other functions see must not be read if the loop calls
+    // a user function.
+    private void loopInvariantCodeMotion(FileWriter file) {
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        Map<BasicBlock, Set<String>> locals = getLocalVariables();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            Set<String> hoistable = getSingleDefinitionLocals(DataflowSolver.reversePostorder(root, functionEntries), locals.get(root));
+            Set<BasicBlock> visitedHeaders = new HashSet<>();
+            while (true) {
+                // preheaders change the graph, so the loops are found again for every one
+                Map<BasicBlock, Set<BasicBlock>> loops = LoopNesting.loops(root, functionEntries);
+                // a loop of one block is the BRA to itself IRGenerator leaves after a while loop
+                BasicBlock header = null;
+                for (Map.Entry<BasicBlock, Set<BasicBlock>> loop : loops.entrySet()) {
+                    if (loop.getValue().size() == 1) {
+                        continue;
+                    }
+                    if (!visitedHeaders.contains(loop.getKey()) && (header == null || loop.getValue().size() < loops.get(header).size())) {
+                        header = loop.getKey();
+                    }
+                }
+                if (header == null) {
+                    break;
+                }
+                visitedHeaders.add(header);
 
-                    try {
-                        file.write( "CP: Assigned " + addInstruction.getDest().getSymbol().token().lexeme() + " to the constant value " + liveVariables.get(addInstruction.getRight().getSymbol().token().lexeme()) + ".\n");
-                        hasConverged = false;
-                        overallConvergence = true;
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                List<BasicBlock> body = new ArrayList<>();
+                for (BasicBlock block : DataflowSolver.reversePostorder(root, functionEntries)) {
+                    if (loops.get(header).contains(block)) {
+                        body.add(block);
                     }
+                }
+                Liveness liveness = new Liveness(new VariableNumbering(DataflowSolver.reversePostorder(root, functionEntries)), root != irHead, false);
+                liveness.setLocal(locals.get(root));
+                long[] liveAtHeader = DataflowSolver.solve(root, liveness, functionEntries).in(header);
+                Map<TAC, BasicBlock> invariants = getLoopInvariants(body, hoistable, locals.get(root), liveness.variables(), liveAtHeader);
+                if (invariants.isEmpty() || hasSharedInstructionList(root, loops.get(header), functionEntries)) {
                     continue;
                 }
-
-                // assigning constant left
-                if (liveVariables.keySet().contains(addInstruction.getLeft().getSymbol().token().lexeme())) {
-                    currInstructions.getInstructions().set(i, new Mod(addInstruction.getID(), addInstruction.getDest(), liveVariables.get(addInstruction.getLeft().getSymbol().token().lexeme()), addInstruction.getRight()));
-
+                BasicBlock preheader = getPreheader(root, header, loops.get(header), functionEntries);
+                if (preheader == null) {
+                    continue;
+                }
+                for (Map.Entry<TAC, BasicBlock> invariant : invariants.entrySet()) {
+                    TAC instruction = invariant.getKey();
+                    invariant.getValue().getInstructions().getInstructions().remove(instruction);
+                    addBeforeBranches(preheader, instruction);
                     try {
-                        file.write( "CP: Assigned " + addInstruction.getDest().getSymbol().token().lexeme() + " to the constant value " + liveVariables.get(addInstruction.getLeft().getSymbol().token().lexeme()) + ".\n");
+                        file.write("LICM: Hoisted instruction " + instruction.getID() + " out of the loop at bb" + header.getID() + " into bb" + preheader.getID() + ", as it is loop invariant.\n");
                         hasConverged = false;
                         overallConvergence = true;
                     } catch (IOException e) {
@@ -1942,196 +2370,614 @@ public class Compiler {
                 }
             }
         }
-
-        return currInstructions;
     }
 
-    private TACList constantFoldingSingleBlock(TACList currInstructions, FileWriter file) {
-        // System.out.println("here");
-        for (int i = 0; i < currInstructions.getInstructions().size(); i++) {
-            TAC instruction = currInstructions.getInstructions().get(i);
-            Literal foldedConstant;
+    // The block control enters the loop from, created when the only block outside the loop
+    // jumping to its header has other successors as well. Null for loops entered from several
+    // blocks, which would need phis in a new preheader, and for a block the header reaches
+    // again, which only an irreducible graph has.
+    private BasicBlock getPreheader(BasicBlock root, BasicBlock header, Set<BasicBlock> body, Set<BasicBlock> functionEntries) {
+        BasicBlock entering = null;
+        for (BasicBlock block : DataflowSolver.reversePostorder(root, functionEntries)) {
+            if (!body.contains(block) && DataflowSolver.successorsOf(block).contains(header)) {
+                if (entering != null) {
+                    return null;
+                }
+                entering = block;
+            }
+        }
+        if (entering == null || DataflowSolver.reversePostorder(header, functionEntries).contains(entering)
+                || hasSharedInstructionList(root, Collections.singleton(entering), functionEntries)) {
+            return null;
+        }
+        if (DataflowSolver.successorsOf(entering).size() == 1) {
+            return entering;
+        }
 
-            if ((instruction instanceof Add) && 
-                (((Add) instruction).getLeft() instanceof Literal) && (((Add) instruction).getRight() instanceof Literal)) {
-                    foldedConstant = getConstantFoldingAddition((Add) instruction);
+        BasicBlock preheader = new BasicBlock(BasicBlock.getNextBlockNumber(), new TACList(), null, null);
+        preheader.addInstruction(new BRA(TACList.getNextTACNumber(), header));
+
+        // the edge and the branch to the header now go to the preheader, in the same successor order
+        Map<BasicBlock, String> successors = new LinkedHashMap<>(entering.getSuccessors());
+        entering.getSuccessors().clear();
+        for (Map.Entry<BasicBlock, String> successor : successors.entrySet()) {
+            entering.addSuccessor((successor.getKey() == header) ? preheader : successor.getKey(), successor.getValue());
+        }
+        List<TAC> instructions = entering.getInstructions().getInstructions();
+        for (int i = 0; i < instructions.size(); i++) {
+            TAC instruction = instructions.get(i);
+            if (instruction instanceof BRA && ((BRA) instruction).getTrueBasicBlock() == header) {
+                instructions.set(i, new BRA(instruction.getID(), preheader));
             }
-            else if ((instruction instanceof Div) && 
-                ((((Div) instruction).getLeft() instanceof Literal) && (((Div) instruction).getRight() instanceof Literal))) {
-                    foldedConstant = getConstantFoldingDivision((Div) instruction);
+            else if (getBranchVariable(instruction) != null && (getBranchTrueBlock(instruction) == header || getBranchFalseBlock(instruction) == header)) {
+                BasicBlock trueBlock = (getBranchTrueBlock(instruction) == header) ? preheader : getBranchTrueBlock(instruction);
+                BasicBlock falseBlock = (getBranchFalseBlock(instruction) == header) ? preheader : getBranchFalseBlock(instruction);
+                instructions.set(i, copyBranch(instruction, trueBlock, falseBlock));
             }
-            else if ((instruction instanceof Mod) && 
-                ((((Mod) instruction).getLeft() instanceof Literal) && (((Mod) instruction).getRight() instanceof Literal))) {
-                    foldedConstant = getConstantFoldingModulo((Mod) instruction);
+        }
+        preheader.addSuccessor(header, "Loop preheader");
+        preheader.addPredecessor(entering);
+        header.removePredecessor(entering.getID());
+        header.addPredecessor(preheader);
+
+        for (TAC instruction : header.getInstructions()) {
+            if (instruction instanceof Phi && ((Phi) instruction).getArguments().containsKey(entering)) {
+                ((Phi) instruction).setArgument(preheader, ((Phi) instruction).getArguments().remove(entering));
             }
-            else if ((instruction instanceof Mul) && 
-                ((((Mul) instruction).getLeft() instanceof Literal) && (((Mul) instruction).getRight() instanceof Literal))) {
-                    foldedConstant = getConstantFoldingMultiplication((Mul) instruction);
+        }
+        return preheader;
+    }
+
+    // Whether one of the blocks has the same TACList as another block, as IRGenerator leaves behind
+    // for some statements nested in a while loop. Moving an instruction would move it in both.
+    private boolean hasSharedInstructionList(BasicBlock root, Set<BasicBlock> blocks, Set<BasicBlock> functionEntries) {
+        Map<TACList, Integer> numBlocks = new IdentityHashMap<>();
+        for (BasicBlock block : DataflowSolver.reversePostorder(root, functionEntries)) {
+            numBlocks.merge(block.getInstructions(), 1, Integer::sum);
+        }
+        for (BasicBlock block : blocks) {
+            if (numBlocks.getOrDefault(block.getInstructions(), 0) > 1) {
+                return true;
             }
-            else if ((instruction instanceof Pow) && 
-                ((((Pow) instruction).getLeft() instanceof Literal) && (((Pow) instruction).getRight() instanceof Literal))) {
-                    foldedConstant = getConstantFoldingPower((Pow) instruction);
+        }
+        return false;
+    }
+
+    // invariant instructions of the loop in an order that defines operands first, with their blocks;
+    // liveAtHeader holds the variables live on entry to the loop header
+    private Map<TAC, BasicBlock> getLoopInvariants(List<BasicBlock> body, Set<String> hoistable, Set<String> locals,
+                                                   VariableNumbering variables, long[] liveAtHeader) {
+        Set<String> definedInLoop = new HashSet<>();
+        boolean hasUserCall = false;
+        for (BasicBlock block : body) {
+            for (TAC instruction : block.getInstructions()) {
+                Variable dest = DefUse.def(instruction);
+                if (dest != null) {
+                    definedInLoop.add(DefUse.name(dest));
+                }
+                hasUserCall |= DefUse.isUserCall(instruction);
+            }
+        }
+
+        // blocks in reverse postorder, so most operands are found before the instructions reading them
+        Map<TAC, BasicBlock> invariants = new LinkedHashMap<>();
+        Set<String> uses = new HashSet<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : body) {
+                for (TAC instruction : block.getInstructions()) {
+                    boolean isSideEffectFree = instruction instanceof Add || instruction instanceof Sub || instruction instanceof Mul
+                        || instruction instanceof And || instruction instanceof Or || instruction instanceof Neg
+                        || instruction instanceof Comparison || (instruction instanceof Assign && ((Assign) instruction).getRight() != null);
+                    if (!isSideEffectFree || invariants.containsKey(instruction) || !hoistable.contains(DefUse.name(instruction.getDest()))) {
+                        continue;
+                    }
+                    int dest = variables.numberOf(DefUse.name(instruction.getDest()));
+                    if (dest >= 0 && Bits.get(liveAtHeader, dest)) {
+                        continue;
+                    }
+                    uses.clear();
+                    DefUse.uses(instruction, uses);
+                    boolean isInvariant = true;
+                    for (String use : uses) {
+                        if (definedInLoop.contains(use) || (hasUserCall && !locals.contains(use))) {
+                            isInvariant = false;
+                            break;
+                        }
+                    }
+                    if (isInvariant) {
+                        invariants.put(instruction, block);
+                        definedInLoop.remove(DefUse.name(instruction.getDest()));
+                        changed = true;
+                    }
+                }
             }
-            else if ((instruction instanceof Sub) && 
-                ((((Sub) instruction).getLeft() instanceof Literal) && (((Sub) instruction).getRight() instanceof Literal))) {
-                    foldedConstant = getConstantFoldingSubtraction((Sub) instruction);
+        }
+        return invariants;
+    }
+
+    // appends the instruction to the block, in front of the branches ending it
+    private void addBeforeBranches(BasicBlock block, TAC instruction) {
+        List<TAC> instructions = block.getInstructions().getInstructions();
+        int position = instructions.size();
+        while (position > 0 && (instructions.get(position - 1) instanceof BRA || getBranchVariable(instructions.get(position - 1)) != null)) {
+            position--;
+        }
+        instructions.add(position, instruction);
+    }
+
+    // largest constant exponent a Pow is unrolled into multiplies for
+    private static final int MAX_REDUCED_EXPONENT = 16;
+
+    // A basic induction variable: the dest of a loop header phi of initial from the preheader and
+    // of dest + step from latch, where increment computes dest + step and chain holds the
+    // increment and the copies its result goes through to the phi.
+    private static final class InductionVariable {
+        private final Phi phi;
+        private final Value initial;
+        private final BasicBlock latch;
+        private final TAC increment;
+        private final int step;
+        private final List<TAC> chain;
+
+        private InductionVariable(Phi phi, Value initial, BasicBlock latch, TAC increment, int step, List<TAC> chain) {
+            this.phi = phi;
+            this.initial = initial;
+            this.latch = latch;
+            this.increment = increment;
+            this.step = step;
+            this.chain = chain;
+        }
+    }
+
+    // Strength reduction. A Pow by a small constant becomes a chain of multiplies. In every loop a
+    // basic induction variable times a constant, and such a product plus a loop-invariant offset,
+    // become induction variables of their own: computed once in the preheader and advanced by
+    // an add right behind the increment of the basic variable. A comparison of the basic
+    // variable with an invariant bound moves to such a variable with a positive factor (linear
+    // function test replacement), after which a basic variable only feeding its own increment
+    // is removed. Codegen turns the multiplies by a power of two that are left into LSHI.
+    private void strengthReduction(FileWriter file) {
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        Map<BasicBlock, Set<String>> locals = getLocalVariables();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            for (BasicBlock block : DataflowSolver.reversePostorder(root, functionEntries)) {
+                reducePowers(block, file);
+            }
+
+            Set<BasicBlock> visitedHeaders = new HashSet<>();
+            while (true) {
+                // preheaders change the graph, so the loops are found again for every one
+                Map<BasicBlock, Set<BasicBlock>> loops = LoopNesting.loops(root, functionEntries);
+                BasicBlock header = null;
+                for (Map.Entry<BasicBlock, Set<BasicBlock>> loop : loops.entrySet()) {
+                    if (loop.getValue().size() > 1 && !visitedHeaders.contains(loop.getKey())) {
+                        header = loop.getKey();
+                        break;
+                    }
+                }
+                if (header == null) {
+                    break;
+                }
+                visitedHeaders.add(header);
+                if (!hasSharedInstructionList(root, loops.get(header), functionEntries)) {
+                    reduceInductionVariables(root, header, loops.get(header), locals.get(root), functionEntries, file);
+                }
             }
-            else {
+        }
+    }
+
+    // x ^ n for a constant 0 <= n <= MAX_REDUCED_EXPONENT by the left-to-right binary method:
+    // square for every bit after the leading one, multiply by x for every set bit
+    private void reducePowers(BasicBlock block, FileWriter file) {
+        List<TAC> instructions = block.getInstructions().getInstructions();
+        for (int i = 0; i < instructions.size(); i++) {
+            if (!(instructions.get(i) instanceof Pow)) {
+                continue;
+            }
+            Pow pow = (Pow) instructions.get(i);
+            if (!(pow.getLeft() instanceof Variable) || pow.getLeft().isFloat() || !(pow.getRight() instanceof Literal) || !pow.getRight().isInt()) {
+                continue;
+            }
+            int exponent = pow.getRight().getMachineCodeRepresentation();
+            if (exponent < 0 || exponent > MAX_REDUCED_EXPONENT) {
                 continue;
             }
-            // System.out.println("Current instruction " + instruction.getID() + " has folded constant of " + foldedConstant.getValue().token().lexeme());
-            currInstructions.getInstructions().set(i, new Assign(instruction.getID(), instruction.getDest(), foldedConstant));
 
+            Variable base = (Variable) pow.getLeft();
+            List<TAC> products = new ArrayList<>();
+            if (exponent == 0) {
+                products.add(new Assign(pow.getID(), pow.getDest(), intLiteral(1)));
+            }
+            else if (exponent == 1) {
+                products.add(new Assign(pow.getID(), pow.getDest(), base));
+            }
+            else {
+                Variable result = base;
+                for (int bit = Integer.highestOneBit(exponent) >> 1; bit > 0; bit >>= 1) {
+                    result = addProduct(products, result, result);
+                    if ((exponent & bit) != 0) {
+                        result = addProduct(products, result, base);
+                    }
+                }
+                // the last product goes straight to dest
+                Mul last = (Mul) products.remove(products.size() - 1);
+                products.add(new Mul(pow.getID(), pow.getDest(), last.getLeft(), last.getRight()));
+            }
+            instructions.remove(i);
+            instructions.addAll(i, products);
+            i += products.size() - 1;
             try {
-                file.write( "CPP: Folded " + instruction.getDest().getSymbol().token().lexeme() + " to the constant value  " + foldedConstant.getValue().token().lexeme() + ".\n");
+                file.write("SR: Reduced " + pow.getDest() + " = " + base + " ^ " + exponent + " to " + products.size() + " instructions.\n");
                 hasConverged = false;
                 overallConvergence = true;
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
-
-        return currInstructions;
     }
 
-    private TACList copyPropagationSingleBlock(TACList currInstructions, FileWriter file, HashMap<String, Variable> liveVariables) {
-        for (int i = 0; i < currInstructions.getInstructions().size(); i++) {
-            TAC instruction = currInstructions.getInstructions().get(i);
-
-            if (instruction instanceof Assign) {
-                Assign assignInstruction = (Assign) instruction;
-
-                // kill operator
-                if (liveVariables.keySet().contains(assignInstruction.getDest().getSymbol().token().lexeme())) {
-                    liveVariables.remove(assignInstruction.getDest().getSymbol().token().lexeme());
-                }
+    private Variable addProduct(List<TAC> products, Variable left, Variable right) {
+        Variable product = newTemporary(left);
+        products.add(new Mul(TACList.getNextTACNumber(), product, left, right));
+        return product;
+    }
 
-                // gen operator
-                if (((Assign) instruction).getRight() instanceof Variable) {
-                    Variable dest = (Variable) (assignInstruction.getRight());
-                    Variable src = assignInstruction.getDest();
-                    liveVariables.put(src.getSymbol().token().lexeme(), dest);
+    private void reduceInductionVariables(BasicBlock root, BasicBlock header, Set<BasicBlock> body, Set<String> locals, Set<BasicBlock> functionEntries, FileWriter file) {
+        List<BasicBlock> blocks = DataflowSolver.reversePostorder(root, functionEntries);
+        Set<String> singleDefinitionLocals = getSingleDefinitionLocals(blocks, locals);
+        Map<String, TAC> definitions = new HashMap<>();
+        Map<TAC, BasicBlock> blockOf = new HashMap<>();
+        Set<String> definedInLoop = new HashSet<>();
+        boolean hasUserCall = false;
+        for (BasicBlock block : blocks) {
+            for (TAC instruction : block.getInstructions()) {
+                blockOf.put(instruction, block);
+                Variable dest = DefUse.def(instruction);
+                if (dest != null) {
+                    definitions.put(DefUse.name(dest), instruction);
                 }
-
-                if (assignInstruction.getRight() instanceof Variable) {
-                    if (liveVariables.keySet().contains(((Variable) assignInstruction.getRight()).getSymbol().token().lexeme())) {
-                        currInstructions.getInstructions().set(i, new Assign(assignInstruction.getID(), assignInstruction.getDest(), liveVariables.get(((Variable) (assignInstruction.getRight())).getSymbol().token().lexeme())));
-                        i--;
-
-                        try {
-                            file.write( "CPP: Assigned " + instruction.getDest() + " with " + liveVariables.get(((Variable) (assignInstruction.getRight())).getSymbol().token().lexeme()) + ".\n");
-                            hasConverged = false;
-                            overallConvergence = true;
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
+                if (body.contains(block)) {
+                    if (dest != null) {
+                        definedInLoop.add(DefUse.name(dest));
                     }
+                    hasUserCall |= DefUse.isUserCall(instruction);
                 }
             }
         }
-        return currInstructions;
-    }
 
-    private TACList commonSubExpressionEliminationSingleBlock(TACList currInstructions, FileWriter file, HashMap<String, Variable> commonSubexpressions) {
-        for (int i = 0; i < currInstructions.getInstructions().size(); i++) {
-            TAC instruction = currInstructions.getInstructions().get(i);
-            String instructionStringRepresentation = getInstructionStringRepresentation(instruction);
-            if (instructionStringRepresentation.equals("NoInstruction")) {
+        Map<String, InductionVariable> basics = new LinkedHashMap<>();
+        for (TAC instruction : header.getInstructions()) {
+            if (!(instruction instanceof Phi) || ((Phi) instruction).getArguments().size() != 2) {
                 continue;
             }
-
-            // kill operator, if expression 
-            for (int j = 0; j < commonSubexpressions.keySet().toArray().length; j++) {
-                String currentSubexpression = (String) commonSubexpressions.keySet().toArray()[j];
-                if (currentSubexpression.contains(instruction.getDest().getSymbol().token().lexeme())) {
-                    commonSubexpressions.remove(currentSubexpression);
-                    j--;
-                }
+            Phi phi = (Phi) instruction;
+            String name = DefUse.name(phi.getDest());
+            if (!singleDefinitionLocals.contains(name) || phi.getDest().isFloat()) {
+                continue;
             }
-
-            // assign subexpression
-            if (commonSubexpressions.keySet().contains(instructionStringRepresentation)) {
-                currInstructions.getInstructions().set(i, new Assign(instruction.getID(), instruction.getDest(), commonSubexpressions.get(instructionStringRepresentation)));
-                
-                try {
-                    file.write("CSE: Assigned " + instruction.getDest() + " with " + instructionStringRepresentation + " to " + (commonSubexpressions.get(instructionStringRepresentation)).getSymbol().token().lexeme() + ".\n");
-                    hasConverged = false;
-                    overallConvergence = true;
-                } catch (IOException e) {
-                    e.printStackTrace();
+            Value initial = null;
+            BasicBlock latch = null;
+            for (Map.Entry<BasicBlock, Value> argument : phi.getArguments().entrySet()) {
+                if (body.contains(argument.getKey())) {
+                    latch = argument.getKey();
                 }
-            }
-            // gen operator
-            else {
-                if (!(instruction instanceof Assign)) {
-                    commonSubexpressions.put(instructionStringRepresentation, instruction.getDest());
+                else {
+                    initial = argument.getValue();
                 }
             }
-        }
-
-        return currInstructions;
-    }
-
-    private TACList deadCodeEliminationSingleBlock(TACList tacList, FileWriter file, Set<String> liveVariables) {
-        List<TAC> currInstructions = tacList.getReversedInstructions();
-        int indexOfLast = 0;
-        if (currInstructions.size() == 0) {
-            return tacList;
-        }
+            if (initial == null || latch == null) {
+                continue;
+            }
 
-        while ((currInstructions.get(indexOfLast).getDest() == null) && (currInstructions.get(indexOfLast) instanceof Call)){
-            if (currInstructions.get(indexOfLast) instanceof Call) {
-                if (((Call) currInstructions.get(indexOfLast)).hasArgs()) {
+            // back from the value along the back edge, through copies, to the increment
+            List<TAC> chain = new ArrayList<>();
+            Value next = phi.getArguments().get(latch);
+            TAC increment = null;
+            while (next instanceof Variable && singleDefinitionLocals.contains(DefUse.name((Variable) next))) {
+                TAC definition = definitions.get(DefUse.name((Variable) next));
+                if (!body.contains(blockOf.get(definition))) {
                     break;
                 }
+                chain.add(definition);
+                if (definition instanceof Assign && ((Assign) definition).getRight() instanceof Variable) {
+                    next = ((Assign) definition).getRight();
+                    continue;
+                }
+                increment = definition;
+                break;
             }
-
-            indexOfLast++;
-            if (indexOfLast == currInstructions.size()) {
-                return tacList;
+            Integer step = (increment == null) ? null : getInductionStep(increment, name, definitions, singleDefinitionLocals);
+            if (step != null) {
+                basics.put(name, new InductionVariable(phi, initial, latch, increment, step, chain));
             }
         }
-        // System.out.println("first instruction is " + currInstructions.get(indexOfLast));
-        
-        Set<Variable> firstInstructionReferences = getVariableReferences(currInstructions.get(indexOfLast));
-        for (Variable v : firstInstructionReferences) {
-            liveVariables.add(v.getSymbol().token().lexeme());
+        if (basics.isEmpty()) {
+            return;
         }
-        // System.out.println("first instruction live variables" + liveVariables);
 
-        for (int i = 0; i < currInstructions.size(); i++) {
-            // System.out.println(liveVariables);
-            TAC instruction = currInstructions.get(i);
-            // if ((instruction instanceof Call) || instruction.getDest() == null) {
-            //     continue;
-            // }
-
-            // check if dest is part of set
-            if (instruction.getDest() != null) {
-                Set<Variable> instructionReferences = getVariableReferences(instruction);
-                for (Variable v : instructionReferences) {
-                    liveVariables.add(v.getSymbol().token().lexeme());
-                }
-
-                if (liveVariables.contains(instruction.getDest().getSymbol().token().lexeme())) {
-                    liveVariables.remove(instruction.getDest().getSymbol().token().lexeme());
+        // derived variables: dest name -> {basic variable name, factor, offset or null, the new phi dest}
+        Map<String, Object[]> derived = new LinkedHashMap<>();
+        BasicBlock preheader = null;
+        for (BasicBlock block : blocks) {
+            if (!body.contains(block)) {
+                continue;
+            }
+            List<TAC> instructions = block.getInstructions().getInstructions();
+            for (int i = 0; i < instructions.size(); i++) {
+                TAC instruction = instructions.get(i);
+                Variable dest = DefUse.def(instruction);
+                if (dest == null || dest.isFloat() || !singleDefinitionLocals.contains(DefUse.name(dest))) {
+                    continue;
                 }
-                else {
-                    currInstructions.remove(instruction);
-                    try {
-                        file.write("DCE: Removed instruction " + instruction.getID() + ", as instruction was dead.\n");
-                        hasConverged = false;
-                        overallConvergence = true;
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                List<Value> operands = DefUse.operands(instruction);
+                Object[] reduced = null;
+                for (int side = 0; side < 2 && reduced == null && !operands.isEmpty(); side++) {
+                    Value variable = operands.get(side);
+                    Value other = operands.get(1 - side);
+                    if (!(variable instanceof Variable)) {
+                        continue;
+                    }
+                    String name = DefUse.name((Variable) variable);
+                    if (instruction instanceof Mul && basics.containsKey(name)) {
+                        Integer factor = getIntConstant(other, definitions, singleDefinitionLocals);
+                        if (factor != null && factor != 0) {
+                            reduced = new Object[] {name, factor, null, null};
+                        }
+                    }
+                    else if (instruction instanceof Add && derived.containsKey(name) && derived.get(name)[2] == null
+                            && isLoopInvariant(other, definedInLoop, locals, hasUserCall)) {
+                        reduced = new Object[] {derived.get(name)[0], derived.get(name)[1], other, null};
                     }
-                    i--;
                 }
+                if (reduced == null) {
+                    continue;
+                }
+                if (preheader == null) {
+                    preheader = getPreheader(root, header, body, functionEntries);
+                    if (preheader == null) {
+                        return;
+                    }
+                }
+
+                InductionVariable basic = basics.get((String) reduced[0]);
+                int factor = (Integer) reduced[1];
+                Variable variable = newTemporary(dest);
+                Variable next = newTemporary(dest);
+                Phi phi = new Phi(TACList.getNextTACNumber(), variable);
+                phi.setArgument(preheader, addAffine(preheader, basic.initial, factor, (Value) reduced[2], dest));
+                phi.setArgument(basic.latch, next);
+                header.getInstructions().getInstructions().add(0, phi);
+                List<TAC> incrementInstructions = blockOf.get(basic.increment).getInstructions().getInstructions();
+                incrementInstructions.add(incrementInstructions.indexOf(basic.increment) + 1,
+                    new Add(TACList.getNextTACNumber(), next, variable, intLiteral(basic.step * factor)));
+                if (block == header) {
+                    i++;
+                }
+                if (block == blockOf.get(basic.increment) && incrementInstructions.indexOf(basic.increment) < i) {
+                    i++;
+                }
+                instructions.set(i, new Assign(instruction.getID(), dest, variable));
+                reduced[3] = variable;
+                derived.put(DefUse.name(dest), reduced);
+                try {
+                    file.write("SR: Replaced instruction " + instruction.getID() + " with induction variable " + variable + " stepping by " + (basic.step * factor) + ".\n");
+                    hasConverged = false;
+                    overallConvergence = true;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        if (derived.isEmpty()) {
+            return;
+        }
+
+        // linear function test replacement: i < n becomes i * factor + offset < n * factor + offset
+        for (BasicBlock block : body) {
+            List<TAC> instructions = block.getInstructions().getInstructions();
+            for (int i = 0; i < instructions.size(); i++) {
+                if (!(instructions.get(i) instanceof Comparison)) {
+                    continue;
+                }
+                Comparison comparison = (Comparison) instructions.get(i);
+                boolean isBasicLeft = (comparison.getLeft() instanceof Variable) && basics.containsKey(DefUse.name((Variable) comparison.getLeft()));
+                boolean isBasicRight = (comparison.getRight() instanceof Variable) && basics.containsKey(DefUse.name((Variable) comparison.getRight()));
+                if (isBasicLeft == isBasicRight) {
+                    continue;
+                }
+                Value basicVariable = isBasicLeft ? comparison.getLeft() : comparison.getRight();
+                Value bound = isBasicLeft ? comparison.getRight() : comparison.getLeft();
+                Object[] replacement = null;
+                for (Object[] candidate : derived.values()) {
+                    if (candidate[0].equals(DefUse.name((Variable) basicVariable)) && (Integer) candidate[1] > 0) {
+                        replacement = candidate;
+                        break;
+                    }
+                }
+                // codegen needs a variable on the left of a comparison
+                boolean isConstantBound = (bound instanceof Literal) && (replacement == null || replacement[2] == null || replacement[2] instanceof Literal);
+                if (replacement == null || bound.isFloat() || !isLoopInvariant(bound, definedInLoop, locals, hasUserCall) || (isBasicRight && isConstantBound)) {
+                    continue;
+                }
+                Value newBound = addAffine(preheader, bound, (Integer) replacement[1], (Value) replacement[2], (Variable) replacement[3]);
+                Variable variable = (Variable) replacement[3];
+                instructions.set(i, new Comparison(comparison.getID(), comparison.getDest(), isBasicLeft ? variable : newBound, isBasicLeft ? newBound : variable,
+                    comparison.getComparisonOperator()));
+                try {
+                    file.write("SR: Replaced the test of " + basicVariable + " in instruction " + comparison.getID() + " with a test of " + variable + ".\n");
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // basic variables nothing but their own phi and increment read any more
+        for (InductionVariable basic : basics.values()) {
+            Set<TAC> own = Collections.newSetFromMap(new IdentityHashMap<>());
+            own.add(basic.phi);
+            own.addAll(basic.chain);
+            Set<String> names = new HashSet<>();
+            for (TAC instruction : own) {
+                names.add(DefUse.name(DefUse.def(instruction)));
+            }
+            boolean isDead = true;
+            Set<String> uses = new HashSet<>();
+            for (BasicBlock block : DataflowSolver.reversePostorder(root, functionEntries)) {
+                for (TAC instruction : block.getInstructions()) {
+                    if (own.contains(instruction)) {
+                        continue;
+                    }
+                    uses.clear();
+                    if (!DefUse.uses(instruction, uses) || !Collections.disjoint(uses, names)) {
+                        isDead = false;
+                    }
+                }
+            }
+            if (!isDead) {
+                continue;
+            }
+            header.getInstructions().getInstructions().remove(basic.phi);
+            for (TAC instruction : basic.chain) {
+                blockOf.get(instruction).getInstructions().getInstructions().remove(instruction);
+            }
+            try {
+                file.write("SR: Removed induction variable " + basic.phi.getDest() + ", as only its increment read it.\n");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // step of an increment of the variable by a constant, null if it is none
+    private Integer getInductionStep(TAC increment, String variable, Map<String, TAC> definitions, Set<String> singleDefinitionLocals) {
+        List<Value> operands = DefUse.operands(increment);
+        if (!(increment instanceof Add || increment instanceof Sub)) {
+            return null;
+        }
+        boolean isLeft = (operands.get(0) instanceof Variable) && DefUse.name((Variable) operands.get(0)).equals(variable);
+        boolean isRight = (operands.get(1) instanceof Variable) && DefUse.name((Variable) operands.get(1)).equals(variable);
+        if (isLeft && !isRight) {
+            Integer step = getIntConstant(operands.get(1), definitions, singleDefinitionLocals);
+            return (step == null || increment instanceof Add) ? step : Integer.valueOf(-step);
+        }
+        if (isRight && !isLeft && increment instanceof Add) {
+            return getIntConstant(operands.get(0), definitions, singleDefinitionLocals);
+        }
+        return null;
+    }
+
+    // value of an int literal, or of a variable only ever assigned one, null otherwise
+    private Integer getIntConstant(Value value, Map<String, TAC> definitions, Set<String> singleDefinitionLocals) {
+        if (value instanceof Variable && singleDefinitionLocals.contains(DefUse.name((Variable) value))) {
+            TAC definition = definitions.get(DefUse.name((Variable) value));
+            if (definition instanceof Assign) {
+                value = ((Assign) definition).getRight();
+            }
+        }
+        if (value instanceof Literal && value.isInt()) {
+            return value.getMachineCodeRepresentation();
+        }
+        return null;
+    }
+
+    private boolean isLoopInvariant(Value value, Set<String> definedInLoop, Set<String> locals, boolean hasUserCall) {
+        if (value instanceof Literal) {
+            return value.isInt();
+        }
+        if (!(value instanceof Variable)) {
+            return false;
+        }
+        String name = DefUse.name((Variable) value);
+        return !definedInLoop.contains(name) && (locals.contains(name) || !hasUserCall);
+    }
+
+    // value * factor + offset, computed at the end of the preheader unless it is constant
+    private Value addAffine(BasicBlock preheader, Value value, int factor, Value offset, Variable like) {
+        Value product;
+        if (value instanceof Literal) {
+            product = intLiteral(value.getMachineCodeRepresentation() * factor);
+        }
+        else {
+            product = newTemporary(like);
+            addBeforeBranches(preheader, new Mul(TACList.getNextTACNumber(), (Variable) product, value, intLiteral(factor)));
+        }
+        if (offset == null) {
+            return product;
+        }
+        if (product instanceof Literal && offset instanceof Literal) {
+            return intLiteral(product.getMachineCodeRepresentation() + offset.getMachineCodeRepresentation());
+        }
+        Variable sum = newTemporary(like);
+        if (product instanceof Variable) {
+            addBeforeBranches(preheader, new Add(TACList.getNextTACNumber(), sum, product, offset));
+        }
+        else {
+            addBeforeBranches(preheader, new Add(TACList.getNextTACNumber(), sum, offset, product));
+        }
+        return sum;
+    }
+
+    private Variable newTemporary(Variable like) {
+        Token token = like.getSymbol().token();
+        Variable temporary = new Variable(new Symbol(new Token("t" + BasicBlock.getNextTempNumber(), token.lineNumber(), token.charPosition())));
+        temporary.setIsInt(like.isInt());
+        temporary.setIsFloat(like.isFloat());
+        temporary.setIsBool(like.isBool());
+        return temporary;
+    }
+
+    private Literal intLiteral(int value) {
+        return new Literal(new Symbol(new Token("" + value, 0, 0)));
+    }
+
+    private TACList constantFoldingSingleBlock(TACList currInstructions, FileWriter file) {
+        // System.out.println("here");
+        for (int i = 0; i < currInstructions.getInstructions().size(); i++) {
+            TAC instruction = currInstructions.getInstructions().get(i);
+            Literal foldedConstant;
+
+            if ((instruction instanceof Add) && 
+                (((Add) instruction).getLeft() instanceof Literal) && (((Add) instruction).getRight() instanceof Literal)) {
+                    foldedConstant = getConstantFoldingAddition((Add) instruction);
+            }
+            else if ((instruction instanceof Div) && 
+                ((((Div) instruction).getLeft() instanceof Literal) && (((Div) instruction).getRight() instanceof Literal))) {
+                    foldedConstant = getConstantFoldingDivision((Div) instruction);
+            }
+            else if ((instruction instanceof Mod) && 
+                ((((Mod) instruction).getLeft() instanceof Literal) && (((Mod) instruction).getRight() instanceof Literal))) {
+                    foldedConstant = getConstantFoldingModulo((Mod) instruction);
+            }
+            else if ((instruction instanceof Mul) && 
+                ((((Mul) instruction).getLeft() instanceof Literal) && (((Mul) instruction).getRight() instanceof Literal))) {
+                    foldedConstant = getConstantFoldingMultiplication((Mul) instruction);
+            }
+            else if ((instruction instanceof Pow) && 
+                ((((Pow) instruction).getLeft() instanceof Literal) && (((Pow) instruction).getRight() instanceof Literal))) {
+                    foldedConstant = getConstantFoldingPower((Pow) instruction);
+            }
+            else if ((instruction instanceof Sub) && 
+                ((((Sub) instruction).getLeft() instanceof Literal) && (((Sub) instruction).getRight() instanceof Literal))) {
+                    foldedConstant = getConstantFoldingSubtraction((Sub) instruction);
+            }
+            else {
+                continue;
+            }
+            // System.out.println("Current instruction " + instruction.getID() + " has folded constant of " + foldedConstant.getValue().token().lexeme());
+            currInstructions.getInstructions().set(i, new Assign(instruction.getID(), instruction.getDest(), foldedConstant));
+
+            try {
+                file.write( "CPP: Folded " + instruction.getDest().getSymbol().token().lexeme() + " to the constant value  " + foldedConstant.getValue().token().lexeme() + ".\n");
+                hasConverged = false;
+                overallConvergence = true;
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
-        // reverse list back to correct order
-        tacList.getReversedInstructions();
-        return tacList;   
+
+        return currInstructions;
     }
 
     private TACList deadCodeAfterReturnSingleBlock(TACList currInstructions, FileWriter file, Set<String> liveVariables) {
@@ -2152,37 +2998,6 @@ public class Compiler {
 
 
 // Optimization Helper Functions ==============================================================
-    private String getInstructionStringRepresentation(TAC instruction) {
-        if (instruction instanceof Add) {
-            return (((Add) instruction).getLeft() + "+" + ((Add) instruction).getRight());
-        }
-        if (instruction instanceof And) {
-            return (((And) instruction).getLeft() + "&" + ((And) instruction).getRight());
-        }
-        if (instruction instanceof Div) {
-            return (((Div) instruction).getLeft() + "/" + ((Div) instruction).getRight());
-        }
-        if (instruction instanceof Mod) {
-            return (((Mod) instruction).getLeft() + "%" + ((Mod) instruction).getRight());
-        }
-        if (instruction instanceof Mul) {
-            return (((Mul) instruction).getLeft() + "*" + ((Mul) instruction).getRight());
-        }
-        if (instruction instanceof Or) {
-            return (((Or) instruction).getLeft() + "|" + ((Or) instruction).getRight());
-        }
-        if (instruction instanceof Pow) {
-            return (((Pow) instruction).getLeft() + "^" + ((Pow) instruction).getRight());
-        }
-        if (instruction instanceof Sub) {
-            return (((Sub) instruction).getLeft() + "-" + ((Sub) instruction).getRight());
-        }
-        if (instruction instanceof Assign) {
-            return (((Assign) instruction).getDest() + "=" + ((Assign) instruction).getRight());
-        }
-        return "NoInstruction";
-    }
-
     private Literal getConstantFoldingAddition(Add instruction) {
         Token leftToken = ((Literal) instruction.getLeft()).getValue().token();
         Token rightToken = ((Literal) instruction.getRight()).getValue().token();
@@ -2339,6 +3154,12 @@ public class Compiler {
                 referencedVariables.add((Variable) addInstruction.getRight());    
             }
         }
+        else if (instruction instanceof Store) {
+            Store storeInstruction = (Store) instruction;
+            if (storeInstruction.getValue() instanceof Variable) {
+                referencedVariables.add((Variable) storeInstruction.getValue());
+            }
+        }
         else if (instruction instanceof Call) {
             Call callInstruction = (Call) instruction;
             for (int i = 0; i < callInstruction.getArgs().getExpressionParameters().size(); i++) {
@@ -2352,1200 +3173,2298 @@ public class Compiler {
         return new HashSet<Variable>(referencedVariables);
     }
 
-// Register Allocation ==============================================================
-    public void regAlloc(int numRegs) {
-        // Create graph and edges based on live variable anaysis
-
-        // map from edge and adjacent list to other variables
-        Map<String, Set<String>> vertices = getVertexGraph();
-        // printOutVariableGraph(vertices);
-        Stack<String> removedVertices = new Stack<String>();
-        
-        // while graph is not empty
-            // pop out node with < numRegs edges
-            // if no edge has < numRegs, then pop any node and mark as maybeSpilled
-            // remove edges of the node
-            // push node to stack
-        while (vertices.keySet().size() > 0) {
-            boolean wasVertexFound = false;
-            for (int i = 0; i < vertices.size(); i++) {
-                String currVertex = (String) vertices.keySet().toArray()[i];
-                // found vertex 
-                if (vertices.get(currVertex).size() < numRegs) {
-                    // remove vertex edges
-                    for (String otherVertex : vertices.keySet()) {
-                        vertices.get(otherVertex).remove(currVertex);
+// Inlining ==============================================================
+    // Functions of at most INLINE_SIZE_LIMIT instructions are inlined at every call. Larger ones
+    // only when they have a single call, or while their copies add at most INLINE_GROWTH_LIMIT
+    // instructions more than keeping the function would.
+    private static final int INLINE_SIZE_LIMIT = 12;
+    private static final int INLINE_GROWTH_LIMIT = 48;
+    // numbers the copies, the locals of a copy of f are renamed "x_f1", "x_f2", ...
+    private int numInlinedCopies = 0;
+
+    // Replaces calls of user functions by copies of their body, before SSA so the copies are
+    // renamed along with everything else. The block of the call is split at the call: the first
+    // part sets the parameters of the copy to the arguments and jumps into it, every Return of the
+    // copy sets the result of the call and jumps to the second part. A function that can reach a
+    // call of itself is never inlined. Copies may hold calls of other functions, so this repeats
+    // until no call qualifies; orphanFunctionElimination then removes the functions left without calls.
+    private void inlineFunctions(FileWriter file) {
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            VariableNumbering variables = new VariableNumbering(DataflowSolver.reversePostorder(root, getFunctionEntryBlocks()));
+            for (int v = 0; v < variables.size(); v++) {
+                usedNames.add(variables.nameOf(v));
+            }
+        }
+        usedNames.addAll(getCallArgumentVariables());
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+            List<Call> calls = new ArrayList<>();
+            List<BasicBlock> callBlocks = new ArrayList<>();
+            Map<BasicBlock, Integer> numCalls = new HashMap<>();
+            Map<BasicBlock, Set<BasicBlock>> callees = new HashMap<>();
+            for (BasicBlock root : getControlFlowGraphRoots()) {
+                callees.put(root, new HashSet<>());
+                for (BasicBlock block : DataflowSolver.reversePostorder(root, functionEntries)) {
+                    TAC transfer = getTransfer(block);
+                    for (TAC instruction : block.getInstructions()) {
+                        if (DefUse.isUserCall(instruction) && functionEntries.contains(((Call) instruction).getDestinationBlock())) {
+                            Call call = (Call) instruction;
+                            calls.add(call);
+                            callBlocks.add(block);
+                            numCalls.merge(call.getDestinationBlock(), 1, Integer::sum);
+                            callees.get(root).add(call.getDestinationBlock());
+                        }
+                        if (instruction == transfer) {
+                            break;
+                        }
                     }
-                    
-                    // add to stack
-                    removedVertices.add(currVertex);
-                    vertices.remove(currVertex);
-                    wasVertexFound = true;
                 }
             }
 
-            // didn't find a vertex, pop any mode and mark as maybeSpilled
-            if (!wasVertexFound) {
-                String vertexToRemove = (String) vertices.keySet().toArray()[0];
-                for (String otherVertex : vertices.keySet()) {
-                    vertices.get(otherVertex).remove(vertexToRemove);
+            // inlining splits the block of the call, so one call per round
+            for (int i = 0; i < calls.size() && !changed; i++) {
+                Call call = calls.get(i);
+                BasicBlock callee = call.getDestinationBlock();
+                if (!isInlinable(call, callee, functionEntries) || isRecursive(callee, callees)) {
+                    continue;
+                }
+                int size = getInlineSize(callee, functionEntries);
+                int copies = numCalls.get(callee);
+                if (size > INLINE_SIZE_LIMIT && copies > 1 && size * (copies - 1) > INLINE_GROWTH_LIMIT) {
+                    continue;
                 }
 
-                removedVertices.add(vertexToRemove);
-                vertices.remove(vertexToRemove);
+                inlineCall(call, callBlocks.get(i), callee, functionEntries);
+                changed = true;
+                try {
+                    file.write("INL: Inlined call to " + call.getFunctionName().token().lexeme() + " in BB" + callBlocks.get(i).getID()
+                        + ", as function has " + size + " instructions and " + copies + " calls.\n");
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
         }
+    }
 
-        // retrieve the graph again, to get the edges to add
-        Map<String, Set<String>> originalGraph = getVertexGraph();
-
-        // initialize register map
-        Map<String, Integer> variableRegisterMap = new HashMap<>();
-        for (String vertex : originalGraph.keySet()) {
-            variableRegisterMap.put(vertex, -1);
+    // the function holds nothing but what copyInstruction, the branches and calls with IR arguments
+    // cover, and the call passes one argument per parameter
+    private boolean isInlinable(Call call, BasicBlock callee, Set<BasicBlock> functionEntries) {
+        if (call.getArgumentValues().size() != callee.getParameters().size()) {
+            return false;
         }
-
-        // while stack is not empty
-            // pop node from stack, insert into graph
-            // mark with specific register (lowest free one)
-        while (!removedVertices.isEmpty()) {
-            String poppedVertex = removedVertices.pop();
-
-            // check if we can color the node
-            int registerNumber = 1;
-            while (registerNumber < numRegs) {
-                // if we find a register number that does not align with all the edges
-                boolean foundRegisterValue = true;
-                for (int i = 0; i < originalGraph.get(poppedVertex).size(); i++) {
-                    if (variableRegisterMap.get((String) originalGraph.get(poppedVertex).toArray()[i]) == registerNumber) {
-                        foundRegisterValue = false;
+        for (BasicBlock block : DataflowSolver.reversePostorder(callee, functionEntries)) {
+            TAC transfer = getTransfer(block);
+            for (TAC instruction : block.getInstructions()) {
+                if (instruction instanceof Call && ((Call) instruction).isPredefined() && ((Call) instruction).hasArgs()) {
+                    for (Expression argument : ((Call) instruction).getArgs().getExpressionParameters()) {
+                        if (!(argument instanceof VariableReference) || ((VariableReference) argument).hasDimensions()) {
+                            return false;
+                        }
                     }
                 }
-
-                if (foundRegisterValue) {
-                    variableRegisterMap.put(poppedVertex, registerNumber);
-                    break;
+                else if (!isCopyableInstruction(instruction) && !DefUse.isUserCall(instruction) && !(instruction instanceof BRA)
+                        && getBranchVariable(instruction) == null && !(instruction instanceof Return)) {
+                    return false;
                 }
-                else {
-                    registerNumber++;
+                if (instruction == transfer) {
+                    break;
                 }
             }
+        }
+        return true;
+    }
 
-            // no allowed vertex, so mark as spilled
-            if (registerNumber == numRegs) {
-                variableRegisterMap.put(poppedVertex, -1);
+    // the function can reach a call of itself through the call graph
+    private boolean isRecursive(BasicBlock function, Map<BasicBlock, Set<BasicBlock>> callees) {
+        Set<BasicBlock> reached = new HashSet<>();
+        Deque<BasicBlock> worklist = new ArrayDeque<>(callees.getOrDefault(function, new HashSet<>()));
+        while (!worklist.isEmpty()) {
+            BasicBlock next = worklist.poll();
+            if (next == function) {
+                return true;
+            }
+            if (reached.add(next)) {
+                worklist.addAll(callees.getOrDefault(next, new HashSet<>()));
             }
         }
-        // printOutVariableRegisters(variableRegisterMap);
-        this.variableRegisterMap = variableRegisterMap;
-        assignRegistersToVariables(irHead, variableRegisterMap);
+        return false;
     }
 
-    public void assignRegistersToVariables(BasicBlock irHead, Map<String, Integer> variableRegisterMap) {
-        Queue<BasicBlock> queue = new ArrayDeque<>();
-        Set<BasicBlock> visited = new HashSet<>();
-        queue.add(irHead);
-    
-        // Traverse the IR blocks similarly to the BFS in getVertexGraph
-        while (!queue.isEmpty()) {
-            BasicBlock currentBlock = queue.poll();
-    
-            if (!visited.add(currentBlock)) {
-                continue; // Skip if already visited
-            }
-    
-            // Iterate over each instruction in the current block
-            for (TAC instruction : currentBlock.getInstructions()) {
-                // Check each source and destination variable in the instruction
-                checkAndAssignRegister(instruction.getDest(), variableRegisterMap);
-                for (Variable var : getVariableReferences(instruction)) {
-                    checkAndAssignRegister(var, variableRegisterMap);
+    // instructions of the function up to the transfer of each block
+    private int getInlineSize(BasicBlock callee, Set<BasicBlock> functionEntries) {
+        int size = 0;
+        for (BasicBlock block : DataflowSolver.reversePostorder(callee, functionEntries)) {
+            TAC transfer = getTransfer(block);
+            for (TAC instruction : block.getInstructions()) {
+                if (instruction instanceof BRA && instruction != transfer) {
+                    continue;
+                }
+                size++;
+                if (instruction == transfer) {
+                    break;
                 }
-            }
-    
-            // Add successors to the queue
-            for (BasicBlock successor : currentBlock.getSuccessors().keySet()) {
-                queue.add(successor);
             }
         }
+        return size;
     }
-    
-    private void checkAndAssignRegister(Variable variable, Map<String, Integer> variableRegisterMap) {
-        if (variable == null) {
-            return;
+
+    private void inlineCall(Call call, BasicBlock block, BasicBlock callee, Set<BasicBlock> functionEntries) {
+        String suffix = getInlinedSuffix(call.getFunctionName().token().lexeme(), callee.getLocalVariables());
+        Map<String, Variable> renamed = new HashMap<>();
+
+        // the block ends at the call, everything after it moves to the continuation with the
+        // successors, a BRA to the block itself did nothing and is dropped
+        List<TAC> instructions = block.getInstructions().getInstructions();
+        int position = instructions.indexOf(call);
+        TACList continuationList = new TACList();
+        for (TAC instruction : instructions.subList(position + 1, instructions.size())) {
+            if (!(instruction instanceof BRA && ((BRA) instruction).getTrueBasicBlock() == block)) {
+                continuationList.addInstruction(instruction);
+            }
         }
-        String lexeme = variable.getSymbol().token().lexeme();
-        // Check if the variable's lexeme is in the map and assign the register number
-        if (variableRegisterMap.containsKey(lexeme)) {
-            int registerNumber = variableRegisterMap.get(lexeme);
-            variable.setRegisterNumber(registerNumber);
-            // System.out.println("Assigned register " + registerNumber + " to variable " + lexeme);
+        continuationList.setLatestVariable(block.getInstructions().getLatestVariable());
+        instructions.subList(position, instructions.size()).clear();
+        BasicBlock continuation = new BasicBlock(BasicBlock.getNextBlockNumber(), continuationList, null, null);
+        for (Map.Entry<BasicBlock, String> successor : block.getSuccessors().entrySet()) {
+            if (!functionEntries.contains(successor.getKey())) {
+                continuation.addSuccessor(successor.getKey(), successor.getValue());
+                successor.getKey().removePredecessor(block.getID());
+                successor.getKey().addPredecessor(continuation);
+            }
+        }
+        block.getSuccessors().clear();
+
+        Map<BasicBlock, BasicBlock> copies = new HashMap<>();
+        List<BasicBlock> calleeBlocks = DataflowSolver.reversePostorder(callee, functionEntries);
+        for (BasicBlock calleeBlock : calleeBlocks) {
+            copies.put(calleeBlock, new BasicBlock(BasicBlock.getNextBlockNumber(), new TACList(), null, null));
+        }
+        for (BasicBlock calleeBlock : calleeBlocks) {
+            copyInlinedBlock(calleeBlock, copies, continuation, call.getReturnVariable(), callee.getLocalVariables(), suffix, renamed, functionEntries);
+        }
+
+        // arguments into the parameters, then into the copy
+        for (int i = 0; i < callee.getParameters().size(); i++) {
+            Variable parameter = inlinedVariable(callee.getParameters().get(i), callee.getLocalVariables(), suffix, renamed);
+            block.addInstruction(new Assign(TACList.getNextTACNumber(), parameter, call.getArgumentValues().get(i)));
         }
+        BasicBlock entryCopy = copies.get(callee);
+        block.addInstruction(new BRA(TACList.getNextTACNumber(), entryCopy));
+        block.addSuccessor(entryCopy, "Inlined call of " + call.getFunctionName().token().lexeme());
+        entryCopy.addPredecessor(block);
+        addCallEdges(block, functionEntries);
+        addCallEdges(continuation, functionEntries);
     }
 
-    public Map<String, Set<String>> getVertexGraph() {
-        Map<String, Set<String>> vertices = new HashMap<>();
-        Queue<BasicBlock> queue = new ArrayDeque<>();
-        queue.add(irHead);
-    
-        Map<BasicBlock, Set<Variable>> blockLiveVariables = new HashMap<>();
-        Set<BasicBlock> visited = new HashSet<>();
-        Stack<BasicBlock> visitedStack = new Stack<>();
-    
-        // Get blocks in reverse post-order
-        while (!queue.isEmpty()) {
-            BasicBlock currentBlock = queue.poll();
-    
-            if (!visited.add(currentBlock)) {
-                continue;
+    // copy of a block of the inlined function: its locals renamed, its branches to the copies of
+    // their targets, and leaving the function continues with the continuation instead
+    private void copyInlinedBlock(BasicBlock original, Map<BasicBlock, BasicBlock> copies, BasicBlock continuation, Variable result,
+                                  Set<String> locals, String suffix, Map<String, Variable> renamed, Set<BasicBlock> functionEntries) {
+        BasicBlock copy = copies.get(original);
+        TAC transfer = getTransfer(original);
+        for (TAC instruction : original.getInstructions()) {
+            if (instruction == transfer) {
+                break;
             }
-    
-            visitedStack.push(currentBlock);
-            for (BasicBlock successor : currentBlock.getSuccessors().keySet()) {
-                queue.add(successor);
+            // only BRAs to the block itself come before the transfer
+            if (instruction instanceof BRA) {
+                continue;
             }
+            copy.addInstruction(copyInlinedInstruction(instruction, locals, suffix, renamed));
         }
-    
-        // Traverse the blocks in reverse post-order
-        while (!visitedStack.isEmpty()) {
-            BasicBlock currentBlock = visitedStack.pop();
-
-            // Initialize the set of live variables for this block
-            Set<Variable> localLiveVariables = new HashSet<>();
 
-            // First, add all live variables from its successors
-            for (BasicBlock successor : currentBlock.getSuccessors().keySet()) {
-                Set<Variable> succLiveVariables = blockLiveVariables.getOrDefault(successor, new HashSet<>());
-                localLiveVariables.addAll(succLiveVariables);
+        if (transfer instanceof Return) {
+            Return ret = (Return) transfer;
+            if (result != null && ret.hasReturnValue()) {
+                Value returnValue = ret.getReturnValue();
+                if (returnValue instanceof Variable) {
+                    returnValue = inlinedVariable((Variable) returnValue, locals, suffix, renamed);
+                }
+                copy.addInstruction(new Assign(TACList.getNextTACNumber(), result, returnValue));
+            }
+            copy.addInstruction(new BRA(TACList.getNextTACNumber(), continuation));
+            copy.addSuccessor(continuation, "Return of inlined call");
+            continuation.addPredecessor(copy);
+        }
+        else if (transfer instanceof BRA) {
+            BasicBlock target = ((BRA) transfer).getTrueBasicBlock();
+            copy.addInstruction(new BRA(TACList.getNextTACNumber(), copies.get(target)));
+            copy.addSuccessor(copies.get(target), original.getSuccessors().getOrDefault(target, ""));
+            copies.get(target).addPredecessor(copy);
+        }
+        else if (transfer != null) {
+            // the false target, or the continuation when the function returns by falling through, comes first
+            BasicBlock falseBlock = getBranchFalseBlock(transfer);
+            if (falseBlock == null) {
+                falseBlock = getFallThroughSuccessor(original, functionEntries);
+            }
+            BasicBlock falseCopy = (falseBlock != null) ? copies.get(falseBlock) : continuation;
+            BasicBlock trueCopy = copies.get(getBranchTrueBlock(transfer));
+            Map<String, Variable> condition = new HashMap<>();
+            condition.put(DefUse.name(getBranchVariable(transfer)), inlinedVariable(getBranchVariable(transfer), locals, suffix, renamed));
+            copy.addInstruction(copyBranch(replaceVariables(transfer, condition, null), trueCopy, falseCopy));
+            copy.addSuccessor(falseCopy, (falseBlock != null) ? original.getSuccessors().getOrDefault(falseBlock, "") : "Return of inlined call");
+            copy.addSuccessor(trueCopy, original.getSuccessors().getOrDefault(getBranchTrueBlock(transfer), ""));
+            falseCopy.addPredecessor(copy);
+            trueCopy.addPredecessor(copy);
+        }
+        else {
+            BasicBlock fallThrough = getFallThroughSuccessor(original, functionEntries);
+            if (fallThrough != null) {
+                copy.addSuccessor(copies.get(fallThrough), original.getSuccessors().get(fallThrough));
+                copies.get(fallThrough).addPredecessor(copy);
             }
+            else {
+                copy.addInstruction(new BRA(TACList.getNextTACNumber(), continuation));
+                copy.addSuccessor(continuation, "Return of inlined call");
+                continuation.addPredecessor(copy);
+            }
+        }
+        copy.getInstructions().setLatestVariable(original.getInstructions().getLatestVariable());
+        addCallEdges(copy, functionEntries);
+    }
 
-            // Process instructions in reverse order
-            List<TAC> instructions = new ArrayList<>(currentBlock.getInstructions().getReversedInstructions());
-            for (TAC instruction : instructions) {
-                // Handling the "kill" operation: Remove destination variable from live variables
-                if (instruction.getDest() != null) {
-                    Variable destVariable = instruction.getDest();
-                    String destLexeme = destVariable.getSymbol().token().lexeme();
-
-                    // Before removing, create edges from the destination variable to all current live variables
-                    if (!vertices.containsKey(destLexeme)) {
-                        vertices.put(destLexeme, new HashSet<>());
-                    }
-
-                    for (Variable liveVar : localLiveVariables) {
-                        if (!destVariable.equals(liveVar)) {
-                            String liveVarLexeme = liveVar.getSymbol().token().lexeme();
-                            if (!vertices.containsKey(liveVarLexeme)) {
-                                vertices.put(liveVarLexeme, new HashSet<>());
-                            }
-                            vertices.get(destLexeme).add(liveVarLexeme);
-                            vertices.get(liveVarLexeme).add(destLexeme);
-                        }
-                    }
-                    // Now remove the destination variable
-                    localLiveVariables.remove(destVariable);
-                }
-
-                // "Gen" operation: Add all variables referenced in the instruction
-                localLiveVariables.addAll(getVariableReferences(instruction));
-
-                // add edge from varible to all other live variables
-                Set<Variable> variablesToAdd = getVariableReferences(instruction);
-                for (Variable liveVar : variablesToAdd) {
-                    for (int i = 0; i < localLiveVariables.size(); i++) {
-                        String currentLiveVariable = ((Variable) localLiveVariables.toArray()[i]).getSymbol().token().lexeme();
-                        String liveVarLexeme = liveVar.getSymbol().token().lexeme();
-                        if (!vertices.containsKey(liveVarLexeme)) {
-                            vertices.put(liveVarLexeme, new HashSet<>());
-                        }
-                        if (!vertices.containsKey(currentLiveVariable)) {
-                            vertices.put(currentLiveVariable, new HashSet<>());
-                        }
-                        vertices.get(currentLiveVariable).add(liveVarLexeme);
-                        vertices.get(liveVarLexeme).add(currentLiveVariable);
+    // same instruction with a new ID and the locals of the inlined function renamed
+    private TAC copyInlinedInstruction(TAC instruction, Set<String> locals, String suffix, Map<String, Variable> renamed) {
+        if (instruction instanceof Call) {
+            Call call = (Call) instruction;
+            Call callCopy;
+            if (!call.isPredefined()) {
+                callCopy = new Call(TACList.getNextTACNumber(), call.getDestinationBlock(), call.getFunctionName(), call.getArgs());
+                List<Value> arguments = new ArrayList<>();
+                for (Value argument : call.getArgumentValues()) {
+                    arguments.add((argument instanceof Variable) ? inlinedVariable((Variable) argument, locals, suffix, renamed) : argument);
+                }
+                callCopy.setArgumentValues(arguments);
+            }
+            else if (call.hasArgs()) {
+                List<Expression> arguments = new ArrayList<>();
+                for (Expression argument : call.getArgs().getExpressionParameters()) {
+                    VariableReference reference = (VariableReference) argument;
+                    Token token = reference.getIdent().token();
+                    if (!locals.contains(token.lexeme())) {
+                        arguments.add(argument);
+                        continue;
                     }
+                    VariableReference referenceCopy = new VariableReference(reference.lineNumber(), reference.charPosition(),
+                        new Symbol(new Token(token.lexeme() + suffix, token.lineNumber(), token.charPosition())));
+                    referenceCopy.setIsInt(reference.isInt());
+                    referenceCopy.setIsFloat(reference.isFloat());
+                    referenceCopy.setIsBool(reference.isBool());
+                    arguments.add(referenceCopy);
                 }
+                ArgumentList args = call.getArgs();
+                callCopy = new Call(TACList.getNextTACNumber(), call.getFunctionName(), new ArgumentList(args.lineNumber(), args.charPosition(), arguments, args.getReturnType()));
+            }
+            else {
+                callCopy = new Call(TACList.getNextTACNumber(), call.getFunctionName());
+            }
+            if (call.getReturnVariable() != null) {
+                callCopy.setReturnVariable(inlinedVariable(call.getReturnVariable(), locals, suffix, renamed));
+            }
+            return callCopy;
+        }
 
+        List<Value> values = new ArrayList<>(DefUse.operands(instruction));
+        if (instruction instanceof Assign) {
+            values.add(((Assign) instruction).getRight());
+        }
+        if (instruction instanceof Neg) {
+            values.add(((Neg) instruction).getRight());
+        }
+        for (Value value : values) {
+            if (value instanceof Variable) {
+                inlinedVariable((Variable) value, locals, suffix, renamed);
             }
+        }
+        Variable dest = inlinedVariable(instruction.getDest(), locals, suffix, renamed);
+        return copyInstruction(replaceVariables(instruction, renamed, dest));
+    }
 
-            // Store the current block's live variables in the map
-            blockLiveVariables.put(currentBlock, localLiveVariables);
+    // "_f1", "_f2", ... for the copies of f, skipping those that would give a local a name the
+    // program already uses
+    private String getInlinedSuffix(String functionName, Set<String> locals) {
+        String suffix;
+        boolean isUsed;
+        do {
+            suffix = "_" + functionName + (++numInlinedCopies);
+            isUsed = false;
+            for (String local : locals) {
+                isUsed |= usedNames.contains(local + suffix);
+            }
+        } while (isUsed);
+        for (String local : locals) {
+            usedNames.add(local + suffix);
         }
+        return suffix;
+    }
 
-        // Optional: Print or otherwise use the vertices map
-        // printOutVariableGraph(vertices);
-        return vertices;
+    // the copy's own variable for a local of the inlined function, the variable itself otherwise
+    private Variable inlinedVariable(Variable variable, Set<String> locals, String suffix, Map<String, Variable> renamed) {
+        if (!locals.contains(DefUse.name(variable))) {
+            return variable;
         }
-    
+        if (!renamed.containsKey(DefUse.name(variable))) {
+            Token token = variable.getSymbol().token();
+            Variable copy = new Variable(new Symbol(new Token(token.lexeme() + suffix, token.lineNumber(), token.charPosition())));
+            copy.setIsInt(variable.isInt());
+            copy.setIsFloat(variable.isFloat());
+            copy.setIsBool(variable.isBool());
+            renamed.put(DefUse.name(variable), copy);
+        }
+        return renamed.get(DefUse.name(variable));
+    }
 
-    public void printOutVariableGraph(Map<String, Set<String>> graph) {
-        System.out.println("Graph: ");
-        for (String v : graph.keySet()) {
-            System.out.println("Vertex:" + v);
-            if (graph.get(v) != null) {
-                for (String vEdge : graph.get(v)) {
-                    System.out.println("\t> " + vEdge);
+    // call edges from the block to the functions it calls
+    private void addCallEdges(BasicBlock block, Set<BasicBlock> functionEntries) {
+        for (TAC instruction : block.getInstructions()) {
+            if (DefUse.isUserCall(instruction) && functionEntries.contains(((Call) instruction).getDestinationBlock())) {
+                if (!block.getSuccessors().containsKey(((Call) instruction).getDestinationBlock())) {
+                    block.addSuccessor(((Call) instruction).getDestinationBlock());
                 }
             }
         }
-        System.out.println("Graph end");
     }
 
-    public void printOutVariableRegisters(Map<String, Integer> registerMap) {
-        System.out.println("Registers: ");
-        for (String var : registerMap.keySet()) {
-            System.out.println(var + ": " + registerMap.get(var));
-        }
-    }   
+// Profile-Guided Optimization ==============================================================
+    // block frequencies of a training run (see CompilerTester -pgo), null when compiling without one
+    private BlockProfile profile = null;
 
-// Code Generation ==============================================================
-    Map<String, Integer> variableToOffset = new HashMap<>();
-    Map<String, Integer> variableRegisterMap = null;
+    public void setProfile(BlockProfile profile) {
+        this.profile = profile;
+    }
 
-    int destSpilledRegister = 25;
-    int leftSpilledRegister = 26;
-    int rightSpilledRegister = 27;
-    int currentOffset = 0;
+    // times the block was entered in the training run, 0 without a profile
+    private long blockFrequency(BasicBlock block) {
+        if (profile == null) {
+            return 0;
+        }
+        return profile.entries(block.getID());
+    }
 
-    public int[] genCode() {
-        // CFGPrinter.LegiblePrint(irHead);
-    
-        ArrayList<Integer> generatedCode = new ArrayList<>();
-        Queue<BasicBlock> blockQueue = new ArrayDeque<>();
+    // Unrolls every while loop whose condition block ran hot by two. The body falls through into a
+    // copy of the condition and a copy of the body, which then jumps back to the original condition.
+    // Only loops with a single body block and no user function calls are unrolled.
+    private void unrollHotLoops(FileWriter file) {
+        List<BasicBlock> roots = new ArrayList<>();
+        roots.add(irHead);
+        roots.addAll(irHead.getFunctionsMap().values());
+
+        // collect the loops first, unrolling adds blocks to the graph being walked
+        List<BasicBlock> conditionBlocks = new ArrayList<>();
+        Queue<BasicBlock> blockQueue = new ArrayDeque<>(roots);
         Set<BasicBlock> visitedBlocks = new HashSet<>();
-        Map<Integer, TAC> branchInstructionPositions = new HashMap<>();
-    
-        // Initialize with the entry block
-        blockQueue.add(irHead);
-    
-        // Process each block in the CFG
         while (!blockQueue.isEmpty()) {
             BasicBlock currentBlock = blockQueue.poll();
-            // CFGPrinter.LegiblePrint(currentBlock);
-    
-            // Skip blocks that have been processed to avoid loops
             if (!visitedBlocks.add(currentBlock)) {
                 continue;
             }
-            
-            currentBlock.setMachineInstructionsStartingPosition(generatedCode.size());
-    
-            // Generate machine code for each instruction in the current block
-            for (TAC instruction : currentBlock.getInstructions()) {
-                // track all branch instructions and dont add yet
-                if (instruction instanceof BRA || instruction instanceof BLT || instruction instanceof BNE || instruction instanceof BEQ || instruction instanceof BGE || instruction instanceof BGT) {
-                    branchInstructionPositions.put(generatedCode.size(), instruction);
-                    continue;
-                }
-                if (instruction instanceof Call) {
-                    Call instructionCall = (Call) instruction;
-                    if (!instructionCall.isPredefined()) {
-                        branchInstructionPositions.put(generatedCode.size(), instruction);
-                        continue;
-                    }
-                }
+            if (profile.isHot(currentBlock.getID()) && getUnrollableLoopBody(currentBlock) != null) {
+                conditionBlocks.add(currentBlock);
+            }
+            blockQueue.addAll(currentBlock.getSuccessors().keySet());
+        }
 
-                // System.out.println("for instruction: " + instruction.getID());
-                ArrayList<Integer> instructionMachineCode = instructionToMachineCode(instruction, generatedCode.size(), 0);
+        for (BasicBlock conditionBlock : conditionBlocks) {
+            unrollLoop(conditionBlock, getUnrollableLoopBody(conditionBlock));
+            try {
+                file.write("PGO: Unrolled while loop at BB" + conditionBlock.getID() + " by 2, as its condition ran " + blockFrequency(conditionBlock) + " times.\n");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-                // for (int i = 0; i < instructionMachineCode.size(); i++) {
-                //     System.out.print(i + ":\t" + DLX.instrString(instructionMachineCode.get(i))); // \newline included in DLX.instrString()
-                // }
+    // body block of the while loop whose condition is conditionBlock, null if it is no loop we can unroll
+    private BasicBlock getUnrollableLoopBody(BasicBlock conditionBlock) {
+        List<TAC> conditionInstructions = conditionBlock.getInstructions().getInstructions();
+        if (conditionInstructions.isEmpty() || conditionBlock.getSuccessors().size() != 2) {
+            return null;
+        }
+        TAC conditionBranch = conditionInstructions.get(conditionInstructions.size() - 1);
+        BasicBlock bodyBlock = getBranchTrueBlock(conditionBranch);
+        BasicBlock blockAfterLoop = getBranchFalseBlock(conditionBranch);
+        if (bodyBlock == null || blockAfterLoop == null || bodyBlock == conditionBlock) {
+            return null;
+        }
 
+        // the body must be a single block jumping straight back to the condition
+        List<TAC> bodyInstructions = bodyBlock.getInstructions().getInstructions();
+        if (bodyInstructions.isEmpty() || bodyBlock.getSuccessors().size() != 1 || !bodyBlock.getSuccessors().containsKey(conditionBlock)) {
+            return null;
+        }
+        TAC bodyBranch = bodyInstructions.get(bodyInstructions.size() - 1);
+        if (!(bodyBranch instanceof BRA) || ((BRA) bodyBranch).getTrueBasicBlock() != conditionBlock) {
+            return null;
+        }
 
-                for (Integer code : instructionMachineCode) {
-                    currentBlock.addMachineInstruction(code); // Add to BasicBlock's machineInstructions
-                    generatedCode.add(code);
-                }
+        for (int i = 0; i < conditionInstructions.size() - 1; i++) {
+            if (!isCopyableInstruction(conditionInstructions.get(i))) {
+                return null;
             }
-            
-            // Enqueue successors to be processed
-            currentBlock.getSuccessors().keySet().forEach(blockQueue::add);
-        }
-
-        // traverse through branch instructions now that blocks have a starting position
-        int count = 0;
-        // for (Integer currPosition : branchInstructionPositions.keySet()) {
-        //     ArrayList<Integer> currentBranchedCode = instructionToMachineCode(branchInstructionPositions.get(currPosition), currPosition, count);
-        //     for (Integer currCode : currentBranchedCode) {
-        //         // System.out.println("adding " + DLX.instrString(currCode));
-        //         generatedCode.add(currPosition.intValue() + count, currCode);
-        //         count++;
-        //     }
-        // }
-
-        // Add RET 0 instruction to signify end of program
-        int ret0 = DLX.assemble(55, 0);
-        generatedCode.add(ret0);
-    
-        // Convert ArrayList to array and return
-        int[] generatedCodeArray = new int[generatedCode.size()];
-        for (int i = 0; i < generatedCode.size(); i++) {
-            generatedCodeArray[i] = generatedCode.get(i);
         }
-    
-        return generatedCodeArray;
+        for (int i = 0; i < bodyInstructions.size() - 1; i++) {
+            if (!isCopyableInstruction(bodyInstructions.get(i))) {
+                return null;
+            }
+        }
+        return bodyBlock;
     }
-    
-    public ArrayList<Integer> instructionToMachineCode(TAC instruction, int instructionPosition, int offset) {
-        ArrayList<Integer> toReturn = new ArrayList<>();
+
+    private void unrollLoop(BasicBlock conditionBlock, BasicBlock bodyBlock) {
+        List<TAC> conditionInstructions = conditionBlock.getInstructions().getInstructions();
+        List<TAC> bodyInstructions = bodyBlock.getInstructions().getInstructions();
+        TAC conditionBranch = conditionInstructions.get(conditionInstructions.size() - 1);
+        TAC bodyBranch = bodyInstructions.get(bodyInstructions.size() - 1);
+        BasicBlock blockAfterLoop = getBranchFalseBlock(conditionBranch);
+
+        TACList conditionCopyList = new TACList();
+        TACList bodyCopyList = new TACList();
+        BasicBlock conditionCopy = new BasicBlock(BasicBlock.getNextBlockNumber(), conditionCopyList, null, null);
+        BasicBlock bodyCopy = new BasicBlock(BasicBlock.getNextBlockNumber(), bodyCopyList, null, null);
+
+        for (int i = 0; i < conditionInstructions.size() - 1; i++) {
+            conditionCopyList.addInstruction(copyInstruction(conditionInstructions.get(i)));
+        }
+        conditionCopyList.addInstruction(copyBranch(conditionBranch, bodyCopy, blockAfterLoop));
+        conditionCopyList.setLatestVariable(conditionBlock.getInstructions().getLatestVariable());
+
+        for (int i = 0; i < bodyInstructions.size() - 1; i++) {
+            bodyCopyList.addInstruction(copyInstruction(bodyInstructions.get(i)));
+        }
+        bodyCopyList.addInstruction(new BRA(TACList.getNextTACNumber(), conditionBlock));
+        bodyCopyList.setLatestVariable(bodyBlock.getInstructions().getLatestVariable());
+
+        // first body now continues with the copied condition instead of the back edge
+        bodyInstructions.set(bodyInstructions.size() - 1, new BRA(bodyBranch.getID(), conditionCopy));
+        bodyBlock.removeSuccessor(conditionBlock.getID());
+        bodyBlock.addSuccessor(conditionCopy, "Unrolled loop condition");
+        conditionBlock.removePredecessor(bodyBlock.getID());
+        conditionCopy.addPredecessor(bodyBlock);
+
+        conditionCopy.addSuccessor(blockAfterLoop, "Fall through");
+        conditionCopy.addSuccessor(bodyCopy, "Branch inside unrolled while loop");
+        blockAfterLoop.addPredecessor(conditionCopy);
+        bodyCopy.addPredecessor(conditionCopy);
+
+        bodyCopy.addSuccessor(conditionBlock, "Loop condition");
+        conditionBlock.addPredecessor(bodyCopy);
+    }
+
+    private boolean isCopyableInstruction(TAC instruction) {
+        return instruction instanceof Add || instruction instanceof Sub || instruction instanceof Mul || instruction instanceof Div
+            || instruction instanceof Mod || instruction instanceof Pow || instruction instanceof And || instruction instanceof Or
+            || instruction instanceof Neg || instruction instanceof Comparison || instruction instanceof Assign
+            || (instruction instanceof Call && ((Call) instruction).isPredefined());
+    }
+
+    // same instruction with a new ID, null for instructions we do not duplicate (user calls, branches, ...)
+    private TAC copyInstruction(TAC instruction) {
         if (instruction instanceof Add) {
-            // System.out.println("Add");
-            ArrayList<Integer> returnList = instructionToMachineCode((Add) (instruction));
-            return returnList;
+            Add add = (Add) instruction;
+            return new Add(TACList.getNextTACNumber(), add.getDest(), add.getLeft(), add.getRight());
         }
         if (instruction instanceof Sub) {
-            // System.out.println("Sub");
-            ArrayList<Integer> returnList = instructionToMachineCode((Sub) (instruction));
-            return returnList;
+            Sub sub = (Sub) instruction;
+            return new Sub(TACList.getNextTACNumber(), sub.getDest(), sub.getLeft(), sub.getRight());
         }
         if (instruction instanceof Mul) {
-            // System.out.println("Mul");
-            ArrayList<Integer> returnlist = instructionToMachineCode((Mul) (instruction));
-            return returnlist;
+            Mul mul = (Mul) instruction;
+            return new Mul(TACList.getNextTACNumber(), mul.getDest(), mul.getLeft(), mul.getRight());
         }
         if (instruction instanceof Div) {
-            // System.out.println("Div");
-            ArrayList<Integer> returnList = instructionToMachineCode((Div) (instruction));
-            return returnList;
+            Div div = (Div) instruction;
+            return new Div(TACList.getNextTACNumber(), div.getDest(), div.getLeft(), div.getRight());
         }
         if (instruction instanceof Mod) {
-            // System.out.println("Mod");
-            ArrayList<Integer> returnList = instructionToMachineCode((Mod) (instruction));
-            return returnList;
+            Mod mod = (Mod) instruction;
+            return new Mod(TACList.getNextTACNumber(), mod.getDest(), mod.getLeft(), mod.getRight());
         }
         if (instruction instanceof Pow) {
-            // System.out.println("Pow");
-            ArrayList<Integer> returnList = instructionToMachineCode((Pow) (instruction));
-            return returnList;
+            Pow pow = (Pow) instruction;
+            return new Pow(TACList.getNextTACNumber(), pow.getDest(), pow.getLeft(), pow.getRight());
         }
         if (instruction instanceof And) {
-            ArrayList<Integer> returnList = instructionToMachineCode((And) (instruction));
-            return returnList;
+            And and = (And) instruction;
+            return new And(TACList.getNextTACNumber(), and.getDest(), and.getLeft(), and.getRight());
         }
         if (instruction instanceof Or) {
-            ArrayList<Integer> returnList = instructionToMachineCode((Or) (instruction));
-            return returnList;        }
-        if (instruction instanceof BEQ) {
-            ArrayList<Integer> retArrayList = instructionToMachineCode((BEQ) (instruction), instructionPosition, offset);
-            return retArrayList;
+            Or or = (Or) instruction;
+            return new Or(TACList.getNextTACNumber(), or.getDest(), or.getLeft(), or.getRight());
         }
-        if (instruction instanceof BNE) {
-            ArrayList<Integer> retArrayList = instructionToMachineCode((BNE) (instruction), instructionPosition, offset);
-            return retArrayList;
+        if (instruction instanceof Neg) {
+            Neg neg = (Neg) instruction;
+            return new Neg(TACList.getNextTACNumber(), neg.getDest(), neg.getRight());
         }
-        if (instruction instanceof BLT) {
-            ArrayList<Integer> retArrayList = instructionToMachineCode((BLT) (instruction), instructionPosition, offset);
-            return retArrayList;
+        if (instruction instanceof Comparison) {
+            Comparison comparison = (Comparison) instruction;
+            return new Comparison(TACList.getNextTACNumber(), comparison.getDest(), comparison.getLeft(), comparison.getRight(), comparison.getComparisonOperator());
         }
-        if (instruction instanceof BGE) {
-            ArrayList<Integer> retArrayList = instructionToMachineCode((BGE) (instruction), instructionPosition, offset);
-            return retArrayList;
+        if (instruction instanceof Assign) {
+            Assign assign = (Assign) instruction;
+            if (assign.getRight() == null) {
+                return new Assign(TACList.getNextTACNumber(), assign.getDest());
+            }
+            return new Assign(TACList.getNextTACNumber(), assign.getDest(), assign.getRight());
         }
-        if (instruction instanceof BLE) {
-            ArrayList<Integer> retArrayList = instructionToMachineCode((BLE) (instruction), instructionPosition, offset);
-            return retArrayList;
+        if (instruction instanceof Call && ((Call) instruction).isPredefined()) {
+            Call call = (Call) instruction;
+            Call callCopy;
+            if (call.hasArgs()) {
+                callCopy = new Call(TACList.getNextTACNumber(), call.getFunctionName(), call.getArgs());
+            }
+            else {
+                callCopy = new Call(TACList.getNextTACNumber(), call.getFunctionName());
+            }
+            callCopy.setReturnVariable(call.getReturnVariable());
+            return callCopy;
         }
-        if (instruction instanceof BGT) {
-            ArrayList<Integer> retArrayList = instructionToMachineCode((BGT) (instruction), instructionPosition, offset);
-            return retArrayList;
+        return null;
+    }
+
+    // conditional branch of the same kind on the same variable, with new targets
+    private TAC copyBranch(TAC branch, BasicBlock trueBlock, BasicBlock falseBlock) {
+        if (branch instanceof BEQ) {
+            return new BEQ(TACList.getNextTACNumber(), ((BEQ) branch).getLeft(), trueBlock, falseBlock);
         }
-        if (instruction instanceof BRA) {
-            ArrayList<Integer> retArrayList = instructionToMachineCode((BRA) (instruction), instructionPosition, offset);
-            return retArrayList;
+        if (branch instanceof BNE) {
+            return new BNE(TACList.getNextTACNumber(), ((BNE) branch).getLeft(), trueBlock, falseBlock);
         }
-        if (instruction instanceof Comparison) {
-            ArrayList<Integer> retArrayList = instructionToMachineCode((Comparison) (instruction));
-            return retArrayList;
+        if (branch instanceof BLT) {
+            return new BLT(TACList.getNextTACNumber(), ((BLT) branch).getLeft(), trueBlock, falseBlock);
         }
-        if (instruction instanceof Assign) {
-            ArrayList<Integer> retArrayList = instructionToMachineCode((Assign) (instruction));
-            return retArrayList;
+        if (branch instanceof BLE) {
+            return new BLE(TACList.getNextTACNumber(), ((BLE) branch).getLeft(), trueBlock, falseBlock);
         }
-        if (instruction instanceof Call) {
-            ArrayList<Integer> retArrayList = instructionToMachineCode((Call) (instruction), instructionPosition);
-            return retArrayList;
+        if (branch instanceof BGT) {
+            return new BGT(TACList.getNextTACNumber(), ((BGT) branch).getLeft(), trueBlock, falseBlock);
         }
-        if (instruction instanceof Return) {
-            ArrayList<Integer> retArraylist = instructionToMachineCode((Return) (instruction));
-            return retArraylist;
+        if (branch instanceof BGE) {
+            return new BGE(TACList.getNextTACNumber(), ((BGE) branch).getLeft(), trueBlock, falseBlock);
         }
-
-        return toReturn;
+        return null;
     }
 
-    public ArrayList<Integer> instructionToMachineCode(Add instruction) {
-        ArrayList<Integer> retArrayList = new ArrayList<>();
-        int opCode = 0;
-
-        int destRegisterToSet = instruction.getDest().getMachineCodeRepresentation();
-        int leftRegisterToSet = instruction.getLeft().getMachineCodeRepresentation();
-        int rightRegisterToSet = instruction.getRight().getMachineCodeRepresentation();
-        boolean destSpilled = false;
-
-
-        // assuming left is always a variable, check for spilling
-        Variable leftVariable = (Variable) instruction.getLeft();
-        if (leftVariable.getRegisterNumber() == -1) {
-            if (variableToOffset.containsKey(leftVariable.getSymbol().token().lexeme())) {
-                retArrayList.add(DLX.assemble(40, leftSpilledRegister, 30, variableToOffset.get(leftVariable.getSymbol().token().lexeme())));
-            } else {
-                variableToOffset.put(leftVariable.getSymbol().token().lexeme(), currentOffset);
-                currentOffset -= 4;  // Decrement the current offset to create a new space in memory
-            }
-            leftRegisterToSet = leftSpilledRegister;
+    // variable a conditional branch tests, null for everything else
+    private Variable getBranchVariable(TAC branch) {
+        if (branch instanceof BEQ) {
+            return ((BEQ) branch).getLeft();
         }
-
-        // Handle spilling for the right operand
-        if (instruction.getRight() instanceof Variable) {
-            Variable rightVariable = (Variable) instruction.getRight();
-            if (rightVariable.getRegisterNumber() == -1) {
-                if (variableToOffset.containsKey(rightVariable.getSymbol().token().lexeme())) {
-                    retArrayList.add(DLX.assemble(40, rightSpilledRegister, 30, variableToOffset.get(rightVariable.getSymbol().token().lexeme())));
-                } else {
-                    variableToOffset.put(rightVariable.getSymbol().token().lexeme(), currentOffset);
-                    currentOffset -= 4;  // Decrement the current offset to create a new space in memory
-                }
-                rightRegisterToSet = rightSpilledRegister;
-            }
+        if (branch instanceof BNE) {
+            return ((BNE) branch).getLeft();
         }
-
-        // if dest is spilled
-        if (instruction.getDest().getRegisterNumber() == -1) {
-            if (variableToOffset.containsKey(instruction.getDest().getSymbol().token().lexeme())) {
-                retArrayList.add(DLX.assemble(40, destSpilledRegister, 30, variableToOffset.get(instruction.getDest().getSymbol().token().lexeme())));
-            }
-            else {
-                // might be the first value
-                variableToOffset.put(instruction.getDest().getSymbol().token().lexeme(), currentOffset);
-                currentOffset -= 4;
-            }
-            destSpilled = true;
-            destRegisterToSet = destSpilledRegister;
+        if (branch instanceof BLT) {
+            return ((BLT) branch).getLeft();
         }
-    
-        if (instruction.getRight().isFloat() && instruction.getRight() instanceof Literal) {
-            // fADDI
-            opCode = 27;
-            float d = instruction.getRight().getMachineCodeFloatRepresentation();
-            retArrayList.add(DLX.assemble(opCode, destRegisterToSet, leftRegisterToSet, d));
-        } else if (instruction.getRight().isFloat()) {
-            // fADD
-            opCode = 7;
-        } else if (instruction.getRight() instanceof Literal) {
-            // ADDI
-            opCode = 20;
+        if (branch instanceof BLE) {
+            return ((BLE) branch).getLeft();
         }
-    
-        retArrayList.add(DLX.assemble(opCode, destRegisterToSet, leftRegisterToSet, rightRegisterToSet));
-        
-        if (destSpilled) {
-            retArrayList.add(DLX.assemble(43, destRegisterToSet, 30, variableToOffset.get(instruction.getDest().getSymbol().token().lexeme())));
+        if (branch instanceof BGT) {
+            return ((BGT) branch).getLeft();
         }
-
-        return retArrayList;
+        if (branch instanceof BGE) {
+            return ((BGE) branch).getLeft();
+        }
+        return null;
     }
-    
-
-    public ArrayList<Integer> instructionToMachineCode(Sub instruction) {
-        ArrayList<Integer> retArrayList = new ArrayList<>();
-        int opCode = 1;
 
-        int destRegisterToSet = instruction.getDest().getMachineCodeRepresentation();
-        int leftRegisterToSet = instruction.getLeft().getMachineCodeRepresentation();
-        int rightRegisterToSet = instruction.getRight().getMachineCodeRepresentation();
-        boolean destSpilled = false;
-
-        Variable leftVariable = (Variable) instruction.getLeft();
-        if (leftVariable.getRegisterNumber() == -1) {
-            if (variableToOffset.containsKey(leftVariable.getSymbol().token().lexeme())) {
-                retArrayList.add(DLX.assemble(40, leftSpilledRegister, 30, variableToOffset.get(leftVariable.getSymbol().token().lexeme())));
-            } else {
-                variableToOffset.put(leftVariable.getSymbol().token().lexeme(), currentOffset);
-                currentOffset -= 4;  // Decrement the current offset to create a new space in memory
-            }
-            leftRegisterToSet = leftSpilledRegister;
+    private BasicBlock getBranchTrueBlock(TAC branch) {
+        if (branch instanceof BEQ) {
+            return ((BEQ) branch).getTrueBasicBlock();
         }
-
-        // Handle spilling for the right operand
-        if (instruction.getRight() instanceof Variable) {
-            Variable rightVariable = (Variable) instruction.getRight();
-            if (rightVariable.getRegisterNumber() == -1) {
-                if (variableToOffset.containsKey(rightVariable.getSymbol().token().lexeme())) {
-                    retArrayList.add(DLX.assemble(40, rightSpilledRegister, 30, variableToOffset.get(rightVariable.getSymbol().token().lexeme())));
-                } else {
-                    variableToOffset.put(rightVariable.getSymbol().token().lexeme(), currentOffset);
-                    currentOffset -= 4;  // Decrement the current offset to create a new space in memory
-                }
-                rightRegisterToSet = rightSpilledRegister;
-            }
+        if (branch instanceof BNE) {
+            return ((BNE) branch).getTrueBasicBlock();
         }
-
-        Variable destVariable = instruction.getDest();
-        if (destVariable.getRegisterNumber() == -1) {
-            if (variableToOffset.containsKey(destVariable.getSymbol().token().lexeme())) {
-                retArrayList.add(DLX.assemble(40, destSpilledRegister, 30, variableToOffset.get(destVariable.getSymbol().token().lexeme())));
-            }
-            else {
-                variableToOffset.put(destVariable.getSymbol().token().lexeme(), currentOffset);
-                currentOffset -= 4;
-            }
-            destSpilled = true;
-            destRegisterToSet = destSpilledRegister;
+        if (branch instanceof BLT) {
+            return ((BLT) branch).getTrueBasicBlock();
         }
-    
-        if (instruction.getRight().isFloat() && instruction.getRight() instanceof Literal) {
-            opCode = 28; 
-            float d = instruction.getRight().getMachineCodeFloatRepresentation();
-            retArrayList.add(DLX.assemble(opCode, destRegisterToSet, leftRegisterToSet, d));
+        if (branch instanceof BLE) {
+            return ((BLE) branch).getTrueBasicBlock();
         }
-        else if (instruction.getRight().isFloat()) {
-            opCode = 8; 
+        if (branch instanceof BGT) {
+            return ((BGT) branch).getTrueBasicBlock();
         }
-        else if (instruction.getRight() instanceof Literal) {
-            opCode = 21;
+        if (branch instanceof BGE) {
+            return ((BGE) branch).getTrueBasicBlock();
         }
-    
-        retArrayList.add(DLX.assemble(opCode, destRegisterToSet, leftRegisterToSet, rightRegisterToSet));
+        return null;
+    }
 
-        if (destSpilled) {
-            retArrayList.add(DLX.assemble(43, destRegisterToSet, 30, variableToOffset.get(instruction.getDest().getSymbol().token().lexeme())));
+    private BasicBlock getBranchFalseBlock(TAC branch) {
+        if (branch instanceof BEQ) {
+            return ((BEQ) branch).getFalseBasicBlock();
         }
-
-        return retArrayList;
+        if (branch instanceof BNE) {
+            return ((BNE) branch).getFalseBasicBlock();
+        }
+        if (branch instanceof BLT) {
+            return ((BLT) branch).getFalseBasicBlock();
+        }
+        if (branch instanceof BLE) {
+            return ((BLE) branch).getFalseBasicBlock();
+        }
+        if (branch instanceof BGT) {
+            return ((BGT) branch).getFalseBasicBlock();
+        }
+        if (branch instanceof BGE) {
+            return ((BGE) branch).getFalseBasicBlock();
+        }
+        return null;
     }
-    
 
-    public ArrayList<Integer> instructionToMachineCode(Mul instruction) {
-        ArrayList<Integer> retArrayList = new ArrayList<>();
-        int opCode = 2;
+// SSA ==============================================================
+    // Between constructSSA and destructSSA every local that is assigned more than once is split
+    // into versions "x_1", "x_2", ... with one definition each, joined by phi functions where
+    // different versions meet; a version skips the names the program already uses. Variables a
+    // call argument names stay as they are: the arguments are still AST expressions looked up by
+    // name at codegen.
+    private Map<String, Integer> ssaVersions = new HashMap<>();
+    private Map<String, String> ssaOriginals = new HashMap<>();
+    private Set<String> usedNames = new HashSet<>();
+
+    // Minimal pruned SSA (Cytron et al.): phis go to the iterated dominance frontier of the
+    // blocks defining a variable, but only where the variable is live, then every block renames
+    // in dominator tree order with a stack of the current version of each variable.
+    private void constructSSA(FileWriter file) {
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        Map<BasicBlock, Set<String>> locals = getLocalVariables();
+        Set<String> callArguments = getCallArgumentVariables();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            VariableNumbering variables = new VariableNumbering(DataflowSolver.reversePostorder(root, functionEntries));
+            for (int v = 0; v < variables.size(); v++) {
+                usedNames.add(variables.nameOf(v));
+            }
+        }
+        usedNames.addAll(callArguments);
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            Dominators dominators = new Dominators(root, functionEntries);
+            if (!dominators.predecessors(root).isEmpty()) {
+                // a loop back to the entry, no block to put the phis of the entry in
+                continue;
+            }
+
+            Map<String, Set<BasicBlock>> definingBlocks = new TreeMap<>();
+            Map<String, Variable> originals = new HashMap<>();
+            Map<String, Integer> numDefinitions = new HashMap<>();
+            for (BasicBlock block : dominators.blocks()) {
+                for (TAC instruction : block.getInstructions()) {
+                    Variable dest = DefUse.def(instruction);
+                    if (dest == null || !locals.get(root).contains(DefUse.name(dest)) || callArguments.contains(DefUse.name(dest))) {
+                        continue;
+                    }
+                    definingBlocks.computeIfAbsent(DefUse.name(dest), name -> new LinkedHashSet<>()).add(block);
+                    originals.putIfAbsent(DefUse.name(dest), dest);
+                    numDefinitions.merge(DefUse.name(dest), 1, Integer::sum);
+                }
+            }
+            // a single definition is already in SSA form
+            definingBlocks.keySet().removeIf(name -> numDefinitions.get(name) < 2);
+            if (definingBlocks.isEmpty()) {
+                continue;
+            }
 
-        int destRegisterToSet = instruction.getDest().getMachineCodeRepresentation();
-        int leftRegisterToSet = instruction.getLeft().getMachineCodeRepresentation();
-        int rightRegisterToSet = instruction.getRight().getMachineCodeRepresentation();
-        boolean destSpilled = false;
+            Liveness liveness = new Liveness(new VariableNumbering(dominators.blocks()), root != irHead, false);
+            liveness.setLocal(locals.get(root));
+            DataflowResult<long[]> live = DataflowSolver.solve(root, liveness, functionEntries);
+            VariableNumbering variables = liveness.variables();
+
+            Map<BasicBlock, List<Phi>> phis = new HashMap<>();
+            for (Map.Entry<String, Set<BasicBlock>> definitions : definingBlocks.entrySet()) {
+                String name = definitions.getKey();
+                int number = variables.numberOf(name);
+                Set<BasicBlock> placed = new HashSet<>();
+                Deque<BasicBlock> pending = new ArrayDeque<>(definitions.getValue());
+                while (!pending.isEmpty()) {
+                    for (BasicBlock join : dominators.frontier(pending.pop())) {
+                        if (placed.contains(join) || live.in(join) == null || !Bits.get(live.in(join), number)) {
+                            continue;
+                        }
+                        placed.add(join);
+                        Phi phi = new Phi(TACList.getNextTACNumber(), newSSAVersion(originals.get(name)));
+                        phis.computeIfAbsent(join, block -> new ArrayList<>()).add(phi);
+                        if (!definitions.getValue().contains(join)) {
+                            pending.push(join);
+                        }
+                    }
+                }
+                try {
+                    file.write("SSA: Placed " + placed.size() + " phi functions for " + name + ".\n");
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
 
-        Variable leftVariable = (Variable) instruction.getLeft();
-        if (leftVariable.getRegisterNumber() == -1) {
-            if (variableToOffset.containsKey(leftVariable.getSymbol().token().lexeme())) {
-                retArrayList.add(DLX.assemble(40, leftSpilledRegister, 30, variableToOffset.get(leftVariable.getSymbol().token().lexeme())));
-            } else {
-                variableToOffset.put(leftVariable.getSymbol().token().lexeme(), currentOffset);
-                currentOffset -= 4;  // Decrement the current offset to create a new space in memory
+            Map<String, Deque<Variable>> versions = new HashMap<>();
+            for (String name : definingBlocks.keySet()) {
+                versions.put(name, new ArrayDeque<>());
+                versions.get(name).push(originals.get(name));
             }
-            leftRegisterToSet = leftSpilledRegister;
+            renameSSA(root, dominators, phis, versions);
         }
+    }
 
-        // Handle spilling for the right operand
-        if (instruction.getRight() instanceof Variable) {
-            Variable rightVariable = (Variable) instruction.getRight();
-            if (rightVariable.getRegisterNumber() == -1) {
-                if (variableToOffset.containsKey(rightVariable.getSymbol().token().lexeme())) {
-                    retArrayList.add(DLX.assemble(40, rightSpilledRegister, 30, variableToOffset.get(rightVariable.getSymbol().token().lexeme())));
-                } else {
-                    variableToOffset.put(rightVariable.getSymbol().token().lexeme(), currentOffset);
-                    currentOffset -= 4;  // Decrement the current offset to create a new space in memory
+    // variables named by an argument of some call
+    private Set<String> getCallArgumentVariables() {
+        Set<String> arguments = new HashSet<>();
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            for (BasicBlock block : DataflowSolver.reversePostorder(root, functionEntries)) {
+                for (TAC instruction : block.getInstructions()) {
+                    if (!(instruction instanceof Call)) {
+                        continue;
+                    }
+                    // the arguments of a user call are looked up by name at codegen, see genArguments
+                    DefUse.uses(instruction, arguments);
+                    if (((Call) instruction).hasArgs()) {
+                        for (Variable argument : getVariableReferences(instruction)) {
+                            arguments.add(DefUse.name(argument));
+                        }
+                    }
                 }
-                rightRegisterToSet = rightSpilledRegister;
             }
         }
+        return arguments;
+    }
 
-        Variable destVariable = instruction.getDest();
-        if (destVariable.getRegisterNumber() == -1) {
-            if (variableToOffset.containsKey(destVariable.getSymbol().token().lexeme())) {
-                retArrayList.add(DLX.assemble(40, destSpilledRegister, 30, variableToOffset.get(destVariable.getSymbol().token().lexeme())));
+    private Variable newSSAVersion(Variable variable) {
+        String name = ssaOriginal(variable);
+        String versionName;
+        do {
+            versionName = name + "_" + ssaVersions.merge(name, 1, Integer::sum);
+        } while (usedNames.contains(versionName));
+        usedNames.add(versionName);
+        ssaOriginals.put(versionName, name);
+        Token token = variable.getSymbol().token();
+        Variable newVariable = new Variable(new Symbol(new Token(versionName, token.lineNumber(), token.charPosition())));
+        newVariable.setIsInt(variable.isInt());
+        newVariable.setIsFloat(variable.isFloat());
+        newVariable.setIsBool(variable.isBool());
+        return newVariable;
+    }
+
+    // renames block and the blocks it dominates, versions holds the current version on top
+    private void renameSSA(BasicBlock block, Dominators dominators, Map<BasicBlock, List<Phi>> phis, Map<String, Deque<Variable>> versions) {
+        List<String> defined = new ArrayList<>();
+        List<TAC> instructions = block.getInstructions().getInstructions();
+        List<Phi> blockPhis = phis.getOrDefault(block, new ArrayList<>());
+        for (Phi phi : blockPhis) {
+            String name = ssaOriginal(phi.getDest());
+            versions.get(name).push(phi.getDest());
+            defined.add(name);
+        }
+
+        Set<String> uses = new HashSet<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            TAC instruction = instructions.get(i);
+            uses.clear();
+            DefUse.uses(instruction, uses);
+            Map<String, Variable> replacements = new HashMap<>();
+            for (String use : uses) {
+                if (versions.containsKey(use) && !DefUse.name(versions.get(use).peek()).equals(use)) {
+                    replacements.put(use, versions.get(use).peek());
+                }
             }
-            else {
-                variableToOffset.put(destVariable.getSymbol().token().lexeme(), currentOffset);
-                currentOffset -= 4;
+
+            Variable dest = DefUse.def(instruction);
+            Variable newDest = null;
+            if (dest != null && versions.containsKey(DefUse.name(dest))) {
+                newDest = newSSAVersion(dest);
+                versions.get(DefUse.name(dest)).push(newDest);
+                defined.add(DefUse.name(dest));
+            }
+            if (instruction instanceof Call) {
+                if (newDest != null) {
+                    ((Call) instruction).setReturnVariable(newDest);
+                }
+            }
+            else if (!replacements.isEmpty() || newDest != null) {
+                instructions.set(i, replaceVariables(instruction, replacements, newDest));
             }
-            destSpilled = true;
-            destRegisterToSet = destSpilledRegister;
         }
-    
-        if (instruction.getRight().isFloat() && instruction.getRight() instanceof Literal) {
-            opCode = 29;
-            float d = instruction.getRight().getMachineCodeFloatRepresentation();
-            retArrayList.add(DLX.assemble(opCode, destRegisterToSet, leftRegisterToSet, d));
+        instructions.addAll(0, blockPhis);
+
+        Set<BasicBlock> successors = new LinkedHashSet<>(DataflowSolver.successorsOf(block));
+        for (BasicBlock successor : successors) {
+            if (!phis.containsKey(successor) || !dominators.predecessors(successor).contains(block)) {
+                continue;
+            }
+            for (Phi phi : phis.get(successor)) {
+                phi.setArgument(block, versions.get(ssaOriginal(phi.getDest())).peek());
+            }
         }
-        else if (instruction.getRight().isFloat()) {
-            opCode = 9;
+
+        for (BasicBlock child : dominators.children(block)) {
+            renameSSA(child, dominators, phis, versions);
         }
-        else if (instruction.getRight() instanceof Literal) {
-            opCode = 22;
+        for (String name : defined) {
+            versions.get(name).pop();
         }
+    }
 
-        retArrayList.add(DLX.assemble(opCode, destRegisterToSet, leftRegisterToSet, rightRegisterToSet));
-        
-        if (destSpilled) {
-            retArrayList.add(DLX.assemble(43, destRegisterToSet, 30, variableToOffset.get(instruction.getDest().getSymbol().token().lexeme())));
+    // x for x and every version of it
+    private String ssaOriginal(Variable version) {
+        return ssaOriginals.getOrDefault(DefUse.name(version), DefUse.name(version));
+    }
+
+    // Sreedhar's method I: each phi x = phi(a1, ..., an) gets a new variable x', every
+    // predecessor i sets x' = ai right before its branch, and the phi becomes x = x'. As x' is
+    // only live from those copies to the phi, this stays correct for phis whose versions
+    // interfere after the passes moved things around; coalescing removes most of the copies.
+    private void destructSSA() {
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        Set<BasicBlock> visited = new HashSet<>();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            for (BasicBlock block : DataflowSolver.reversePostorder(root, functionEntries)) {
+                if (!visited.add(block)) {
+                    continue;
+                }
+                List<TAC> instructions = block.getInstructions().getInstructions();
+                for (int i = 0; i < instructions.size() && instructions.get(i) instanceof Phi; i++) {
+                    Phi phi = (Phi) instructions.get(i);
+                    Variable copy = newSSAVersion(phi.getDest());
+                    for (Map.Entry<BasicBlock, Value> argument : phi.getArguments().entrySet()) {
+                        List<TAC> predecessorInstructions = argument.getKey().getInstructions().getInstructions();
+                        int end = predecessorInstructions.size();
+                        while (end > 0 && (predecessorInstructions.get(end - 1) instanceof BRA || getBranchVariable(predecessorInstructions.get(end - 1)) != null)) {
+                            end--;
+                        }
+                        predecessorInstructions.add(end, new Assign(TACList.getNextTACNumber(), copy, argument.getValue()));
+                    }
+                    instructions.set(i, new Assign(phi.getID(), phi.getDest(), copy));
+                }
+            }
         }
+    }
 
-        return retArrayList;
+// Register Allocation ==============================================================
+    // Graph coloring gives the better code, linear scan allocates in about linear time for
+    // programs where compile time matters more (see CompilerTester -ra)
+    public enum RegisterAllocator {
+        GRAPH_COLORING,
+        LINEAR_SCAN
     }
-    
 
-    public ArrayList<Integer> instructionToMachineCode(Div instruction) {
-        ArrayList<Integer> retArrayList = new ArrayList<>();
-        int opCode = 3; 
+    private RegisterAllocator registerAllocator = RegisterAllocator.GRAPH_COLORING;
+    private long registerAllocationNanos = 0;
+
+    // Variables the allocator sent to memory live in their stack slot (see variableToOffset) and
+    // are carried between slot and instruction by short spill temporaries. Constants are not
+    // stored at all, every use just sets the temporary again.
+    private static final int MAX_SPILL_ROUNDS = 8;
+    private static final int MAX_LOOP_WEIGHT_DEPTH = 6;
+    private Set<String> memoryVariables = new HashSet<>();
+    private Set<String> spillTemporaries = new HashSet<>();
+    private int numRematerialized = 0;
+    private int numCoalesced = 0;
 
-        int destRegisterToSet = instruction.getDest().getMachineCodeRepresentation();
-        int leftRegisterToSet = instruction.getLeft().getMachineCodeRepresentation();
-        int rightRegisterToSet = instruction.getRight().getMachineCodeRepresentation();
-        boolean destSpilled = false;
+    // variables each user call saves around itself, see getCallSaves
+    private Map<TAC, List<String>> callSaves = new HashMap<>();
 
-        // System.out.println("Attempting to div " + instruction.getDest() + ":" + destRegisterToSet + " = " + instruction.getLeft() + ":" + leftRegisterToSet + "+" + instruction.getRight() + ":" + rightRegisterToSet);
+    public void setRegisterAllocator(RegisterAllocator registerAllocator) {
+        this.registerAllocator = registerAllocator;
+    }
 
-        Variable leftVariable = (Variable) instruction.getLeft();
-        if (leftVariable.getRegisterNumber() == -1) {
-            if (variableToOffset.containsKey(leftVariable.getSymbol().token().lexeme())) {
-                retArrayList.add(DLX.assemble(40, leftSpilledRegister, 30, variableToOffset.get(leftVariable.getSymbol().token().lexeme())));
-            } else {
-                variableToOffset.put(leftVariable.getSymbol().token().lexeme(), currentOffset);
-                currentOffset -= 4;  // Decrement the current offset to create a new space in memory
+    // Allocates, rewrites the spilled variables to spill code and allocates again until every
+    // variable left outside memory has a register. The spill temporaries only live from their load
+    // to the instruction using them, so each round frees registers for the rest; if rounds run
+    // out, the remaining -1 variables go through the scratch registers at codegen.
+    public void regAlloc(int numRegs) {
+        long startTime = System.nanoTime();
+        destructSSA();
+        Map<String, Integer> variableRegisterMap;
+        for (int round = 1; ; round++) {
+            Map<String, Double> spillCosts = getSpillCosts();
+            if (registerAllocator == RegisterAllocator.LINEAR_SCAN) {
+                variableRegisterMap = linearScanRegisters(numRegs, spillCosts);
+            }
+            else {
+                variableRegisterMap = graphColoringRegisters(numRegs, spillCosts);
             }
-            leftRegisterToSet = leftSpilledRegister;
+
+            Set<String> spilled = new TreeSet<>();
+            for (Map.Entry<String, Integer> entry : variableRegisterMap.entrySet()) {
+                if (entry.getValue() == -1 && !spillTemporaries.contains(entry.getKey())) {
+                    spilled.add(entry.getKey());
+                }
+            }
+            if (spilled.isEmpty() || round == MAX_SPILL_ROUNDS) {
+                break;
+            }
+            insertSpillCode(spilled);
         }
+        for (String variable : memoryVariables) {
+            variableRegisterMap.put(variable, -1);
+        }
+        callSaves = getCallSaves(variableRegisterMap);
+        // printOutVariableRegisters(variableRegisterMap);
+        this.variableRegisterMap = variableRegisterMap;
+        assignRegistersToVariables(irHead, variableRegisterMap);
+        registerAllocationNanos = System.nanoTime() - startTime;
+    }
 
-        // Handle spilling for the right operand
-        if (instruction.getRight() instanceof Variable) {
-            Variable rightVariable = (Variable) instruction.getRight();
-            if (rightVariable.getRegisterNumber() == -1) {
-                if (variableToOffset.containsKey(rightVariable.getSymbol().token().lexeme())) {
-                    retArrayList.add(DLX.assemble(40, rightSpilledRegister, 30, variableToOffset.get(rightVariable.getSymbol().token().lexeme())));
-                } else {
-                    variableToOffset.put(rightVariable.getSymbol().token().lexeme(), currentOffset);
-                    currentOffset -= 4;  // Decrement the current offset to create a new space in memory
+    // allocator, time spent in regAlloc and the variables it had to leave in memory
+    public String registerAllocationReport() {
+        int numSpilled = 0;
+        for (int register : variableRegisterMap.values()) {
+            if (register == -1) {
+                numSpilled++;
+            }
+        }
+        int numSaves = 0;
+        for (List<String> saved : callSaves.values()) {
+            numSaves += saved.size();
+        }
+        String allocator = (registerAllocator == RegisterAllocator.LINEAR_SCAN) ? "linear scan" : "graph coloring";
+        return String.format("Register allocation (%s): %.3f ms, %d variables, %d spilled (%d rematerialized), %d copies coalesced, %d saves at %d calls",
+                             allocator, registerAllocationNanos / 1e6, variableRegisterMap.size(), numSpilled, numRematerialized, numCoalesced,
+                             numSaves, callSaves.size());
+    }
+
+    private Map<String, Integer> graphColoringRegisters(int numRegs, Map<String, Double> spillCosts) {
+        // Create graph and edges based on live variable anaysis, once for simplify and select
+        InterferenceGraph graph = getInterferenceGraph();
+        // printOutVariableGraph(graph);
+
+        // both ends of a coalesced copy get the same register, codegen then drops the copy
+        List<int[]> copies = getCopies(graph);
+        int[] alias = Coalescing.coalesce(graph, numRegs - 1, copies);
+        int[] nodeOf = new int[graph.size()];
+        InterferenceGraph coalescedGraph = graph.merge(alias, nodeOf);
+        numCoalesced = 0;
+        for (int[] copy : copies) {
+            if (alias[copy[0]] == alias[copy[1]]) {
+                numCoalesced++;
+            }
+        }
+
+        double[] nodeCosts = new double[coalescedGraph.size()];
+        for (int i = 0; i < graph.size(); i++) {
+            nodeCosts[nodeOf[i]] += spillCosts.getOrDefault(graph.nameOf(i), 0.0);
+        }
+
+        // registers [1..numRegs-1] are the colors
+        int[] colors = GraphColoring.color(coalescedGraph, numRegs - 1, nodeCosts);
+
+        // initialize register map, -1 marks spilled
+        Map<String, Integer> variableRegisterMap = new HashMap<>();
+        for (int i = 0; i < graph.size(); i++) {
+            int color = colors[nodeOf[i]];
+            variableRegisterMap.put(graph.nameOf(i), (color < 0) ? -1 : color + 1);
+        }
+        return variableRegisterMap;
+    }
+
+    // {dest, source} nodes of every copy between two variables of the graph
+    private List<int[]> getCopies(InterferenceGraph graph) {
+        List<int[]> copies = new ArrayList<>();
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        Set<BasicBlock> visited = new HashSet<>();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            for (BasicBlock block : DataflowSolver.reversePostorder(root, functionEntries)) {
+                if (!visited.add(block)) {
+                    continue;
+                }
+                for (TAC instruction : block.getInstructions()) {
+                    if (!(instruction instanceof Assign) || !(((Assign) instruction).getRight() instanceof Variable)) {
+                        continue;
+                    }
+                    int dest = graph.numberOf(DefUse.name(instruction.getDest()));
+                    int source = graph.numberOf(DefUse.name((Variable) ((Assign) instruction).getRight()));
+                    if (dest >= 0 && source >= 0 && dest != source) {
+                        copies.add(new int[] {dest, source});
+                    }
                 }
-                rightRegisterToSet = rightSpilledRegister;
             }
         }
+        return copies;
+    }
+
+    private Map<String, Integer> linearScanRegisters(int numRegs, Map<String, Double> spillCosts) {
+        List<LiveInterval> intervals = getLiveIntervals();
+        for (LiveInterval interval : intervals) {
+            interval.addSpillCost(spillCosts.getOrDefault(interval.name(), 0.0));
+        }
 
-        Variable destVariable = instruction.getDest();
-        if (destVariable.getRegisterNumber() == -1) {
-            if (variableToOffset.containsKey(destVariable.getSymbol().token().lexeme())) {
-                retArrayList.add(DLX.assemble(40, destSpilledRegister, 30, variableToOffset.get(destVariable.getSymbol().token().lexeme())));
+        // registers [1..numRegs-1], like the colors of graph coloring
+        LinearScan.allocate(intervals, numRegs - 1);
+
+        Map<String, Integer> variableRegisterMap = new HashMap<>();
+        for (LiveInterval interval : intervals) {
+            variableRegisterMap.put(interval.name(), (interval.register() < 0) ? -1 : interval.register() + 1);
+        }
+        return variableRegisterMap;
+    }
+
+    // Live intervals of all variables over one linear order of the instructions: the blocks of
+    // the main computation and then of every function, each in reverse postorder. Instruction i
+    // reads its operands at position 2i and writes its result at 2i+1. Variables living in memory
+    // get no interval.
+    private List<LiveInterval> getLiveIntervals() {
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        Map<BasicBlock, Set<String>> locals = getLocalVariables();
+        List<BasicBlock> linearOrder = new ArrayList<>();
+        Map<BasicBlock, Liveness> blockLiveness = new HashMap<>();
+        Map<BasicBlock, long[]> blockLiveOut = new HashMap<>();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            List<BasicBlock> blocks = DataflowSolver.reversePostorder(root, functionEntries);
+            Liveness liveness = new Liveness(new VariableNumbering(blocks), root != irHead, false);
+            liveness.setLocal(locals.get(root));
+            DataflowResult<long[]> result = DataflowSolver.solve(root, liveness, functionEntries);
+            for (BasicBlock block : result.blocks()) {
+                if (result.out(block) != null && !blockLiveness.containsKey(block)) {
+                    linearOrder.add(block);
+                    blockLiveness.put(block, liveness);
+                    blockLiveOut.put(block, result.out(block));
+                }
             }
-            else {
-                variableToOffset.put(destVariable.getSymbol().token().lexeme(), currentOffset);
+        }
+
+        int[] blockStart = new int[linearOrder.size() + 1];
+        for (int b = 0; b < linearOrder.size(); b++) {
+            blockStart[b + 1] = blockStart[b] + 2 * linearOrder.get(b).getInstructions().getInstructions().size();
+        }
+
+        // built backwards, so every interval only grows at its front
+        Map<String, LiveInterval> intervals = new LinkedHashMap<>();
+        for (int b = linearOrder.size() - 1; b >= 0; b--) {
+            BasicBlock block = linearOrder.get(b);
+            Liveness liveness = blockLiveness.get(block);
+            VariableNumbering variables = liveness.variables();
+
+            long[] liveVariables = liveness.copy(blockLiveOut.get(block));
+            for (int v = Bits.nextSetBit(liveVariables, 0); v >= 0; v = Bits.nextSetBit(liveVariables, v + 1)) {
+                intervals.computeIfAbsent(variables.nameOf(v), LiveInterval::new).addRange(blockStart[b], blockStart[b + 1]);
+            }
+
+            List<TAC> instructions = block.getInstructions().getInstructions();
+            for (int i = instructions.size() - 1; i >= 0; i--) {
+                TAC instruction = instructions.get(i);
+                int position = blockStart[b] + 2 * i;
+
+                int dest = variables.def(instruction);
+                if (dest >= 0) {
+                    LiveInterval interval = intervals.computeIfAbsent(variables.nameOf(dest), LiveInterval::new);
+                    if (Bits.get(liveVariables, dest)) {
+                        interval.setFrom(position + 1);
+                    }
+                    else {
+                        // the result is never read, it still needs a register for a moment
+                        interval.addRange(position + 1, position + 2);
+                    }
+                }
+
+                liveness.step(instruction, liveVariables);
+
+                int[] uses = variables.uses(instruction);
+                if (uses == null) {
+                    // unknown reads keep every variable live up to here
+                    for (int v = Bits.nextSetBit(liveVariables, 0); v >= 0; v = Bits.nextSetBit(liveVariables, v + 1)) {
+                        intervals.computeIfAbsent(variables.nameOf(v), LiveInterval::new).addRange(blockStart[b], position + 1);
+                    }
+                    continue;
+                }
+                for (int use : uses) {
+                    LiveInterval interval = intervals.computeIfAbsent(variables.nameOf(use), LiveInterval::new);
+                    interval.addRange(blockStart[b], position + 1);
+                }
+            }
+        }
+        intervals.keySet().removeAll(memoryVariables);
+        return new ArrayList<>(intervals.values());
+    }
+
+    // Price of keeping each variable in memory: every def and use adds the weight of its block,
+    // the block frequency of the training run with a profile and 10^loop depth without one.
+    // Spill temporaries can never be spilled again.
+    private Map<String, Double> getSpillCosts() {
+        Map<String, Double> spillCosts = new HashMap<>();
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        Set<BasicBlock> visited = new HashSet<>();
+        Set<String> uses = new HashSet<>();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            for (Map.Entry<BasicBlock, Integer> loopDepth : LoopNesting.depths(root, functionEntries).entrySet()) {
+                BasicBlock block = loopDepth.getKey();
+                if (!visited.add(block)) {
+                    continue;
+                }
+                double weight = (profile != null) ? blockFrequency(block) : Math.pow(10, Math.min(loopDepth.getValue(), MAX_LOOP_WEIGHT_DEPTH));
+                for (TAC instruction : block.getInstructions()) {
+                    Variable dest = DefUse.def(instruction);
+                    if (dest != null) {
+                        spillCosts.merge(DefUse.name(dest), weight, Double::sum);
+                    }
+                    uses.clear();
+                    DefUse.uses(instruction, uses);
+                    for (String use : uses) {
+                        spillCosts.merge(use, weight, Double::sum);
+                    }
+                }
+            }
+        }
+        for (String temporary : spillTemporaries) {
+            spillCosts.put(temporary, Double.POSITIVE_INFINITY);
+        }
+        return spillCosts;
+    }
+
+    // Moves the spilled variables to memory: each gets a stack slot, every instruction reading one
+    // first loads it into a new temporary and every instruction writing one writes a temporary that
+    // is stored right after. Variables that only ever hold one literal are set again at each use.
+    private void insertSpillCode(Set<String> spilled) {
+        Map<String, Literal> constants = getRematerializableConstants(spilled);
+        numRematerialized += constants.size();
+        for (String variable : spilled) {
+            memoryVariables.add(variable);
+            if (!constants.containsKey(variable) && !variableToOffset.containsKey(variable)) {
+                variableToOffset.put(variable, currentOffset);
                 currentOffset -= 4;
             }
-            destSpilled = true;
-            destRegisterToSet = destSpilledRegister;
         }
 
-        if (instruction.getRight().isFloat() && instruction.getRight() instanceof Literal) {
-            opCode = 30;
-            float d = instruction.getRight().getMachineCodeFloatRepresentation();
-            retArrayList.add(DLX.assemble(opCode, destRegisterToSet, leftRegisterToSet, d));
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        Set<BasicBlock> visited = new HashSet<>();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            for (BasicBlock block : DataflowSolver.reversePostorder(root, functionEntries)) {
+                if (!visited.add(block)) {
+                    continue;
+                }
+                List<TAC> instructions = block.getInstructions().getInstructions();
+                for (int i = 0; i < instructions.size(); i++) {
+                    TAC instruction = instructions.get(i);
+
+                    Map<String, Variable> reloaded = new HashMap<>();
+                    for (Variable operand : getSpillableOperands(instruction)) {
+                        String name = DefUse.name(operand);
+                        if (!spilled.contains(name) || reloaded.containsKey(name)) {
+                            continue;
+                        }
+                        Variable temporary = newSpillTemporary(operand);
+                        reloaded.put(name, temporary);
+                        if (constants.containsKey(name)) {
+                            instructions.add(i, new Assign(TACList.getNextTACNumber(), temporary, constants.get(name)));
+                        }
+                        else {
+                            instructions.add(i, new Load(TACList.getNextTACNumber(), temporary, null, slotOffset(name)));
+                        }
+                        i++;
+                    }
+
+                    Variable dest = DefUse.def(instruction);
+                    Variable stored = null;
+                    if (dest != null && spilled.contains(DefUse.name(dest))) {
+                        if (constants.containsKey(DefUse.name(dest))) {
+                            // the constant is set again at every use
+                            instructions.remove(i);
+                            i--;
+                            continue;
+                        }
+                        stored = newSpillTemporary(dest);
+                    }
+                    if (instruction instanceof Call) {
+                        if (stored != null) {
+                            ((Call) instruction).setReturnVariable(stored);
+                        }
+                    }
+                    else if (!reloaded.isEmpty() || stored != null) {
+                        instructions.set(i, replaceVariables(instruction, reloaded, stored));
+                    }
+                    if (stored != null) {
+                        instructions.add(i + 1, new Store(TACList.getNextTACNumber(), stored, null, slotOffset(DefUse.name(dest))));
+                        i++;
+                    }
+                }
+            }
         }
-        else if (instruction.getRight().isFloat()) {
-            opCode = 10;
+    }
+
+    // Spilled variables whose every definition assigns the same literal, except those a call
+    // reads: call arguments are looked up by name in the stack slot at codegen.
+    private Map<String, Literal> getRematerializableConstants(Set<String> spilled) {
+        Map<String, Literal> constants = new HashMap<>();
+        Set<String> notConstant = new HashSet<>();
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        Set<String> uses = new HashSet<>();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            for (BasicBlock block : DataflowSolver.reversePostorder(root, functionEntries)) {
+                for (TAC instruction : block.getInstructions()) {
+                    Variable dest = DefUse.def(instruction);
+                    if (dest != null && spilled.contains(DefUse.name(dest))) {
+                        String name = DefUse.name(dest);
+                        Literal constant = constants.get(name);
+                        if (instruction instanceof Assign && ((Assign) instruction).getRight() instanceof Literal
+                                && (constant == null || constant.toString().equals(((Assign) instruction).getRight().toString()))) {
+                            constants.put(name, (Literal) ((Assign) instruction).getRight());
+                        }
+                        else {
+                            notConstant.add(name);
+                        }
+                    }
+                    if (instruction instanceof Call) {
+                        uses.clear();
+                        if (DefUse.uses(instruction, uses)) {
+                            notConstant.addAll(uses);
+                        }
+                        else {
+                            notConstant.addAll(spilled);
+                        }
+                    }
+                }
+            }
+        }
+        constants.keySet().removeAll(notConstant);
+        return constants;
+    }
+
+    private Variable newSpillTemporary(Variable variable) {
+        Token token = variable.getSymbol().token();
+        Variable temporary = new Variable(new Symbol(new Token("t" + BasicBlock.getNextTempNumber(), token.lineNumber(), token.charPosition())));
+        temporary.setIsInt(variable.isInt());
+        temporary.setIsFloat(variable.isFloat());
+        temporary.setIsBool(variable.isBool());
+        spillTemporaries.add(DefUse.name(temporary));
+        return temporary;
+    }
+
+    private Literal slotOffset(String variable) {
+        return new Literal(new Symbol(new Token("" + variableToOffset.get(variable), 0, 0)));
+    }
+
+    // variable operands spill code can replace, call arguments stay AST expressions
+    private List<Variable> getSpillableOperands(TAC instruction) {
+        List<Value> operands = new ArrayList<>(DefUse.operands(instruction));
+        if (instruction instanceof Assign) {
+            operands.add(((Assign) instruction).getRight());
+        }
+        else if (instruction instanceof Neg) {
+            operands.add(((Neg) instruction).getRight());
+        }
+        else if (instruction instanceof Return) {
+            operands.add(((Return) instruction).getReturnValue());
+        }
+        else if (getBranchVariable(instruction) != null) {
+            operands.add(getBranchVariable(instruction));
+        }
+        List<Variable> variables = new ArrayList<>();
+        for (Value operand : operands) {
+            if (operand instanceof Variable) {
+                variables.add((Variable) operand);
+            }
+        }
+        return variables;
+    }
+
+    // The instruction under the same ID, reading the replacement of every variable in replacements and
+    // writing dest. Spill code passes the reloaded temporaries, SSA construction the new versions.
+    private TAC replaceVariables(TAC instruction, Map<String, Variable> replacements, Variable dest) {
+        int id = instruction.getID();
+        Variable newDest = (dest != null) ? dest : instruction.getDest();
+        if (instruction instanceof Add) {
+            Add add = (Add) instruction;
+            return new Add(id, newDest, replacedValue(add.getLeft(), replacements), replacedValue(add.getRight(), replacements));
+        }
+        if (instruction instanceof Sub) {
+            Sub sub = (Sub) instruction;
+            return new Sub(id, newDest, replacedValue(sub.getLeft(), replacements), replacedValue(sub.getRight(), replacements));
+        }
+        if (instruction instanceof Mul) {
+            Mul mul = (Mul) instruction;
+            return new Mul(id, newDest, replacedValue(mul.getLeft(), replacements), replacedValue(mul.getRight(), replacements));
+        }
+        if (instruction instanceof Div) {
+            Div div = (Div) instruction;
+            return new Div(id, newDest, replacedValue(div.getLeft(), replacements), replacedValue(div.getRight(), replacements));
+        }
+        if (instruction instanceof Mod) {
+            Mod mod = (Mod) instruction;
+            return new Mod(id, newDest, replacedValue(mod.getLeft(), replacements), replacedValue(mod.getRight(), replacements));
+        }
+        if (instruction instanceof Pow) {
+            Pow pow = (Pow) instruction;
+            return new Pow(id, newDest, replacedValue(pow.getLeft(), replacements), replacedValue(pow.getRight(), replacements));
+        }
+        if (instruction instanceof And) {
+            And and = (And) instruction;
+            return new And(id, newDest, replacedValue(and.getLeft(), replacements), replacedValue(and.getRight(), replacements));
+        }
+        if (instruction instanceof Or) {
+            Or or = (Or) instruction;
+            return new Or(id, newDest, replacedValue(or.getLeft(), replacements), replacedValue(or.getRight(), replacements));
+        }
+        if (instruction instanceof Neg) {
+            return new Neg(id, newDest, replacedValue(((Neg) instruction).getRight(), replacements));
+        }
+        if (instruction instanceof Comparison) {
+            Comparison comparison = (Comparison) instruction;
+            return new Comparison(id, newDest, replacedValue(comparison.getLeft(), replacements), replacedValue(comparison.getRight(), replacements), comparison.getComparisonOperator());
+        }
+        if (instruction instanceof Assign) {
+            Assign assign = (Assign) instruction;
+            if (assign.getRight() == null) {
+                return new Assign(id, newDest);
+            }
+            return new Assign(id, newDest, replacedValue(assign.getRight(), replacements));
+        }
+        if (instruction instanceof Return) {
+            if (!((Return) instruction).hasReturnValue()) {
+                return instruction;
+            }
+            return new Return(id, replacedValue(((Return) instruction).getReturnValue(), replacements));
+        }
+        if (getBranchVariable(instruction) != null) {
+            Variable left = (Variable) replacedValue(getBranchVariable(instruction), replacements);
+            BasicBlock trueBlock = getBranchTrueBlock(instruction);
+            BasicBlock falseBlock = getBranchFalseBlock(instruction);
+            if (instruction instanceof BEQ) {
+                return new BEQ(id, left, trueBlock, falseBlock);
+            }
+            if (instruction instanceof BNE) {
+                return new BNE(id, left, trueBlock, falseBlock);
+            }
+            if (instruction instanceof BLT) {
+                return new BLT(id, left, trueBlock, falseBlock);
+            }
+            if (instruction instanceof BLE) {
+                return new BLE(id, left, trueBlock, falseBlock);
+            }
+            if (instruction instanceof BGT) {
+                return new BGT(id, left, trueBlock, falseBlock);
+            }
+            return new BGE(id, left, trueBlock, falseBlock);
+        }
+        return instruction;
+    }
+
+    private Value replacedValue(Value value, Map<String, Variable> replacements) {
+        if (value instanceof Variable && replacements.containsKey(DefUse.name((Variable) value))) {
+            return replacements.get(DefUse.name((Variable) value));
+        }
+        return value;
+    }
+
+    // Variables only one function (or only the main computation) mentions. Variables are shared
+    // by name, so no other function can read these, and a caller cannot either once it returns.
+    private Map<BasicBlock, Set<String>> getLocalVariables() {
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        Map<BasicBlock, Set<String>> locals = new HashMap<>();
+        Map<String, Integer> numRoots = new HashMap<>();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            VariableNumbering variables = new VariableNumbering(DataflowSolver.reversePostorder(root, functionEntries));
+            Set<String> names = new HashSet<>();
+            for (int v = 0; v < variables.size(); v++) {
+                names.add(variables.nameOf(v));
+                numRoots.merge(variables.nameOf(v), 1, Integer::sum);
+            }
+            locals.put(root, names);
+        }
+        for (Set<String> names : locals.values()) {
+            names.removeIf(name -> numRoots.get(name) > 1);
         }
-        else if (instruction.getRight() instanceof Literal) {
-            opCode = 23;
+        return locals;
+    }
+
+    // variables every function may write, itself or through the functions it calls; a call sets
+    // the parameters first
+    private Map<BasicBlock, Set<String>> getFunctionWrites() {
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        Map<BasicBlock, Set<String>> writes = new HashMap<>();
+        Map<BasicBlock, Set<BasicBlock>> callees = new HashMap<>();
+        for (BasicBlock entry : functionEntries) {
+            Set<String> written = new HashSet<>();
+            for (Variable parameter : entry.getParameters()) {
+                written.add(DefUse.name(parameter));
+            }
+            Set<BasicBlock> called = new HashSet<>();
+            for (BasicBlock block : DataflowSolver.reversePostorder(entry, functionEntries)) {
+                for (TAC instruction : block.getInstructions()) {
+                    Variable dest = DefUse.def(instruction);
+                    if (dest != null) {
+                        written.add(DefUse.name(dest));
+                    }
+                    if (DefUse.isUserCall(instruction) && ((Call) instruction).getDestinationBlock() != null) {
+                        called.add(((Call) instruction).getDestinationBlock());
+                    }
+                }
+            }
+            writes.put(entry, written);
+            callees.put(entry, called);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock entry : functionEntries) {
+                for (BasicBlock callee : callees.get(entry)) {
+                    changed |= writes.get(entry).addAll(writes.get(callee));
+                }
+            }
+        }
+        return writes;
+    }
+
+    // a function without user calls keeps the return address in R31 and needs no frame
+    private boolean isLeafFunction(BasicBlock entry) {
+        for (BasicBlock block : DataflowSolver.reversePostorder(entry, getFunctionEntryBlocks())) {
+            for (TAC instruction : block.getInstructions()) {
+                if (DefUse.isUserCall(instruction)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Variables each user call pushes before it and pops after it: those live after the call
+    // whose register (or, in memory, whose slot) the callee may overwrite. After graph coloring
+    // these are the locals of a recursive function only; linear scan does not see the calls and
+    // saves whatever ended up in a register the callee uses.
+    private Map<TAC, List<String>> getCallSaves(Map<String, Integer> variableRegisterMap) {
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        Map<BasicBlock, Set<String>> locals = getLocalVariables();
+        Map<BasicBlock, Set<String>> functionWrites = getFunctionWrites();
+        Map<BasicBlock, Set<Integer>> functionRegisters = new HashMap<>();
+        for (Map.Entry<BasicBlock, Set<String>> writes : functionWrites.entrySet()) {
+            Set<Integer> registers = new HashSet<>();
+            for (String variable : writes.getValue()) {
+                registers.add(variableRegisterMap.getOrDefault(variable, -1));
+            }
+            registers.remove(-1);
+            functionRegisters.put(writes.getKey(), registers);
+        }
+
+        Map<TAC, List<String>> saves = new HashMap<>();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            List<BasicBlock> blocks = DataflowSolver.reversePostorder(root, functionEntries);
+            Liveness liveness = new Liveness(new VariableNumbering(blocks), root != irHead, false);
+            liveness.setLocal(locals.get(root));
+            DataflowResult<long[]> result = DataflowSolver.solve(root, liveness, functionEntries);
+            VariableNumbering variables = liveness.variables();
+            for (BasicBlock block : result.blocks()) {
+                if (result.out(block) == null) {
+                    continue;
+                }
+                long[] liveVariables = liveness.copy(result.out(block));
+                List<TAC> instructions = block.getInstructions().getInstructions();
+                for (int i = instructions.size() - 1; i >= 0; i--) {
+                    TAC instruction = instructions.get(i);
+                    if (DefUse.isUserCall(instruction) && ((Call) instruction).getDestinationBlock() != null) {
+                        BasicBlock callee = ((Call) instruction).getDestinationBlock();
+                        List<String> saved = new ArrayList<>();
+                        for (int v = Bits.nextSetBit(liveVariables, 0); v >= 0; v = Bits.nextSetBit(liveVariables, v + 1)) {
+                            String variable = variables.nameOf(v);
+                            int register = variableRegisterMap.getOrDefault(variable, -1);
+                            boolean overwritten;
+                            if (functionWrites.get(callee).contains(variable)) {
+                                // another activation of a recursive function, or a callee with a variable of the
+                                // same name (variables are shared by name); new values of globals are kept
+                                overwritten = locals.get(root).contains(variable) || root.getLocalVariables().contains(variable);
+                            }
+                            else {
+                                overwritten = register >= 0 && functionRegisters.get(callee).contains(register);
+                            }
+                            if (overwritten && (register >= 0 || variableToOffset.containsKey(variable))) {
+                                saved.add(variable);
+                            }
+                        }
+                        saves.put(instruction, saved);
+                    }
+                    liveness.step(instruction, liveVariables);
+                }
+            }
         }
+        return saves;
+    }
+
+    public void assignRegistersToVariables(BasicBlock irHead, Map<String, Integer> variableRegisterMap) {
+        Queue<BasicBlock> queue = new ArrayDeque<>();
+        Set<BasicBlock> visited = new HashSet<>();
+        queue.add(irHead);
     
-        retArrayList.add(DLX.assemble(opCode, destRegisterToSet, leftRegisterToSet, rightRegisterToSet));
+        // Traverse the IR blocks similarly to the BFS in getVertexGraph
+        while (!queue.isEmpty()) {
+            BasicBlock currentBlock = queue.poll();
+    
+            if (!visited.add(currentBlock)) {
+                continue; // Skip if already visited
+            }
+    
+            // Iterate over each instruction in the current block
+            for (TAC instruction : currentBlock.getInstructions()) {
+                // Check each source and destination variable in the instruction
+                checkAndAssignRegister(instruction.getDest(), variableRegisterMap);
+                for (Variable var : getVariableReferences(instruction)) {
+                    checkAndAssignRegister(var, variableRegisterMap);
+                }
+                if (instruction instanceof Call) {
+                    for (Value argument : ((Call) instruction).getArgumentValues()) {
+                        if (argument instanceof Variable) {
+                            checkAndAssignRegister((Variable) argument, variableRegisterMap);
+                        }
+                    }
+                }
+                // operands getVariableReferences leaves out, e.g. of a comparison or a return in a function
+                for (Value operand : DefUse.operands(instruction)) {
+                    if (operand instanceof Variable) {
+                        checkAndAssignRegister((Variable) operand, variableRegisterMap);
+                    }
+                }
+                checkAndAssignRegister(getBranchVariable(instruction), variableRegisterMap);
+                if (instruction instanceof Return && ((Return) instruction).getReturnValue() instanceof Variable) {
+                    checkAndAssignRegister((Variable) ((Return) instruction).getReturnValue(), variableRegisterMap);
+                }
+            }
+    
+            // Add successors to the queue
+            for (BasicBlock successor : currentBlock.getSuccessors().keySet()) {
+                queue.add(successor);
+            }
+        }
+    }
+    
+    private void checkAndAssignRegister(Variable variable, Map<String, Integer> variableRegisterMap) {
+        if (variable == null) {
+            return;
+        }
+        String lexeme = variable.getSymbol().token().lexeme();
+        // Check if the variable's lexeme is in the map and assign the register number
+        if (variableRegisterMap.containsKey(lexeme)) {
+            int registerNumber = variableRegisterMap.get(lexeme);
+            variable.setRegisterNumber(registerNumber);
+            // System.out.println("Assigned register " + registerNumber + " to variable " + lexeme);
+        }
+    }
 
-        if (destSpilled) {
-            retArrayList.add(DLX.assemble(43, destRegisterToSet, 30, variableToOffset.get(instruction.getDest().getSymbol().token().lexeme())));
+    // Interference graph from the live variables of every function. Variables are numbered once
+    // per function and both the live sets and the interference rows are bit sets over those
+    // numbers; the rows are then added to one graph over all variables of the program. Variables
+    // living in memory are left out.
+    //
+    // A variable live across a user call also interferes with everything the called function
+    // writes, so it keeps a register the callee leaves alone and nothing has to be saved. Only
+    // the variables of a recursive function that the recursion itself overwrites are left to
+    // getCallSaves.
+    public InterferenceGraph getInterferenceGraph() {
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        Map<BasicBlock, Set<String>> locals = getLocalVariables();
+        Map<BasicBlock, Set<String>> functionWrites = getFunctionWrites();
+        List<VariableNumbering> functionVariables = new ArrayList<>();
+        List<long[][]> functionEdges = new ArrayList<>();
+        List<VariableNumbering> callVariables = new ArrayList<>();
+        List<long[]> callLiveVariables = new ArrayList<>();
+        List<BasicBlock> callees = new ArrayList<>();
+        Set<String> allVariables = new LinkedHashSet<>();
+        for (BasicBlock root : getControlFlowGraphRoots()) {
+            List<BasicBlock> blocks = DataflowSolver.reversePostorder(root, functionEntries);
+            VariableNumbering variables = new VariableNumbering(blocks);
+            Liveness liveness = new Liveness(variables, root != irHead, false);
+            liveness.setLocal(locals.get(root));
+            DataflowResult<long[]> result = DataflowSolver.solve(root, liveness, functionEntries);
+
+            long[][] edges = new long[variables.size()][];
+            for (int i = 0; i < variables.size(); i++) {
+                edges[i] = Bits.create(variables.size());
+                if (!memoryVariables.contains(variables.nameOf(i))) {
+                    allVariables.add(variables.nameOf(i));
+                }
+            }
+
+            for (BasicBlock block : result.blocks()) {
+                if (result.out(block) == null) {
+                    continue;
+                }
+                long[] liveVariables = liveness.copy(result.out(block));
+                List<TAC> instructions = block.getInstructions().getInstructions();
+                for (int i = instructions.size() - 1; i >= 0; i--) {
+                    TAC instruction = instructions.get(i);
+
+                    // the destination interferes with everything live after the instruction,
+                    // except the source of a copy: both hold the same value
+                    int dest = variables.def(instruction);
+                    int copySource = -1;
+                    if (instruction instanceof Assign && ((Assign) instruction).getRight() instanceof Variable) {
+                        copySource = variables.numberOf(DefUse.name((Variable) ((Assign) instruction).getRight()));
+                    }
+                    if (dest >= 0 && copySource >= 0 && copySource != dest && Bits.get(liveVariables, copySource)) {
+                        Bits.clear(liveVariables, copySource);
+                        Bits.or(edges[dest], liveVariables);
+                        Bits.set(liveVariables, copySource);
+                    }
+                    else if (dest >= 0) {
+                        Bits.or(edges[dest], liveVariables);
+                    }
+                    if (DefUse.isUserCall(instruction) && ((Call) instruction).getDestinationBlock() != null) {
+                        callVariables.add(variables);
+                        callLiveVariables.add(liveness.copy(liveVariables));
+                        callees.add(((Call) instruction).getDestinationBlock());
+                    }
+
+                    liveness.step(instruction, liveVariables);
+
+                    // and every variable read with everything live before it
+                    int[] uses = variables.uses(instruction);
+                    if (uses != null) {
+                        for (int use : uses) {
+                            Bits.or(edges[use], liveVariables);
+                        }
+                    }
+                }
+            }
+            functionVariables.add(variables);
+            functionEdges.add(edges);
         }
 
-        return retArrayList;
+        InterferenceGraph graph = new InterferenceGraph(new ArrayList<>(allVariables));
+        for (int f = 0; f < functionVariables.size(); f++) {
+            VariableNumbering variables = functionVariables.get(f);
+            long[][] edges = functionEdges.get(f);
+            int[] node = new int[variables.size()];
+            for (int i = 0; i < variables.size(); i++) {
+                node[i] = graph.numberOf(variables.nameOf(i));
+            }
+            for (int i = 0; i < variables.size(); i++) {
+                if (node[i] < 0) {
+                    continue;
+                }
+                for (int j = Bits.nextSetBit(edges[i], 0); j >= 0; j = Bits.nextSetBit(edges[i], j + 1)) {
+                    if (node[j] >= 0) {
+                        graph.addEdge(node[i], node[j]);
+                    }
+                }
+            }
+        }
+
+        for (int c = 0; c < callees.size(); c++) {
+            VariableNumbering variables = callVariables.get(c);
+            long[] liveVariables = callLiveVariables.get(c);
+            Set<String> written = functionWrites.get(callees.get(c));
+            for (int v = Bits.nextSetBit(liveVariables, 0); v >= 0; v = Bits.nextSetBit(liveVariables, v + 1)) {
+                int node = graph.numberOf(variables.nameOf(v));
+                if (node < 0 || written.contains(variables.nameOf(v))) {
+                    // a global the callee writes is meant to change, a recursive local is saved
+                    continue;
+                }
+                for (String variable : written) {
+                    int writtenNode = graph.numberOf(variable);
+                    if (writtenNode >= 0) {
+                        graph.addEdge(node, writtenNode);
+                    }
+                }
+            }
+        }
+        return graph;
+    }
+
+    public void printOutVariableGraph(InterferenceGraph graph) {
+        System.out.println("Graph: ");
+        for (int v = 0; v < graph.size(); v++) {
+            System.out.println("Vertex:" + graph.nameOf(v));
+            for (int i = 0; i < graph.degree(v); i++) {
+                System.out.println("\t> " + graph.nameOf(graph.neighbors(v)[i]));
+            }
+        }
+        System.out.println("Graph end");
     }
+
+    public void printOutVariableRegisters(Map<String, Integer> registerMap) {
+        System.out.println("Registers: ");
+        for (String var : registerMap.keySet()) {
+            System.out.println(var + ": " + registerMap.get(var));
+        }
+    }   
+
+// Code Generation ==============================================================
+    Map<String, Integer> variableToOffset = new HashMap<>();
+    Map<String, Integer> variableRegisterMap = null;
+
+    int destSpilledRegister = 25;
+    int leftSpilledRegister = 26;
+    int rightSpilledRegister = 27;
+    int currentOffset = 0;
+
+    // return value of a function, R31 holds the return address
+    int returnValueRegister = 28;
+    // function whose blocks genCode is generating, null for the main computation
+    private BasicBlock currentFunction = null;
+    // JSR placeholders to patch once every function has its address, mapped to the callee
+    private Map<Integer, BasicBlock> callPositions = new HashMap<>();
+
+    // slot of every constant too wide for an immediate, by its bits (see genWideConstants)
+    private Map<Integer, Integer> wideConstantOffsets = new HashMap<>();
+
+    // whether genCode reorders the instructions of every block for the DLX pipeline (see Scheduler)
+    private boolean isScheduling = true;
+
+    public void setScheduling(boolean isScheduling) {
+        this.isScheduling = isScheduling;
+    }
+
+    // first machine instruction of every non-empty block from the last genCode, mapped to the block ID
+    private Map<Integer, Integer> blockStartPositions = new TreeMap<>();
+
+    public Map<Integer, Integer> getBlockStartPositions() {
+        return blockStartPositions;
+    }
+
+    // bytes of globals and spill slots the last genCode placed below R30, the call stack starts under them
+    public int getGlobalSize() {
+        return -currentOffset;
+    }
+
+    public int[] genCode() {
+        // CFGPrinter.LegiblePrint(irHead);
     
+        ArrayList<Integer> generatedCode = new ArrayList<>();
+        blockStartPositions = new TreeMap<>();
+        callPositions = new HashMap<>();
+        Set<BasicBlock> functionEntries = getFunctionEntryBlocks();
+        Set<BasicBlock> visitedBlocks = new HashSet<>();
+        // label table: first machine instruction of every generated block
+        Map<BasicBlock, Integer> blockLabels = new HashMap<>();
+        // branches to relocate once every block has its label, mapped to their target
+        Map<Integer, BasicBlock> branchPositions = new HashMap<>();
 
-    public ArrayList<Integer> instructionToMachineCode(Mod instruction) {
-        ArrayList<Integer> retArrayList = new ArrayList<>();
-        int opCode = 4;
+        // calls push onto a stack at R29, set up below the spill slots once their number is known
+        if (!functionEntries.isEmpty()) {
+            generatedCode.add(0);
+        }
 
-        int destRegisterToSet = instruction.getDest().getMachineCodeRepresentation();
-        int leftRegisterToSet = instruction.getLeft().getMachineCodeRepresentation();
-        int rightRegisterToSet = instruction.getRight().getMachineCodeRepresentation();
-        boolean destSpilled = false;
+        genWideConstants(functionEntries, generatedCode);
 
-        // Handle spilling for the left operand
-        Variable leftVariable = (Variable) instruction.getLeft();
-        if (leftVariable.getRegisterNumber() == -1) {
-            if (variableToOffset.containsKey(leftVariable.getSymbol().token().lexeme())) {
-                retArrayList.add(DLX.assemble(40, leftSpilledRegister, 30, variableToOffset.get(leftVariable.getSymbol().token().lexeme())));
-            } else {
-                variableToOffset.put(leftVariable.getSymbol().token().lexeme(), currentOffset);
-                currentOffset -= 4;  // Decrement the current offset to create a new space in memory
+        // the main computation, then every function behind it
+        currentFunction = null;
+        genBlocks(layOutBlocks(irHead, functionEntries, visitedBlocks), functionEntries, blockLabels, branchPositions, generatedCode);
+
+        Map<BasicBlock, Integer> functionStartPositions = new HashMap<>();
+        for (BasicBlock entry : irHead.getFunctionsMap().values()) {
+            currentFunction = entry;
+            functionStartPositions.put(entry, generatedCode.size());
+            if (!isLeafFunction(entry)) {
+                // PSH R31: the return address survives the calls of the function
+                generatedCode.add(DLX.assemble(45, 31, 29, -4));
             }
-            leftRegisterToSet = leftSpilledRegister;
+            genBlocks(layOutBlocks(entry, functionEntries, visitedBlocks), functionEntries, blockLabels, branchPositions, generatedCode);
         }
+        currentFunction = null;
 
-        // Handle spilling for the right operand
-        if (instruction.getRight() instanceof Variable) {
-            Variable rightVariable = (Variable) instruction.getRight();
-            if (rightVariable.getRegisterNumber() == -1) {
-                if (variableToOffset.containsKey(rightVariable.getSymbol().token().lexeme())) {
-                    retArrayList.add(DLX.assemble(40, rightSpilledRegister, 30, variableToOffset.get(rightVariable.getSymbol().token().lexeme())));
-                } else {
-                    variableToOffset.put(rightVariable.getSymbol().token().lexeme(), currentOffset);
-                    currentOffset -= 4;  // Decrement the current offset to create a new space in memory
+        // relocation: every branch was generated with offset 0, its target's label is known now
+        for (Map.Entry<Integer, BasicBlock> branch : branchPositions.entrySet()) {
+            int position = branch.getKey();
+            int placeholder = generatedCode.get(position);
+            generatedCode.set(position, DLX.assemble(placeholder >>> 26, (placeholder >>> 21) & 31, blockLabels.get(branch.getValue()) - position));
+        }
+
+        // JSR to the functions, and the stack pointer (ADDI R29, R30, offset)
+        for (Map.Entry<Integer, BasicBlock> call : callPositions.entrySet()) {
+            generatedCode.set(call.getKey(), DLX.assemble(54, 4 * functionStartPositions.get(call.getValue())));
+        }
+        if (!functionEntries.isEmpty()) {
+            generatedCode.set(0, DLX.assemble(20, 29, 30, currentOffset));
+        }
+    
+        // Convert ArrayList to array and return
+        int[] generatedCodeArray = new int[generatedCode.size()];
+        for (int i = 0; i < generatedCode.size(); i++) {
+            generatedCodeArray[i] = generatedCode.get(i);
+        }
+
+        // peephole optimization, the block starts move with their instructions
+        Peephole peephole = new Peephole(generatedCodeArray);
+        generatedCodeArray = peephole.optimize();
+        Map<Integer, Integer> optimizedBlockStarts = new TreeMap<>();
+        for (Map.Entry<Integer, Integer> blockStart : blockStartPositions.entrySet()) {
+            // a block whose instructions are all gone starts where the next one does
+            optimizedBlockStarts.put(peephole.newPosition(blockStart.getKey()), blockStart.getValue());
+        }
+        blockStartPositions = optimizedBlockStarts;
+
+        // list scheduling inside the blocks, every block keeps its start
+        if (isScheduling) {
+            generatedCodeArray = new Scheduler(generatedCodeArray, blockStartPositions.keySet()).schedule();
+        }
+
+        return generatedCodeArray;
+    }
+
+    // Orders the blocks reachable from entry without entering another function. Blocks are chained
+    // greedily along their heaviest edges first: an edge appends the chain starting with its target
+    // to the chain ending in its source, so the target falls through. An edge weighs as much as
+    // the profile entered the less frequent of its blocks, or without a profile 10 to the loop
+    // depth of the shallower one. The chain of the entry comes first, the others follow in
+    // reverse postorder of their earliest block.
+    private List<BasicBlock> layOutBlocks(BasicBlock entry, Set<BasicBlock> functionEntries, Set<BasicBlock> visitedBlocks) {
+        List<BasicBlock> blocks = new ArrayList<>();
+        for (BasicBlock block : DataflowSolver.reversePostorder(entry, functionEntries)) {
+            if (!visitedBlocks.contains(block)) {
+                blocks.add(block);
+            }
+        }
+        Map<BasicBlock, Integer> depths = LoopNesting.depths(entry, functionEntries);
+
+        // edges as {source, target}, the weights in the same order
+        List<BasicBlock[]> edges = new ArrayList<>();
+        Map<BasicBlock[], Long> weights = new HashMap<>();
+        Map<BasicBlock, List<BasicBlock>> chains = new HashMap<>();
+        for (BasicBlock block : blocks) {
+            chains.put(block, new ArrayList<>(List.of(block)));
+            for (BasicBlock target : getTransferTargets(block, getTransfer(block), functionEntries)) {
+                if (target == entry || !blocks.contains(target)) {
+                    continue;
                 }
-                rightRegisterToSet = rightSpilledRegister;
+                BasicBlock[] edge = new BasicBlock[] {block, target};
+                long weight;
+                if (profile != null) {
+                    weight = Math.min(blockFrequency(block), blockFrequency(target));
+                }
+                else {
+                    weight = (long) Math.pow(10, Math.min(Math.min(depths.get(block), depths.get(target)), 9));
+                }
+                edges.add(edge);
+                weights.put(edge, weight);
             }
         }
+        // stable, so among equal weights the false target of a branch wins as before
+        edges.sort((left, right) -> Long.compare(weights.get(right), weights.get(left)));
 
+        for (BasicBlock[] edge : edges) {
+            List<BasicBlock> sourceChain = chains.get(edge[0]);
+            List<BasicBlock> targetChain = chains.get(edge[1]);
+            if (sourceChain == targetChain || sourceChain.get(sourceChain.size() - 1) != edge[0] || targetChain.get(0) != edge[1]) {
+                continue;
+            }
+            sourceChain.addAll(targetChain);
+            for (BasicBlock block : targetChain) {
+                chains.put(block, sourceChain);
+            }
+        }
 
-        Variable destVariable = instruction.getDest();
-        if (destVariable.getRegisterNumber() == -1) {
-            if (variableToOffset.containsKey(destVariable.getSymbol().token().lexeme())) {
-                retArrayList.add(DLX.assemble(40, destSpilledRegister, 30, variableToOffset.get(destVariable.getSymbol().token().lexeme())));
+        List<BasicBlock> order = new ArrayList<>();
+        Set<List<BasicBlock>> placedChains = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (BasicBlock block : blocks) {
+            if (placedChains.add(chains.get(block))) {
+                order.addAll(chains.get(block));
+            }
+        }
+        visitedBlocks.addAll(order);
+        return order;
+    }
+
+    // Generates the blocks in the given order. A block ends at its first branch or Return, which
+    // is generated so that control falls through into the next block where it can: a branch to
+    // the next block is left out, and a conditional branch whose true target comes next is
+    // inverted to branch to the false target instead.
+    private void genBlocks(List<BasicBlock> order, Set<BasicBlock> functionEntries, Map<BasicBlock, Integer> blockLabels,
+                           Map<Integer, BasicBlock> branchPositions, ArrayList<Integer> generatedCode) {
+        for (int i = 0; i < order.size(); i++) {
+            BasicBlock currentBlock = order.get(i);
+            BasicBlock nextBlock = (i + 1 < order.size()) ? order.get(i + 1) : null;
+            // CFGPrinter.LegiblePrint(currentBlock);
+
+            currentBlock.setMachineInstructionsStartingPosition(generatedCode.size());
+            blockLabels.put(currentBlock, generatedCode.size());
+            TAC transfer = getTransfer(currentBlock);
+            ArrayList<Integer> blockCode = new ArrayList<>();
+
+            // Generate machine code for each instruction in the current block
+            for (TAC instruction : currentBlock.getInstructions()) {
+                if (instruction == transfer) {
+                    break;
+                }
+                // a branch to the block itself does not leave it (see IRGenerator's while)
+                if (instruction instanceof BRA) {
+                    continue;
+                }
+                // System.out.println("for instruction: " + instruction.getID());
+                blockCode.addAll(instructionToMachineCode(instruction, generatedCode.size() + blockCode.size(), 0));
+            }
+
+            if (transfer instanceof Return) {
+                blockCode.addAll(instructionToMachineCode(transfer, generatedCode.size() + blockCode.size(), 0));
+            }
+            else if (transfer instanceof BRA) {
+                genJump(((BRA) transfer).getTrueBasicBlock(), nextBlock, generatedCode.size(), blockCode, branchPositions);
+            }
+            else if (transfer != null) {
+                BasicBlock trueBlock = getBranchTrueBlock(transfer);
+                BasicBlock falseBlock = getTransferTargets(currentBlock, transfer, functionEntries).get(0);
+                int opCode = getBranchOpCode(transfer);
+                if (trueBlock == nextBlock) {
+                    // BEQ <-> BNE, BLT <-> BGE, BLE <-> BGT
+                    opCode += (opCode % 2 == 1) ? 1 : -1;
+                    genConditionalBranch(opCode, getBranchVariable(transfer), falseBlock, generatedCode.size(), blockCode, branchPositions);
+                }
+                else {
+                    genConditionalBranch(opCode, getBranchVariable(transfer), trueBlock, generatedCode.size(), blockCode, branchPositions);
+                    genJump(falseBlock, nextBlock, generatedCode.size(), blockCode, branchPositions);
+                }
+            }
+            else if (getFallThroughSuccessor(currentBlock, functionEntries) != null) {
+                genJump(getFallThroughSuccessor(currentBlock, functionEntries), nextBlock, generatedCode.size(), blockCode, branchPositions);
             }
             else {
-                variableToOffset.put(destVariable.getSymbol().token().lexeme(), currentOffset);
-                currentOffset -= 4;
+                blockCode.addAll(getExitCode());
+            }
+
+            for (Integer code : blockCode) {
+                currentBlock.addMachineInstruction(code); // Add to BasicBlock's machineInstructions
+                generatedCode.add(code);
+            }
+            if (!blockCode.isEmpty()) {
+                blockStartPositions.put(currentBlock.getMachineInstructionsStartingPosition(), currentBlock.getID());
             }
-            destSpilled = true;
-            destRegisterToSet = destSpilledRegister;
         }
-    
-        if (instruction.getRight().isFloat() && instruction.getRight() instanceof Literal) {
-            opCode = 31;
-            float d = instruction.getRight().getMachineCodeFloatRepresentation();
-            retArrayList.add(DLX.assemble(opCode, destRegisterToSet, leftRegisterToSet, d));
+    }
+
+    // instruction control leaves the block with: its first branch not to itself or Return, null
+    // when it falls through to its successor
+    private TAC getTransfer(BasicBlock block) {
+        for (TAC instruction : block.getInstructions()) {
+            if ((instruction instanceof BRA && ((BRA) instruction).getTrueBasicBlock() != block)
+                    || getBranchVariable(instruction) != null || instruction instanceof Return) {
+                return instruction;
+            }
         }
-        else if (instruction.getRight().isFloat()) {
-            opCode = 11; 
+        return null;
+    }
+
+    // blocks the transfer can lead to, the false target of a conditional branch first
+    private List<BasicBlock> getTransferTargets(BasicBlock block, TAC transfer, Set<BasicBlock> functionEntries) {
+        List<BasicBlock> targets = new ArrayList<>();
+        if (transfer instanceof BRA) {
+            targets.add(((BRA) transfer).getTrueBasicBlock());
         }
-        else if (instruction.getRight() instanceof Literal) {
-            opCode = 24;
+        else if (transfer != null && !(transfer instanceof Return)) {
+            BasicBlock falseBlock = getBranchFalseBlock(transfer);
+            targets.add((falseBlock != null) ? falseBlock : getFallThroughSuccessor(block, functionEntries));
+            targets.add(getBranchTrueBlock(transfer));
         }
-    
-        retArrayList.add(DLX.assemble(opCode, destRegisterToSet, leftRegisterToSet, rightRegisterToSet));
-        
-        if (destSpilled) {
-            retArrayList.add(DLX.assemble(43, destRegisterToSet, 30, variableToOffset.get(instruction.getDest().getSymbol().token().lexeme())));
+        else if (transfer == null && getFallThroughSuccessor(block, functionEntries) != null) {
+            targets.add(getFallThroughSuccessor(block, functionEntries));
         }
-        
-        return retArrayList;
+        targets.remove(null);
+        return targets;
     }
-    
 
-    public ArrayList<Integer> instructionToMachineCode(Pow instruction) {
-        ArrayList<Integer> retArrayList = new ArrayList<>();
-        int opCode = 5;
+    // first successor that is no call edge into a function, null if there is none
+    private BasicBlock getFallThroughSuccessor(BasicBlock block, Set<BasicBlock> functionEntries) {
+        for (BasicBlock successor : block.getSuccessors().keySet()) {
+            if (!functionEntries.contains(successor)) {
+                return successor;
+            }
+        }
+        return null;
+    }
+
+    private int getBranchOpCode(TAC branch) {
+        if (branch instanceof BEQ) {
+            return 47;
+        }
+        if (branch instanceof BNE) {
+            return 48;
+        }
+        if (branch instanceof BLT) {
+            return 49;
+        }
+        if (branch instanceof BGE) {
+            return 50;
+        }
+        if (branch instanceof BLE) {
+            return 51;
+        }
+        return 52;
+    }
+
+    // BEQ R0 to the target, nothing if it comes next anyway
+    private void genJump(BasicBlock target, BasicBlock nextBlock, int blockPosition, ArrayList<Integer> blockCode, Map<Integer, BasicBlock> branchPositions) {
+        if (target != nextBlock) {
+            branchPositions.put(blockPosition + blockCode.size(), target);
+            blockCode.add(DLX.assemble(47, 0, 0));
+        }
+    }
 
-        int destRegisterToSet = instruction.getDest().getMachineCodeRepresentation();
-        int leftRegisterToSet = instruction.getLeft().getMachineCodeRepresentation();
-        int rightRegisterToSet = instruction.getRight().getMachineCodeRepresentation();
-        boolean destSpilled = false;
+    private void genConditionalBranch(int opCode, Variable variable, BasicBlock target, int blockPosition, ArrayList<Integer> blockCode,
+                                      Map<Integer, BasicBlock> branchPositions) {
+        int register = variable.getMachineCodeRepresentation();
+        if (variable.getRegisterNumber() == -1 && variableToOffset.containsKey(variable.getSymbol().token().lexeme())) {
+            blockCode.add(DLX.assemble(40, leftSpilledRegister, 30, variableToOffset.get(variable.getSymbol().token().lexeme())));
+            register = leftSpilledRegister;
+        }
+        branchPositions.put(blockPosition + blockCode.size(), target);
+        blockCode.add(DLX.assemble(opCode, register, 0));
+    }
 
-        // Handle spilling for the left operand
-        Variable leftVariable = (Variable) instruction.getLeft();
-        if (leftVariable.getRegisterNumber() == -1) {
-            if (variableToOffset.containsKey(leftVariable.getSymbol().token().lexeme())) {
-                retArrayList.add(DLX.assemble(40, leftSpilledRegister, 30, variableToOffset.get(leftVariable.getSymbol().token().lexeme())));
-            } else {
-                variableToOffset.put(leftVariable.getSymbol().token().lexeme(), currentOffset);
-                currentOffset -= 4;  // Decrement the current offset to create a new space in memory
+    // leave the main computation with RET 0, a function with POP R31 unless it is a leaf, then RET R31
+    private ArrayList<Integer> getExitCode() {
+        ArrayList<Integer> toReturn = new ArrayList<>();
+        if (currentFunction == null) {
+            toReturn.add(DLX.assemble(55, 0));
+        }
+        else {
+            if (!isLeafFunction(currentFunction)) {
+                toReturn.add(DLX.assemble(42, 31, 29, 4));
             }
-            leftRegisterToSet = leftSpilledRegister;
+            toReturn.add(DLX.assemble(55, 31));
+        }
+        return toReturn;
+    }
+
+    public ArrayList<Integer> instructionToMachineCode(TAC instruction, int instructionPosition, int offset) {
+        ArrayList<Integer> toReturn = new ArrayList<>();
+        if (instruction instanceof Add) {
+            // System.out.println("Add");
+            ArrayList<Integer> returnList = instructionToMachineCode((Add) (instruction));
+            return returnList;
+        }
+        if (instruction instanceof Sub) {
+            // System.out.println("Sub");
+            ArrayList<Integer> returnList = instructionToMachineCode((Sub) (instruction));
+            return returnList;
+        }
+        if (instruction instanceof Mul) {
+            // System.out.println("Mul");
+            ArrayList<Integer> returnlist = instructionToMachineCode((Mul) (instruction));
+            return returnlist;
+        }
+        if (instruction instanceof Div) {
+            // System.out.println("Div");
+            ArrayList<Integer> returnList = instructionToMachineCode((Div) (instruction));
+            return returnList;
+        }
+        if (instruction instanceof Mod) {
+            // System.out.println("Mod");
+            ArrayList<Integer> returnList = instructionToMachineCode((Mod) (instruction));
+            return returnList;
+        }
+        if (instruction instanceof Pow) {
+            // System.out.println("Pow");
+            ArrayList<Integer> returnList = instructionToMachineCode((Pow) (instruction));
+            return returnList;
+        }
+        if (instruction instanceof And) {
+            ArrayList<Integer> returnList = instructionToMachineCode((And) (instruction));
+            return returnList;
+        }
+        if (instruction instanceof Or) {
+            ArrayList<Integer> returnList = instructionToMachineCode((Or) (instruction));
+            return returnList;        }
+        if (instruction instanceof Comparison) {
+            ArrayList<Integer> retArrayList = instructionToMachineCode((Comparison) (instruction));
+            return retArrayList;
+        }
+        if (instruction instanceof Assign) {
+            ArrayList<Integer> retArrayList = instructionToMachineCode((Assign) (instruction));
+            return retArrayList;
         }
-
-        // Handle spilling for the right operand
-        Variable rightVariable = (Variable) instruction.getRight();
-        if (rightVariable.getRegisterNumber() == -1) {
-            if (variableToOffset.containsKey(rightVariable.getSymbol().token().lexeme())) {
-                retArrayList.add(DLX.assemble(40, rightSpilledRegister, 30, variableToOffset.get(rightVariable.getSymbol().token().lexeme())));
-            } else {
-                variableToOffset.put(rightVariable.getSymbol().token().lexeme(), currentOffset);
-                currentOffset -= 4;  // Decrement the current offset to create a new space in memory
-            }
-            rightRegisterToSet = rightSpilledRegister;
+        if (instruction instanceof Call) {
+            ArrayList<Integer> retArrayList = instructionToMachineCode((Call) (instruction), instructionPosition);
+            return retArrayList;
         }
-
-
-        Variable destVariable = instruction.getDest();
-        if (destVariable.getRegisterNumber() == -1) {
-            if (variableToOffset.containsKey(destVariable.getSymbol().token().lexeme())) {
-                retArrayList.add(DLX.assemble(40, destSpilledRegister, 30, variableToOffset.get(destVariable.getSymbol().token().lexeme())));
-            }
-            else {
-                variableToOffset.put(destVariable.getSymbol().token().lexeme(), currentOffset);
-                currentOffset -= 4;
-            }
-            destSpilled = true;
-            destRegisterToSet = destSpilledRegister;
+        if (instruction instanceof Return) {
+            ArrayList<Integer> retArraylist = instructionToMachineCode((Return) (instruction));
+            return retArraylist;
         }
-
-        // System.out.println("powering: " + destRegisterToSet + ", " + leftRegisterToSet + ", " + rightRegisterToSet);
-        if (instruction.getRight() instanceof Literal) {
-            opCode = 25;
+        if (instruction instanceof Load) {
+            ArrayList<Integer> retArrayList = instructionToMachineCode((Load) (instruction));
+            return retArrayList;
         }
-    
-        retArrayList.add(DLX.assemble(opCode, destRegisterToSet, leftRegisterToSet, rightRegisterToSet));
-
-        if (destSpilled) {
-            retArrayList.add(DLX.assemble(43, destRegisterToSet, 30, variableToOffset.get(instruction.getDest().getSymbol().token().lexeme())));
+        if (instruction instanceof Store) {
+            ArrayList<Integer> retArrayList = instructionToMachineCode((Store) (instruction));
+            return retArrayList;
         }
 
-        return retArrayList;
+        return toReturn;
     }
-    
-
-    public ArrayList<Integer> instructionToMachineCode(And instruction) {
-        ArrayList<Integer> retArrayList = new ArrayList<>();
-        int opCode = 14; // Default opcode for AND a, b, c
-        int a = instruction.getDest().getMachineCodeRepresentation();
-        int b = instruction.getLeft().getMachineCodeRepresentation();
-        int c = instruction.getRight().getMachineCodeRepresentation();
-        boolean destSpilled = false;
-
-        // Handle spilling for the left operand
-        if (instruction.getLeft() instanceof Variable) {
-            Variable leftVariable = (Variable) instruction.getLeft();
-            if (leftVariable.getRegisterNumber() == -1) {
-                retArrayList.add(DLX.assemble(40, leftSpilledRegister, 30, variableToOffset.get(leftVariable.getSymbol().token().lexeme())));
-                b = leftSpilledRegister;
-            }
-        }
 
-        // Handle spilling for the right operand
-        if (instruction.getRight() instanceof Variable) {
-            Variable rightVariable = (Variable) instruction.getRight();
-            if (rightVariable.getRegisterNumber() == -1) {
-                if (variableToOffset.containsKey(rightVariable.getSymbol().token().lexeme())) {
-                    retArrayList.add(DLX.assemble(40, rightSpilledRegister, 30, variableToOffset.get(rightVariable.getSymbol().token().lexeme())));
-                } else {
-                    variableToOffset.put(rightVariable.getSymbol().token().lexeme(), currentOffset);
-                    currentOffset -= 4;  // Decrement the current offset to create a new space in memory
-                }
-                c = rightSpilledRegister;
-            }
-        }
+    public ArrayList<Integer> instructionToMachineCode(Add instruction) {
+        return genArithmetic(0, true, instruction.getDest(), instruction.getLeft(), instruction.getRight());
+    }
 
-        // Handle spilling for the destination operand
-        Variable destVariable = instruction.getDest();
-        if (destVariable.getRegisterNumber() == -1) {
-            if (variableToOffset.containsKey(destVariable.getSymbol().token().lexeme())) {
-                retArrayList.add(DLX.assemble(40, destSpilledRegister, 30, variableToOffset.get(destVariable.getSymbol().token().lexeme())));
-            } else {
-                variableToOffset.put(destVariable.getSymbol().token().lexeme(), currentOffset);
-                currentOffset -= 4;
-            }
-            destSpilled = true;
-            a = destSpilledRegister;
-        }
+    public ArrayList<Integer> instructionToMachineCode(Sub instruction) {
+        return genArithmetic(1, false, instruction.getDest(), instruction.getLeft(), instruction.getRight());
+    }
 
-        // Check for literal right operand to adjust opcode for immediate AND
-        if (instruction.getRight() instanceof Literal) {
-            opCode = 34; // Opcode for ANDI
-        }
+    public ArrayList<Integer> instructionToMachineCode(Mul instruction) {
+        return genArithmetic(2, true, instruction.getDest(), instruction.getLeft(), instruction.getRight());
+    }
 
-        retArrayList.add(DLX.assemble(opCode, a, b, c));
+    public ArrayList<Integer> instructionToMachineCode(Div instruction) {
+        return genArithmetic(3, false, instruction.getDest(), instruction.getLeft(), instruction.getRight());
+    }
 
-        // If the destination was spilled, store it back to memory
-        if (destSpilled) {
-            retArrayList.add(DLX.assemble(43, a, 30, variableToOffset.get(instruction.getDest().getSymbol().token().lexeme())));
-        }
+    public ArrayList<Integer> instructionToMachineCode(Mod instruction) {
+        return genArithmetic(4, false, instruction.getDest(), instruction.getLeft(), instruction.getRight());
+    }
 
-        return retArrayList;
+    public ArrayList<Integer> instructionToMachineCode(Pow instruction) {
+        return genArithmetic(5, false, instruction.getDest(), instruction.getLeft(), instruction.getRight());
     }
 
-    
+    public ArrayList<Integer> instructionToMachineCode(And instruction) {
+        return genArithmetic(14, true, instruction.getDest(), instruction.getLeft(), instruction.getRight());
+    }
 
     public ArrayList<Integer> instructionToMachineCode(Or instruction) {
-        ArrayList<Integer> retArrayList = new ArrayList<>();
-        int opCode = 13; // Default opcode for OR a, b, c
-        int a = instruction.getDest().getMachineCodeRepresentation();
-        int b = instruction.getLeft().getMachineCodeRepresentation();
-        int c = instruction.getRight().getMachineCodeRepresentation();
-        boolean destSpilled = false;
+        return genArithmetic(13, true, instruction.getDest(), instruction.getLeft(), instruction.getRight());
+    }
 
-        System.out.println("Trying to or: " + opCode + ", " + a + ", " + b + ", c:" + instruction.getRight() + c);
+    public ArrayList<Integer> instructionToMachineCode (Comparison instruction) {
+        return genArithmetic(6, false, instruction.getDest(), instruction.getLeft(), instruction.getRight());
+    }
 
-        // Handle spilling for the left operand
-        if (instruction.getLeft() instanceof Variable) {
-            Variable leftVariable = (Variable) instruction.getLeft();
-            if (leftVariable.getRegisterNumber() == -1) {
-                if (variableToOffset.containsKey(leftVariable.getSymbol().token().lexeme())) {
-                    retArrayList.add(DLX.assemble(40, leftSpilledRegister, 30, variableToOffset.get(leftVariable.getSymbol().token().lexeme())));
-                } else {
-                    variableToOffset.put(leftVariable.getSymbol().token().lexeme(), currentOffset);
-                    currentOffset -= 4;  // Decrement the current offset to create a new space in memory
-                }
-                b = leftSpilledRegister;
-            }
+    // Machine code of dest = left op right for opCode, the integer register form (ADD .. CMP, OR, AND).
+    // The float form is 7 above it and the immediate forms are 20 above the register forms. A literal
+    // right operand is an immediate when it fits (see isImmediate), a commutative operator takes
+    // a literal on the left there as well. Any other literal goes to a scratch register first.
+    private ArrayList<Integer> genArithmetic(int opCode, boolean isCommutative, Variable dest, Value left, Value right) {
+        ArrayList<Integer> retArrayList = new ArrayList<>();
+        if (isCommutative && left instanceof Literal && !(right instanceof Literal)) {
+            Value swapped = left;
+            left = right;
+            right = swapped;
         }
-
-
-        if (instruction.getRight() instanceof Variable) {
-            Variable rightVariable = (Variable) instruction.getRight();
-            if (rightVariable.getRegisterNumber() == -1) {
-                if (variableToOffset.containsKey(rightVariable.getSymbol().token().lexeme())) {
-                    retArrayList.add(DLX.assemble(40, rightSpilledRegister, 30, variableToOffset.get(rightVariable.getSymbol().token().lexeme())));
-                } else {
-                    variableToOffset.put(rightVariable.getSymbol().token().lexeme(), currentOffset);
-                    currentOffset -= 4;  // Decrement the current offset to create a new space in memory
-                }
-                c = rightSpilledRegister;
-            }
+        if ((left.isFloat() || right.isFloat()) && opCode <= 6) {
+            opCode += 7;
         }
 
-        // Handle spilling for the destination operand
-        Variable destVariable = instruction.getDest();
-        if (destVariable.getRegisterNumber() == -1) {
-            if (variableToOffset.containsKey(destVariable.getSymbol().token().lexeme())) {
-                retArrayList.add(DLX.assemble(40, destSpilledRegister, 30, variableToOffset.get(destVariable.getSymbol().token().lexeme())));
-            } else {
-                variableToOffset.put(destVariable.getSymbol().token().lexeme(), currentOffset);
+        int leftRegisterToSet = genOperand(left, leftSpilledRegister, retArrayList);
+        int destRegisterToSet = dest.getRegisterNumber();
+        boolean destSpilled = destRegisterToSet == -1;
+        if (destSpilled) {
+            if (!variableToOffset.containsKey(dest.getSymbol().token().lexeme())) {
+                variableToOffset.put(dest.getSymbol().token().lexeme(), currentOffset);
                 currentOffset -= 4;
             }
-            destSpilled = true;
-            a = destSpilledRegister;
+            destRegisterToSet = destSpilledRegister;
         }
 
-        // Check for literal right operand to adjust opcode for immediate OR
-        if (instruction.getRight() instanceof Literal) {
-            opCode = 33; // Opcode for ORI
+        if (opCode == 2 && right instanceof Literal && right.getMachineCodeRepresentation() > 0 && Integer.bitCount(right.getMachineCodeRepresentation()) == 1) {
+            // LSHI for a power of two, a shift is far cheaper than a multiply on DLX
+            retArrayList.add(DLX.assemble(37, destRegisterToSet, leftRegisterToSet, Integer.numberOfTrailingZeros(right.getMachineCodeRepresentation())));
         }
-        
-        System.out.println("Trying to or: " + opCode + ", " + a + ", " + b + ", c" + c);
-        retArrayList.add(DLX.assemble(opCode, a, b, c));
-
-        // If the destination was spilled, store it back to memory
-        if (destSpilled) {
-            retArrayList.add(DLX.assemble(43, a, 30, variableToOffset.get(instruction.getDest().getSymbol().token().lexeme())));
+        else if (right instanceof Literal && isImmediate((Literal) right) && right.isFloat()) {
+            retArrayList.add(DLX.assemble(opCode + 20, destRegisterToSet, leftRegisterToSet, right.getMachineCodeFloatRepresentation()));
         }
-
-        return retArrayList;
-    }
-
-    
-    public ArrayList<Integer> instructionToMachineCode (BEQ node, int instructionPosition, int offset) {
-        ArrayList<Integer> toReturn = new ArrayList<>();
-        int opCode = 47;
-        int a = node.getLeft().getMachineCodeRepresentation();
-        int c = node.getTrueBasicBlock().getMachineInstructionsStartingPosition() - instructionPosition;
-        // System.out.println("Generated BEQ jump from " + instructionPosition + "->" + node.getTrueBasicBlock().getMachineInstructionsStartingPosition());
-
-        if (node.getFalseBasicBlock() == null) {
-            int cOffset = (c < 0) ? -1 : 1;
-            toReturn.add(DLX.assemble(opCode, a, c + cOffset));
+        else if (right instanceof Literal && isImmediate((Literal) right)) {
+            retArrayList.add(DLX.assemble(opCode + 20, destRegisterToSet, leftRegisterToSet, right.getMachineCodeRepresentation()));
         }
         else {
-            int d = node.getFalseBasicBlock().getMachineInstructionsStartingPosition() - instructionPosition;
-
-            int cOffset = (c < 0) ? -2 : 2;
-            int dOffset = (c < 0) ? -2 : 2;
-            
-            toReturn.add(DLX.assemble(opCode, a, c + cOffset));
-            toReturn.add(DLX.assemble(48, 0, d + dOffset));
-        }
-
-        return toReturn;
-    }
-    
-    public ArrayList<Integer> instructionToMachineCode (BNE node, int instructionPosition, int offset) {
-        ArrayList<Integer> toReturn = new ArrayList<>();
-        int opCode = 48;
-        int a = node.getLeft().getMachineCodeRepresentation();
-        int c = node.getTrueBasicBlock().getMachineInstructionsStartingPosition() - instructionPosition;
-        // System.out.println("Generated BNE jump from " + instructionPosition + "->" + node.getTrueBasicBlock().getMachineInstructionsStartingPosition());
-
-        if (node.getFalseBasicBlock() == null) {
-            int cOffset = (c < 0) ? -1 : 1;
-            toReturn.add(DLX.assemble(opCode, a, c + cOffset));
+            int rightRegisterToSet = genOperand(right, rightSpilledRegister, retArrayList);
+            retArrayList.add(DLX.assemble(opCode, destRegisterToSet, leftRegisterToSet, rightRegisterToSet));
         }
-        else {
-            int d = node.getFalseBasicBlock().getMachineInstructionsStartingPosition() - instructionPosition;
 
-            int cOffset = (c < 0) ? -2 : 2;
-            int dOffset = (c < 0) ? -2 : 2;
-
-            toReturn.add(DLX.assemble(opCode, a, c + cOffset));
-            toReturn.add(DLX.assemble(47, 0, d + dOffset));
+        if (destSpilled) {
+            retArrayList.add(DLX.assemble(43, destRegisterToSet, 30, variableToOffset.get(dest.getSymbol().token().lexeme())));
         }
-
-        return toReturn;
+        return retArrayList;
     }
 
-    public ArrayList<Integer> instructionToMachineCode (BLT node, int instructionPosition, int offset) {
-        ArrayList<Integer> toReturn = new ArrayList<>();
-        int opCode = 49;
-        int a = node.getLeft().getMachineCodeRepresentation();
-        int c = node.getTrueBasicBlock().getMachineInstructionsStartingPosition() - instructionPosition;
-        // System.out.println("Generated BLT jump from " + instructionPosition + "->" + node.getTrueBasicBlock().getMachineInstructionsStartingPosition());
-
-        if (node.getFalseBasicBlock() == null) {
-            int cOffset = (c < 0) ? -1 : 1;
-            toReturn.add(DLX.assemble(opCode, a, c + cOffset));
+    // register holding the operand: its own, or scratchRegister after loading a spilled variable or a literal
+    private int genOperand(Value operand, int scratchRegister, ArrayList<Integer> retArrayList) {
+        if (operand instanceof Literal) {
+            genConstant(scratchRegister, (Literal) operand, retArrayList);
+            return scratchRegister;
         }
-        else {
-            int d = node.getFalseBasicBlock().getMachineInstructionsStartingPosition() - instructionPosition;
-
-            int cOffset = (c < 0) ? -2 : 2;
-            int dOffset = (d < 0) ? -2 : 2;
-
-            toReturn.add(DLX.assemble(opCode, a, c + cOffset));
-            toReturn.add(DLX.assemble(50, 0, d + dOffset));
+        Variable variable = (Variable) operand;
+        if (variable.getRegisterNumber() != -1) {
+            return variable.getRegisterNumber();
         }
-
-        return toReturn;
-    }
-
-    public ArrayList<Integer> instructionToMachineCode (BGE node, int instructionPosition, int offset) {
-        ArrayList<Integer> toReturn = new ArrayList<>();
-        int opCode = 50;
-        int a = node.getLeft().getMachineCodeRepresentation();
-        int c = node.getTrueBasicBlock().getMachineInstructionsStartingPosition() - instructionPosition;
-        // System.out.println("Generated BGE jump from " + instructionPosition + "->" + node.getTrueBasicBlock().getMachineInstructionsStartingPosition());
-
-        if (node.getFalseBasicBlock() == null) {
-            int cOffset = (c < 0) ? -1 : 1;
-            toReturn.add(DLX.assemble(opCode, a, c + cOffset));
+        if (variableToOffset.containsKey(variable.getSymbol().token().lexeme())) {
+            retArrayList.add(DLX.assemble(40, scratchRegister, 30, variableToOffset.get(variable.getSymbol().token().lexeme())));
         }
         else {
-            int d = node.getFalseBasicBlock().getMachineInstructionsStartingPosition() - instructionPosition;
-
-            int cOffset = (c < 0) ? -2 : 2;
-            int dOffset = (c < 0) ? -2 : 2;
-
-            toReturn.add(DLX.assemble(opCode, a, c + cOffset));
-            toReturn.add(DLX.assemble(49, 0, d + dOffset));
+            variableToOffset.put(variable.getSymbol().token().lexeme(), currentOffset);
+            currentOffset -= 4;  // Decrement the current offset to create a new space in memory
         }
-        return toReturn;
+        return scratchRegister;
     }
 
-    public ArrayList<Integer> instructionToMachineCode (BLE node, int instructionPosition, int offset) {
-        ArrayList<Integer> toReturn = new ArrayList<>();
-        int opCode = 51;
-        int a = node.getLeft().getMachineCodeRepresentation();
-        int c = node.getTrueBasicBlock().getMachineInstructionsStartingPosition() - instructionPosition;
-        // System.out.println("Generated BLE jump from " + instructionPosition + "->" + node.getTrueBasicBlock().getMachineInstructionsStartingPosition());
-
-        if (node.getFalseBasicBlock() == null) {
-            int cOffset = (c < 0) ? -1 : 1;
-            toReturn.add(DLX.assemble(opCode, a, c + cOffset));
+    // ADDI or fADDI of an immediate, a wide constant is loaded from its slot (see genWideConstants)
+    private void genConstant(int register, Literal literal, List<Integer> code) {
+        if (isImmediate(literal) && literal.isFloat()) {
+            code.add(DLX.assemble(27, register, 0, literal.getMachineCodeFloatRepresentation()));
         }
-        else {
-            int d = node.getFalseBasicBlock().getMachineInstructionsStartingPosition() - instructionPosition;
-
-            int cOffset = (c < 0) ? -2 : 2;
-            int dOffset = (c < 0) ? -2 : 2;
-
-            toReturn.add(DLX.assemble(opCode, a, c + cOffset));
-            toReturn.add(DLX.assemble(52, 0, d + dOffset));
+        else if (isImmediate(literal)) {
+            code.add(DLX.assemble(20, register, 0, literal.getMachineCodeRepresentation()));
         }
-        
-        return toReturn;
-    }
-
-    public ArrayList<Integer> instructionToMachineCode (BGT node, int instructionPosition, int offset) {
-        ArrayList<Integer> toReturn = new ArrayList<>();
-        int opCode = 52;
-        int a = node.getLeft().getMachineCodeRepresentation();
-        int c = node.getTrueBasicBlock().getMachineInstructionsStartingPosition() - instructionPosition;
-        // System.out.println("Generated BGT jump from " + instructionPosition + "->" + node.getTrueBasicBlock().getMachineInstructionsStartingPosition());
-        // System.out.println("Generated BLE jump from " + instructionPosition + "->" + node.getFalseBasicBlock().getMachineInstructionsStartingPosition());
-
-        if (node.getFalseBasicBlock() == null) {
-            // System.out.println("A");
-            int cOffset = (c < 0) ? -1 : 1;
-            toReturn.add(DLX.assemble(opCode, a, c + cOffset));
+        else if (wideConstantOffsets.containsKey(getConstantBits(literal))) {
+            code.add(DLX.assemble(40, register, 30, wideConstantOffsets.get(getConstantBits(literal))));
         }
         else {
-            // System.out.println("B");
-            int d = node.getFalseBasicBlock().getMachineInstructionsStartingPosition() - instructionPosition;
-
-            int cOffset = (c < 0) ? -2 : 2;
-            int dOffset = (d < 0) ? -2 : 2;
-            
-            toReturn.add(DLX.assemble(opCode, a, c + cOffset));
-            toReturn.add(DLX.assemble(51, 0, d + dOffset));
-            
-            
-        }
-        return toReturn;
-    }
-
-    public ArrayList<Integer> instructionToMachineCode (BRA node, int instructionPosition, int offset) {
-        ArrayList<Integer> toReturn = new ArrayList<>();
-        int opCode = 47;
-        int a = 0; // branch if register 0 == 0, but r0 always holds the value 0
-        int c = node.getTrueBasicBlock().getMachineInstructionsStartingPosition() - instructionPosition;
-        int cOffset = (c < 0) ? -1 : 1;
-        // System.out.println("Generated BEQ jump from " + instructionPosition + "->" + node.getTrueBasicBlock().getMachineInstructionsStartingPosition());
-        toReturn.add(DLX.assemble(opCode, a, c + cOffset));
-        return toReturn;
-    }
-
-    public ArrayList<Integer> instructionToMachineCode (Comparison instruction) {
-        ArrayList<Integer> retArrayList = new ArrayList<>();
-        int opCode = 6; 
-
-        int destRegisterToSet = instruction.getDest().getMachineCodeRepresentation();
-        int leftRegisterToSet = instruction.getLeft().getMachineCodeRepresentation();
-        int rightRegisterToSet = instruction.getRight().getMachineCodeRepresentation();
-        boolean destSpilled = false;
-
-        Variable leftVariable = (Variable) instruction.getLeft();
-        if (leftVariable.getRegisterNumber() == -1) {
-            if (variableToOffset.containsKey(leftVariable.getSymbol().token().lexeme())) {
-                retArrayList.add(DLX.assemble(40, leftSpilledRegister, 30, variableToOffset.get(leftVariable.getSymbol().token().lexeme())));
-            } else {
-                variableToOffset.put(leftVariable.getSymbol().token().lexeme(), currentOffset);
-                currentOffset -= 4;  // Decrement the current offset to create a new space in memory
-            }
-            leftRegisterToSet = leftSpilledRegister;
-        }
-
-        // Handle spilling for the right operand
-        if (instruction.getRight() instanceof Variable) {
-            Variable rightVariable = (Variable) instruction.getRight();
-            if (rightVariable.getRegisterNumber() == -1) {
-                if (variableToOffset.containsKey(rightVariable.getSymbol().token().lexeme())) {
-                    retArrayList.add(DLX.assemble(40, rightSpilledRegister, 30, variableToOffset.get(rightVariable.getSymbol().token().lexeme())));
-                } else {
-                    variableToOffset.put(rightVariable.getSymbol().token().lexeme(), currentOffset);
-                    currentOffset -= 4;  // Decrement the current offset to create a new space in memory
+            genWideConstant(register, getConstantBits(literal), code);
+        }
+    }
+
+    // Every literal too wide for an immediate is built once, at the start of the program, into a slot
+    // of its own, and every use loads it from there: one LDW instead of up to five instructions.
+    private void genWideConstants(Set<BasicBlock> functionEntries, List<Integer> code) {
+        wideConstantOffsets = new HashMap<>();
+        List<BasicBlock> roots = new ArrayList<>();
+        roots.add(irHead);
+        roots.addAll(irHead.getFunctionsMap().values());
+        for (BasicBlock root : roots) {
+            for (BasicBlock block : DataflowSolver.reversePostorder(root, functionEntries)) {
+                for (TAC instruction : block.getInstructions()) {
+                    List<Value> values = new ArrayList<>(DefUse.operands(instruction));
+                    if (instruction instanceof Assign) {
+                        values.add(((Assign) instruction).getRight());
+                    }
+                    else if (instruction instanceof Return) {
+                        values.add(((Return) instruction).getReturnValue());
+                    }
+                    for (Value value : values) {
+                        if (!(value instanceof Literal) || isImmediate((Literal) value) || wideConstantOffsets.containsKey(getConstantBits((Literal) value))) {
+                            continue;
+                        }
+                        wideConstantOffsets.put(getConstantBits((Literal) value), currentOffset);
+                        genWideConstant(rightSpilledRegister, getConstantBits((Literal) value), code);
+                        code.add(DLX.assemble(43, rightSpilledRegister, 30, currentOffset));
+                        currentOffset -= 4;
+                    }
                 }
-                rightRegisterToSet = rightSpilledRegister;
-            }
-        }
-
-        Variable destVariable = instruction.getDest();
-        if (destVariable.getRegisterNumber() == -1) {
-            if (variableToOffset.containsKey(destVariable.getSymbol().token().lexeme())) {
-                retArrayList.add(DLX.assemble(40, destSpilledRegister, 30, variableToOffset.get(destVariable.getSymbol().token().lexeme())));
-            }
-            else {
-                variableToOffset.put(destVariable.getSymbol().token().lexeme(), currentOffset);
-                currentOffset -= 4;
             }
-            destSpilled = true;
-            destRegisterToSet = destSpilledRegister;
         }
-    
+    }
 
-        if (instruction.getRight().isFloat() && instruction.getRight() instanceof Literal) {
-            opCode = 32;
+    // ADDI of the upper half, LSHI by 16 and ORI of the lower half. ORI sign extends its immediate,
+    // so bit 15 is left out of it and added by two ADDIs of 2^14 instead.
+    private void genWideConstant(int register, int bits, List<Integer> code) {
+        int lower = bits & 0xFFFF;
+        code.add(DLX.assemble(20, register, 0, bits >> 16));
+        code.add(DLX.assemble(37, register, register, 16));
+        if ((lower & 0x7FFF) != 0) {
+            code.add(DLX.assemble(33, register, register, lower & 0x7FFF));
         }
-        else if (instruction.getRight().isFloat()) {
-            opCode = 12;
+        if ((lower & 0x8000) != 0) {
+            code.add(DLX.assemble(20, register, register, 0x4000));
+            code.add(DLX.assemble(20, register, register, 0x4000));
         }
-        else if (instruction.getRight() instanceof Literal) {
-            opCode = 26;
-        }
-    
-        // System.out.println("trying to compare " + destRegisterToSet + ", " + leftRegisterToSet + ", " + rightRegisterToSet);
-        retArrayList.add(DLX.assemble(opCode, destRegisterToSet, leftRegisterToSet, rightRegisterToSet));
+    }
 
-        if (destSpilled) {
-            retArrayList.add(DLX.assemble(43, destRegisterToSet, 30, variableToOffset.get(instruction.getDest().getSymbol().token().lexeme())));
+    // whether the literal fits the 16 bit immediate of an F1 instruction, half precision for a float
+    private boolean isImmediate(Literal literal) {
+        if (literal.isFloat()) {
+            float value = literal.getMachineCodeFloatRepresentation();
+            return DLX.toFP32FromFP16(DLX.assemble(27, 0, 0, value) & 0xFFFF) == value;
         }
+        int value = literal.getMachineCodeRepresentation();
+        return value >= Short.MIN_VALUE && value <= Short.MAX_VALUE;
+    }
 
-        return retArrayList;
+    // what the register holding the literal contains, the IEEE bits for a float
+    private int getConstantBits(Literal literal) {
+        if (literal.isFloat()) {
+            return Float.floatToIntBits(literal.getMachineCodeFloatRepresentation());
+        }
+        return literal.getMachineCodeRepresentation();
     }
-    
+
     public ArrayList<Integer> instructionToMachineCode (Assign node) {
         ArrayList<Integer> retArrayList = new ArrayList<>();
+        // a copy whose ends share a register (see Coalescing) is no instruction at all
+        if (node.getRight() instanceof Variable && node.getDest().getRegisterNumber() != -1
+                && node.getDest().getRegisterNumber() == ((Variable) node.getRight()).getRegisterNumber()) {
+            return retArrayList;
+        }
         int registerToSet = node.getDest().getRegisterNumber();
         int rightRegisterToSet = node.getRight().getMachineCodeRepresentation();
         boolean isSpilled = false;
@@ -3580,18 +5499,7 @@ public class Compiler {
         // System.out.println("Attempting to assign " + node.getDest() + ":" + registerToSet + " = " + node.getRight() + ":" + rightRegisterToSet);
 
         if (node.getRight() instanceof Literal) {
-            if ((node.getRight()).isBool()) {
-                // if a boolean, add an or with the value 0 and the 
-                retArrayList.add(DLX.assemble(33, registerToSet, 0, rightRegisterToSet));
-            }
-            else if ((node.getRight()).isFloat()) {
-                // float add with the value 0
-                retArrayList.add(DLX.assemble(27, registerToSet, 0, node.getRight().getMachineCodeFloatRepresentation()));
-            }
-            else if ((node.getRight()).isInt()) {
-                // int add with the value 0
-                retArrayList.add(DLX.assemble(20, registerToSet, 0, rightRegisterToSet));
-            }   
+            genConstant(registerToSet, (Literal) node.getRight(), retArrayList);
         }
         else {
             if ((node.getRight()).isBool()) {
@@ -3616,6 +5524,23 @@ public class Compiler {
         return retArrayList;
     }
 
+    // RDI, RDF or RDB into the return variable of node; a spilled one is read into the dest
+    // scratch register and stored to its slot
+    private void genRead (int opCode, Call node, ArrayList<Integer> code) {
+        String variable = node.getReturnVariable().getSymbol().token().lexeme();
+        int register = node.getReturnVariable().getMachineCodeRepresentation();
+        if (register != -1) {
+            code.add(DLX.assemble(opCode, register));
+            return;
+        }
+        if (!variableToOffset.containsKey(variable)) {
+            variableToOffset.put(variable, currentOffset);
+            currentOffset -= 4;
+        }
+        code.add(DLX.assemble(opCode, destSpilledRegister));
+        code.add(DLX.assemble(43, destSpilledRegister, 30, variableToOffset.get(variable)));
+    }
+
     public ArrayList<Integer> instructionToMachineCode (Call node, int instructionPosition) {
         ArrayList<Integer> toReturn = new ArrayList<>();
         int opCode;
@@ -3623,37 +5548,13 @@ public class Compiler {
         if (node.isPredefined()) {
             switch (node.getFunctionName().token().lexeme()) {
                 case "readInt":
-                    opCode = 56;
-                    // System.out.println(node.getReturnVariable().getMachineCodeRepresentation());
-                    int readIntRegisterToSet = node.getReturnVariable().getMachineCodeRepresentation();
-                    boolean readIntRegisterSpilled = false;
-
-                    if (readIntRegisterToSet == -1) {
-                        if (variableToOffset.containsKey(node.getReturnVariable().getSymbol().token().lexeme())) {
-                            toReturn.add(DLX.assemble(40, rightSpilledRegister, 30, variableToOffset.get(node.getReturnVariable().getSymbol().token().lexeme())));
-                            readIntRegisterToSet = rightSpilledRegister;
-                        }
-                        else {
-                            variableToOffset.put(node.getReturnVariable().getSymbol().token().lexeme(), currentOffset);
-                            currentOffset -= 4;
-                            readIntRegisterToSet = 25;
-                        }
-                        readIntRegisterSpilled = true;
-                    }
-                    // System.out.println(readIntRegisterToSet);
-                    toReturn.add(DLX.assemble(opCode, readIntRegisterToSet));
-
-                    if (readIntRegisterSpilled) {
-                        toReturn.add(DLX.assemble(43, readIntRegisterToSet, 30, variableToOffset.get(node.getReturnVariable().getSymbol().token().lexeme())));
-                    }
+                    genRead(56, node, toReturn);
                     return toReturn;
                 case "readFloat":
-                    opCode = 57;
-                    toReturn.add(DLX.assemble(opCode, node.getReturnVariable().getMachineCodeRepresentation()));
+                    genRead(57, node, toReturn);
                     return toReturn;
                 case "readBool":
-                    opCode = 58;
-                    toReturn.add(DLX.assemble(opCode, node.getReturnVariable().getMachineCodeRepresentation()));
+                    genRead(58, node, toReturn);
                     return toReturn;
                 case "printInt":
                     opCode = 59;
@@ -3669,7 +5570,15 @@ public class Compiler {
                     return toReturn;
                 case "printFloat":
                     opCode = 60;
-                    toReturn.add(DLX.assemble(opCode, variableRegisterMap.get(((VariableReference) node.getArgs().getExpressionParameters().get(0)).getIdent().token().lexeme())));
+                    String registerStringFloat = ((VariableReference) node.getArgs().getExpressionParameters().get(0)).getIdent().token().lexeme();
+                    int registerToSetFloat = variableRegisterMap.get(registerStringFloat);
+
+                    if (registerToSetFloat == -1) {
+                        toReturn.add(DLX.assemble(40, rightSpilledRegister, 30, variableToOffset.get(registerStringFloat)));
+                        registerToSetFloat = rightSpilledRegister;
+                    }
+
+                    toReturn.add(DLX.assemble(opCode, registerToSetFloat));
                     return toReturn;
                 case "printBool":
                     opCode = 61;
@@ -3690,27 +5599,167 @@ public class Compiler {
             }
         }
 
-        // opCode = 53;
-        // toReturn.add(DLX.assemble(opCode, node.getDestinationBlock().getMachineInstructionsStartingPosition()));
-        // toReturn.add(DLX.assemble(47, 0, node.getDestinationBlock().getMachineInstructionsLength()+2));
+        // user function: push what the callee may overwrite (see getCallSaves), JSR, pop it back
+        List<String> saved = callSaves.getOrDefault(node, new ArrayList<>());
+        for (String variable : saved) {
+            int register = variableRegisterMap.get(variable);
+            if (register == -1) {
+                toReturn.add(DLX.assemble(40, destSpilledRegister, 30, variableToOffset.get(variable)));
+                register = destSpilledRegister;
+            }
+            toReturn.add(DLX.assemble(45, register, 29, -4));
+        }
+
+        genArguments(node, toReturn);
+
+        // JSR, patched by genCode once the function has an address
+        callPositions.put(instructionPosition + toReturn.size(), node.getDestinationBlock());
+        toReturn.add(DLX.assemble(54, 0));
+
+        for (int i = saved.size() - 1; i >= 0; i--) {
+            int register = variableRegisterMap.get(saved.get(i));
+            if (register == -1) {
+                toReturn.add(DLX.assemble(42, destSpilledRegister, 29, 4));
+                toReturn.add(DLX.assemble(43, destSpilledRegister, 30, variableToOffset.get(saved.get(i))));
+            }
+            else {
+                toReturn.add(DLX.assemble(42, register, 29, 4));
+            }
+        }
+
+        // the result comes back in R28
+        Variable result = node.getReturnVariable();
+        if (result != null) {
+            if (result.getRegisterNumber() != -1) {
+                toReturn.add(DLX.assemble(0, result.getRegisterNumber(), 0, returnValueRegister));
+            }
+            else {
+                if (!variableToOffset.containsKey(result.getSymbol().token().lexeme())) {
+                    variableToOffset.put(result.getSymbol().token().lexeme(), currentOffset);
+                    currentOffset -= 4;
+                }
+                toReturn.add(DLX.assemble(43, returnValueRegister, 30, variableToOffset.get(result.getSymbol().token().lexeme())));
+            }
+        }
         return toReturn;
     }
 
+    // Sets the parameters of the callee to the arguments, as inlineCall does in the IR. A parameter
+    // the callee never reads is left alone. An argument that dies at the call may share its
+    // register with another parameter; if setting the parameters in order would overwrite such an
+    // argument before it is read, all arguments go over the stack instead.
+    private void genArguments(Call call, ArrayList<Integer> code) {
+        List<Variable> parameters = call.getDestinationBlock().getParameters();
+        List<Value> arguments = call.getArgumentValues();
+        if (parameters.size() != arguments.size()) {
+            return;
+        }
+        List<Integer> bound = new ArrayList<>();
+        for (int i = 0; i < parameters.size(); i++) {
+            String name = DefUse.name(parameters.get(i));
+            if (!variableRegisterMap.containsKey(name)) {
+                continue;
+            }
+            if (variableRegisterMap.get(name) == -1 && !variableToOffset.containsKey(name)) {
+                variableToOffset.put(name, currentOffset);
+                currentOffset -= 4;
+            }
+            bound.add(i);
+        }
+
+        boolean isOverwritten = false;
+        for (int i = 0; i < bound.size(); i++) {
+            int register = variableRegisterMap.get(DefUse.name(parameters.get(bound.get(i))));
+            for (int j = i + 1; j < bound.size(); j++) {
+                Value argument = arguments.get(bound.get(j));
+                if (register != -1 && argument instanceof Variable && ((Variable) argument).getRegisterNumber() == register) {
+                    isOverwritten = true;
+                }
+            }
+        }
+
+        if (isOverwritten) {
+            for (int i : bound) {
+                code.add(DLX.assemble(45, genOperand(arguments.get(i), leftSpilledRegister, code), 29, -4));
+            }
+        }
+        for (int n = 0; n < bound.size(); n++) {
+            int i = isOverwritten ? bound.get(bound.size() - 1 - n) : bound.get(n);
+            String name = DefUse.name(parameters.get(i));
+            int register = variableRegisterMap.get(name);
+            int target = (register == -1) ? destSpilledRegister : register;
+            if (isOverwritten) {
+                code.add(DLX.assemble(42, target, 29, 4));
+            }
+            else if (arguments.get(i) instanceof Literal) {
+                genConstant(target, (Literal) arguments.get(i), code);
+            }
+            else {
+                int source = genOperand(arguments.get(i), leftSpilledRegister, code);
+                if (source != target) {
+                    // a register copy moves the bits of any type
+                    code.add(DLX.assemble(0, target, 0, source));
+                }
+            }
+            if (register == -1) {
+                code.add(DLX.assemble(43, target, 30, variableToOffset.get(name)));
+            }
+        }
+    }
+
+    // LDW dest, base, offset; spill code loads from the frame pointer R30
+    public ArrayList<Integer> instructionToMachineCode (Load node) {
+        ArrayList<Integer> retArrayList = new ArrayList<>();
+        int baseRegister = (node.getLeft() == null) ? 30 : node.getLeft().getMachineCodeRepresentation();
+        int registerToSet = node.getDest().getRegisterNumber();
+        boolean isSpilled = false;
+
+        // a spill temporary that got no register after all goes through its own slot
+        if (registerToSet == -1) {
+            if (!variableToOffset.containsKey(node.getDest().getSymbol().token().lexeme())) {
+                variableToOffset.put(node.getDest().getSymbol().token().lexeme(), currentOffset);
+                currentOffset -= 4;
+            }
+            isSpilled = true;
+            registerToSet = destSpilledRegister;
+        }
+
+        retArrayList.add(DLX.assemble(40, registerToSet, baseRegister, node.getRight().getMachineCodeRepresentation()));
+
+        if (isSpilled) {
+            retArrayList.add(DLX.assemble(43, registerToSet, 30, variableToOffset.get(node.getDest().getSymbol().token().lexeme())));
+        }
+        return retArrayList;
+    }
+
+    // STW value, base, offset; spill code stores relative to the frame pointer R30
+    public ArrayList<Integer> instructionToMachineCode (Store node) {
+        ArrayList<Integer> retArrayList = new ArrayList<>();
+        int baseRegister = (node.getLeft() == null) ? 30 : node.getLeft().getMachineCodeRepresentation();
+        int valueRegister = node.getValue().getMachineCodeRepresentation();
+
+        if (node.getValue() instanceof Variable && ((Variable) node.getValue()).getRegisterNumber() == -1) {
+            retArrayList.add(DLX.assemble(40, leftSpilledRegister, 30, variableToOffset.get(node.getValue().getSymbol().token().lexeme())));
+            valueRegister = leftSpilledRegister;
+        }
+
+        retArrayList.add(DLX.assemble(43, valueRegister, baseRegister, node.getRight().getMachineCodeRepresentation()));
+        return retArrayList;
+    }
+
     public ArrayList<Integer> instructionToMachineCode (Return node) {
         ArrayList<Integer> toReturn = new ArrayList<>();
         if (node.hasReturnValue()) {
-            if (node.getReturnValue().isInt()) {
-                toReturn.add(DLX.assemble(20, 31, 0, node.getReturnValue().getMachineCodeRepresentation()));
+            if (node.getReturnValue() instanceof Literal) {
+                genConstant(returnValueRegister, (Literal) node.getReturnValue(), toReturn);
             }
-            if (node.getReturnValue().isFloat()) {
-                toReturn.add(DLX.assemble(27, 31, 0, node.getReturnValue().getMachineCodeRepresentation()));
-            }
-            if (node.getReturnValue().isBool()) {
-                toReturn.add(DLX.assemble(33, 31, 0, node.getReturnValue().getMachineCodeRepresentation()));
+            else {
+                // a register copy moves the bits of any type
+                toReturn.add(DLX.assemble(0, returnValueRegister, 0, genOperand(node.getReturnValue(), leftSpilledRegister, toReturn)));
             }
         }
-        
-        // toReturn.add(DLX.assemble(55, 31));
+
+        toReturn.addAll(getExitCode());
         return toReturn;
     }
 }
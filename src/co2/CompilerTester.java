@@ -25,6 +25,14 @@ public class CompilerTester {
         options.addOption("max", "maxOpt", false, "Run all optimizations till convergence");
 
         options.addOption("asm", "assembly", false, "Output assembly of generated machine code");
+        options.addOption("mem", "memory", true, "DLX memory size in bytes");
+        options.addOption("prof", "profile", true, "Profile the DLX run, report to <file>.txt and machine-readable data to <file>");
+        options.addOption("engine", "engine", true, "DLX execution engine: interpreter (default), threaded or tiered");
+        options.addOption("pgo", "pgoProfile", true, "Profile-guided optimization with the block profile in <file>, written there first when -train is given");
+        options.addOption("train", "trainingData", true, "Training data file for -pgo: profile a build run on it before the optimized build");
+        options.addOption("ra", "regAlloc", true, "Register allocator: coloring (default) or linear; reports allocation time, spills and code size on stderr");
+        options.addOption("cycles", "cycleCount", false, "Report the cycles of the DLX run under the pipeline model of DLX.latencyOf on stderr");
+        options.addOption("nosched", "noScheduling", false, "Keep the generated instruction order instead of list scheduling every block");
 
 
         HelpFormatter formatter = new HelpFormatter();
@@ -82,8 +90,43 @@ public class CompilerTester {
             numRegs = 24;
         }
 
-        
+        String strMemSize = cmd.getOptionValue("mem", String.valueOf(DLX.MEM_SIZE));
+        int memSize = DLX.MEM_SIZE;
+        try {
+            memSize = Integer.parseInt(strMemSize);
+            if (memSize < DLX.MEM_SIZE) {
+                System.err.println("memory size too small - setting to " + DLX.MEM_SIZE);
+                memSize = DLX.MEM_SIZE;
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Error in option MemSize -- reseting to " + DLX.MEM_SIZE + " (default)");
+            memSize = DLX.MEM_SIZE;
+        }
+
+        String strEngine = cmd.getOptionValue("engine", "interpreter");
+        DlxMachine.Engine engine = DlxMachine.Engine.INTERPRETER;
+        if (strEngine.equalsIgnoreCase("threaded")) {
+            engine = DlxMachine.Engine.THREADED;
+        }
+        else if (strEngine.equalsIgnoreCase("tiered")) {
+            engine = DlxMachine.Engine.TIERED;
+        }
+        else if (!strEngine.equalsIgnoreCase("interpreter")) {
+            System.err.println("Unknown engine \"" + strEngine + "\" -- using interpreter (default)");
+        }
+
+        String strAllocator = cmd.getOptionValue("ra", "coloring");
+        co2.Compiler.RegisterAllocator allocator = co2.Compiler.RegisterAllocator.GRAPH_COLORING;
+        if (strAllocator.equalsIgnoreCase("linear")) {
+            allocator = co2.Compiler.RegisterAllocator.LINEAR_SCAN;
+        }
+        else if (!strAllocator.equalsIgnoreCase("coloring")) {
+            System.err.println("Unknown register allocator \"" + strAllocator + "\" -- using coloring (default)");
+        }
+
         co2.Compiler c = new co2.Compiler(s, numRegs);
+        c.setRegisterAllocator(allocator);
+        c.setScheduling(!cmd.hasOption("nosched"));
         ast.AST ast = c.genAST();
         if (cmd.hasOption("a")) { // AST to Screen
             String ast_text = ast.printPreOrder();
@@ -110,6 +153,27 @@ public class CompilerTester {
         //     System.out.println("Success type-checking file.");
         // }
 
+        // Profile-guided optimization: train first if asked to, then build with the profile
+        if (cmd.hasOption("pgo")) {
+            String profileFile = cmd.getOptionValue("pgo");
+            if (cmd.hasOption("train")) {
+                train(sourceFile, cmd.getOptionValue("train"), profileFile, numRegs, allocator, memSize, cmd.getOptionValues("opt"),
+                      cmd.hasOption("loop"), cmd.hasOption("max"));
+                // number blocks like the training build did, the profile is keyed by block ID
+                ir.cfg.BasicBlock.resetNumbering();
+                ir.tac.TACList.resetNumbering();
+            }
+            try {
+                c.setProfile(BlockProfile.read(profileFile));
+            } catch (IOException e) {
+                System.err.println("Error accessing the profile file: \"" + profileFile + "\" (" + e.getMessage() + ")");
+                System.exit(-9);
+            }
+        }
+        else if (cmd.hasOption("train")) {
+            System.err.println("-train needs -pgo <file> to write the profile to -- ignoring it");
+        }
+
         // Dot graph before optimization
         // For IR Visualizer
         String dotgraph_text = null;
@@ -149,7 +213,7 @@ public class CompilerTester {
         // The next 3 lines are for Optimization - Uncomment them out
         String[] optArgs = cmd.getOptionValues("opt");
         List<String> optArguments = (optArgs!=null && optArgs.length != 0) ? Arrays.asList(optArgs) : new ArrayList<String>();
-        dotgraph_text = c.optimization(optArguments, options.hasOption("loop"), options.hasOption("max"));
+        dotgraph_text = c.optimization(optArguments, cmd.hasOption("loop"), cmd.hasOption("max"));
         // Dot graph after optimization
         System.out.println("After optimization");
         System.out.println("-".repeat(100));
@@ -169,6 +233,9 @@ public class CompilerTester {
             System.out.println(c.errorReport());
             System.exit(-6);
         }
+        if (cmd.hasOption("ra")) {
+            System.err.println(c.registerAllocationReport() + ", " + program.length + " instructions");
+        }
 
         if (cmd.hasOption("asm")) {
             String asmFile = sourceFile.substring(0, sourceFile.lastIndexOf('.')) + "_asm.txt";
@@ -183,7 +250,16 @@ public class CompilerTester {
         }
 
         //Execute!
-        DLX.load(program);
+        DLX.load(program, memSize, c.getGlobalSize(), engine);
+        DlxProfiler profiler = null;
+        if (cmd.hasOption("prof")) {
+            profiler = DLX.machine().enableProfiling();
+            profiler.setBlockStarts(c.getBlockStartPositions());
+        }
+        DlxCycleCounter cycleCounter = null;
+        if (cmd.hasOption("cycles")) {
+            cycleCounter = DLX.machine().enableCycleCounting();
+        }
         try {
             DLX.execute(in);
         } catch (IOException e) {
@@ -191,5 +267,85 @@ public class CompilerTester {
             System.out.println("IOException inside DLX");
             System.exit(-8);
         }
+
+        if (cycleCounter != null) {
+            cycleCounter.writeReport(System.err);
+        }
+
+        if (profiler != null) {
+            String profFile = cmd.getOptionValue("prof");
+            try {
+                profiler.write(profFile + ".txt", profFile);
+            } catch (IOException e) {
+                System.err.println("Error accessing the profile file: \"" + profFile + "\"");
+                System.exit(-9);
+            }
+        }
+    }
+
+    // Builds the program without a profile, runs it on the training data with the profiler on and
+    // writes the profile to profileFile (report to <profileFile>.txt), for this and later builds.
+    // The training run's output is discarded.
+    private static void train (String sourceFile, String trainingFile, String profileFile, int numRegs,
+                               co2.Compiler.RegisterAllocator allocator, int memSize,
+                               String[] optArgs, boolean isLoop, boolean isMax) {
+        co2.Compiler c = null;
+        try {
+            c = new co2.Compiler(new co2.Scanner(new FileReader(sourceFile)), numRegs);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Error accessing the code file: \"" + sourceFile + "\"");
+            System.exit(-3);
+        }
+        c.setRegisterAllocator(allocator);
+
+        InputStream in = null;
+        try {
+            in = new FileInputStream(trainingFile);
+        }
+        catch (IOException e) {
+            System.err.println("Error accessing the training data file: \"" + trainingFile + "\"");
+            System.exit(-2);
+        }
+
+        // the source already parsed and type-checked, build it the same way as the real build
+        int[] program = null;
+        try {
+            ast.AST ast = c.genAST();
+            c.genIR(ast);
+            List<String> optArguments = (optArgs!=null && optArgs.length != 0) ? Arrays.asList(optArgs) : new ArrayList<String>();
+            c.optimization(optArguments, isLoop, isMax);
+            c.regAlloc(numRegs);
+            program = c.genCode();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Error caught in the training build - see stderr for stack trace " + e.getMessage());
+            System.exit(-5);
+        }
+
+        DlxMachine machine = new DlxMachine(memSize, c.getGlobalSize(), DlxMemory.DEFAULT_STACK_SIZE,
+                                             new PrintStream(OutputStream.nullOutputStream()), System.err);
+        machine.load(program);
+        DlxProfiler profiler = machine.enableProfiling();
+        profiler.setBlockStarts(c.getBlockStartPositions());
+        try {
+            machine.execute(in);
+        } catch (MachineError e) {
+            // what ran up to the error is still a usable profile
+            System.err.println("Training run stopped by DLX error " + e.code());
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("IOException inside DLX");
+            System.exit(-8);
+        } catch (RuntimeException e) {
+            System.err.println("Training run stopped: " + e.getMessage());
+        }
+
+        try {
+            profiler.write(profileFile + ".txt", profileFile);
+        } catch (IOException e) {
+            System.err.println("Error accessing the profile file: \"" + profileFile + "\"");
+            System.exit(-9);
+        }
     }
 }
\ No newline at end of file
@@ -1,11 +1,8 @@
 package co2;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.Arrays;
-import java.util.StringTokenizer;
 
 public class DLX {
 
@@ -15,377 +12,48 @@ public class DLX {
     }
 
 // Processor Emulation ========================================================
-    private static int[] R = new int[32];
-    private static int PC, op, a, b, c, format;
+    private static int op, a, b, c, format;
 
-    private static final int MEM_SIZE = 10000;
-    private static int[] M = new int[MEM_SIZE/4];
+    static final int MEM_SIZE = 10000;
+
+    // machine behind the static load/execute API, see DlxMachine for running several at once
+    private static DlxMachine machine = new DlxMachine();
 
     public static void load (int[] program) {
-        M = Arrays.copyOf(program, M.length);
-        M[program.length] = -1;
+        load(program, MEM_SIZE);
     }
 
-    // epsilon for precision of float comparisons
-    public static final float EPS = 0.01f;
-
-    // for processing input in execute
-    private static int currentLine = -1;
-    private static StringTokenizer st = null;
-
-    public static void execute (InputStream in) throws IOException {
-        int origC = 0;  // used for F2 instruction RET
-        float fC = 0f;  // used for F1/F2 instructions fOP
-        for (int i = 0; i < 32; i++) {
-            R[i] = 0;
-        }
-        R[30] = MEM_SIZE - 1;
-        PC = 0;
-
-        String line;
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
-            boolean returned = false;
-            while (!returned) {
-                // // uncomment to iteratively step through program
-                if (DLX.DEBUG) {
-                    System.err.print(instrString(M[PC]));
-                    for (int i = 31; i > 27; i--) {
-                        System.err.println("R[" + i + "] :: " + R[i]);
-                    }
-                    for (int i = 8; i > 0; i--) {
-                        System.err.println("R[" + i + "] :: " + R[i]);
-                    }
-                    for (int i = 0; i < 40; i += 4) {
-                        System.err.println("--M[" + (R[30]-i)/4 + "] :: " + M[(R[30]-i)/4]);
-                    }
-                }
-
-                R[0] = 0;
-                disassemble(M[PC]); // init op, a, b, c
-
-                int nextPC = PC + 1;
-                if (format == 1) {
-                    fC = toFP32FromFP16(c);
-                }
-                if (format == 2) {
-                    origC = c;
-                    c = R[origC];
-                    fC = fR(origC);
-                }
-                switch (op) {
-                    case ADD:
-                    case ADDI:
-                        R[a] = R[b] + c;
-                        break;
-                    case fADD:
-                    case fADDI:
-                        fR(a, fR(b) + fC);
-                        break;
-                    case SUB:
-                    case SUBI:
-                        R[a] = R[b] - c;
-                        break;
-                    case fSUB:
-                    case fSUBI:
-                        fR(a, fR(b) - fC);
-                        break;
-                    case MUL:
-                    case MULI:
-                        R[a] = R[b] * c;
-                        break;
-                    case fMUL:
-                    case fMULI:
-                        fR(a, fR(b) * fC);
-                        break;
-                    case DIV:
-                    case DIVI:
-                        R[a] = R[b] / c;
-                        break;
-                    case fDIV:
-                    case fDIVI:
-                        fR(a, fR(b) / fC);
-                        break;
-                    case MOD:
-                    case MODI:
-                        R[a] = R[b] % c;
-                        break;
-                    case fMOD:
-                    case fMODI:
-                        fR(a, fR(b) % fC);
-                        break;
-                    case POW:
-                    case POWI:
-                        if (R[b] < 0 || c < 0) {
-                            System.err.println("DLX.execute: Illegal value (" + R[b] + ")^("
-                                                + c + ") in POW!");
-                            bug(1);
-                        }
-                        R[a] = (int) Math.round(Math.pow(R[b], c));
-                        break;
-                    case CMP:
-                    case CMPI:
-                        R[a] = R[b] - c;
-                        if (R[a] < 0) {
-                            R[a] = -1;
-                        }
-                        else if (R[a] > 1) {
-                            R[a] = 1;
-                        }
-                        break;
-                    case fCMP:
-                    case fCMPI:
-                        float result = fR(b) - fC;
-
-                        R[a] = 0;
-                        if (result <= -EPS) {
-                            R[a] = -1;
-                        }
-                        else if (result >= EPS) {
-                            R[a] = 1;
-                        }
-                        break;
-                    case OR:
-                    case ORI:
-                        R[a] = R[b] | c;
-                        break;
-                    case AND:
-                    case ANDI:
-                        R[a] = R[b] & c;
-                        break;
-                    case BIC:
-                    case BICI:
-                        R[a] = R[b] & ~c;
-                        break;
-                    case XOR:
-                    case XORI:
-                        R[a] = R[b] ^ c;
-                        break;
-                    case LSH:
-                    case LSHI:
-                        if (c < -31 || c > 31) {
-                            System.err.println("DLX.execute: Illegal value " + c + " in LSH!");
-                            bug(1);
-                        }
-
-                        if (c < 0) {
-                            R[a] = R[b] >>> -c;
-                        }
-                        else {
-                            R[a] = R[b] << c;
-                        }
-                        break;
-                    case ASH:
-                    case ASHI:
-                        if (c < -31 || c > 31) {
-                            System.err.println("DLX.execute: Illegal value " + c + " in ASH!");
-                            bug(1);
-                        }
-
-                        if (c < 0) {
-                            R[a] = R[b] >> -c;
-                        }
-                        else {
-                            R[a] = R[b] << c;
-                        }
-                        break;
-                    case CHK:
-                    case CHKI:
-                        if (R[a] < 0) {
-                            System.err.println("DLX.execute: " + (4*PC) + " :: R[" + a + "] == "
-                                                + R[a] + " < 0");
-                            bug(39);
-                        }
-                        else if (R[a] >= c) {
-                            System.err.println("DLX.execute: " + (4*PC) + " :: R[" + a + "] == "
-                                                + R[a] + " >= " + c);
-                            bug(39);
-                        }
-                        break;
-                    case LDW:
-                    case LDX:
-                        R[a] = M[(R[b] + c) / 4];
-                        break;
-                    case POP:
-                        R[a] = M[R[b] / 4];
-                        R[b] = R[b] + c;
-                        break;
-                    case STW:
-                    case STX:
-                        M[(R[b] + c) / 4] = R[a];
-                        break;
-                    case PSH:
-                        R[b] = R[b] + c;
-                        M[R[b] / 4] = R[a];
-                        break;
-                    case ARRCPY:
-                        for (int i = 0; i < c; i++) {
-                            M[(R[a] - 4*i) / 4] = M[(R[b] - 4*i) / 4];
-                        }
-                        break;
-                    case BEQ:
-                        if (R[a] == 0) {
-                            nextPC = PC + c;
-                        }
-                        if (nextPC < 0 || nextPC > MEM_SIZE/4) {
-                            System.err.println("DLX.execute: " + (4*nextPC) + " is no address "
-                                                + "in memory [0, " + MEM_SIZE + "].");
-                            bug(47);
-                        }
-                        break;
-                    case BNE:
-                        if (R[a] != 0) {
-                            nextPC = PC + c;
-                        }
-                        if (nextPC < 0 || nextPC > MEM_SIZE/4) {
-                            System.err.println("DLX.execute: " + (4*nextPC) + " is no address "
-                                                + "in memory [0, " + MEM_SIZE + "].");
-                            bug(48);
-                        }
-                        break;
-                    case BLT:
-                        if (R[a] < 0) {
-                            nextPC = PC + c;
-                        }
-                        if (nextPC < 0 || nextPC > MEM_SIZE/4) {
-                            System.err.println("DLX.execute: " + (4*nextPC) + " is no address "
-                                                + "in memory [0, " + MEM_SIZE + "].");
-                            bug(49);
-                        }
-                        break;
-                    case BGE:
-                        if (R[a] >= 0) {
-                            nextPC = PC + c;
-                        }
-                        if (nextPC < 0 || nextPC > MEM_SIZE/4) {
-                            System.err.println("DLX.execute: " + (4*nextPC) + " is no address "
-                                                + "in memory [0, " + MEM_SIZE + "].");
-                            bug(50);
-                        }
-                        break;
-                    case BLE:
-                        if (R[a] <= 0) {
-                            nextPC = PC + c;
-                        }
-                        if (nextPC < 0 || nextPC > MEM_SIZE/4) {
-                            System.err.println("DLX.execute: " + (4*nextPC) + " is no address "
-                                                + "in memory [0, " + MEM_SIZE + "].");
-                            bug(51);
-                        }
-                        break;
-                    case BGT:
-                        if (R[a] > 0) {
-                            nextPC = PC + c;
-                        }
-                        if (nextPC < 0 || nextPC > MEM_SIZE/4) {
-                            System.err.println("DLX.execute: " + (4*nextPC) + " is no address "
-                                                + "in memory [0, " + MEM_SIZE + "].");
-                            bug(52);
-                        }
-                        break;
-                    case BSR:
-                        R[31] = 4 * (PC + 1);
-                        nextPC = PC + c;
-                        if (nextPC < 0 || nextPC > MEM_SIZE/4) {
-                            System.err.println("DLX.execute: " + (4*nextPC) + " is no address "
-                                                + "in memory [0, " + MEM_SIZE + "].");
-                            bug(53);
-                        }
-                        break;
-                    case JSR:
-                        R[31] = 4 * (PC + 1);
-                        nextPC = c / 4;
-                        if (nextPC < 0 || nextPC > MEM_SIZE/4) {
-                            System.err.println("DLX.execute: " + (4*nextPC) + " is no address "
-                                                + "in memory [0, " + MEM_SIZE + "].");
-                            bug(54);
-                        }
-                        break;
-                    case RET:
-                        if (origC == 0) {
-                            returned = true;
-                            break;
-                        }
-                        nextPC = c / 4;
-                        if (nextPC < 0 || nextPC > MEM_SIZE/4) {
-                            System.err.println("DLX.execute: " + (4*nextPC) + " is no address "
-                                                + "in memory [0, " + MEM_SIZE + "].");
-                            bug(55);
-                        }
-                        break;
-                    case RDI:
-                        System.out.print("int? ");
-                        line = nextInput(reader);
-                        R[a] = Integer.parseInt(line);
-                        break;
-                    case RDF:
-                        System.out.print("float? ");
-                        line = nextInput(reader);
-                        fR(a, Float.parseFloat(line));
-                        break;
-                    case RDB:
-                        System.out.print("true or false? ");
-                        line = nextInput(reader);
-                        R[a] = (Boolean.parseBoolean(line) ? 1 : 0);
-                        break;
-                    case WRI:
-                        System.out.print(R[b] + " ");
-                        break;
-                    case WRF:
-                        System.out.printf("%.2f ", fR(b));
-                        break;
-                    case WRB:
-                        System.out.print((R[b] == 1) + " ");
-                        break;
-                    case WRL:
-                        System.out.println();
-                        break;
-                    case ERR:
-                        System.err.println("Program dropped off the end!");
-                        break;
-                    default:
-                        System.err.println("DLX.execute: Unknown opcode encountered!");
-                        bug(2);
-                        break;
-                }
-                PC = nextPC;
-            }
-        }
-        catch (NumberFormatException e) {
-            throw new NumberFormatException("Failed at line " + currentLine + " of input: " + e.getMessage());
-        }
-        catch (ArrayIndexOutOfBoundsException e) {
-            System.err.println("Failed at " + (4*PC));
-            System.err.println("Instruction :: " + instrString(M[PC]));
-            bug(63);
-        }
+    // memSize in bytes, memory grows past it if the program does not fit
+    public static void load (int[] program, int memSize) {
+        load(program, memSize, DlxMachine.Engine.INTERPRETER);
     }
 
+    public static void load (int[] program, int memSize, DlxMachine.Engine engine) {
+        load(program, memSize, 0, engine);
+    }
 
-
-    // form input strings from line of input
-    private static String nextInput (BufferedReader reader) throws IOException {
-		while (st == null || !st.hasMoreElements()) {
-			try {
-				st = new StringTokenizer(reader.readLine());
-                currentLine++;
-			}
-			catch (IOException e) {
-				System.out.println("error");
-				System.err.println("Interepter: Couldn't read data file");
-				throw e;
-			}
-		}
-		return st.nextToken();
+    // globalSize bytes at the top of memory hold the globals the program addresses through R30
+    public static void load (int[] program, int memSize, int globalSize, DlxMachine.Engine engine) {
+        machine = new DlxMachine(memSize, globalSize, DlxMemory.DEFAULT_STACK_SIZE, System.out, System.err);
+        machine.setEngine(engine);
+        machine.load(program);
     }
 
-    // put val in R[idx]
-    private static void fR (int idx, float val) {
-        R[idx] = Float.floatToIntBits(val);
+    // machine loaded by the last load(), e.g. to enable profiling before execute()
+    public static DlxMachine machine () {
+        return machine;
     }
 
-    // get float value from R[idx]
-    private static float fR (int idx) {
-        return Float.intBitsToFloat(R[idx]);
+    // epsilon for precision of float comparisons
+    public static final float EPS = 0.01f;
+
+    public static void execute (InputStream in) throws IOException {
+        try {
+            machine.execute(in);
+        }
+        catch (MachineError e) {
+            halt(e.code());
+        }
     }
 
 // Half-Precision Floating-Point (FP16) Support ===============================
@@ -426,7 +94,7 @@ public class DLX {
     private static final int FP16_BIAS = 15;
 
     // convert half-precision floating-point to half-precision floating-point
-    private static float toFP32FromFP16 (int hbits) {
+    static float toFP32FromFP16 (int hbits) {
         int sign = (hbits & 0x8000) << 16;  // bitmask to collect sign for FP32
         int exp = (hbits & 0x7c00); // bitmask to collect FP16 exp w/o sign or mant
         int mant = hbits & 0x03ff;  // bitmask to collect FP16 mant w/o sign or exp
@@ -602,10 +270,12 @@ public class DLX {
     // error
     static final int ERR = 63;
 
-    private static void disassemble (int instrWord) {
-        op = instrWord >>> 26;
-        a = (instrWord >>> 21) & 0x1F;
-        b = (instrWord >>> 16) & 0x1F;
+    static String mnemonic (int op) {
+        return mnemo[op];
+    }
+
+    // instruction format (1, 2 or 3) of an opcode, 0 for ERR
+    static int formatOf (int op) {
         switch (op) {
             // F1 format
             case ADDI:
@@ -640,9 +310,7 @@ public class DLX {
             case BGT:
             case BSR:
             case WRL:
-                format = 1;
-                c = (short) instrWord;
-                break;
+                return 1;
 
             // F2 format
             case ADD:
@@ -675,27 +343,150 @@ public class DLX {
             case WRI:
             case WRF:
             case WRB:
-                format = 2;
-                c = instrWord & 0x1F;
-                break;
+                return 2;
 
             // F3 format
             case JSR:
+                return 3;
+
+            // error or unknown
+            case ERR:
+            default:
+                return 0;
+        }
+    }
+
+// Pipeline Model =============================================================
+
+    /*
+     * Cost model of a pipelined, in-order DLX that issues one instruction per cycle. An
+     * instruction stalls until the registers it reads are ready, its result is ready latencyOf(op)
+     * cycles after it issued, and a taken branch, jump, call or return costs BRANCH_PENALTY cycles
+     * more to refill the pipeline. Loads have a load-use delay of one cycle, multiplies, divides,
+     * powers and float arithmetic take several. See DlxCycleCounter for the count of a run and
+     * Scheduler for the code generator's use of it.
+     */
+    static final int BRANCH_PENALTY = 1;
+
+    private static final int[] latency = new int[64];
+
+    static {
+        Arrays.fill(latency, 1);
+        latency[MUL]  = latency[MULI]  = 4;
+        latency[DIV]  = latency[DIVI]  = 12;
+        latency[MOD]  = latency[MODI]  = 12;
+        latency[POW]  = latency[POWI]  = 20;
+        latency[fADD] = latency[fADDI] = 3;
+        latency[fSUB] = latency[fSUBI] = 3;
+        latency[fCMP] = latency[fCMPI] = 3;
+        latency[fMUL] = latency[fMULI] = 5;
+        latency[fDIV] = latency[fDIVI] = 16;
+        latency[fMOD] = latency[fMODI] = 16;
+        latency[LDW]  = latency[LDX]   = 2;
+        latency[POP]  = 2;
+    }
+
+    // cycles from issuing op until an instruction reading its result may issue, 1 for no stall
+    static int latencyOf (int op) {
+        return latency[op];
+    }
+
+    private static final int ALL_REGISTERS = ~1;
+
+    // registers the instruction reads, one bit per register, R0 left out. Control leaving through
+    // a JSR, BSR or RET counts as reading every register.
+    static int usesOf (int instruction) {
+        int op = instruction >>> 26;
+        int a = 1 << ((instruction >>> 21) & 0x1F);
+        int b = 1 << ((instruction >>> 16) & 0x1F);
+        int c = 1 << (instruction & 0x1F);
+        int uses;
+        if (op <= ASH) {
+            uses = b | c;
+        }
+        else if (op == CHK) {
+            uses = a | c;
+        }
+        else if (op >= ADDI && op <= ASHI) {
+            uses = b;
+        }
+        else if (op == CHKI || (op >= BEQ && op <= BGT)) {
+            uses = a;
+        }
+        else if (op == LDW || op == POP) {
+            uses = b;
+        }
+        else if (op == LDX) {
+            uses = b | c;
+        }
+        else if (op == STW || op == PSH || op == ARRCPY) {
+            uses = a | b;
+        }
+        else if (op == STX) {
+            uses = a | b | c;
+        }
+        else if (op >= RDI && op <= RDB || op == WRL) {
+            uses = 0;
+        }
+        else if (op >= WRI && op <= WRB) {
+            uses = b;
+        }
+        else {
+            uses = ALL_REGISTERS;
+        }
+        return uses & ALL_REGISTERS;
+    }
+
+    // registers the instruction writes, one bit per register, R0 left out
+    static int defsOf (int instruction) {
+        int op = instruction >>> 26;
+        int a = 1 << ((instruction >>> 21) & 0x1F);
+        int b = 1 << ((instruction >>> 16) & 0x1F);
+        int defs;
+        if (op <= ASH || (op >= ADDI && op <= ASHI) || op == LDW || op == LDX || (op >= RDI && op <= RDB)) {
+            defs = a;
+        }
+        else if (op == POP) {
+            defs = a | b;
+        }
+        else if (op == PSH) {
+            defs = b;
+        }
+        else if (op == BSR || op == JSR) {
+            defs = 1 << 31;
+        }
+        else {
+            defs = 0;
+        }
+        return defs & ALL_REGISTERS;
+    }
+
+    private static void disassemble (int instrWord) {
+        op = instrWord >>> 26;
+        a = (instrWord >>> 21) & 0x1F;
+        b = (instrWord >>> 16) & 0x1F;
+        switch (formatOf(op)) {
+            case 1:
+                format = 1;
+                c = (short) instrWord;
+                break;
+            case 2:
+                format = 2;
+                c = instrWord & 0x1F;
+                break;
+            case 3:
                 format = 3;
                 a = -1;
                 b = -1;
                 c = instrWord & 0x3FFFFFF;
                 break;
-
-            // error or unknown
-            case ERR:
             default:
-                System.err.println("Illegal instruction: (" + PC + ")!");
+                System.err.println("Illegal instruction: (" + instrWord + ")!");
                 break;
         }
     }
 
-    public static String instrString (int instrWord) {
+    public static synchronized String instrString (int instrWord) {
         disassemble(instrWord);
         String line = mnemo[op];
 
@@ -778,18 +569,14 @@ public class DLX {
     }
 
     private static void bug(int n) {
-        if (R[30] != 0) {
-            for (int i = 31; i > 27; i--) {
-                System.err.println("R[" + i + "] :: " + R[i]);
-            }
-            for (int i = 8; i > 0; i--) {
-                System.err.println("R[" + i + "] :: " + R[i]);
-            }
-            for (int i = 0; i < 40; i += 4) {
-                System.err.println("--M[" + (R[30]-i)/4 + "] :: " + M[(R[30]-i)/4]);
-            }
+        if (machine.hasStack()) {
+            machine.dumpRegisters();
         }
+        halt(n);
+    }
 
+    // wait for a key press and leave with the bug number, as the emulator always has
+    private static void halt(int n) {
         try {
             System.in.read();
         }
@@ -828,8 +615,11 @@ public class DLX {
         return (op << 26 | a << 21 | b << 16 | c);
     }
 
+    // c is a byte address in code, which grows with the program past MEM_SIZE (see
+    // DlxMachine.load), so only the 26 bits of the field bound it; a JSR past the end of the
+    // loaded code stops the machine at run time
     private static int F3 (int op, int c) {
-        if (c < 0 || c > MEM_SIZE) {
+        if ((c & ~0x3FFFFFF) != 0) {
             System.err.println("Operand for F3 format is referencing non-existent memory location.");
             bug(1);
         }
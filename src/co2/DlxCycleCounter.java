@@ -0,0 +1,75 @@
+package co2;
+
+import java.io.PrintStream;
+
+// Cycle count of DLX runs under the pipeline model of DLX.latencyOf: one instruction issues per
+// cycle, in order, stalling until the registers it reads are ready, and every taken branch, jump,
+// call or return adds DLX.BRANCH_PENALTY. A DlxMachine only counts after enableCycleCounting(),
+// like profiling it then runs on the interpreter. The emulated program runs exactly as without
+// counting, only the model's clock is kept next to it.
+public class DlxCycleCounter {
+
+    private final int[] code;
+
+    // cycle each register's pending result is ready in
+    private final long[] ready = new long[32];
+    // cycle the last instruction issued in
+    private long issued = -1;
+    private long instructions = 0;
+    private long stalls = 0;
+    private long branchPenalties = 0;
+
+    // code is the loaded code region
+    public DlxCycleCounter (int[] code) {
+        this.code = code;
+    }
+
+// Hook called by DlxMachine ==================================================
+
+    void step (int pc, int nextPC) {
+        // code outside the loaded program is counted without dependencies
+        int instruction = (pc < code.length) ? code[pc] : 0;
+        long issue = issued + 1;
+        int uses = (pc < code.length) ? DLX.usesOf(instruction) : 0;
+        for (int r = 1; r < 32; r++) {
+            if ((uses & (1 << r)) != 0 && ready[r] > issue) {
+                issue = ready[r];
+            }
+        }
+        stalls += issue - (issued + 1);
+        int defs = (pc < code.length) ? DLX.defsOf(instruction) : 0;
+        int op = instruction >>> 26;
+        for (int r = 1; r < 32; r++) {
+            if ((defs & (1 << r)) != 0) {
+                ready[r] = issue + DLX.latencyOf(op);
+            }
+        }
+        issued = issue;
+        instructions++;
+        if (nextPC != pc + 1) {
+            issued += DLX.BRANCH_PENALTY;
+            branchPenalties += DLX.BRANCH_PENALTY;
+        }
+    }
+
+// Results ====================================================================
+
+    public long cycles () {
+        return issued + 1;
+    }
+
+    public long instructions () {
+        return instructions;
+    }
+
+    // cycles spent waiting for operands
+    public long stalls () {
+        return stalls;
+    }
+
+    public void writeReport (PrintStream out) {
+        out.printf("DLX pipeline model: %d cycles, %d instructions, %d stall cycles, %d branch penalty cycles, CPI %.2f%n",
+                    cycles(), instructions, stalls, branchPenalties,
+                    (instructions == 0) ? 0.0 : (double) cycles() / instructions);
+    }
+}
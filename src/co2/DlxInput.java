@@ -0,0 +1,151 @@
+package co2;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.NoSuchElementException;
+
+// Streaming tokenizer behind RDI, RDF and RDB. Tokens are split on the same characters as
+// StringTokenizer (" \t\n\r\f") straight out of a char buffer, without reading whole lines or
+// building a String per token. Integers and booleans are parsed in place; anything irregular
+// is handed to Integer.parseInt so errors carry the usual message.
+public class DlxInput {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final DlxOutput output;    // flushed before blocking on input, may be null
+    private final char[] buf = new char[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+
+    private char[] token = new char[32];
+    private int tokenLength = 0;
+
+    // input line of the last token, counted from 0 like BufferedReader.readLine() would
+    private int line = -1;
+    private int lineBreaks = 0;
+    private boolean afterCR = false;
+
+    public DlxInput (Reader reader, DlxOutput output) {
+        this.reader = reader;
+        this.output = output;
+    }
+
+    public int line () {
+        return line;
+    }
+
+    public int nextInt () throws IOException {
+        nextToken();
+        int i = 0;
+        boolean negative = false;
+        if (token[0] == '-' || token[0] == '+') {
+            negative = token[0] == '-';
+            i = 1;
+        }
+        if (i == tokenLength) {
+            return parseIntSlow();
+        }
+
+        // accumulate negatively like Integer.parseInt, so MIN_VALUE fits
+        int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int multmin = limit / 10;
+        int result = 0;
+        for (; i < tokenLength; i++) {
+            int digit = Character.digit(token[i], 10);
+            if (digit < 0 || result < multmin) {
+                return parseIntSlow();
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                return parseIntSlow();
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    public float nextFloat () throws IOException {
+        nextToken();
+        return Float.parseFloat(new String(token, 0, tokenLength));
+    }
+
+    // Boolean.parseBoolean: "true" in any case, everything else is false
+    public boolean nextBoolean () throws IOException {
+        nextToken();
+        if (tokenLength != 4) {
+            return false;
+        }
+        String expected = "true";
+        for (int i = 0; i < 4; i++) {
+            char c1 = Character.toUpperCase(token[i]);
+            char c2 = Character.toUpperCase(expected.charAt(i));
+            if (c1 != c2 && Character.toLowerCase(c1) != Character.toLowerCase(c2)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int parseIntSlow () {
+        // throws the same NumberFormatException a String-based read would
+        return Integer.parseInt(new String(token, 0, tokenLength));
+    }
+
+    private void nextToken () throws IOException {
+        // skip delimiters, counting line breaks the way readLine() splits lines
+        int c;
+        while (true) {
+            c = read();
+            if (c < 0) {
+                throw new NoSuchElementException("Interpreter: ran out of input");
+            }
+            if (c == '\n') {
+                if (!afterCR) {
+                    lineBreaks++;
+                }
+                afterCR = false;
+            }
+            else if (c == '\r') {
+                lineBreaks++;
+                afterCR = true;
+            }
+            else if (c == ' ' || c == '\t' || c == '\f') {
+                afterCR = false;
+            }
+            else {
+                afterCR = false;
+                break;
+            }
+        }
+
+        line = lineBreaks;
+        tokenLength = 0;
+        while (c >= 0 && c != ' ' && c != '\t' && c != '\n' && c != '\r' && c != '\f') {
+            if (tokenLength == token.length) {
+                token = java.util.Arrays.copyOf(token, 2 * token.length);
+            }
+            token[tokenLength++] = (char) c;
+            c = read();
+        }
+        if (c >= 0) {
+            // put the delimiter back so line breaks are counted on the next call
+            pos--;
+        }
+    }
+
+    private int read () throws IOException {
+        if (pos == limit) {
+            if (output != null) {
+                output.flush();
+            }
+            limit = reader.read(buf, 0, buf.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buf[pos++];
+    }
+}
@@ -0,0 +1,698 @@
+package co2;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Second tier of the DLX engine. While the program runs on the threaded handlers, every PC that
+// is reached by a jump is counted. Once a PC gets hot the straight-line block starting there is
+// translated to JVM bytecode and loaded as a hidden class, so HotSpot can compile guest loops:
+//
+//      - registers live in JVM locals, R0 always reads as 0, written registers go back to R on exit
+//      - LDW/LDX/STW/STX index the machine's int[] memory directly
+//      - a conditional branch ends the block, a branch back to the block start becomes a JVM loop
+//
+// Anything the block cannot do by itself (division by zero, a memory index out of range, a store
+// into the code region) leaves through a side exit that hands the instruction back to the
+// interpreter, which then behaves exactly as if the block had never been compiled.
+class DlxJit {
+
+    // block entries before a block gets compiled
+    static final int HOT_THRESHOLD = 1000;
+
+    // longest block that is compiled, keeps the generated methods small enough for HotSpot
+    static final int MAX_BLOCK_LENGTH = 128;
+
+    interface Block {
+        // returns the next PC, or sideExit(pc) when the instruction at pc must be interpreted
+        int run (int[] R, int[] M);
+    }
+
+    static int sideExit (int pc) {
+        return -pc - 2;
+    }
+
+    static boolean isSideExit (int next) {
+        return next <= -2;
+    }
+
+    static int sideExitPC (int next) {
+        return -next - 2;
+    }
+
+    private final DlxMemory memory;
+    private final int[] M;
+    private final int codeLength;
+    private final int[] counts;
+    private final Block[] blocks;
+    private final int[] blockEnds;
+    private final boolean[] uncompilable;
+    private int compiledBlocks = 0;
+
+    DlxJit (DlxMemory memory, int codeLength) {
+        this.memory = memory;
+        this.M = memory.array();
+        this.codeLength = codeLength;
+        this.counts = new int[codeLength];
+        this.blocks = new Block[codeLength];
+        this.blockEnds = new int[codeLength];
+        this.uncompilable = new boolean[codeLength];
+    }
+
+    // the machine memory is off-heap, only the threaded tier can run it
+    boolean enabled () {
+        return M != null;
+    }
+
+    int compiledBlocks () {
+        return compiledBlocks;
+    }
+
+    // control reached pc through a jump, count it and return its compiled block if there is one
+    Block enter (int pc) {
+        if (pc >= codeLength) {
+            return null;
+        }
+        Block block = blocks[pc];
+        if (block != null || uncompilable[pc]) {
+            return block;
+        }
+        if (++counts[pc] >= HOT_THRESHOLD) {
+            block = compile(pc);
+            if (block == null) {
+                uncompilable[pc] = true;
+            }
+            else {
+                blocks[pc] = block;
+                compiledBlocks++;
+            }
+        }
+        return block;
+    }
+
+    // the code word at idx changed, throw away every block that was built from it
+    void invalidate (int idx) {
+        for (int start = Math.max(0, idx - MAX_BLOCK_LENGTH); start <= idx && start < codeLength; start++) {
+            if ((blocks[start] != null || uncompilable[start]) && idx < blockEnds[start]) {
+                blocks[start] = null;
+                uncompilable[start] = false;
+                counts[start] = 0;
+            }
+        }
+    }
+
+// Block Translation ==========================================================
+
+    private static final class Insn {
+        final int pc, op, a, b, c;
+
+        Insn (int pc, int op, int a, int b, int c) {
+            this.pc = pc;
+            this.op = op;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+        }
+    }
+
+    private Block compile (int start) {
+        List<Insn> insns = new ArrayList<>();
+        int pc = start;
+        while (pc < codeLength && insns.size() < MAX_BLOCK_LENGTH) {
+            int instrWord = memory.load(pc);
+            int op = instrWord >>> 26;
+            int a = (instrWord >>> 21) & 0x1F;
+            int b = (instrWord >>> 16) & 0x1F;
+            int format = DLX.formatOf(op);
+            int c = (format == 1) ? (short) instrWord : instrWord & 0x1F;
+            if (format != 1 && format != 2 || !supported(op, c)) {
+                break;
+            }
+            if (isBranch(op) && (pc + 1 >= codeLength || pc + c < 0 || pc + c >= codeLength)) {
+                // the interpreter reports the bad target
+                break;
+            }
+            insns.add(new Insn(pc, op, a, b, c));
+            pc++;
+            if (isBranch(op)) {
+                break;
+            }
+        }
+        if (insns.isEmpty()) {
+            blockEnds[start] = start + 1;
+            return null;
+        }
+        blockEnds[start] = pc;
+
+        byte[] classBytes = new BlockClassWriter(start, insns, codeLength, memory).toByteArray();
+        try {
+            MethodHandles.Lookup hidden = MethodHandles.lookup().defineHiddenClass(classBytes, true);
+            return (Block) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+        }
+        catch (Throwable e) {
+            // stay on the threaded tier for this block
+            return null;
+        }
+    }
+
+    private static boolean supported (int op, int c) {
+        switch (op) {
+            case DLX.ADD: case DLX.ADDI:
+            case DLX.SUB: case DLX.SUBI:
+            case DLX.MUL: case DLX.MULI:
+            case DLX.DIV: case DLX.MOD:
+            case DLX.CMP: case DLX.CMPI:
+            case DLX.OR:  case DLX.ORI:
+            case DLX.AND: case DLX.ANDI:
+            case DLX.BIC: case DLX.BICI:
+            case DLX.XOR: case DLX.XORI:
+            case DLX.LDW: case DLX.LDX:
+            case DLX.STW: case DLX.STX:
+            case DLX.BEQ: case DLX.BNE:
+            case DLX.BLT: case DLX.BGE:
+            case DLX.BLE: case DLX.BGT:
+                return true;
+            case DLX.DIVI:
+            case DLX.MODI:
+                return c != 0;
+            case DLX.LSHI:
+            case DLX.ASHI:
+                return c >= -31 && c <= 31;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isBranch (int op) {
+        return op >= DLX.BEQ && op <= DLX.BGT;
+    }
+
+// Class File Writer ==========================================================
+
+    // writes a class file (version 49, so no stack map frames are needed) of the form
+    //
+    //      final class co2/DlxJitBlock implements co2/DlxJit$Block {
+    //          public int run (int[] R, int[] M) { ... }
+    //      }
+    private static final class BlockClassWriter {
+        // JVM opcodes used by the translation
+        private static final int ICONST_M1 = 0x02, ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13;
+        private static final int ILOAD = 0x15, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ALOAD_2 = 0x2c, ISTORE = 0x36;
+        private static final int IALOAD = 0x2e, IASTORE = 0x4f, POP = 0x57;
+        private static final int IADD = 0x60, ISUB = 0x64, IMUL = 0x68, IDIV = 0x6c, IREM = 0x70;
+        private static final int ISHL = 0x78, ISHR = 0x7a, IUSHR = 0x7c, IAND = 0x7e, IOR = 0x80, IXOR = 0x82;
+        private static final int IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e;
+        private static final int IF_ICMPLT = 0xa1, IF_ICMPGE = 0xa2, GOTO = 0xa7, IRETURN = 0xac, RETURN = 0xb1;
+        private static final int INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+
+        // locals of run(): this, R, M, then one per DLX register, the exit PC and an address
+        private static final int REG_BASE = 3;
+        private static final int EXIT = REG_BASE + 32;
+        private static final int ADDR = EXIT + 1;
+
+        private final int start;
+        private final List<Insn> insns;
+        private final int codeLength;
+        private final DlxMemory memory;
+
+        private final ByteWriter pool = new ByteWriter();
+        private int poolCount = 1;
+        private final Map<String, Integer> poolIndex = new HashMap<>();
+
+        private final ByteWriter code = new ByteWriter();
+        private final List<Integer> exitJumps = new ArrayList<>();
+        private int usedRegs = 0;
+        private int writtenRegs = 0;
+
+        BlockClassWriter (int start, List<Insn> insns, int codeLength, DlxMemory memory) {
+            this.start = start;
+            this.insns = insns;
+            this.codeLength = codeLength;
+            this.memory = memory;
+        }
+
+        byte[] toByteArray () {
+            int thisClass = classRef("co2/DlxJitBlock");
+            int superClass = classRef("java/lang/Object");
+            int blockInterface = classRef("co2/DlxJit$Block");
+            int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+            int codeName = utf8("Code");
+            int initName = utf8("<init>");
+            int initType = utf8("()V");
+            int runName = utf8("run");
+            int runType = utf8("([I[I)I");
+
+            byte[] runCode = translate();
+
+            ByteWriter cls = new ByteWriter();
+            cls.u4(0xCAFEBABE);
+            cls.u2(0);
+            cls.u2(49);
+            cls.u2(poolCount);
+            cls.bytes(pool.toByteArray());
+            cls.u2(0x0010 | 0x0020);    // ACC_FINAL | ACC_SUPER
+            cls.u2(thisClass);
+            cls.u2(superClass);
+            cls.u2(1);
+            cls.u2(blockInterface);
+            cls.u2(0);                  // fields
+            cls.u2(2);                  // methods
+
+            ByteWriter init = new ByteWriter();
+            init.u1(ALOAD_0);
+            init.u1(INVOKESPECIAL);
+            init.u2(objectInit);
+            init.u1(RETURN);
+            method(cls, 0x0001, initName, initType, codeName, 1, 1, init.toByteArray());
+            method(cls, 0x0001, runName, runType, codeName, 4, ADDR + 1, runCode);
+
+            cls.u2(0);                  // class attributes
+            return cls.toByteArray();
+        }
+
+        private static void method (ByteWriter cls, int access, int name, int type, int codeName,
+                                    int maxStack, int maxLocals, byte[] body) {
+            cls.u2(access);
+            cls.u2(name);
+            cls.u2(type);
+            cls.u2(1);
+            cls.u2(codeName);
+            cls.u4(12 + body.length);
+            cls.u2(maxStack);
+            cls.u2(maxLocals);
+            cls.u4(body.length);
+            cls.bytes(body);
+            cls.u2(0);                  // exception table
+            cls.u2(0);                  // code attributes
+        }
+
+        // run(): load registers, the block (possibly looping back to loopStart), write registers back
+        private byte[] translate () {
+            for (Insn insn : insns) {
+                noteRegisters(insn);
+            }
+
+            for (int i = 1; i < 32; i++) {
+                if ((usedRegs & (1 << i)) != 0) {
+                    code.u1(ALOAD_1);
+                    pushInt(i);
+                    code.u1(IALOAD);
+                    code.u1(ISTORE);
+                    code.u1(REG_BASE + i);
+                }
+            }
+
+            int loopStart = code.size();
+            for (Insn insn : insns) {
+                translate(insn, loopStart);
+            }
+            // fell off the end of the block
+            exitTo(insns.get(insns.size() - 1).pc + 1);
+
+            int writeBack = code.size();
+            for (int i = 1; i < 32; i++) {
+                if ((writtenRegs & (1 << i)) != 0) {
+                    code.u1(ALOAD_1);
+                    pushInt(i);
+                    code.u1(ILOAD);
+                    code.u1(REG_BASE + i);
+                    code.u1(IASTORE);
+                }
+            }
+            code.u1(ILOAD);
+            code.u1(EXIT);
+            code.u1(IRETURN);
+
+            for (int jump : exitJumps) {
+                code.patch16(jump + 1, writeBack - jump);
+            }
+            return code.toByteArray();
+        }
+
+        private void noteRegisters (Insn insn) {
+            usedRegs |= (1 << insn.a) | (1 << insn.b);
+            if (DLX.formatOf(insn.op) == 2) {
+                usedRegs |= 1 << insn.c;
+            }
+            if (!isBranch(insn.op) && insn.op != DLX.STW && insn.op != DLX.STX && insn.a != 0) {
+                writtenRegs |= 1 << insn.a;
+            }
+            usedRegs &= ~1;
+        }
+
+        private void translate (Insn insn, int loopStart) {
+            switch (insn.op) {
+                case DLX.ADD:  binary(insn, IADD); break;
+                case DLX.ADDI: binaryImm(insn, IADD); break;
+                case DLX.SUB:  binary(insn, ISUB); break;
+                case DLX.SUBI: binaryImm(insn, ISUB); break;
+                case DLX.MUL:  binary(insn, IMUL); break;
+                case DLX.MULI: binaryImm(insn, IMUL); break;
+                case DLX.OR:   binary(insn, IOR); break;
+                case DLX.ORI:  binaryImm(insn, IOR); break;
+                case DLX.AND:  binary(insn, IAND); break;
+                case DLX.ANDI: binaryImm(insn, IAND); break;
+                case DLX.XOR:  binary(insn, IXOR); break;
+                case DLX.XORI: binaryImm(insn, IXOR); break;
+                case DLX.DIVI: binaryImm(insn, IDIV); break;
+                case DLX.MODI: binaryImm(insn, IREM); break;
+                case DLX.DIV:
+                case DLX.MOD:
+                    // let the interpreter throw on a zero divisor
+                    loadReg(insn.c);
+                    exitIf(IFEQ, insn.pc);
+                    binary(insn, insn.op == DLX.DIV ? IDIV : IREM);
+                    break;
+                case DLX.BIC:
+                    loadReg(insn.b);
+                    loadReg(insn.c);
+                    code.u1(ICONST_M1);
+                    code.u1(IXOR);
+                    code.u1(IAND);
+                    storeReg(insn.a);
+                    break;
+                case DLX.BICI:
+                    loadReg(insn.b);
+                    pushInt(~insn.c);
+                    code.u1(IAND);
+                    storeReg(insn.a);
+                    break;
+                case DLX.CMP:
+                    binary(insn, ISUB, false);
+                    signum(insn.a);
+                    break;
+                case DLX.CMPI:
+                    binaryImm(insn, ISUB, false);
+                    signum(insn.a);
+                    break;
+                case DLX.LSHI:
+                    loadReg(insn.b);
+                    pushInt(Math.abs(insn.c));
+                    code.u1(insn.c < 0 ? IUSHR : ISHL);
+                    storeReg(insn.a);
+                    break;
+                case DLX.ASHI:
+                    loadReg(insn.b);
+                    pushInt(Math.abs(insn.c));
+                    code.u1(insn.c < 0 ? ISHR : ISHL);
+                    storeReg(insn.a);
+                    break;
+                case DLX.LDW:
+                case DLX.LDX:
+                    address(insn);
+                    checkLower(insn.pc, memory.lowestWord(insn.b));
+                    checkUpper(insn.pc, memory.highestWord(insn.b));
+                    code.u1(ALOAD_2);
+                    code.u1(ILOAD);
+                    code.u1(ADDR);
+                    code.u1(IALOAD);
+                    storeReg(insn.a);
+                    break;
+                case DLX.STW:
+                case DLX.STX:
+                    // stores into the code region go through the interpreter, it keeps the decoded program in sync
+                    address(insn);
+                    checkLower(insn.pc, Math.max(codeLength, memory.lowestWord(insn.b)));
+                    checkUpper(insn.pc, memory.highestWord(insn.b));
+                    code.u1(ALOAD_2);
+                    code.u1(ILOAD);
+                    code.u1(ADDR);
+                    loadReg(insn.a);
+                    code.u1(IASTORE);
+                    break;
+                case DLX.BEQ: branch(insn, IFEQ, loopStart); break;
+                case DLX.BNE: branch(insn, IFNE, loopStart); break;
+                case DLX.BLT: branch(insn, IFLT, loopStart); break;
+                case DLX.BGE: branch(insn, IFGE, loopStart); break;
+                case DLX.BLE: branch(insn, IFLE, loopStart); break;
+                case DLX.BGT: branch(insn, IFGT, loopStart); break;
+                default:
+                    throw new IllegalStateException("DlxJit: cannot translate opcode " + insn.op);
+            }
+        }
+
+        private void binary (Insn insn, int jvmOp) {
+            binary(insn, jvmOp, true);
+        }
+
+        private void binary (Insn insn, int jvmOp, boolean store) {
+            loadReg(insn.b);
+            loadReg(insn.c);
+            code.u1(jvmOp);
+            if (store) {
+                storeReg(insn.a);
+            }
+        }
+
+        private void binaryImm (Insn insn, int jvmOp) {
+            binaryImm(insn, jvmOp, true);
+        }
+
+        private void binaryImm (Insn insn, int jvmOp, boolean store) {
+            loadReg(insn.b);
+            pushInt(insn.c);
+            code.u1(jvmOp);
+            if (store) {
+                storeReg(insn.a);
+            }
+        }
+
+        // CMP clamps the difference to -1, 0 or 1
+        private void signum (int a) {
+            code.u1(INVOKESTATIC);
+            code.u2(methodRef("java/lang/Integer", "signum", "(I)I"));
+            storeReg(a);
+        }
+
+        // ADDR = (R[b] + c) / 4, with c a register for LDX/STX
+        private void address (Insn insn) {
+            loadReg(insn.b);
+            if (insn.op == DLX.LDX || insn.op == DLX.STX) {
+                loadReg(insn.c);
+            }
+            else {
+                pushInt(insn.c);
+            }
+            code.u1(IADD);
+            pushInt(4);
+            code.u1(IDIV);
+            code.u1(ISTORE);
+            code.u1(ADDR);
+        }
+
+        // addresses outside the segments the base register may reach exit to the interpreter,
+        // which reports them
+        private void checkLower (int pc, int lowest) {
+            code.u1(ILOAD);
+            code.u1(ADDR);
+            pushInt(lowest);
+            exitIfCompare(IF_ICMPLT, pc);
+        }
+
+        private void checkUpper (int pc, int highest) {
+            code.u1(ILOAD);
+            code.u1(ADDR);
+            pushInt(highest);
+            exitIfCompare(IF_ICMPGE, pc);
+        }
+
+        private void branch (Insn insn, int jvmIf, int loopStart) {
+            int target = insn.pc + insn.c;
+            loadReg(insn.a);
+            int taken = code.size();
+            code.u1(jvmIf);
+            code.u2(0);
+            exitTo(insn.pc + 1);
+
+            code.patch16(taken + 1, code.size() - taken);
+            if (target == start) {
+                // loop back without leaving the block, registers stay in locals
+                int jump = code.size();
+                code.u1(GOTO);
+                code.u2(loopStart - jump);
+            }
+            else {
+                exitTo(target);
+            }
+        }
+
+        // leave the block at the top of the stack comparison, handing pc to the interpreter
+        private void exitIf (int jvmIf, int pc) {
+            int skip = code.size();
+            code.u1(negate(jvmIf));     // negated condition jumps over the exit
+            code.u2(0);
+            exitTo(sideExit(pc));
+            code.patch16(skip + 1, code.size() - skip);
+        }
+
+        private void exitIfCompare (int jvmIfCmp, int pc) {
+            int skip = code.size();
+            code.u1(negateCompare(jvmIfCmp));
+            code.u2(0);
+            exitTo(sideExit(pc));
+            code.patch16(skip + 1, code.size() - skip);
+        }
+
+        // ifeq <-> ifne, iflt <-> ifge, ifgt <-> ifle
+        private static int negate (int jvmIf) {
+            return ((jvmIf - IFEQ) ^ 1) + IFEQ;
+        }
+
+        private static int negateCompare (int jvmIfCmp) {
+            // if_icmplt (0xa1) <-> if_icmpge (0xa2)
+            return (jvmIfCmp == IF_ICMPGE) ? IF_ICMPLT : IF_ICMPGE;
+        }
+
+        // EXIT = next; goto write back
+        private void exitTo (int next) {
+            pushInt(next);
+            code.u1(ISTORE);
+            code.u1(EXIT);
+            exitJumps.add(code.size());
+            code.u1(GOTO);
+            code.u2(0);
+        }
+
+        private void loadReg (int r) {
+            if (r == 0) {
+                code.u1(ICONST_0);
+            }
+            else {
+                code.u1(ILOAD);
+                code.u1(REG_BASE + r);
+            }
+        }
+
+        private void storeReg (int r) {
+            if (r == 0) {
+                code.u1(POP);
+            }
+            else {
+                code.u1(ISTORE);
+                code.u1(REG_BASE + r);
+            }
+        }
+
+        private void pushInt (int v) {
+            if (v >= -1 && v <= 5) {
+                code.u1(ICONST_0 + v);
+            }
+            else if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) {
+                code.u1(BIPUSH);
+                code.u1(v);
+            }
+            else if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) {
+                code.u1(SIPUSH);
+                code.u2(v);
+            }
+            else {
+                code.u1(LDC_W);
+                code.u2(intConstant(v));
+            }
+        }
+
+    // Constant Pool ==========================================================
+
+        private int utf8 (String s) {
+            Integer idx = poolIndex.get("U" + s);
+            if (idx == null) {
+                pool.u1(1);
+                byte[] bytes = s.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                pool.u2(bytes.length);
+                pool.bytes(bytes);
+                idx = poolCount++;
+                poolIndex.put("U" + s, idx);
+            }
+            return idx;
+        }
+
+        private int classRef (String name) {
+            Integer idx = poolIndex.get("C" + name);
+            if (idx == null) {
+                int nameIdx = utf8(name);
+                pool.u1(7);
+                pool.u2(nameIdx);
+                idx = poolCount++;
+                poolIndex.put("C" + name, idx);
+            }
+            return idx;
+        }
+
+        private int methodRef (String owner, String name, String type) {
+            String key = "M" + owner + "." + name + type;
+            Integer idx = poolIndex.get(key);
+            if (idx == null) {
+                int ownerIdx = classRef(owner);
+                int nameIdx = utf8(name);
+                int typeIdx = utf8(type);
+                pool.u1(12);            // NameAndType
+                pool.u2(nameIdx);
+                pool.u2(typeIdx);
+                int nameAndType = poolCount++;
+                pool.u1(10);            // Methodref
+                pool.u2(ownerIdx);
+                pool.u2(nameAndType);
+                idx = poolCount++;
+                poolIndex.put(key, idx);
+            }
+            return idx;
+        }
+
+        private int intConstant (int v) {
+            Integer idx = poolIndex.get("I" + v);
+            if (idx == null) {
+                pool.u1(3);
+                pool.u4(v);
+                idx = poolCount++;
+                poolIndex.put("I" + v, idx);
+            }
+            return idx;
+        }
+    }
+
+    // big-endian byte buffer with 16-bit back-patching for branch offsets
+    private static final class ByteWriter {
+        private byte[] buf = new byte[256];
+        private int size = 0;
+
+        void u1 (int v) {
+            if (size == buf.length) {
+                buf = Arrays.copyOf(buf, 2 * buf.length);
+            }
+            buf[size++] = (byte) v;
+        }
+
+        void u2 (int v) {
+            u1(v >>> 8);
+            u1(v);
+        }
+
+        void u4 (int v) {
+            u2(v >>> 16);
+            u2(v);
+        }
+
+        void bytes (byte[] b) {
+            for (byte x : b) {
+                u1(x);
+            }
+        }
+
+        void patch16 (int pos, int v) {
+            buf[pos] = (byte) (v >>> 8);
+            buf[pos + 1] = (byte) v;
+        }
+
+        int size () {
+            return size;
+        }
+
+        byte[] toByteArray () {
+            return Arrays.copyOf(buf, size);
+        }
+    }
+}
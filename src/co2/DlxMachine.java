@@ -0,0 +1,775 @@
+package co2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+
+// One emulated DLX processor. All machine state lives in the instance, so several
+// machines can run side by side in the same JVM (see DlxRunner). DLX keeps the
+// opcode table and the assembler, and its static load/execute drive a shared machine.
+public class DlxMachine {
+
+// Processor Emulation ========================================================
+    private final int[] R = new int[32];
+    private int PC;
+
+    private int memSize;
+    private DlxMemory M;
+    private final int globalSize;
+    private final int stackSize;
+
+    // pre-decoded copy of the code region, one entry per instruction word, so that
+    // execute() can dispatch without decoding the word on every step
+    private int codeLength = 0;
+    private int[] decodedOp = new int[0];
+    private int[] decodedA = new int[0];
+    private int[] decodedB = new int[0];
+    private int[] decodedC = new int[0];
+    private int[] decodedFormat = new int[0];
+    private float[] decodedFC = new float[0]; // F1 immediate already widened to FP32
+
+    // for processing input in execute
+    private DlxInput input = null;
+
+    // how execute() runs the loaded program
+    public enum Engine {
+        INTERPRETER,    // decode-and-switch loop
+        THREADED,       // one bound handler object per instruction, see DlxThreadedCode
+        TIERED          // threaded handlers, hot blocks compiled to JVM bytecode, see DlxJit
+    }
+
+    private Engine engine = Engine.INTERPRETER;
+    private DlxThreadedCode threaded = null;
+    private DlxJit jit = null;
+
+    // null unless enableProfiling() was called after load()
+    private DlxProfiler profiler = null;
+    // null unless enableCycleCounting() was called after load()
+    private DlxCycleCounter cycleCounter = null;
+
+    // buffered sink for the write instructions, err is wrapped to flush it first
+    private DlxOutput out;
+    private PrintStream err;
+    private final PrintStream rawOut;
+    private final PrintStream rawErr;
+
+    public DlxMachine () {
+        this(System.out, System.err);
+    }
+
+    public DlxMachine (PrintStream out, PrintStream err) {
+        this(DLX.MEM_SIZE, out, err);
+    }
+
+    public DlxMachine (int memSize, PrintStream out, PrintStream err) {
+        this(memSize, 0, DlxMemory.DEFAULT_STACK_SIZE, out, err);
+    }
+
+    // memSize bytes in total, of which globalSize are reserved at the top for the globals and
+    // stackSize right below them for the stack; whatever is left above the code is heap
+    public DlxMachine (int memSize, int globalSize, int stackSize, PrintStream out, PrintStream err) {
+        this.memSize = memSize;
+        this.M = DlxMemory.allocate(memSize);
+        this.globalSize = globalSize;
+        this.stackSize = stackSize;
+        this.rawOut = out;
+        this.rawErr = err;
+        setOutputBufferSize(DlxOutput.DEFAULT_BUFFER_SIZE);
+    }
+
+    // bytes of program output collected before they are written to out
+    public void setOutputBufferSize (int bytes) {
+        this.out = new DlxOutput(rawOut, bytes);
+        this.err = out.errorStream(rawErr);
+        this.threaded = null;   // handlers hold on to the old sink
+    }
+
+    public void setEngine (Engine engine) {
+        this.engine = engine;
+    }
+
+    public Engine engine () {
+        return engine;
+    }
+
+    public int memorySize () {
+        return memSize;
+    }
+
+    public DlxMemory memory () {
+        return M;
+    }
+
+    public void load (int[] program) {
+        // code region includes the trailing -1 (ERR) word
+        int needed = 4*(program.length + 1) + globalSize + stackSize;
+        if (needed > memSize) {
+            // program does not fit, grow the memory instead of failing the run
+            int grown = memSize;
+            while (grown < needed && grown <= Integer.MAX_VALUE / 2) {
+                grown *= 2;
+            }
+            memSize = Math.max(grown, needed);
+            M = DlxMemory.allocate(memSize);
+        }
+        else {
+            M.clear();
+        }
+        M.layout(program.length + 1, globalSize, stackSize);
+        for (int i = 0; i < program.length; i++) {
+            M.store(i, program[i]);
+        }
+        M.store(program.length, -1);
+
+        codeLength = program.length + 1;
+        decodedOp = new int[codeLength];
+        decodedA = new int[codeLength];
+        decodedB = new int[codeLength];
+        decodedC = new int[codeLength];
+        decodedFormat = new int[codeLength];
+        decodedFC = new float[codeLength];
+        for (int i = 0; i < codeLength; i++) {
+            predecode(i);
+        }
+        threaded = null;
+        jit = null;
+        profiler = null;
+        cycleCounter = null;
+    }
+
+    // count this machine's runs of the loaded program from now on; profiling always runs on the
+    // interpreter, whatever engine is selected
+    public DlxProfiler enableProfiling () {
+        int[] code = new int[codeLength];
+        for (int i = 0; i < codeLength; i++) {
+            code[i] = M.load(i);
+        }
+        profiler = new DlxProfiler(code, M.bytes() - 1);
+        return profiler;
+    }
+
+    public DlxProfiler profiler () {
+        return profiler;
+    }
+
+    // clock this machine's runs of the loaded program under the pipeline model of DLX.latencyOf
+    // from now on; like profiling, counting always runs on the interpreter
+    public DlxCycleCounter enableCycleCounting () {
+        int[] code = new int[codeLength];
+        for (int i = 0; i < codeLength; i++) {
+            code[i] = M.load(i);
+        }
+        cycleCounter = new DlxCycleCounter(code);
+        return cycleCounter;
+    }
+
+    public DlxCycleCounter cycleCounter () {
+        return cycleCounter;
+    }
+
+    // (re)decode the word at M[idx] into the decoded arrays
+    private void predecode (int idx) {
+        int instrWord = M.load(idx);
+        int op = instrWord >>> 26;
+        int format = DLX.formatOf(op);
+
+        decodedOp[idx] = op;
+        decodedA[idx] = (instrWord >>> 21) & 0x1F;
+        decodedB[idx] = (instrWord >>> 16) & 0x1F;
+        decodedFormat[idx] = format;
+        decodedFC[idx] = 0f;
+        switch (format) {
+            case 1:
+                decodedC[idx] = (short) instrWord;
+                decodedFC[idx] = DLX.toFP32FromFP16(decodedC[idx]);
+                break;
+            case 2:
+                decodedC[idx] = instrWord & 0x1F;
+                break;
+            case 3:
+                decodedA[idx] = -1;
+                decodedB[idx] = -1;
+                decodedC[idx] = instrWord & 0x3FFFFFF;
+                break;
+            default:
+                // ERR, execute() reports it when reached
+                decodedC[idx] = 0;
+                break;
+        }
+    }
+
+    // a store landed in memory, keep the decoded code region in sync with it
+    void invalidate (int idx) {
+        if (idx >= 0 && idx < codeLength) {
+            predecode(idx);
+            if (threaded != null) {
+                threaded.invalidate(idx);
+            }
+            if (jit != null) {
+                jit.invalidate(idx);
+            }
+        }
+    }
+
+    public void execute (InputStream in) throws IOException {
+        for (int i = 0; i < 32; i++) {
+            R[i] = 0;
+        }
+        R[30] = M.bytes() - 1;
+        PC = 0;
+
+        try (InputStreamReader reader = new InputStreamReader(in)) {
+            input = new DlxInput(reader, out);
+            if (profiler != null || cycleCounter != null) {
+                interpret();
+            }
+            else if (engine == Engine.TIERED) {
+                runTiered();
+            }
+            else if (engine == Engine.THREADED) {
+                runThreaded();
+            }
+            else {
+                interpret();
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new NumberFormatException("Failed at line " + input.line() + " of input: " + e.getMessage());
+        }
+        catch (IndexOutOfBoundsException e) {
+            err.println("Failed at " + (4*PC));
+            if (PC >= 0 && PC < M.words()) {
+                err.println("Instruction :: " + DLX.instrString(M.load(PC)));
+            }
+            err.println("Memory :: " + M.describe());
+            bug(63);
+        }
+        finally {
+            input = null;
+            out.flush();
+        }
+    }
+
+    private void runThreaded () throws IOException {
+        if (threaded == null) {
+            threaded = new DlxThreadedCode(this, codeLength);
+        }
+        DlxThreadedCode code = threaded;
+        int pc = 0;
+        while (pc >= 0) {
+            PC = pc;
+            if (DLX.DEBUG) {
+                err.print(DLX.instrString(M.load(PC)));
+                dumpRegisters();
+            }
+
+            R[0] = 0;
+            pc = code.handlerAt(pc).run(pc);
+        }
+    }
+
+    private void runTiered () throws IOException {
+        if (threaded == null) {
+            threaded = new DlxThreadedCode(this, codeLength);
+        }
+        if (jit == null) {
+            jit = new DlxJit(M, codeLength);
+        }
+        if (DLX.DEBUG || !jit.enabled()) {
+            runThreaded();
+            return;
+        }
+
+        DlxThreadedCode code = threaded;
+        int[] mem = M.array();
+        int pc = 0;
+        boolean jumped = true;  // pc was reached by a jump and may start a compiled block
+        while (pc >= 0) {
+            PC = pc;
+            if (jumped) {
+                DlxJit.Block block = jit.enter(pc);
+                if (block != null) {
+                    int next = block.run(R, mem);
+                    if (DlxJit.isSideExit(next)) {
+                        // interpret the instruction the block could not handle
+                        pc = DlxJit.sideExitPC(next);
+                        jumped = false;
+                    }
+                    else {
+                        pc = next;
+                    }
+                    continue;
+                }
+            }
+
+            R[0] = 0;
+            int next = code.handlerAt(pc).run(pc);
+            jumped = next != pc + 1;
+            pc = next;
+        }
+    }
+
+    private void interpret () throws IOException {
+        int origC = 0;  // used for F2 instruction RET
+        float fC = 0f;  // used for F1/F2 instructions fOP
+        DlxProfiler prof = profiler;
+        DlxCycleCounter cycles = cycleCounter;
+        boolean returned = false;
+        while (!returned) {
+            // // uncomment to iteratively step through program
+            if (DLX.DEBUG) {
+                err.print(DLX.instrString(M.load(PC)));
+                dumpRegisters();
+            }
+
+            R[0] = 0;
+
+            int op, a, b, c, format;
+            if (PC < codeLength) {
+                op = decodedOp[PC];
+                a = decodedA[PC];
+                b = decodedB[PC];
+                c = decodedC[PC];
+                format = decodedFormat[PC];
+            }
+            else {
+                // executing outside of the loaded program, decode on the fly
+                int instrWord = M.load(PC);
+                op = instrWord >>> 26;
+                a = (instrWord >>> 21) & 0x1F;
+                b = (instrWord >>> 16) & 0x1F;
+                format = DLX.formatOf(op);
+                c = (format == 1) ? (short) instrWord : (format == 2) ? instrWord & 0x1F : instrWord & 0x3FFFFFF;
+            }
+
+            if (prof != null) {
+                prof.step(PC, op, R[30]);
+            }
+
+            int nextPC = PC + 1;
+            if (format == 1) {
+                fC = (PC < codeLength) ? decodedFC[PC] : DLX.toFP32FromFP16(c);
+            }
+            if (format == 2) {
+                origC = c;
+                c = R[origC];
+                fC = fR(origC);
+            }
+            switch (op) {
+                case DLX.ADD:
+                case DLX.ADDI:
+                    R[a] = R[b] + c;
+                    break;
+                case DLX.fADD:
+                case DLX.fADDI:
+                    fR(a, fR(b) + fC);
+                    break;
+                case DLX.SUB:
+                case DLX.SUBI:
+                    R[a] = R[b] - c;
+                    break;
+                case DLX.fSUB:
+                case DLX.fSUBI:
+                    fR(a, fR(b) - fC);
+                    break;
+                case DLX.MUL:
+                case DLX.MULI:
+                    R[a] = R[b] * c;
+                    break;
+                case DLX.fMUL:
+                case DLX.fMULI:
+                    fR(a, fR(b) * fC);
+                    break;
+                case DLX.DIV:
+                case DLX.DIVI:
+                    R[a] = R[b] / c;
+                    break;
+                case DLX.fDIV:
+                case DLX.fDIVI:
+                    fR(a, fR(b) / fC);
+                    break;
+                case DLX.MOD:
+                case DLX.MODI:
+                    R[a] = R[b] % c;
+                    break;
+                case DLX.fMOD:
+                case DLX.fMODI:
+                    fR(a, fR(b) % fC);
+                    break;
+                case DLX.POW:
+                case DLX.POWI:
+                    if (R[b] < 0 || c < 0) {
+                        err.println("DLX.execute: Illegal value (" + R[b] + ")^("
+                                            + c + ") in POW!");
+                        bug(1);
+                    }
+                    R[a] = (int) Math.round(Math.pow(R[b], c));
+                    break;
+                case DLX.CMP:
+                case DLX.CMPI:
+                    R[a] = R[b] - c;
+                    if (R[a] < 0) {
+                        R[a] = -1;
+                    }
+                    else if (R[a] > 1) {
+                        R[a] = 1;
+                    }
+                    break;
+                case DLX.fCMP:
+                case DLX.fCMPI:
+                    float result = fR(b) - fC;
+
+                    R[a] = 0;
+                    if (result <= -DLX.EPS) {
+                        R[a] = -1;
+                    }
+                    else if (result >= DLX.EPS) {
+                        R[a] = 1;
+                    }
+                    break;
+                case DLX.OR:
+                case DLX.ORI:
+                    R[a] = R[b] | c;
+                    break;
+                case DLX.AND:
+                case DLX.ANDI:
+                    R[a] = R[b] & c;
+                    break;
+                case DLX.BIC:
+                case DLX.BICI:
+                    R[a] = R[b] & ~c;
+                    break;
+                case DLX.XOR:
+                case DLX.XORI:
+                    R[a] = R[b] ^ c;
+                    break;
+                case DLX.LSH:
+                case DLX.LSHI:
+                    if (c < -31 || c > 31) {
+                        err.println("DLX.execute: Illegal value " + c + " in LSH!");
+                        bug(1);
+                    }
+
+                    if (c < 0) {
+                        R[a] = R[b] >>> -c;
+                    }
+                    else {
+                        R[a] = R[b] << c;
+                    }
+                    break;
+                case DLX.ASH:
+                case DLX.ASHI:
+                    if (c < -31 || c > 31) {
+                        err.println("DLX.execute: Illegal value " + c + " in ASH!");
+                        bug(1);
+                    }
+
+                    if (c < 0) {
+                        R[a] = R[b] >> -c;
+                    }
+                    else {
+                        R[a] = R[b] << c;
+                    }
+                    break;
+                case DLX.CHK:
+                case DLX.CHKI:
+                    if (R[a] < 0) {
+                        err.println("DLX.execute: " + (4*PC) + " :: R[" + a + "] == "
+                                            + R[a] + " < 0");
+                        bug(39);
+                    }
+                    else if (R[a] >= c) {
+                        err.println("DLX.execute: " + (4*PC) + " :: R[" + a + "] == "
+                                            + R[a] + " >= " + c);
+                        bug(39);
+                    }
+                    break;
+                case DLX.LDW:
+                case DLX.LDX:
+                    checkAccess(PC, b, (R[b] + c) / 4);
+                    R[a] = M.load((R[b] + c) / 4);
+                    break;
+                case DLX.POP:
+                    checkAccess(PC, b, R[b] / 4);
+                    R[a] = M.load(R[b] / 4);
+                    R[b] = R[b] + c;
+                    break;
+                case DLX.STW:
+                case DLX.STX:
+                    checkAccess(PC, b, (R[b] + c) / 4);
+                    M.store((R[b] + c) / 4, R[a]);
+                    invalidate((R[b] + c) / 4);
+                    break;
+                case DLX.PSH:
+                    R[b] = R[b] + c;
+                    checkPush(PC, b);
+                    M.store(R[b] / 4, R[a]);
+                    invalidate(R[b] / 4);
+                    break;
+                case DLX.ARRCPY:
+                    for (int i = 0; i < c; i++) {
+                        M.store((R[a] - 4*i) / 4, M.load((R[b] - 4*i) / 4));
+                        invalidate((R[a] - 4*i) / 4);
+                    }
+                    break;
+                case DLX.BEQ:
+                    if (R[a] == 0) {
+                        nextPC = PC + c;
+                    }
+                    if (nextPC < 0 || nextPC >= codeLength) {
+                        err.println("DLX.execute: " + (4*nextPC) + " is no address "
+                                            + "in code [0, " + (4*codeLength) + ").");
+                        bug(47);
+                    }
+                    break;
+                case DLX.BNE:
+                    if (R[a] != 0) {
+                        nextPC = PC + c;
+                    }
+                    if (nextPC < 0 || nextPC >= codeLength) {
+                        err.println("DLX.execute: " + (4*nextPC) + " is no address "
+                                            + "in code [0, " + (4*codeLength) + ").");
+                        bug(48);
+                    }
+                    break;
+                case DLX.BLT:
+                    if (R[a] < 0) {
+                        nextPC = PC + c;
+                    }
+                    if (nextPC < 0 || nextPC >= codeLength) {
+                        err.println("DLX.execute: " + (4*nextPC) + " is no address "
+                                            + "in code [0, " + (4*codeLength) + ").");
+                        bug(49);
+                    }
+                    break;
+                case DLX.BGE:
+                    if (R[a] >= 0) {
+                        nextPC = PC + c;
+                    }
+                    if (nextPC < 0 || nextPC >= codeLength) {
+                        err.println("DLX.execute: " + (4*nextPC) + " is no address "
+                                            + "in code [0, " + (4*codeLength) + ").");
+                        bug(50);
+                    }
+                    break;
+                case DLX.BLE:
+                    if (R[a] <= 0) {
+                        nextPC = PC + c;
+                    }
+                    if (nextPC < 0 || nextPC >= codeLength) {
+                        err.println("DLX.execute: " + (4*nextPC) + " is no address "
+                                            + "in code [0, " + (4*codeLength) + ").");
+                        bug(51);
+                    }
+                    break;
+                case DLX.BGT:
+                    if (R[a] > 0) {
+                        nextPC = PC + c;
+                    }
+                    if (nextPC < 0 || nextPC >= codeLength) {
+                        err.println("DLX.execute: " + (4*nextPC) + " is no address "
+                                            + "in code [0, " + (4*codeLength) + ").");
+                        bug(52);
+                    }
+                    break;
+                case DLX.BSR:
+                    R[31] = 4 * (PC + 1);
+                    nextPC = PC + c;
+                    if (nextPC < 0 || nextPC >= codeLength) {
+                        err.println("DLX.execute: " + (4*nextPC) + " is no address "
+                                            + "in code [0, " + (4*codeLength) + ").");
+                        bug(53);
+                    }
+                    break;
+                case DLX.JSR:
+                    R[31] = 4 * (PC + 1);
+                    nextPC = c / 4;
+                    if (nextPC < 0 || nextPC >= codeLength) {
+                        err.println("DLX.execute: " + (4*nextPC) + " is no address "
+                                            + "in code [0, " + (4*codeLength) + ").");
+                        bug(54);
+                    }
+                    break;
+                case DLX.RET:
+                    if (origC == 0) {
+                        returned = true;
+                        break;
+                    }
+                    nextPC = c / 4;
+                    if (nextPC < 0 || nextPC >= codeLength) {
+                        err.println("DLX.execute: " + (4*nextPC) + " is no address "
+                                            + "in code [0, " + (4*codeLength) + ").");
+                        bug(55);
+                    }
+                    break;
+                case DLX.RDI:
+                    out.writeAscii("int? ");
+                    R[a] = readInt();
+                    break;
+                case DLX.RDF:
+                    out.writeAscii("float? ");
+                    fR(a, readFloat());
+                    break;
+                case DLX.RDB:
+                    out.writeAscii("true or false? ");
+                    R[a] = (readBoolean() ? 1 : 0);
+                    break;
+                case DLX.WRI:
+                    out.writeInt(R[b]);
+                    out.writeByte(' ');
+                    break;
+                case DLX.WRF:
+                    out.writeFloat2(fR(b));
+                    out.writeByte(' ');
+                    break;
+                case DLX.WRB:
+                    out.writeBoolean(R[b] == 1);
+                    out.writeByte(' ');
+                    break;
+                case DLX.WRL:
+                    out.newline();
+                    break;
+                case DLX.ERR:
+                    err.println("Illegal instruction: (" + PC + ")!");
+                    err.println("Program dropped off the end!");
+                    break;
+                default:
+                    err.println("DLX.execute: Unknown opcode encountered!");
+                    bug(2);
+                    break;
+            }
+            if (prof != null) {
+                if (op >= DLX.BEQ && op <= DLX.BGT) {
+                    prof.branch(PC, branchTaken(op, R[a]));
+                }
+                else if (op == DLX.BSR || op == DLX.JSR) {
+                    prof.call(nextPC);
+                }
+            }
+            if (cycles != null) {
+                cycles.step(PC, nextPC);
+            }
+            PC = nextPC;
+        }
+    }
+
+    private static boolean branchTaken (int op, int v) {
+        switch (op) {
+            case DLX.BEQ: return v == 0;
+            case DLX.BNE: return v != 0;
+            case DLX.BLT: return v < 0;
+            case DLX.BGE: return v >= 0;
+            case DLX.BLE: return v <= 0;
+            default:      return v > 0;
+        }
+    }
+
+    // next token of input for RDI/RDF/RDB
+    int readInt () throws IOException {
+        try {
+            return input.nextInt();
+        }
+        catch (IOException e) {
+            throw readFailed(e);
+        }
+    }
+
+    float readFloat () throws IOException {
+        try {
+            return input.nextFloat();
+        }
+        catch (IOException e) {
+            throw readFailed(e);
+        }
+    }
+
+    boolean readBoolean () throws IOException {
+        try {
+            return input.nextBoolean();
+        }
+        catch (IOException e) {
+            throw readFailed(e);
+        }
+    }
+
+    private IOException readFailed (IOException e) {
+        out.writeAscii("error");
+        out.newline();
+        err.println("Interepter: Couldn't read data file");
+        return e;
+    }
+
+    // put val in R[idx]
+    private void fR (int idx, float val) {
+        R[idx] = Float.floatToIntBits(val);
+    }
+
+    // get float value from R[idx]
+    private float fR (int idx) {
+        return Float.intBitsToFloat(R[idx]);
+    }
+
+    // print the link/stack/frame registers, the first data registers and the top of the stack
+    void dumpRegisters () {
+        for (int i = 31; i > 27; i--) {
+            err.println("R[" + i + "] :: " + R[i]);
+        }
+        for (int i = 8; i > 0; i--) {
+            err.println("R[" + i + "] :: " + R[i]);
+        }
+        for (int i = 0; i < 40; i += 4) {
+            int idx = (R[30]-i)/4;
+            if (idx >= 0 && idx < M.words()) {
+                err.println("--M[" + idx + "] :: " + M.load(idx));
+            }
+        }
+    }
+
+    int[] registers () {
+        return R;
+    }
+
+    DlxOutput out () {
+        return out;
+    }
+
+    PrintStream err () {
+        return err;
+    }
+
+    boolean hasStack () {
+        return R[30] != 0;
+    }
+
+    // a push through b just moved R[b], stop the run when it left the stack segment
+    void checkPush (int pc, int b) {
+        if ((b == 29 || b == 30) && R[b] / 4 < M.stackLimit()) {
+            err.println("DLX.execute: " + (4*pc) + " :: stack overflow, R[" + b + "] == " + R[b]
+                                + " is below the stack segment at " + (4*M.stackLimit()));
+            bug(62);
+        }
+        checkAccess(pc, b, R[b] / 4);
+    }
+
+    // a load, store, push or pop at pc reaches word idx through base register b, stop the run
+    // when that is outside the segments b may address
+    void checkAccess (int pc, int b, int idx) {
+        if (idx < M.lowestWord(b) || idx >= M.highestWord(b)) {
+            String segment = M.segmentOf(idx);
+            err.println("DLX.execute: " + (4*pc) + " :: address " + (4*idx) + " through R[" + b + "] is "
+                                + (segment.equals("outside memory") ? segment : "in the " + segment + " segment")
+                                + ", not in [" + (4*M.lowestWord(b)) + ", " + (4*M.highestWord(b)) + ")");
+            err.println("Memory :: " + M.describe());
+            bug(63);
+        }
+    }
+
+    // the machine cannot continue, stop this run and let the caller decide what to do
+    void bug (int n) {
+        if (hasStack()) {
+            dumpRegisters();
+        }
+        throw new MachineError(n);
+    }
+}
@@ -0,0 +1,192 @@
+package co2;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+// Word-addressed main memory of a DlxMachine. The address space is split into segments:
+//
+//      [0, codeEnd)                code, the loaded program plus its trailing ERR word
+//      [codeEnd, stackLimit)       heap, grows up
+//      [stackLimit, globalStart)   stack, grows down from the globals (R29)
+//      [globalStart, words)        globals, at negative offsets from the top of memory (R30)
+//
+// This is the frame the compiler lays out: R30 points at the last byte of memory, every global
+// and spill slot sits at R30 - 4k, and the call stack starts right below the last slot. A
+// program loaded without globals keeps its frame on the stack below R30 instead.
+//
+// Small memories are a plain int[]; large ones live off-heap in a direct ByteBuffer so
+// multi-megabyte images are not copied around or scanned by the garbage collector.
+public abstract class DlxMemory {
+
+    // memories of at least this many bytes are allocated off-heap
+    public static final int OFF_HEAP_THRESHOLD = 1 << 20;
+
+    // stack space kept free above the heap unless a larger stack was asked for
+    public static final int DEFAULT_STACK_SIZE = 1024;
+
+    private final int words;
+    private int codeEnd;
+    private int stackLimit;
+    private int globalStart;
+
+    protected DlxMemory (int words) {
+        this.words = words;
+    }
+
+    public static DlxMemory allocate (int bytes) {
+        if (bytes < 16) {
+            throw new IllegalArgumentException("DLX memory of " + bytes + " bytes is too small");
+        }
+        if (bytes >= OFF_HEAP_THRESHOLD) {
+            return new OffHeap(bytes / 4);
+        }
+        return new OnHeap(bytes / 4);
+    }
+
+    public abstract int load (int idx);
+
+    public abstract void store (int idx, int value);
+
+    // zero every word
+    public abstract void clear ();
+
+    // backing array of an on-heap memory, null when the memory lives off-heap
+    public abstract int[] array ();
+
+    public int words () {
+        return words;
+    }
+
+    public int bytes () {
+        return words * 4;
+    }
+
+    // lay out the segments for a program of codeWords words (ERR word included)
+    public void layout (int codeWords, int globalBytes, int stackBytes) {
+        int globalWords = (globalBytes + 3) / 4;
+        int stackWords = (stackBytes + 3) / 4;
+        if (codeWords + globalWords + stackWords > words) {
+            throw new IllegalArgumentException("DLX memory of " + bytes() + " bytes cannot hold " + (4*codeWords)
+                                                + " bytes of code, " + (4*globalWords) + " bytes of globals and "
+                                                + (4*stackWords) + " bytes of stack");
+        }
+        codeEnd = codeWords;
+        globalStart = words - globalWords;
+        stackLimit = globalStart - stackWords;
+    }
+
+    public int codeEnd () {
+        return codeEnd;
+    }
+
+    public int stackLimit () {
+        return stackLimit;
+    }
+
+    public int globalStart () {
+        return globalStart;
+    }
+
+    // lowest word a load, store, push or pop through base register b may touch: R29 walks the
+    // stack and R30 the globals, or the stack as well when there are no globals
+    public int lowestWord (int b) {
+        if (b == 30 && globalStart < words) {
+            return globalStart;
+        }
+        if (b == 29 || b == 30) {
+            return stackLimit;
+        }
+        return 0;
+    }
+
+    // one past the highest word a load, store, push or pop through base register b may touch
+    public int highestWord (int b) {
+        if (b == 29) {
+            return globalStart;
+        }
+        return words;
+    }
+
+    // name of the segment holding word idx, for error messages
+    public String segmentOf (int idx) {
+        if (idx < 0 || idx >= words) {
+            return "outside memory";
+        }
+        if (idx < codeEnd) {
+            return "code";
+        }
+        if (idx < stackLimit) {
+            return "heap";
+        }
+        if (idx < globalStart) {
+            return "stack";
+        }
+        return "globals";
+    }
+
+    public String describe () {
+        return "code [0, " + (4*codeEnd) + "), heap [" + (4*codeEnd) + ", " + (4*stackLimit) + "), stack ["
+                + (4*stackLimit) + ", " + (4*globalStart) + "), globals [" + (4*globalStart) + ", " + bytes() + ")";
+    }
+
+    private static final class OnHeap extends DlxMemory {
+        private final int[] M;
+
+        OnHeap (int words) {
+            super(words);
+            M = new int[words];
+        }
+
+        @Override
+        public int load (int idx) {
+            return M[idx];
+        }
+
+        @Override
+        public void store (int idx, int value) {
+            M[idx] = value;
+        }
+
+        @Override
+        public void clear () {
+            java.util.Arrays.fill(M, 0);
+        }
+
+        @Override
+        public int[] array () {
+            return M;
+        }
+    }
+
+    private static final class OffHeap extends DlxMemory {
+        private final IntBuffer M;
+
+        OffHeap (int words) {
+            super(words);
+            M = ByteBuffer.allocateDirect(words * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+
+        @Override
+        public int load (int idx) {
+            return M.get(idx);
+        }
+
+        @Override
+        public void store (int idx, int value) {
+            M.put(idx, value);
+        }
+
+        @Override
+        public void clear () {
+            for (int i = 0; i < M.capacity(); i++) {
+                M.put(i, 0);
+            }
+        }
+
+        @Override
+        public int[] array () {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package co2;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+// Buffered sink behind the DLX write instructions. WRI, WRF, WRB and WRL append straight into a
+// byte buffer with hand-rolled int and "%.2f" formatting, and the buffer only goes to the
+// underlying stream when it fills up, before input is read, before anything goes to the error
+// stream (see errorStream()) and when the run ends. The printed text is the same as print/printf.
+public class DlxOutput {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes();
+
+    // "%.2f" can be written by hand only when the default format locale uses '.' and ASCII digits
+    private static final boolean PLAIN_DECIMALS;
+    static {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+        PLAIN_DECIMALS = symbols.getDecimalSeparator() == '.' && symbols.getZeroDigit() == '0';
+    }
+
+    private final PrintStream out;
+    private final byte[] buf;
+    private int size = 0;
+
+    // scratch space for digits, written back to front; 20 digits hold any long
+    private final byte[] digits = new byte[20];
+
+    public DlxOutput (PrintStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    public DlxOutput (PrintStream out, int bufferSize) {
+        this.out = out;
+        this.buf = new byte[Math.max(64, bufferSize)];
+    }
+
+    public void writeInt (int v) {
+        if (v < 0) {
+            writeByte('-');
+            // -v overflows for MIN_VALUE, the long keeps it positive
+            writeDigits(-(long) v);
+        }
+        else {
+            writeDigits(v);
+        }
+    }
+
+    public void writeBoolean (boolean v) {
+        writeBytes(v ? TRUE : FALSE);
+    }
+
+    // same text as printf("%.2f", v): exact value rounded half-up to two decimals
+    public void writeFloat2 (float v) {
+        int bits = Float.floatToRawIntBits(v);
+        int exp = (bits >>> 23) & 0xFF;
+        int mant = bits & 0x7FFFFF;
+        if (exp == 0xFF || !PLAIN_DECIMALS) {
+            // NaN, Infinity and other locales
+            writeString(String.format("%.2f", v));
+            return;
+        }
+
+        // v == m * 2^e exactly
+        long m = (exp == 0) ? mant : (mant | 0x800000);
+        int e = (exp == 0) ? -149 : exp - 150;
+
+        if (e > 32) {
+            // 100 * (m << e) does not fit in a long
+            writeString(String.format("%.2f", v));
+            return;
+        }
+
+        // value in hundredths, rounded half-up
+        long hundredths;
+        if (e >= 0) {
+            hundredths = (m << e) * 100;
+        }
+        else if (-e >= 63) {
+            hundredths = 0;
+        }
+        else {
+            int shift = -e;
+            long scaled = m * 100;  // < 2^31
+            hundredths = scaled >>> shift;
+            if ((scaled & ((1L << shift) - 1)) >= (1L << (shift - 1))) {
+                hundredths++;
+            }
+        }
+
+        if (bits < 0) {
+            writeByte('-');
+        }
+        writeDigits(hundredths / 100);
+        writeByte('.');
+        int cents = (int) (hundredths % 100);
+        writeByte('0' + cents / 10);
+        writeByte('0' + cents % 10);
+    }
+
+    public void writeByte (int b) {
+        if (size == buf.length) {
+            drain();
+        }
+        buf[size++] = (byte) b;
+    }
+
+    // for the fixed ASCII prompts and separators
+    public void writeAscii (String s) {
+        for (int i = 0; i < s.length(); i++) {
+            writeByte(s.charAt(i));
+        }
+    }
+
+    public void newline () {
+        writeBytes(NEWLINE);
+    }
+
+    public void flush () {
+        drain();
+        out.flush();
+    }
+
+    // err wrapped so that buffered output always reaches the console before an error message does
+    public PrintStream errorStream (PrintStream err) {
+        return new PrintStream(new OutputStream() {
+            @Override
+            public void write (int b) {
+                DlxOutput.this.flush();
+                err.write(b);
+            }
+
+            @Override
+            public void write (byte[] b, int off, int len) {
+                DlxOutput.this.flush();
+                err.write(b, off, len);
+            }
+
+            @Override
+            public void flush () {
+                err.flush();
+            }
+        }, true);
+    }
+
+    private void writeDigits (long v) {
+        int pos = digits.length;
+        do {
+            digits[--pos] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        for (int i = pos; i < digits.length; i++) {
+            writeByte(digits[i]);
+        }
+    }
+
+    private void writeBytes (byte[] b) {
+        for (byte x : b) {
+            writeByte(x);
+        }
+    }
+
+    private void writeString (String s) {
+        writeBytes(s.getBytes(Charset.defaultCharset()));
+    }
+
+    private void drain () {
+        if (size > 0) {
+            out.write(buf, 0, size);
+            size = 0;
+        }
+    }
+}
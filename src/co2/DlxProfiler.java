@@ -0,0 +1,224 @@
+package co2;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Counters for profiled DLX runs. A DlxMachine only profiles after enableProfiling(), otherwise
+// the interpreter skips every hook with one null check.
+//
+// PCs are mapped back to the BasicBlocks of Compiler.genCode through the block start
+// positions (Compiler.getBlockStartPositions), so the written profile can be read back by
+// block ID.
+public class DlxProfiler {
+
+    private final int[] code;
+    private final int codeLength;
+    private final int stackTop;
+
+    private final long[] opcodeCounts = new long[64];
+    private final long[] pcCounts;
+    private final long[] taken;
+    private final long[] notTaken;
+    private final long[] calls;     // by target PC
+    private int lowestSP;
+
+    // block start PC -> block ID, empty when the program did not come from genCode
+    private TreeMap<Integer, Integer> blockStarts = new TreeMap<>();
+
+    // code is the loaded code region, stackTop the initial R30
+    public DlxProfiler (int[] code, int stackTop) {
+        this.code = code;
+        this.codeLength = code.length;
+        this.stackTop = stackTop;
+        this.pcCounts = new long[codeLength];
+        this.taken = new long[codeLength];
+        this.notTaken = new long[codeLength];
+        this.calls = new long[codeLength];
+        this.lowestSP = stackTop;
+    }
+
+    public void setBlockStarts (Map<Integer, Integer> blockStarts) {
+        this.blockStarts = new TreeMap<>(blockStarts);
+    }
+
+// Hooks called by DlxMachine =================================================
+
+    void step (int pc, int op, int sp) {
+        opcodeCounts[op]++;
+        if (pc < codeLength) {
+            pcCounts[pc]++;
+        }
+        if (sp < lowestSP) {
+            lowestSP = sp;
+        }
+    }
+
+    void branch (int pc, boolean wasTaken) {
+        if (pc < codeLength) {
+            if (wasTaken) {
+                taken[pc]++;
+            }
+            else {
+                notTaken[pc]++;
+            }
+        }
+    }
+
+    void call (int targetPC) {
+        if (targetPC >= 0 && targetPC < codeLength) {
+            calls[targetPC]++;
+        }
+    }
+
+// Results ====================================================================
+
+    public long totalInstructions () {
+        long total = 0;
+        for (long count : opcodeCounts) {
+            total += count;
+        }
+        return total;
+    }
+
+    public long count (int pc) {
+        return pcCounts[pc];
+    }
+
+    // bytes below the initial R30 the stack grew to
+    public int peakStackDepth () {
+        return stackTop - lowestSP;
+    }
+
+    // ID of the block holding pc, -1 when no block starts at or before it
+    public int blockOf (int pc) {
+        Map.Entry<Integer, Integer> entry = blockStarts.floorEntry(pc);
+        return (entry == null) ? -1 : entry.getValue();
+    }
+
+    // instructions executed per block ID, in block order
+    public TreeMap<Integer, Long> blockCounts () {
+        TreeMap<Integer, Long> counts = new TreeMap<>();
+        for (int pc = 0; pc < codeLength; pc++) {
+            if (pcCounts[pc] > 0) {
+                counts.merge(blockOf(pc), pcCounts[pc], Long::sum);
+            }
+        }
+        return counts;
+    }
+
+    public void writeReport (PrintStream out) {
+        long total = totalInstructions();
+        out.println("DLX profile: " + total + " instructions, peak stack depth " + peakStackDepth() + " bytes");
+
+        out.println();
+        out.println("Opcodes:");
+        List<Integer> ops = new ArrayList<>();
+        for (int op = 0; op < opcodeCounts.length; op++) {
+            if (opcodeCounts[op] > 0) {
+                ops.add(op);
+            }
+        }
+        ops.sort((x, y) -> Long.compare(opcodeCounts[y], opcodeCounts[x]));
+        for (int op : ops) {
+            out.printf("  %-8s %12d  %5.1f%%%n", DLX.mnemonic(op), opcodeCounts[op], percent(opcodeCounts[op], total));
+        }
+
+        out.println();
+        out.println("Blocks:");
+        TreeMap<Integer, Long> blocks = blockCounts();
+        for (Map.Entry<Integer, Integer> start : blockStarts.entrySet()) {
+            int pc = start.getKey();
+            long instructions = blocks.getOrDefault(start.getValue(), 0L);
+            long entries = (pc < codeLength) ? pcCounts[pc] : 0;
+            out.printf("  BB%-6d pc %-6d entries %10d  instructions %12d  %5.1f%%%n",
+                        start.getValue(), pc, entries, instructions, percent(instructions, total));
+        }
+
+        out.println();
+        out.println("Hottest instructions:");
+        List<Integer> pcs = new ArrayList<>();
+        for (int pc = 0; pc < codeLength; pc++) {
+            if (pcCounts[pc] > 0) {
+                pcs.add(pc);
+            }
+        }
+        pcs.sort((x, y) -> Long.compare(pcCounts[y], pcCounts[x]));
+        for (int pc : pcs.subList(0, Math.min(20, pcs.size()))) {
+            out.printf("  %6d  BB%-6d %12d  %s", pc, blockOf(pc), pcCounts[pc], DLX.instrString(code[pc]));
+        }
+
+        out.println();
+        out.println("Branches:");
+        for (int pc = 0; pc < codeLength; pc++) {
+            if (taken[pc] + notTaken[pc] > 0) {
+                out.printf("  %6d  BB%-6d taken %10d  not taken %10d%n", pc, blockOf(pc), taken[pc], notTaken[pc]);
+            }
+        }
+
+        out.println();
+        out.println("Calls:");
+        for (int pc = 0; pc < codeLength; pc++) {
+            if (calls[pc] > 0) {
+                out.printf("  %6d  BB%-6d %10d%n", pc, blockOf(pc), calls[pc]);
+            }
+        }
+    }
+
+    // one record per line, tab separated:
+    //      total       <instructions>
+    //      stack       <peak depth in bytes>
+    //      opcode      <mnemonic> <count>
+    //      block       <block ID> <start pc> <entries> <instructions>
+    //      pc          <pc> <block ID> <count>
+    //      branch      <pc> <block ID> <taken> <not taken>
+    //      call        <target pc> <block ID> <count>
+    public void writeData (PrintStream out) {
+        out.println("total\t" + totalInstructions());
+        out.println("stack\t" + peakStackDepth());
+        for (int op = 0; op < opcodeCounts.length; op++) {
+            if (opcodeCounts[op] > 0) {
+                out.println("opcode\t" + DLX.mnemonic(op) + "\t" + opcodeCounts[op]);
+            }
+        }
+        TreeMap<Integer, Long> blocks = blockCounts();
+        for (Map.Entry<Integer, Integer> start : blockStarts.entrySet()) {
+            int pc = start.getKey();
+            long entries = (pc < codeLength) ? pcCounts[pc] : 0;
+            out.println("block\t" + start.getValue() + "\t" + pc + "\t" + entries + "\t"
+                        + blocks.getOrDefault(start.getValue(), 0L));
+        }
+        for (int pc = 0; pc < codeLength; pc++) {
+            if (pcCounts[pc] > 0) {
+                out.println("pc\t" + pc + "\t" + blockOf(pc) + "\t" + pcCounts[pc]);
+            }
+        }
+        for (int pc = 0; pc < codeLength; pc++) {
+            if (taken[pc] + notTaken[pc] > 0) {
+                out.println("branch\t" + pc + "\t" + blockOf(pc) + "\t" + taken[pc] + "\t" + notTaken[pc]);
+            }
+        }
+        for (int pc = 0; pc < codeLength; pc++) {
+            if (calls[pc] > 0) {
+                out.println("call\t" + pc + "\t" + blockOf(pc) + "\t" + calls[pc]);
+            }
+        }
+    }
+
+    // writes the report to reportFile and the machine-readable profile to dataFile
+    public void write (String reportFile, String dataFile) throws FileNotFoundException {
+        try (PrintStream report = new PrintStream(reportFile)) {
+            writeReport(report);
+        }
+        try (PrintStream data = new PrintStream(dataFile)) {
+            writeData(data);
+        }
+    }
+
+    private static double percent (long part, long total) {
+        return (total == 0) ? 0.0 : 100.0 * part / total;
+    }
+}
@@ -0,0 +1,118 @@
+package co2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Runs many compiled programs at once, each on its own DlxMachine, on a fixed pool of threads.
+// Output of every run is captured separately, so runs never interleave on System.out.
+public class DlxRunner {
+
+    public static class Result {
+        private final String output;
+        private final String errorOutput;
+        private final int bugCode;      // 0 when the program returned normally
+        private final Throwable failure; // exception that ended the run early, if any
+
+        private Result (String output, String errorOutput, int bugCode, Throwable failure) {
+            this.output = output;
+            this.errorOutput = errorOutput;
+            this.bugCode = bugCode;
+            this.failure = failure;
+        }
+
+        public String output () {
+            return output;
+        }
+
+        public String errorOutput () {
+            return errorOutput;
+        }
+
+        public int bugCode () {
+            return bugCode;
+        }
+
+        public Throwable failure () {
+            return failure;
+        }
+
+        public boolean succeeded () {
+            return bugCode == 0 && failure == null;
+        }
+    }
+
+    private final int numThreads;
+
+    public DlxRunner () {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public DlxRunner (int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    // programs.get(i) reads from inputs.get(i), results come back in the same order
+    public List<Result> runAll (List<int[]> programs, List<InputStream> inputs) throws InterruptedException {
+        if (programs.size() != inputs.size()) {
+            throw new IllegalArgumentException("DlxRunner: " + programs.size() + " programs but " + inputs.size() + " inputs");
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(numThreads, Math.max(1, programs.size())));
+        try {
+            List<Future<Result>> pending = new ArrayList<>();
+            for (int i = 0; i < programs.size(); i++) {
+                int[] program = programs.get(i);
+                InputStream in = inputs.get(i);
+                pending.add(pool.submit(() -> run(program, in)));
+            }
+
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : pending) {
+                try {
+                    results.add(future.get());
+                }
+                catch (ExecutionException e) {
+                    results.add(new Result("", "", 0, e.getCause()));
+                }
+            }
+            return results;
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // run one program to completion on a fresh machine
+    public static Result run (int[] program, InputStream in) {
+        ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(outBytes);
+        PrintStream err = new PrintStream(errBytes);
+
+        int bugCode = 0;
+        Throwable failure = null;
+        DlxMachine machine = new DlxMachine(out, err);
+        try {
+            machine.load(program);
+            machine.execute(in);
+        }
+        catch (MachineError e) {
+            bugCode = e.code();
+        }
+        catch (IOException | RuntimeException e) {
+            failure = e;
+        }
+
+        out.flush();
+        err.flush();
+        return new Result(outBytes.toString(), errBytes.toString(), bugCode, failure);
+    }
+}
@@ -0,0 +1,703 @@
+package co2;
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+// Threaded-code form of a program loaded into a DlxMachine. Every instruction word becomes a
+// small handler object with its operands bound as final fields, so running an instruction is
+// one virtual call instead of a decode and a switch. Each handler returns the next PC, or -1
+// once the program returns. Semantics follow DlxMachine.interpret() exactly.
+class DlxThreadedCode {
+
+    abstract static class Handler {
+        abstract int run (int pc) throws IOException;
+    }
+
+    private final DlxMachine machine;
+    private final int[] R;
+    private final DlxMemory M;
+    private final DlxOutput out;
+    private final PrintStream err;
+    private final Handler[] handlers;
+
+    DlxThreadedCode (DlxMachine machine, int codeLength) {
+        this.machine = machine;
+        this.R = machine.registers();
+        this.M = machine.memory();
+        this.out = machine.out();
+        this.err = machine.err();
+        this.handlers = new Handler[codeLength];
+        for (int i = 0; i < codeLength; i++) {
+            handlers[i] = compile(M.load(i));
+        }
+    }
+
+    // handler for the instruction at pc, built on the fly outside of the loaded program
+    Handler handlerAt (int pc) {
+        if (pc < handlers.length) {
+            return handlers[pc];
+        }
+        return compile(M.load(pc));
+    }
+
+    // the word at idx was overwritten, rebuild its handler
+    void invalidate (int idx) {
+        if (idx >= 0 && idx < handlers.length) {
+            handlers[idx] = compile(M.load(idx));
+        }
+    }
+
+    private Handler compile (int instrWord) {
+        int op = instrWord >>> 26;
+        int a = (instrWord >>> 21) & 0x1F;
+        int b = (instrWord >>> 16) & 0x1F;
+        int c;
+        switch (DLX.formatOf(op)) {
+            case 1:
+                c = (short) instrWord;
+                break;
+            case 2:
+                c = instrWord & 0x1F;
+                break;
+            case 3:
+                c = instrWord & 0x3FFFFFF;
+                break;
+            default:
+                c = 0;
+                break;
+        }
+        float fC = DLX.toFP32FromFP16(c);
+
+        switch (op) {
+            case DLX.ADD:    return new Add(a, b, c);
+            case DLX.ADDI:   return new AddI(a, b, c);
+            case DLX.SUB:    return new Sub(a, b, c);
+            case DLX.SUBI:   return new SubI(a, b, c);
+            case DLX.MUL:    return new Mul(a, b, c);
+            case DLX.MULI:   return new MulI(a, b, c);
+            case DLX.DIV:    return new Div(a, b, c);
+            case DLX.DIVI:   return new DivI(a, b, c);
+            case DLX.MOD:    return new Mod(a, b, c);
+            case DLX.MODI:   return new ModI(a, b, c);
+            case DLX.POW:    return new Pow(a, b, c);
+            case DLX.POWI:   return new PowI(a, b, c);
+            case DLX.CMP:    return new Cmp(a, b, c);
+            case DLX.CMPI:   return new CmpI(a, b, c);
+
+            case DLX.fADD:   return new FAdd(a, b, c);
+            case DLX.fADDI:  return new FAddI(a, b, fC);
+            case DLX.fSUB:   return new FSub(a, b, c);
+            case DLX.fSUBI:  return new FSubI(a, b, fC);
+            case DLX.fMUL:   return new FMul(a, b, c);
+            case DLX.fMULI:  return new FMulI(a, b, fC);
+            case DLX.fDIV:   return new FDiv(a, b, c);
+            case DLX.fDIVI:  return new FDivI(a, b, fC);
+            case DLX.fMOD:   return new FMod(a, b, c);
+            case DLX.fMODI:  return new FModI(a, b, fC);
+            case DLX.fCMP:   return new FCmp(a, b, c);
+            case DLX.fCMPI:  return new FCmpI(a, b, fC);
+
+            case DLX.OR:     return new Or(a, b, c);
+            case DLX.ORI:    return new OrI(a, b, c);
+            case DLX.AND:    return new And(a, b, c);
+            case DLX.ANDI:   return new AndI(a, b, c);
+            case DLX.BIC:    return new Bic(a, b, c);
+            case DLX.BICI:   return new BicI(a, b, c);
+            case DLX.XOR:    return new Xor(a, b, c);
+            case DLX.XORI:   return new XorI(a, b, c);
+            case DLX.LSH:    return new Lsh(a, b, c);
+            case DLX.LSHI:   return new LshI(a, b, c);
+            case DLX.ASH:    return new Ash(a, b, c);
+            case DLX.ASHI:   return new AshI(a, b, c);
+            case DLX.CHK:    return new Chk(a, c);
+            case DLX.CHKI:   return new ChkI(a, c);
+
+            case DLX.LDW:    return new Ldw(a, b, c);
+            case DLX.LDX:    return new Ldx(a, b, c);
+            case DLX.POP:    return new Pop(a, b, c);
+            case DLX.STW:    return new Stw(a, b, c);
+            case DLX.STX:    return new Stx(a, b, c);
+            case DLX.PSH:    return new Psh(a, b, c);
+            case DLX.ARRCPY: return new Arrcpy(a, b, c);
+
+            case DLX.BEQ:    return new Beq(a, c);
+            case DLX.BNE:    return new Bne(a, c);
+            case DLX.BLT:    return new Blt(a, c);
+            case DLX.BGE:    return new Bge(a, c);
+            case DLX.BLE:    return new Ble(a, c);
+            case DLX.BGT:    return new Bgt(a, c);
+            case DLX.BSR:    return new Bsr(c);
+            case DLX.JSR:    return new Jsr(c);
+            case DLX.RET:    return new Ret(c);
+
+            case DLX.RDI:    return new Rdi(a);
+            case DLX.RDF:    return new Rdf(a);
+            case DLX.RDB:    return new Rdb(a);
+            case DLX.WRI:    return new Wri(b);
+            case DLX.WRF:    return new Wrf(b);
+            case DLX.WRB:    return new Wrb(b);
+            case DLX.WRL:    return new Wrl();
+            case DLX.ERR:    return new Err();
+            default:         return new Unknown();
+        }
+    }
+
+// Shared Semantics ===========================================================
+
+    private float fR (int idx) {
+        return Float.intBitsToFloat(R[idx]);
+    }
+
+    private void fR (int idx, float val) {
+        R[idx] = Float.floatToIntBits(val);
+    }
+
+    private int pow (int bVal, int c) {
+        if (bVal < 0 || c < 0) {
+            err.println("DLX.execute: Illegal value (" + bVal + ")^("
+                                + c + ") in POW!");
+            machine.bug(1);
+        }
+        return (int) Math.round(Math.pow(bVal, c));
+    }
+
+    private static int cmp (int diff) {
+        if (diff < 0) {
+            return -1;
+        }
+        else if (diff > 1) {
+            return 1;
+        }
+        return diff;
+    }
+
+    private static int fCmp (float result) {
+        if (result <= -DLX.EPS) {
+            return -1;
+        }
+        else if (result >= DLX.EPS) {
+            return 1;
+        }
+        return 0;
+    }
+
+    private int lsh (int bVal, int c) {
+        if (c < -31 || c > 31) {
+            err.println("DLX.execute: Illegal value " + c + " in LSH!");
+            machine.bug(1);
+        }
+        return (c < 0) ? bVal >>> -c : bVal << c;
+    }
+
+    private int ash (int bVal, int c) {
+        if (c < -31 || c > 31) {
+            err.println("DLX.execute: Illegal value " + c + " in ASH!");
+            machine.bug(1);
+        }
+        return (c < 0) ? bVal >> -c : bVal << c;
+    }
+
+    private void chk (int pc, int a, int c) {
+        if (R[a] < 0) {
+            err.println("DLX.execute: " + (4*pc) + " :: R[" + a + "] == "
+                                + R[a] + " < 0");
+            machine.bug(39);
+        }
+        else if (R[a] >= c) {
+            err.println("DLX.execute: " + (4*pc) + " :: R[" + a + "] == "
+                                + R[a] + " >= " + c);
+            machine.bug(39);
+        }
+    }
+
+    private void store (int idx, int val) {
+        M.store(idx, val);
+        machine.invalidate(idx);
+    }
+
+    private int target (int nextPC, int bugCode) {
+        if (nextPC < 0 || nextPC >= handlers.length) {
+            err.println("DLX.execute: " + (4*nextPC) + " is no address "
+                                + "in code [0, " + (4*handlers.length) + ").");
+            machine.bug(bugCode);
+        }
+        return nextPC;
+    }
+
+// Arithmetic =================================================================
+
+    private final class Add extends Handler {
+        private final int a, b, c;
+        Add (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = R[b] + R[c]; return pc + 1; }
+    }
+
+    private final class AddI extends Handler {
+        private final int a, b, c;
+        AddI (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = R[b] + c; return pc + 1; }
+    }
+
+    private final class Sub extends Handler {
+        private final int a, b, c;
+        Sub (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = R[b] - R[c]; return pc + 1; }
+    }
+
+    private final class SubI extends Handler {
+        private final int a, b, c;
+        SubI (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = R[b] - c; return pc + 1; }
+    }
+
+    private final class Mul extends Handler {
+        private final int a, b, c;
+        Mul (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = R[b] * R[c]; return pc + 1; }
+    }
+
+    private final class MulI extends Handler {
+        private final int a, b, c;
+        MulI (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = R[b] * c; return pc + 1; }
+    }
+
+    private final class Div extends Handler {
+        private final int a, b, c;
+        Div (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = R[b] / R[c]; return pc + 1; }
+    }
+
+    private final class DivI extends Handler {
+        private final int a, b, c;
+        DivI (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = R[b] / c; return pc + 1; }
+    }
+
+    private final class Mod extends Handler {
+        private final int a, b, c;
+        Mod (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = R[b] % R[c]; return pc + 1; }
+    }
+
+    private final class ModI extends Handler {
+        private final int a, b, c;
+        ModI (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = R[b] % c; return pc + 1; }
+    }
+
+    private final class Pow extends Handler {
+        private final int a, b, c;
+        Pow (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = pow(R[b], R[c]); return pc + 1; }
+    }
+
+    private final class PowI extends Handler {
+        private final int a, b, c;
+        PowI (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = pow(R[b], c); return pc + 1; }
+    }
+
+    private final class Cmp extends Handler {
+        private final int a, b, c;
+        Cmp (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = cmp(R[b] - R[c]); return pc + 1; }
+    }
+
+    private final class CmpI extends Handler {
+        private final int a, b, c;
+        CmpI (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = cmp(R[b] - c); return pc + 1; }
+    }
+
+// Floating-Point Arithmetic ==================================================
+
+    private final class FAdd extends Handler {
+        private final int a, b, c;
+        FAdd (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { fR(a, fR(b) + fR(c)); return pc + 1; }
+    }
+
+    private final class FAddI extends Handler {
+        private final int a, b;
+        private final float fC;
+        FAddI (int a, int b, float fC) { this.a = a; this.b = b; this.fC = fC; }
+        int run (int pc) { fR(a, fR(b) + fC); return pc + 1; }
+    }
+
+    private final class FSub extends Handler {
+        private final int a, b, c;
+        FSub (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { fR(a, fR(b) - fR(c)); return pc + 1; }
+    }
+
+    private final class FSubI extends Handler {
+        private final int a, b;
+        private final float fC;
+        FSubI (int a, int b, float fC) { this.a = a; this.b = b; this.fC = fC; }
+        int run (int pc) { fR(a, fR(b) - fC); return pc + 1; }
+    }
+
+    private final class FMul extends Handler {
+        private final int a, b, c;
+        FMul (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { fR(a, fR(b) * fR(c)); return pc + 1; }
+    }
+
+    private final class FMulI extends Handler {
+        private final int a, b;
+        private final float fC;
+        FMulI (int a, int b, float fC) { this.a = a; this.b = b; this.fC = fC; }
+        int run (int pc) { fR(a, fR(b) * fC); return pc + 1; }
+    }
+
+    private final class FDiv extends Handler {
+        private final int a, b, c;
+        FDiv (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { fR(a, fR(b) / fR(c)); return pc + 1; }
+    }
+
+    private final class FDivI extends Handler {
+        private final int a, b;
+        private final float fC;
+        FDivI (int a, int b, float fC) { this.a = a; this.b = b; this.fC = fC; }
+        int run (int pc) { fR(a, fR(b) / fC); return pc + 1; }
+    }
+
+    private final class FMod extends Handler {
+        private final int a, b, c;
+        FMod (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { fR(a, fR(b) % fR(c)); return pc + 1; }
+    }
+
+    private final class FModI extends Handler {
+        private final int a, b;
+        private final float fC;
+        FModI (int a, int b, float fC) { this.a = a; this.b = b; this.fC = fC; }
+        int run (int pc) { fR(a, fR(b) % fC); return pc + 1; }
+    }
+
+    private final class FCmp extends Handler {
+        private final int a, b, c;
+        FCmp (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = fCmp(fR(b) - fR(c)); return pc + 1; }
+    }
+
+    private final class FCmpI extends Handler {
+        private final int a, b;
+        private final float fC;
+        FCmpI (int a, int b, float fC) { this.a = a; this.b = b; this.fC = fC; }
+        int run (int pc) { R[a] = fCmp(fR(b) - fC); return pc + 1; }
+    }
+
+// Logic and Shifts ===========================================================
+
+    private final class Or extends Handler {
+        private final int a, b, c;
+        Or (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = R[b] | R[c]; return pc + 1; }
+    }
+
+    private final class OrI extends Handler {
+        private final int a, b, c;
+        OrI (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = R[b] | c; return pc + 1; }
+    }
+
+    private final class And extends Handler {
+        private final int a, b, c;
+        And (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = R[b] & R[c]; return pc + 1; }
+    }
+
+    private final class AndI extends Handler {
+        private final int a, b, c;
+        AndI (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = R[b] & c; return pc + 1; }
+    }
+
+    private final class Bic extends Handler {
+        private final int a, b, c;
+        Bic (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = R[b] & ~R[c]; return pc + 1; }
+    }
+
+    private final class BicI extends Handler {
+        private final int a, b, c;
+        BicI (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = R[b] & ~c; return pc + 1; }
+    }
+
+    private final class Xor extends Handler {
+        private final int a, b, c;
+        Xor (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = R[b] ^ R[c]; return pc + 1; }
+    }
+
+    private final class XorI extends Handler {
+        private final int a, b, c;
+        XorI (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = R[b] ^ c; return pc + 1; }
+    }
+
+    private final class Lsh extends Handler {
+        private final int a, b, c;
+        Lsh (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = lsh(R[b], R[c]); return pc + 1; }
+    }
+
+    private final class LshI extends Handler {
+        private final int a, b, c;
+        LshI (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = lsh(R[b], c); return pc + 1; }
+    }
+
+    private final class Ash extends Handler {
+        private final int a, b, c;
+        Ash (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = ash(R[b], R[c]); return pc + 1; }
+    }
+
+    private final class AshI extends Handler {
+        private final int a, b, c;
+        AshI (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) { R[a] = ash(R[b], c); return pc + 1; }
+    }
+
+    private final class Chk extends Handler {
+        private final int a, c;
+        Chk (int a, int c) { this.a = a; this.c = c; }
+        int run (int pc) { chk(pc, a, R[c]); return pc + 1; }
+    }
+
+    private final class ChkI extends Handler {
+        private final int a, c;
+        ChkI (int a, int c) { this.a = a; this.c = c; }
+        int run (int pc) { chk(pc, a, c); return pc + 1; }
+    }
+
+// Load/Store =================================================================
+
+    private final class Ldw extends Handler {
+        private final int a, b, c;
+        Ldw (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) {
+            machine.checkAccess(pc, b, (R[b] + c) / 4);
+            R[a] = M.load((R[b] + c) / 4);
+            return pc + 1;
+        }
+    }
+
+    private final class Ldx extends Handler {
+        private final int a, b, c;
+        Ldx (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) {
+            machine.checkAccess(pc, b, (R[b] + R[c]) / 4);
+            R[a] = M.load((R[b] + R[c]) / 4);
+            return pc + 1;
+        }
+    }
+
+    private final class Pop extends Handler {
+        private final int a, b, c;
+        Pop (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) {
+            machine.checkAccess(pc, b, R[b] / 4);
+            R[a] = M.load(R[b] / 4);
+            R[b] = R[b] + c;
+            return pc + 1;
+        }
+    }
+
+    private final class Stw extends Handler {
+        private final int a, b, c;
+        Stw (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) {
+            machine.checkAccess(pc, b, (R[b] + c) / 4);
+            store((R[b] + c) / 4, R[a]);
+            return pc + 1;
+        }
+    }
+
+    private final class Stx extends Handler {
+        private final int a, b, c;
+        Stx (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) {
+            machine.checkAccess(pc, b, (R[b] + R[c]) / 4);
+            store((R[b] + R[c]) / 4, R[a]);
+            return pc + 1;
+        }
+    }
+
+    private final class Psh extends Handler {
+        private final int a, b, c;
+        Psh (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) {
+            R[b] = R[b] + c;
+            machine.checkPush(pc, b);
+            store(R[b] / 4, R[a]);
+            return pc + 1;
+        }
+    }
+
+    private final class Arrcpy extends Handler {
+        private final int a, b, c;
+        Arrcpy (int a, int b, int c) { this.a = a; this.b = b; this.c = c; }
+        int run (int pc) {
+            int count = R[c];
+            for (int i = 0; i < count; i++) {
+                store((R[a] - 4*i) / 4, M.load((R[b] - 4*i) / 4));
+            }
+            return pc + 1;
+        }
+    }
+
+// Control ====================================================================
+
+    private final class Beq extends Handler {
+        private final int a, c;
+        Beq (int a, int c) { this.a = a; this.c = c; }
+        int run (int pc) { return target(R[a] == 0 ? pc + c : pc + 1, DLX.BEQ); }
+    }
+
+    private final class Bne extends Handler {
+        private final int a, c;
+        Bne (int a, int c) { this.a = a; this.c = c; }
+        int run (int pc) { return target(R[a] != 0 ? pc + c : pc + 1, DLX.BNE); }
+    }
+
+    private final class Blt extends Handler {
+        private final int a, c;
+        Blt (int a, int c) { this.a = a; this.c = c; }
+        int run (int pc) { return target(R[a] < 0 ? pc + c : pc + 1, DLX.BLT); }
+    }
+
+    private final class Bge extends Handler {
+        private final int a, c;
+        Bge (int a, int c) { this.a = a; this.c = c; }
+        int run (int pc) { return target(R[a] >= 0 ? pc + c : pc + 1, DLX.BGE); }
+    }
+
+    private final class Ble extends Handler {
+        private final int a, c;
+        Ble (int a, int c) { this.a = a; this.c = c; }
+        int run (int pc) { return target(R[a] <= 0 ? pc + c : pc + 1, DLX.BLE); }
+    }
+
+    private final class Bgt extends Handler {
+        private final int a, c;
+        Bgt (int a, int c) { this.a = a; this.c = c; }
+        int run (int pc) { return target(R[a] > 0 ? pc + c : pc + 1, DLX.BGT); }
+    }
+
+    private final class Bsr extends Handler {
+        private final int c;
+        Bsr (int c) { this.c = c; }
+        int run (int pc) {
+            R[31] = 4 * (pc + 1);
+            return target(pc + c, DLX.BSR);
+        }
+    }
+
+    private final class Jsr extends Handler {
+        private final int c;
+        Jsr (int c) { this.c = c; }
+        int run (int pc) {
+            R[31] = 4 * (pc + 1);
+            return target(c / 4, DLX.JSR);
+        }
+    }
+
+    private final class Ret extends Handler {
+        private final int c;
+        Ret (int c) { this.c = c; }
+        int run (int pc) {
+            if (c == 0) {
+                return -1;
+            }
+            return target(R[c] / 4, DLX.RET);
+        }
+    }
+
+// Input/Output ===============================================================
+
+    private final class Rdi extends Handler {
+        private final int a;
+        Rdi (int a) { this.a = a; }
+        int run (int pc) throws IOException {
+            out.writeAscii("int? ");
+            R[a] = machine.readInt();
+            return pc + 1;
+        }
+    }
+
+    private final class Rdf extends Handler {
+        private final int a;
+        Rdf (int a) { this.a = a; }
+        int run (int pc) throws IOException {
+            out.writeAscii("float? ");
+            fR(a, machine.readFloat());
+            return pc + 1;
+        }
+    }
+
+    private final class Rdb extends Handler {
+        private final int a;
+        Rdb (int a) { this.a = a; }
+        int run (int pc) throws IOException {
+            out.writeAscii("true or false? ");
+            R[a] = (machine.readBoolean() ? 1 : 0);
+            return pc + 1;
+        }
+    }
+
+    private final class Wri extends Handler {
+        private final int b;
+        Wri (int b) { this.b = b; }
+        int run (int pc) {
+            out.writeInt(R[b]);
+            out.writeByte(' ');
+            return pc + 1;
+        }
+    }
+
+    private final class Wrf extends Handler {
+        private final int b;
+        Wrf (int b) { this.b = b; }
+        int run (int pc) {
+            out.writeFloat2(fR(b));
+            out.writeByte(' ');
+            return pc + 1;
+        }
+    }
+
+    private final class Wrb extends Handler {
+        private final int b;
+        Wrb (int b) { this.b = b; }
+        int run (int pc) {
+            out.writeBoolean(R[b] == 1);
+            out.writeByte(' ');
+            return pc + 1;
+        }
+    }
+
+    private final class Wrl extends Handler {
+        int run (int pc) { out.newline(); return pc + 1; }
+    }
+
+    private final class Err extends Handler {
+        int run (int pc) {
+            err.println("Illegal instruction: (" + pc + ")!");
+            err.println("Program dropped off the end!");
+            return pc + 1;
+        }
+    }
+
+    private final class Unknown extends Handler {
+        int run (int pc) {
+            err.println("DLX.execute: Unknown opcode encountered!");
+            machine.bug(2);
+            return pc + 1;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package co2;
+
+public class MachineError extends Error {
+    private static final long serialVersionUID = 1L;
+    private final int code;
+
+    public MachineError (int code) {
+        super("DLX machine stopped with bug(" + code + ").");
+        this.code = code;
+    }
+
+    public int code () {
+        return code;
+    }
+}
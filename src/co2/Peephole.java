@@ -0,0 +1,349 @@
+package co2;
+
+import java.util.Arrays;
+
+// Peephole optimization of the DLX program of Compiler.genCode. A window slides over the
+// instructions and every rule of RULES may rewrite the one or two instructions in it; passes
+// repeat until no rule applies anymore. The code templates of instructionToMachineCode leave
+// plenty to do: a spilled value stored and loaded again right away, constants put into a
+// register just to be used by the next instruction, jumps to jumps and arithmetic that changes
+// nothing.
+//
+// Deleted instructions are only marked while the passes run, and branch and JSR targets are kept
+// as absolute positions, so a target whose instruction was deleted moves on to the next one
+// left. optimize() packs the program and encodes every target again in one pass at the end.
+public class Peephole {
+
+    // rewrites the window starting at the instruction at position at, true if it changed anything
+    private interface Rule {
+        boolean apply (Peephole peephole, int at);
+    }
+
+    private static final Rule[] RULES = {
+        Peephole::removeNoOp,
+        Peephole::shortenJumpChain,
+        Peephole::forwardStoredValue,
+        Peephole::removeStoreOfLoadedValue,
+        Peephole::foldImmediate,
+        Peephole::removeUnreachable,
+    };
+
+    private final int[] code;
+    private final boolean[] deleted;
+    // position a branch, BSR or JSR goes to, -1 for every other instruction
+    private final int[] targets;
+    // instructions control reaches other than by falling through
+    private final boolean[] isLabel;
+    // registers live after each instruction, one bit per register
+    private final int[] liveOut;
+    // position in the optimized program, valid after optimize()
+    private final int[] newPositions;
+
+    public Peephole (int[] program) {
+        code = program.clone();
+        deleted = new boolean[code.length];
+        targets = new int[code.length];
+        isLabel = new boolean[code.length];
+        liveOut = new int[code.length];
+        newPositions = new int[code.length + 1];
+        for (int i = 0; i < code.length; i++) {
+            int op = opOf(code[i]);
+            if (isBranch(op) || op == DLX.BSR) {
+                targets[i] = i + (short) code[i];
+            }
+            else if (op == DLX.JSR) {
+                targets[i] = (code[i] & 0x3FFFFFF) / 4;
+            }
+            else {
+                targets[i] = -1;
+            }
+        }
+    }
+
+    public int[] optimize () {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            findLabels();
+            computeLiveness();
+            for (int at = next(-1); at < code.length; at = next(at)) {
+                for (Rule rule : RULES) {
+                    if (!deleted[at] && rule.apply(this, at)) {
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        int numInstructions = 0;
+        for (int i = 0; i < code.length; i++) {
+            newPositions[i] = numInstructions;
+            if (!deleted[i]) {
+                numInstructions++;
+            }
+        }
+        newPositions[code.length] = numInstructions;
+
+        // relocation: targets of deleted instructions are the next instruction left
+        int[] optimized = new int[numInstructions];
+        for (int i = 0; i < code.length; i++) {
+            if (deleted[i]) {
+                continue;
+            }
+            int op = opOf(code[i]);
+            int instruction = code[i];
+            if (isBranch(op)) {
+                instruction = DLX.assemble(op, aOf(code[i]), newPosition(targets[i]) - newPositions[i]);
+            }
+            else if (op == DLX.BSR) {
+                instruction = DLX.assemble(op, newPosition(targets[i]) - newPositions[i]);
+            }
+            else if (op == DLX.JSR) {
+                instruction = DLX.assemble(op, 4 * newPosition(targets[i]));
+            }
+            optimized[newPositions[i]] = instruction;
+        }
+        return optimized;
+    }
+
+    // position the instruction at oldPosition, or the next one left if it was deleted, has in
+    // the optimized program
+    public int newPosition (int oldPosition) {
+        return newPositions[resolve(oldPosition)];
+    }
+
+    // ADDI r, r, 0 and friends, and branches to the next instruction
+    private boolean removeNoOp (int at) {
+        int op = opOf(code[at]);
+        int a = aOf(code[at]);
+        int b = bOf(code[at]);
+        int c = cOf(code[at]);
+        boolean isNoOp;
+        switch (op) {
+            case DLX.ADDI:
+            case DLX.SUBI:
+            case DLX.ORI:
+            case DLX.XORI:
+            case DLX.BICI:
+            case DLX.LSHI:
+            case DLX.ASHI:
+                isNoOp = a == b && c == 0;
+                break;
+            case DLX.MULI:
+            case DLX.DIVI:
+                isNoOp = a == b && c == 1;
+                break;
+            case DLX.ADD:
+            case DLX.OR:
+            case DLX.XOR:
+                isNoOp = (a == b && (c & 0x1F) == 0) || (a == (c & 0x1F) && b == 0);
+                break;
+            case DLX.SUB:
+                isNoOp = a == b && (c & 0x1F) == 0;
+                break;
+            default:
+                isNoOp = isBranch(op) && resolve(targets[at]) == next(at);
+                break;
+        }
+        if (isNoOp) {
+            delete(at);
+        }
+        return isNoOp;
+    }
+
+    // a branch to an unconditional jump goes to its target right away, a jump to a RET is a RET
+    private boolean shortenJumpChain (int at) {
+        if (!isBranch(opOf(code[at]))) {
+            return false;
+        }
+        int target = resolve(targets[at]);
+        if (target >= code.length) {
+            return false;
+        }
+        if (isJump(code[target]) && resolve(targets[target]) != target) {
+            targets[at] = targets[target];
+            return true;
+        }
+        if (isJump(code[at]) && opOf(code[target]) == DLX.RET) {
+            code[at] = code[target];
+            targets[at] = -1;
+            return true;
+        }
+        return false;
+    }
+
+    // STW a, b, c; LDW d, b, c loads what was just stored: d = a, or nothing if d is a
+    private boolean forwardStoredValue (int at) {
+        int load = next(at);
+        if (opOf(code[at]) != DLX.STW || load >= code.length || isLabel[load] || opOf(code[load]) != DLX.LDW
+                || bOf(code[load]) != bOf(code[at]) || cOf(code[load]) != cOf(code[at])) {
+            return false;
+        }
+        if (aOf(code[load]) == aOf(code[at])) {
+            delete(load);
+        }
+        else {
+            code[load] = DLX.assemble(DLX.ADD, aOf(code[load]), 0, aOf(code[at]));
+        }
+        return true;
+    }
+
+    // LDW a, b, c; STW a, b, c stores back what memory holds already
+    private boolean removeStoreOfLoadedValue (int at) {
+        int store = next(at);
+        if (opOf(code[at]) != DLX.LDW || store >= code.length || isLabel[store] || opOf(code[store]) != DLX.STW
+                || aOf(code[at]) == bOf(code[at]) || (code[store] & 0x3FFFFFF) != (code[at] & 0x3FFFFFF)) {
+            return false;
+        }
+        delete(store);
+        return true;
+    }
+
+    // ADDI r, R0, k; OP d, x, r becomes OPI d, x, k when r is dead after it. Either operand of a
+    // commutative OP can be r.
+    private boolean foldImmediate (int at) {
+        int use = next(at);
+        if (opOf(code[at]) != DLX.ADDI || bOf(code[at]) != 0 || aOf(code[at]) == 0 || use >= code.length || isLabel[use]) {
+            return false;
+        }
+        int register = aOf(code[at]);
+        int constant = cOf(code[at]);
+        int op = opOf(code[use]);
+        int dest = aOf(code[use]);
+        int left = bOf(code[use]);
+        int right = code[use] & 0x1F;
+        if (!hasImmediateForm(op) || (dest != register && (liveOut[use] & (1 << register)) != 0)) {
+            return false;
+        }
+        if ((op == DLX.LSH || op == DLX.ASH) && (constant < -31 || constant > 31)) {
+            return false;
+        }
+        if (right == register && left != register) {
+            code[use] = DLX.assemble(op + DLX.ADDI, dest, left, constant);
+        }
+        else if (left == register && right != register && isCommutative(op)) {
+            code[use] = DLX.assemble(op + DLX.ADDI, dest, right, constant);
+        }
+        else {
+            return false;
+        }
+        delete(at);
+        return true;
+    }
+
+    // nothing reaches an instruction behind an unconditional jump or RET unless it is a label
+    private boolean removeUnreachable (int at) {
+        int previous = previous(at);
+        if (previous < 0 || isLabel[at] || !(isJump(code[previous]) || opOf(code[previous]) == DLX.RET)) {
+            return false;
+        }
+        delete(at);
+        return true;
+    }
+
+    // a label moves on to the next instruction, control still gets there
+    private void delete (int position) {
+        deleted[position] = true;
+        if (isLabel[position] && next(position) < code.length) {
+            isLabel[next(position)] = true;
+        }
+    }
+
+    private void findLabels () {
+        Arrays.fill(isLabel, false);
+        if (code.length > 0) {
+            isLabel[0] = true;
+        }
+        for (int i = 0; i < code.length; i++) {
+            if (!deleted[i] && targets[i] >= 0 && resolve(targets[i]) < code.length) {
+                isLabel[resolve(targets[i])] = true;
+            }
+        }
+    }
+
+    // backwards over the instructions until nothing changes. Control leaving the code through a
+    // JSR, BSR or RET counts as reading every register.
+    private void computeLiveness () {
+        int[] liveIn = new int[code.length];
+        Arrays.fill(liveOut, 0);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = code.length - 1; i >= 0; i--) {
+                if (deleted[i]) {
+                    continue;
+                }
+                int out = 0;
+                int op = opOf(code[i]);
+                int fallThrough = next(i);
+                if (!isJump(code[i]) && op != DLX.RET && fallThrough < code.length) {
+                    out |= liveIn[fallThrough];
+                }
+                if (isBranch(op) && resolve(targets[i]) < code.length) {
+                    out |= liveIn[resolve(targets[i])];
+                }
+                int in = DLX.usesOf(code[i]) | (out & ~DLX.defsOf(code[i]));
+                if (out != liveOut[i] || in != liveIn[i]) {
+                    liveOut[i] = out;
+                    liveIn[i] = in;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    // integer register arithmetic with an F1 twin at op + ADDI
+    private static boolean hasImmediateForm (int op) {
+        return (op >= DLX.ADD && op <= DLX.CMP) || (op >= DLX.OR && op <= DLX.ASH);
+    }
+
+    private static boolean isCommutative (int op) {
+        return op == DLX.ADD || op == DLX.MUL || op == DLX.OR || op == DLX.AND || op == DLX.XOR;
+    }
+
+    private static boolean isBranch (int op) {
+        return op >= DLX.BEQ && op <= DLX.BGT;
+    }
+
+    // BEQ R0 is always taken
+    private static boolean isJump (int instruction) {
+        return opOf(instruction) == DLX.BEQ && aOf(instruction) == 0;
+    }
+
+    // first instruction left at or after position
+    private int resolve (int position) {
+        while (position < code.length && deleted[position]) {
+            position++;
+        }
+        return position;
+    }
+
+    private int next (int position) {
+        return resolve(position + 1);
+    }
+
+    private int previous (int position) {
+        position--;
+        while (position >= 0 && deleted[position]) {
+            position--;
+        }
+        return position;
+    }
+
+    private static int opOf (int instruction) {
+        return instruction >>> 26;
+    }
+
+    private static int aOf (int instruction) {
+        return (instruction >>> 21) & 0x1F;
+    }
+
+    private static int bOf (int instruction) {
+        return (instruction >>> 16) & 0x1F;
+    }
+
+    // F1 immediate, sign extended
+    private static int cOf (int instruction) {
+        return (short) instruction;
+    }
+}
@@ -0,0 +1,290 @@
+package co2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+// List scheduling of the DLX program of Compiler.genCode for the pipeline model of DLX.latencyOf.
+// The program is cut into regions at every block start, branch or call target and after every
+// branch, jump, call or return; instructions only move inside their region. The branch or return
+// ending a region stays last, so no position any other instruction refers to ever changes and
+// nothing needs relocating.
+//
+// In a region, an instruction depends on the last earlier writer of every register it reads, by
+// that writer's latency, and it stays behind every earlier reader and writer of the registers it
+// writes. Stores stay in order with the loads and stores that might touch the same word, and
+// reads and writes of the input and output stay in order with each other and with every
+// instruction that may halt the machine (division, loads, stores, CHK). The scheduler then issues
+// cycle by cycle: of the instructions whose operands are ready it takes the one with the longest
+// latency path to the end of the region, so long multiplies, divides and loads start first and
+// independent work fills their delay. A region whose schedule the model does not find faster
+// keeps its order.
+public class Scheduler {
+
+    private final int[] code;
+    // a region starts at every position set here
+    private final boolean[] isRegionStart;
+
+    public Scheduler (int[] program, Collection<Integer> blockStarts) {
+        code = program.clone();
+        isRegionStart = new boolean[code.length + 1];
+        isRegionStart[0] = true;
+        isRegionStart[code.length] = true;
+        for (int position : blockStarts) {
+            if (position >= 0 && position < code.length) {
+                isRegionStart[position] = true;
+            }
+        }
+        for (int i = 0; i < code.length; i++) {
+            int op = opOf(code[i]);
+            int target = -1;
+            if (isBranch(op) || op == DLX.BSR) {
+                target = i + (short) code[i];
+            }
+            else if (op == DLX.JSR) {
+                target = (code[i] & 0x3FFFFFF) / 4;
+            }
+            if (target >= 0 && target < code.length) {
+                isRegionStart[target] = true;
+            }
+            if (isControl(op)) {
+                isRegionStart[i + 1] = true;
+            }
+        }
+    }
+
+    public int[] schedule () {
+        int start = 0;
+        for (int end = 1; end <= code.length; end++) {
+            if (isRegionStart[end]) {
+                scheduleRegion(start, end);
+                start = end;
+            }
+        }
+        return code;
+    }
+
+    // reorders code[start, end)
+    private void scheduleRegion (int start, int end) {
+        int size = end - start;
+        if (size < 3) {
+            return;
+        }
+
+        // dependence DAG: successors with the minimum distance in cycles, predecessor counts
+        List<List<int[]>> successors = new ArrayList<>();
+        int[] numPredecessors = new int[size];
+        for (int i = 0; i < size; i++) {
+            successors.add(new ArrayList<>());
+        }
+        int[] lastWriter = new int[32];
+        Arrays.fill(lastWriter, -1);
+        List<List<Integer>> readersSinceWrite = new ArrayList<>();
+        for (int r = 0; r < 32; r++) {
+            readersSinceWrite.add(new ArrayList<>());
+        }
+        int lastObservable = -1;
+        List<Integer> haltingSinceObservable = new ArrayList<>();
+        for (int j = 0; j < size; j++) {
+            int instruction = code[start + j];
+            int op = opOf(instruction);
+            int uses = DLX.usesOf(instruction);
+            int defs = DLX.defsOf(instruction);
+            for (int r = 1; r < 32; r++) {
+                if ((uses & (1 << r)) != 0 && lastWriter[r] >= 0) {
+                    addEdge(successors, numPredecessors, lastWriter[r], j, DLX.latencyOf(opOf(code[start + lastWriter[r]])));
+                }
+            }
+            for (int r = 1; r < 32; r++) {
+                if ((defs & (1 << r)) != 0) {
+                    if (lastWriter[r] >= 0) {
+                        addEdge(successors, numPredecessors, lastWriter[r], j, 1);
+                    }
+                    for (int reader : readersSinceWrite.get(r)) {
+                        addEdge(successors, numPredecessors, reader, j, 1);
+                    }
+                }
+            }
+            for (int r = 1; r < 32; r++) {
+                if ((defs & (1 << r)) != 0) {
+                    lastWriter[r] = j;
+                    readersSinceWrite.get(r).clear();
+                }
+                else if ((uses & (1 << r)) != 0) {
+                    readersSinceWrite.get(r).add(j);
+                }
+            }
+
+            if (isMemoryAccess(op)) {
+                for (int i = 0; i < j; i++) {
+                    int earlier = code[start + i];
+                    if (isMemoryAccess(opOf(earlier)) && (isStore(op) || isStore(opOf(earlier)))
+                            && mayAlias(start + i, start + j)) {
+                        addEdge(successors, numPredecessors, i, j, 1);
+                    }
+                }
+            }
+            if (isObservable(op)) {
+                if (lastObservable >= 0) {
+                    addEdge(successors, numPredecessors, lastObservable, j, 1);
+                }
+                for (int halting : haltingSinceObservable) {
+                    addEdge(successors, numPredecessors, halting, j, 1);
+                }
+                lastObservable = j;
+                haltingSinceObservable.clear();
+            }
+            else if (mayHalt(op)) {
+                if (lastObservable >= 0) {
+                    addEdge(successors, numPredecessors, lastObservable, j, 1);
+                }
+                haltingSinceObservable.add(j);
+            }
+
+            // the branch or return ending the region comes after everything else
+            if (j == size - 1 && isControl(op)) {
+                for (int i = 0; i < j; i++) {
+                    addEdge(successors, numPredecessors, i, j, 0);
+                }
+            }
+        }
+
+        // priority: longest latency path from the instruction to the end of the region
+        int[] priority = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            priority[i] = DLX.latencyOf(opOf(code[start + i]));
+            for (int[] edge : successors.get(i)) {
+                priority[i] = Math.max(priority[i], edge[1] + priority[edge[0]]);
+            }
+        }
+
+        // cycle by cycle, the ready instruction with the highest priority issues
+        int[] order = new int[size];
+        int[] earliest = new int[size];
+        boolean[] isScheduled = new boolean[size];
+        int cycle = 0;
+        for (int n = 0; n < size; n++) {
+            int best = -1;
+            int bestStart = Integer.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                if (isScheduled[i] || numPredecessors[i] > 0) {
+                    continue;
+                }
+                int issue = Math.max(cycle, earliest[i]);
+                if (best < 0 || issue < bestStart || (issue == bestStart && priority[i] > priority[best])) {
+                    best = i;
+                    bestStart = issue;
+                }
+            }
+            order[n] = best;
+            isScheduled[best] = true;
+            cycle = bestStart + 1;
+            for (int[] edge : successors.get(best)) {
+                numPredecessors[edge[0]]--;
+                earliest[edge[0]] = Math.max(earliest[edge[0]], bestStart + edge[1]);
+            }
+        }
+
+        int[] original = Arrays.copyOfRange(code, start, end);
+        int[] scheduled = new int[size];
+        for (int n = 0; n < size; n++) {
+            scheduled[n] = original[order[n]];
+        }
+        if (cyclesOf(scheduled) < cyclesOf(original)) {
+            System.arraycopy(scheduled, 0, code, start, size);
+        }
+    }
+
+    private static void addEdge (List<List<int[]>> successors, int[] numPredecessors, int from, int to, int distance) {
+        for (int[] edge : successors.get(from)) {
+            if (edge[0] == to) {
+                edge[1] = Math.max(edge[1], distance);
+                return;
+            }
+        }
+        successors.get(from).add(new int[] {to, distance});
+        numPredecessors[to]++;
+    }
+
+    // cycles the pipeline model takes for the instructions from an idle pipeline until the last
+    // one issued and every result is ready
+    static int cyclesOf (int[] instructions) {
+        int[] ready = new int[32];
+        int issue = -1;
+        int done = 0;
+        for (int instruction : instructions) {
+            issue++;
+            int uses = DLX.usesOf(instruction);
+            for (int r = 1; r < 32; r++) {
+                if ((uses & (1 << r)) != 0) {
+                    issue = Math.max(issue, ready[r]);
+                }
+            }
+            int defs = DLX.defsOf(instruction);
+            for (int r = 1; r < 32; r++) {
+                if ((defs & (1 << r)) != 0) {
+                    ready[r] = issue + DLX.latencyOf(opOf(instruction));
+                    done = Math.max(done, ready[r]);
+                }
+            }
+        }
+        return Math.max(done, issue + 1);
+    }
+
+    // LDW and STW off the same base register, which nothing between them writes, touch different
+    // words when their offsets differ
+    private boolean mayAlias (int first, int second) {
+        int op1 = opOf(code[first]);
+        int op2 = opOf(code[second]);
+        if ((op1 != DLX.LDW && op1 != DLX.STW) || (op2 != DLX.LDW && op2 != DLX.STW)) {
+            return true;
+        }
+        int base = bOf(code[first]);
+        if (base != bOf(code[second])) {
+            return true;
+        }
+        for (int i = first; i < second; i++) {
+            if ((DLX.defsOf(code[i]) & (1 << base)) != 0) {
+                return true;
+            }
+        }
+        return (short) code[first] == (short) code[second];
+    }
+
+    private static boolean isMemoryAccess (int op) {
+        return (op >= DLX.LDW && op <= DLX.ARRCPY);
+    }
+
+    private static boolean isStore (int op) {
+        return op == DLX.STW || op == DLX.STX || op == DLX.PSH || op == DLX.ARRCPY;
+    }
+
+    // input and output
+    private static boolean isObservable (int op) {
+        return op >= DLX.RDI && op <= DLX.WRL;
+    }
+
+    // instructions the machine may stop at with an error, they stay on their side of the output
+    private static boolean mayHalt (int op) {
+        return op == DLX.DIV || op == DLX.MOD || op == DLX.POW || op == DLX.DIVI || op == DLX.MODI || op == DLX.POWI
+                || op == DLX.LSH || op == DLX.ASH || op == DLX.CHK || op == DLX.CHKI || isMemoryAccess(op) || op == DLX.ERR;
+    }
+
+    private static boolean isBranch (int op) {
+        return op >= DLX.BEQ && op <= DLX.BGT;
+    }
+
+    // instructions after which control may continue elsewhere
+    private static boolean isControl (int op) {
+        return isBranch(op) || op == DLX.BSR || op == DLX.JSR || op == DLX.RET || op == DLX.ERR;
+    }
+
+    private static int opOf (int instruction) {
+        return instruction >>> 26;
+    }
+
+    private static int bOf (int instruction) {
+        return (instruction >>> 16) & 0x1F;
+    }
+}
@@ -2,12 +2,16 @@ package ir.cfg;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Iterator;
 import ir.tac.TAC;
 import ir.tac.TACList;
+import ir.tac.Variable;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class BasicBlock extends Block implements Iterable<TAC> {
     private int num; // block number;
@@ -16,6 +20,9 @@ public class BasicBlock extends Block implements Iterable<TAC> {
     // private List<BasicBlock> successors;
     private Map<BasicBlock, String> successors;
     private HashMap<String, BasicBlock> functionsMap;
+    // function entry only: the parameters in order, and every variable only the function knows
+    private List<Variable> parameters = new ArrayList<>();
+    private Set<String> localVariables = new HashSet<>();
     private ArrayList<Integer> machineInstructions;
     private int machineInstructionsStartingPosition;
 
@@ -35,7 +42,7 @@ public class BasicBlock extends Block implements Iterable<TAC> {
             this.predecessors = new ArrayList<>();
         }
         if (this.successors == null) {
-            this.successors = new HashMap<>();
+            this.successors = new LinkedHashMap<>();
         }
     }
 
@@ -53,7 +60,7 @@ public class BasicBlock extends Block implements Iterable<TAC> {
             this.predecessors = new ArrayList<>();
         }
         if (this.successors == null) {
-            this.successors = new HashMap<>();
+            this.successors = new LinkedHashMap<>();
         }
     }
 
@@ -156,6 +163,22 @@ public class BasicBlock extends Block implements Iterable<TAC> {
         functionsMap.remove(functionName);
     }    
 
+    public List<Variable> getParameters() {
+        return parameters;
+    }
+
+    public void setParameters(List<Variable> parameters) {
+        this.parameters = parameters;
+    }
+
+    public Set<String> getLocalVariables() {
+        return localVariables;
+    }
+
+    public void setLocalVariables(Set<String> localVariables) {
+        this.localVariables = localVariables;
+    }
+
     @Override
     public Iterator<TAC> iterator() {
         return instructions.iterator();
@@ -178,6 +201,17 @@ public class BasicBlock extends Block implements Iterable<TAC> {
         return toReturn;
     }
 
+    // restart block and temporary numbering, so building the same source again gives the same IDs
+    public static void resetNumbering() {
+        nextBlockNumber = 0;
+        nextTemporaryNumber = 0;
+    }
+
+    // number the next temporary will get, without taking it
+    public static int peekNextTempNumber() {
+        return nextTemporaryNumber;
+    }
+
     public static int getNextTempNumber() {
         int toReturn = nextTemporaryNumber;
         nextTemporaryNumber++;
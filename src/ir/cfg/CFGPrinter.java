@@ -29,6 +29,7 @@ import ir.tac.Div;
 import ir.tac.Mod;
 import ir.tac.Mul;
 import ir.tac.Or;
+import ir.tac.Phi;
 import ir.tac.Pow;
 import ir.tac.Return;
 
@@ -255,6 +256,16 @@ public class CFGPrinter implements CFGVisitor {
         return toReturn;
     }
 
+    public String visit(Phi node) {
+        String toReturn = node.getDest().getSymbol().token().lexeme() + " = phi(";
+        String separator = "";
+        for (Value argument : node.getArguments().values()) {
+            toReturn += separator + argument;
+            separator = ", ";
+        }
+        return toReturn + ")";
+    }
+
     @Override
     public String visit(Return node) {
         if (node.hasReturnValue()) {
@@ -310,6 +321,9 @@ public class CFGPrinter implements CFGVisitor {
         else if (node instanceof Return) {
             return visit((Return) node);
         }
+        else if (node instanceof Phi) {
+            return visit((Phi) node);
+        }
         else if (node instanceof Call) {
             return visit((Call) node);
         }
@@ -2,7 +2,9 @@ package ir.cfg;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import ir.tac.TAC;
 import ir.tac.TACList;
 import ir.tac.Value;
@@ -68,6 +70,7 @@ public class IRGenerator {
     private boolean isFirstBlock = true;
     private BasicBlock previousBlock;
     private HashMap<String, BasicBlock> functionBlocks = new HashMap<String, BasicBlock>();
+    private HashMap<String, FunctionDeclaration> functionDeclarations = new HashMap<>();
 
     public BasicBlock genIR(AST a) {
         BasicBlock IRHead = visit(a.getHead());
@@ -98,18 +101,51 @@ public class IRGenerator {
 
     public BasicBlock visit(FunctionDeclaration node) {
         BasicBlock functionBlock = new BasicBlock(BasicBlock.getNextBlockNumber(), null, null, null);
+        functionDeclarations.put(node.getFunctionName().token().lexeme(), node);
+        int firstTemporary = BasicBlock.peekNextTempNumber();
         currentInstructionList = new TACList();
         previousBlock = functionBlock;
         visit(node.getBody());
         if (functionBlock.getInstructions() == null) {
             functionBlock.setInstructionList(currentInstructionList);
         }
-        
+
         functionBlock.addInstruction(new Return(TACList.getNextTACNumber()));
         functionBlocks.put(node.getFunctionName().token().lexeme(), functionBlock);
+
+        // the parameters, the declared variables and the temporaries of the body are the function's own
+        List<Variable> parameters = new ArrayList<>();
+        Set<String> localVariables = new HashSet<>();
+        List<Symbol> parameterTypes = node.getArguments().getSymbolParameters();
+        List<Symbol> parameterNames = node.getArguments().getIdents();
+        for (int i = 0; i < parameterNames.size(); i++) {
+            Variable parameter = new Variable(parameterNames.get(i));
+            setType(parameter, parameterTypes.get(i));
+            parameters.add(parameter);
+            localVariables.add(parameterNames.get(i).token().lexeme());
+        }
+        if (node.getBody().hasVarDecl()) {
+            for (Declaration d : node.getBody().getVarDecl()) {
+                if (d instanceof VariableDeclaration) {
+                    localVariables.add(((VariableDeclaration) d).getIdent().token().lexeme());
+                }
+            }
+        }
+        for (int t = firstTemporary; t < BasicBlock.peekNextTempNumber(); t++) {
+            localVariables.add("t" + t);
+        }
+        functionBlock.setParameters(parameters);
+        functionBlock.setLocalVariables(localVariables);
         return functionBlock;
     }
 
+    // type flags of a variable declared with the type
+    private void setType(Variable variable, Symbol type) {
+        variable.setIsBool(type.token().kind() == Token.Kind.BOOL);
+        variable.setIsFloat(type.token().kind() == Token.Kind.FLOAT);
+        variable.setIsInt(type.token().kind() == Token.Kind.INT);
+    }
+
     public void visit(FunctionBody node) {
         if (node.hasVarDecl()) {
             visit(node.getVarDecl());
@@ -129,6 +165,12 @@ public class IRGenerator {
                 }
             }
 
+            // the variable read into gets the type of the read, copies of it need one
+            if (dest != null && node.getFunctionName().token().lexeme().startsWith("read")) {
+                dest.setIsInt(node.getFunctionName().token().lexeme().equals("readInt"));
+                dest.setIsFloat(node.getFunctionName().token().lexeme().equals("readFloat"));
+                dest.setIsBool(node.getFunctionName().token().lexeme().equals("readBool"));
+            }
             currentInstructionList.addInstruction(new Call(TACList.getNextTACNumber(), node.getFunctionName(), node.getArgumentList(), dest));
             // // System.out.println("LatestVariable might not be updated by standard function calls");
             return;
@@ -140,7 +182,23 @@ public class IRGenerator {
         if (functionBlock == null) {
             System.err.println("Error: Function block not found for " + node.getFunctionName().token().lexeme());
         } else {
-            currentInstructionList.addInstruction(new Call(TACList.getNextTACNumber(), functionBlock, node.getFunctionName(), node.getArgumentList()));
+            // the arguments are evaluated first, the result goes into a temporary of its own
+            List<Value> argumentValues = new ArrayList<>();
+            for (Expression argument : node.getArgumentList().getExpressionParameters()) {
+                visit(argument, null);
+                argumentValues.add(currentInstructionList.getLatestVariable());
+            }
+            Call call = new Call(TACList.getNextTACNumber(), functionBlock, node.getFunctionName(), node.getArgumentList());
+            call.setArgumentValues(argumentValues);
+            currentInstructionList.addInstruction(call);
+
+            Symbol returnType = functionDeclarations.get(node.getFunctionName().token().lexeme()).getArguments().getReturnType();
+            if (returnType.token().kind() != Token.Kind.VOID) {
+                Variable result = new Variable(new Symbol(new Token("t" + BasicBlock.getNextTempNumber(), node.charPosition(), node.lineNumber())));
+                setType(result, returnType);
+                call.setReturnVariable(result);
+                currentInstructionList.setLatestVariable(result);
+            }
             previousBlock.addSuccessor(functionBlock);
             // System.out.println("Function call added to currentInstructionList");
         }
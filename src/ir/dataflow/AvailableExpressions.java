@@ -0,0 +1,174 @@
+package ir.dataflow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ir.cfg.BasicBlock;
+import ir.tac.Add;
+import ir.tac.And;
+import ir.tac.Div;
+import ir.tac.Mod;
+import ir.tac.Mul;
+import ir.tac.Or;
+import ir.tac.Pow;
+import ir.tac.Sub;
+import ir.tac.TAC;
+import ir.tac.Value;
+import ir.tac.Variable;
+
+// Forward analysis of the expressions computed on every path and still held by the variable that
+// computed them. Every ("left op right", holder) pair computed in the function is numbered up
+// front and the facts are bit sets over those numbers; writing an operand or the holder kills
+// the pair.
+public class AvailableExpressions extends DataflowAnalysis<long[]> {
+    private final Map<String, Integer> numbers = new HashMap<>();
+    private final List<Variable> holders = new ArrayList<>();
+    private final Map<TAC, Integer> numberOf = new IdentityHashMap<>();
+    // pairs of one expression, and pairs killed by writing a variable
+    private final Map<String, long[]> pairsOfExpression = new HashMap<>();
+    private final Map<String, long[]> killedBy = new HashMap<>();
+    private final int size;
+
+    public AvailableExpressions(List<BasicBlock> blocks) {
+        List<String> expressions = new ArrayList<>();
+        List<List<String>> killers = new ArrayList<>();
+        for (BasicBlock block : blocks) {
+            for (TAC instruction : block.getInstructions().getInstructions()) {
+                String expression = expressionOf(instruction);
+                if (expression == null) {
+                    continue;
+                }
+                String holder = DefUse.name(instruction.getDest());
+                String pair = expression + "=" + holder;
+                Integer number = numbers.get(pair);
+                if (number == null) {
+                    number = holders.size();
+                    numbers.put(pair, number);
+                    holders.add(instruction.getDest());
+                    expressions.add(expression);
+                    List<String> variables = new ArrayList<>();
+                    variables.add(holder);
+                    for (Value operand : DefUse.operands(instruction)) {
+                        if (operand instanceof Variable) {
+                            variables.add(DefUse.name((Variable) operand));
+                        }
+                    }
+                    killers.add(variables);
+                }
+                numberOf.put(instruction, number);
+            }
+        }
+
+        size = holders.size();
+        for (int i = 0; i < size; i++) {
+            Bits.set(pairsOfExpression.computeIfAbsent(expressions.get(i), key -> Bits.create(size)), i);
+            for (String variable : killers.get(i)) {
+                Bits.set(killedBy.computeIfAbsent(variable, key -> Bits.create(size)), i);
+            }
+        }
+    }
+
+    @Override
+    public Direction direction() {
+        return Direction.FORWARD;
+    }
+
+    @Override
+    public long[] boundary(BasicBlock block) {
+        return Bits.create(size);
+    }
+
+    @Override
+    public long[] meet(long[] left, long[] right) {
+        Bits.and(left, right);
+        return left;
+    }
+
+    @Override
+    public long[] copy(long[] fact) {
+        return fact.clone();
+    }
+
+    @Override
+    public void step(TAC instruction, long[] available) {
+        if (DefUse.isUserCall(instruction)) {
+            Bits.clearAll(available);
+            return;
+        }
+        Variable dest = DefUse.def(instruction);
+        if (dest == null) {
+            return;
+        }
+        String destName = DefUse.name(dest);
+        long[] killed = killedBy.get(destName);
+        if (killed != null) {
+            Bits.andNot(available, killed);
+        }
+
+        Integer number = numberOf.get(instruction);
+        if (number != null && holderOf(expressionOf(instruction), available) == null && !readsVariable(instruction, destName)) {
+            Bits.set(available, number);
+        }
+    }
+
+    // variable already holding the expression, null if it is not available
+    public Variable holderOf(String expression, long[] available) {
+        long[] pairs = pairsOfExpression.get(expression);
+        if (pairs == null) {
+            return null;
+        }
+        int number = Bits.firstCommon(available, pairs);
+        return (number < 0) ? null : holders.get(number);
+    }
+
+    // "left op right" for the instructions CSE handles, null for the rest
+    public static String expressionOf(TAC instruction) {
+        String operator;
+        if (instruction instanceof Add) {
+            operator = "+";
+        }
+        else if (instruction instanceof And) {
+            operator = "&";
+        }
+        else if (instruction instanceof Div) {
+            operator = "/";
+        }
+        else if (instruction instanceof Mod) {
+            operator = "%";
+        }
+        else if (instruction instanceof Mul) {
+            operator = "*";
+        }
+        else if (instruction instanceof Or) {
+            operator = "|";
+        }
+        else if (instruction instanceof Pow) {
+            operator = "^";
+        }
+        else if (instruction instanceof Sub) {
+            operator = "-";
+        }
+        else {
+            return null;
+        }
+        return DefUse.operands(instruction).get(0) + operator + DefUse.operands(instruction).get(1);
+    }
+
+    private static boolean readsVariable(TAC instruction, String name) {
+        for (Value operand : DefUse.operands(instruction)) {
+            if ((operand instanceof Variable) && DefUse.name((Variable) operand).equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isEqual(long[] left, long[] right) {
+        return Arrays.equals(left, right);
+    }
+}
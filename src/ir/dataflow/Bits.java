@@ -0,0 +1,108 @@
+package ir.dataflow;
+
+// Word-wise operations on bit sets stored as long[], 64 members per word. The dataflow facts over
+// numbered variables, definitions and expressions are such arrays; all arrays of one analysis
+// have the same length, so the operations never need to grow them.
+public class Bits {
+
+    private Bits() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static long[] create(int size) {
+        return new long[(size + 63) >>> 6];
+    }
+
+    // the set {0, ..., size - 1}
+    public static long[] full(int size) {
+        long[] bits = create(size);
+        for (int i = 0; i < size >>> 6; i++) {
+            bits[i] = -1L;
+        }
+        if ((size & 63) != 0) {
+            bits[size >>> 6] = (1L << size) - 1;
+        }
+        return bits;
+    }
+
+    public static boolean get(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    public static void clear(long[] bits, int index) {
+        bits[index >>> 6] &= ~(1L << index);
+    }
+
+    public static void clearAll(long[] bits) {
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = 0;
+        }
+    }
+
+    // target |= source, true if target changed
+    public static boolean or(long[] target, long[] source) {
+        long changed = 0;
+        for (int i = 0; i < target.length; i++) {
+            long word = target[i] | source[i];
+            changed |= word ^ target[i];
+            target[i] = word;
+        }
+        return changed != 0;
+    }
+
+    // target &= source
+    public static void and(long[] target, long[] source) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] &= source[i];
+        }
+    }
+
+    // target &= ~source
+    public static void andNot(long[] target, long[] source) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] &= ~source[i];
+        }
+    }
+
+    public static boolean intersects(long[] left, long[] right) {
+        for (int i = 0; i < left.length; i++) {
+            if ((left[i] & right[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // first member of left & right, -1 if there is none
+    public static int firstCommon(long[] left, long[] right) {
+        for (int i = 0; i < left.length; i++) {
+            long word = left[i] & right[i];
+            if (word != 0) {
+                return (i << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return -1;
+    }
+
+    // smallest member >= from, -1 if there is none
+    public static int nextSetBit(long[] bits, int from) {
+        int i = from >>> 6;
+        if (i >= bits.length) {
+            return -1;
+        }
+        long word = bits[i] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return (i << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++i == bits.length) {
+                return -1;
+            }
+            word = bits[i];
+        }
+    }
+}
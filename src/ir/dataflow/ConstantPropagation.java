@@ -0,0 +1,95 @@
+package ir.dataflow;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import ir.cfg.BasicBlock;
+import ir.tac.Assign;
+import ir.tac.Literal;
+import ir.tac.TAC;
+import ir.tac.Value;
+import ir.tac.Variable;
+
+// Forward analysis of the variables holding a known constant: variable -> literal. A variable is
+// constant after a join only if every incoming edge agrees on the literal.
+public class ConstantPropagation extends DataflowAnalysis<Map<String, Literal>> {
+
+    @Override
+    public Direction direction() {
+        return Direction.FORWARD;
+    }
+
+    @Override
+    public Map<String, Literal> boundary(BasicBlock block) {
+        return new HashMap<>();
+    }
+
+    @Override
+    public Map<String, Literal> meet(Map<String, Literal> left, Map<String, Literal> right) {
+        Iterator<Map.Entry<String, Literal>> entries = left.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Literal> entry = entries.next();
+            if (!sameConstant(entry.getValue(), right.get(entry.getKey()))) {
+                entries.remove();
+            }
+        }
+        return left;
+    }
+
+    @Override
+    public Map<String, Literal> copy(Map<String, Literal> fact) {
+        return new HashMap<>(fact);
+    }
+
+    @Override
+    public void step(TAC instruction, Map<String, Literal> constants) {
+        if (DefUse.isUserCall(instruction)) {
+            constants.clear();
+            return;
+        }
+        Variable dest = DefUse.def(instruction);
+        if (dest == null) {
+            return;
+        }
+
+        Literal constant = null;
+        if (instruction instanceof Assign) {
+            constant = constantOf(((Assign) instruction).getRight(), constants);
+        }
+        if (constant != null) {
+            constants.put(DefUse.name(dest), constant);
+        }
+        else {
+            constants.remove(DefUse.name(dest));
+        }
+    }
+
+    // the literal value has, null when it is not known to be constant
+    public static Literal constantOf(Value value, Map<String, Literal> constants) {
+        if (value instanceof Literal) {
+            return (Literal) value;
+        }
+        if (value instanceof Variable) {
+            return constants.get(DefUse.name((Variable) value));
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isEqual(Map<String, Literal> left, Map<String, Literal> right) {
+        if (left.size() != right.size()) {
+            return false;
+        }
+        for (Map.Entry<String, Literal> entry : left.entrySet()) {
+            if (!sameConstant(entry.getValue(), right.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameConstant(Literal left, Literal right) {
+        return left != null && right != null && left.toString().equals(right.toString());
+    }
+}
@@ -0,0 +1,96 @@
+package ir.dataflow;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import ir.cfg.BasicBlock;
+import ir.tac.Assign;
+import ir.tac.TAC;
+import ir.tac.Variable;
+
+// Forward analysis of the copies "x = y" still valid: x -> y. Redefining either side kills the copy,
+// and chains of copies are resolved to the first source.
+public class CopyPropagation extends DataflowAnalysis<Map<String, Variable>> {
+
+    @Override
+    public Direction direction() {
+        return Direction.FORWARD;
+    }
+
+    @Override
+    public Map<String, Variable> boundary(BasicBlock block) {
+        return new HashMap<>();
+    }
+
+    @Override
+    public Map<String, Variable> meet(Map<String, Variable> left, Map<String, Variable> right) {
+        Iterator<Map.Entry<String, Variable>> entries = left.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Variable> entry = entries.next();
+            if (!sameVariable(entry.getValue(), right.get(entry.getKey()))) {
+                entries.remove();
+            }
+        }
+        return left;
+    }
+
+    @Override
+    public Map<String, Variable> copy(Map<String, Variable> fact) {
+        return new HashMap<>(fact);
+    }
+
+    @Override
+    public void step(TAC instruction, Map<String, Variable> copies) {
+        if (DefUse.isUserCall(instruction)) {
+            copies.clear();
+            return;
+        }
+        Variable dest = DefUse.def(instruction);
+        if (dest == null) {
+            return;
+        }
+        String destName = DefUse.name(dest);
+
+        Variable source = null;
+        if ((instruction instanceof Assign) && (((Assign) instruction).getRight() instanceof Variable)) {
+            source = sourceOf((Variable) ((Assign) instruction).getRight(), copies);
+        }
+
+        // kill copies into and out of dest
+        copies.remove(destName);
+        Iterator<Map.Entry<String, Variable>> entries = copies.entrySet().iterator();
+        while (entries.hasNext()) {
+            if (DefUse.name(entries.next().getValue()).equals(destName)) {
+                entries.remove();
+            }
+        }
+
+        if (source != null && !DefUse.name(source).equals(destName)) {
+            copies.put(destName, source);
+        }
+    }
+
+    // variable the value of variable was copied from, or variable itself
+    public static Variable sourceOf(Variable variable, Map<String, Variable> copies) {
+        Variable source = copies.get(DefUse.name(variable));
+        return (source == null) ? variable : source;
+    }
+
+    @Override
+    public boolean isEqual(Map<String, Variable> left, Map<String, Variable> right) {
+        if (left.size() != right.size()) {
+            return false;
+        }
+        for (Map.Entry<String, Variable> entry : left.entrySet()) {
+            if (!sameVariable(entry.getValue(), right.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameVariable(Variable left, Variable right) {
+        return left != null && right != null && DefUse.name(left).equals(DefUse.name(right));
+    }
+}
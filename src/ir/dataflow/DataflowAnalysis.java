@@ -0,0 +1,48 @@
+package ir.dataflow;
+
+import java.util.List;
+
+import ir.cfg.BasicBlock;
+import ir.tac.TAC;
+
+// One dataflow problem over BasicBlocks, solved by DataflowSolver.
+//
+// The lattice top ("no information yet", e.g. a block not reached so far) is represented by
+// null, so meet() and transfer() only ever see real facts. transfer() must not modify its
+// argument; step() updates a fact in place and is what the optimizer replays instruction by
+// instruction when it rewrites a block.
+public abstract class DataflowAnalysis<T> {
+
+    public abstract Direction direction();
+
+    // fact at the entry (forward) or at the exits (backward) of the graph
+    public abstract T boundary(BasicBlock block);
+
+    // combines the facts of two incoming edges, may modify and return left but never right
+    public abstract T meet(T left, T right);
+
+    public abstract T copy(T fact);
+
+    // effect of one instruction on the fact, applied in the analysis direction
+    public abstract void step(TAC instruction, T fact);
+
+    public T transfer(BasicBlock block, T fact) {
+        T result = copy(fact);
+        if (direction() == Direction.FORWARD) {
+            for (TAC instruction : block.getInstructions().getInstructions()) {
+                step(instruction, result);
+            }
+        }
+        else {
+            List<TAC> instructions = block.getInstructions().getInstructions();
+            for (int i = instructions.size() - 1; i >= 0; i--) {
+                step(instructions.get(i), result);
+            }
+        }
+        return result;
+    }
+
+    public boolean isEqual(T left, T right) {
+        return left.equals(right);
+    }
+}
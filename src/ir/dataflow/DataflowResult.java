@@ -0,0 +1,41 @@
+package ir.dataflow;
+
+import java.util.List;
+import java.util.Map;
+
+import ir.cfg.BasicBlock;
+
+// Fixed point of a DataflowSolver run. in() is the fact before the first instruction of a block
+// and out() the fact after the last one, whatever the direction of the analysis. Both are null
+// for blocks the facts never reached.
+public class DataflowResult<T> {
+    private final List<BasicBlock> blocks;
+    private final Map<BasicBlock, T> in;
+    private final Map<BasicBlock, T> out;
+    private final int iterations;
+
+    DataflowResult(List<BasicBlock> blocks, Map<BasicBlock, T> in, Map<BasicBlock, T> out, int iterations) {
+        this.blocks = blocks;
+        this.in = in;
+        this.out = out;
+        this.iterations = iterations;
+    }
+
+    // blocks reachable from the entry, in reverse postorder
+    public List<BasicBlock> blocks() {
+        return blocks;
+    }
+
+    public T in(BasicBlock block) {
+        return in.get(block);
+    }
+
+    public T out(BasicBlock block) {
+        return out.get(block);
+    }
+
+    // number of transfer function applications it took to converge
+    public int iterations() {
+        return iterations;
+    }
+}
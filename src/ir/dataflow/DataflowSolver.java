@@ -0,0 +1,227 @@
+package ir.dataflow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ir.cfg.BasicBlock;
+import ir.tac.BEQ;
+import ir.tac.BGE;
+import ir.tac.BGT;
+import ir.tac.BLE;
+import ir.tac.BLT;
+import ir.tac.BNE;
+import ir.tac.BRA;
+import ir.tac.TAC;
+
+// Worklist solver for DataflowAnalysis. Blocks are numbered in reverse postorder of the graph
+// reachable from the entry, and the worklist always hands out the pending block that comes first
+// in the analysis direction (reverse postorder forward, postorder backward). For the usual
+// reducible graphs that needs about (loop depth + 2) passes over the blocks.
+//
+// The edges of a block are its successors plus the targets of its branch instructions;
+// IRGenerator does not keep the two in sync for nested statements, and an analysis has to be
+// correct for both.
+//
+// Successor edges into any of the stop blocks are not followed. The optimizer passes the entry
+// blocks of the functions, so the implicit call edges of the CFG don't leak facts of a caller
+// into its callees; each function is solved from its own entry.
+public class DataflowSolver {
+
+    private DataflowSolver() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static <T> DataflowResult<T> solve(BasicBlock entry, DataflowAnalysis<T> analysis) {
+        return solve(entry, analysis, Collections.emptySet());
+    }
+
+    public static <T> DataflowResult<T> solve(BasicBlock entry, DataflowAnalysis<T> analysis, Set<BasicBlock> stopBlocks) {
+        List<BasicBlock> order = reversePostorder(entry, stopBlocks);
+        int numBlocks = order.size();
+
+        Map<BasicBlock, Integer> index = new HashMap<>();
+        for (int i = 0; i < numBlocks; i++) {
+            index.put(order.get(i), i);
+        }
+
+        // edges as block indices, restricted to the reachable graph
+        List<List<Integer>> successors = new ArrayList<>();
+        List<List<Integer>> predecessors = new ArrayList<>();
+        for (int i = 0; i < numBlocks; i++) {
+            successors.add(new ArrayList<>());
+            predecessors.add(new ArrayList<>());
+        }
+        for (int i = 0; i < numBlocks; i++) {
+            for (BasicBlock successor : successorsOf(order.get(i))) {
+                Integer j = index.get(successor);
+                if (j != null && !(stopBlocks.contains(successor) && successor != entry)) {
+                    successors.get(i).add(j);
+                    predecessors.get(j).add(i);
+                }
+            }
+        }
+
+        boolean forward = analysis.direction() == Direction.FORWARD;
+        List<List<Integer>> incoming = forward ? predecessors : successors;
+        List<List<Integer>> outgoing = forward ? successors : predecessors;
+
+        // where the boundary fact enters: the entry, or going backward every block without
+        // successors and every block that can only loop forever, which no exit ever reaches
+        BitSet boundaryBlocks = new BitSet(numBlocks);
+        if (forward) {
+            boundaryBlocks.set(0);
+        }
+        else {
+            BitSet reachesExit = new BitSet(numBlocks);
+            Deque<Integer> pending = new ArrayDeque<>();
+            for (int i = 0; i < numBlocks; i++) {
+                if (successors.get(i).isEmpty()) {
+                    reachesExit.set(i);
+                    pending.push(i);
+                }
+            }
+            while (!pending.isEmpty()) {
+                for (int predecessor : predecessors.get(pending.pop())) {
+                    if (!reachesExit.get(predecessor)) {
+                        reachesExit.set(predecessor);
+                        pending.push(predecessor);
+                    }
+                }
+            }
+            boundaryBlocks.set(0, numBlocks);
+            boundaryBlocks.andNot(reachesExit);
+            for (int i = 0; i < numBlocks; i++) {
+                if (successors.get(i).isEmpty()) {
+                    boundaryBlocks.set(i);
+                }
+            }
+        }
+
+        // fact on the meet side and on the transfer side of each block
+        List<T> before = new ArrayList<>(Collections.nCopies(numBlocks, null));
+        List<T> after = new ArrayList<>(Collections.nCopies(numBlocks, null));
+
+        // pending blocks by position in the visiting order
+        BitSet worklist = new BitSet(numBlocks);
+        worklist.set(0, numBlocks);
+        int iterations = 0;
+
+        while (!worklist.isEmpty()) {
+            int position = forward ? worklist.nextSetBit(0) : worklist.previousSetBit(numBlocks - 1);
+            worklist.clear(position);
+            BasicBlock block = order.get(position);
+
+            T fact = null;
+            if (boundaryBlocks.get(position)) {
+                fact = analysis.boundary(block);
+            }
+            for (int other : incoming.get(position)) {
+                T otherFact = after.get(other);
+                if (otherFact != null) {
+                    fact = (fact == null) ? analysis.copy(otherFact) : analysis.meet(fact, otherFact);
+                }
+            }
+            if (fact == null) {
+                // nothing flowed in yet
+                continue;
+            }
+            before.set(position, fact);
+
+            T result = analysis.transfer(block, fact);
+            iterations++;
+            if (after.get(position) == null || !analysis.isEqual(after.get(position), result)) {
+                after.set(position, result);
+                for (int other : outgoing.get(position)) {
+                    worklist.set(other);
+                }
+            }
+        }
+
+        Map<BasicBlock, T> in = new HashMap<>();
+        Map<BasicBlock, T> out = new HashMap<>();
+        for (int i = 0; i < numBlocks; i++) {
+            in.put(order.get(i), forward ? before.get(i) : after.get(i));
+            out.put(order.get(i), forward ? after.get(i) : before.get(i));
+        }
+        return new DataflowResult<>(order, in, out, iterations);
+    }
+
+    // successor map order first, then branch targets missing from the map
+    public static Set<BasicBlock> successorsOf(BasicBlock block) {
+        Set<BasicBlock> successors = new LinkedHashSet<>(block.getSuccessors().keySet());
+        for (TAC instruction : block.getInstructions().getInstructions()) {
+            if (instruction instanceof BRA) {
+                addTarget(successors, ((BRA) instruction).getTrueBasicBlock());
+            }
+            else if (instruction instanceof BEQ) {
+                addTarget(successors, ((BEQ) instruction).getTrueBasicBlock());
+                addTarget(successors, ((BEQ) instruction).getFalseBasicBlock());
+            }
+            else if (instruction instanceof BNE) {
+                addTarget(successors, ((BNE) instruction).getTrueBasicBlock());
+                addTarget(successors, ((BNE) instruction).getFalseBasicBlock());
+            }
+            else if (instruction instanceof BLT) {
+                addTarget(successors, ((BLT) instruction).getTrueBasicBlock());
+                addTarget(successors, ((BLT) instruction).getFalseBasicBlock());
+            }
+            else if (instruction instanceof BLE) {
+                addTarget(successors, ((BLE) instruction).getTrueBasicBlock());
+                addTarget(successors, ((BLE) instruction).getFalseBasicBlock());
+            }
+            else if (instruction instanceof BGT) {
+                addTarget(successors, ((BGT) instruction).getTrueBasicBlock());
+                addTarget(successors, ((BGT) instruction).getFalseBasicBlock());
+            }
+            else if (instruction instanceof BGE) {
+                addTarget(successors, ((BGE) instruction).getTrueBasicBlock());
+                addTarget(successors, ((BGE) instruction).getFalseBasicBlock());
+            }
+        }
+        return successors;
+    }
+
+    private static void addTarget(Set<BasicBlock> successors, BasicBlock target) {
+        if (target != null) {
+            successors.add(target);
+        }
+    }
+
+    // iterative depth-first search over successorsOf()
+    public static List<BasicBlock> reversePostorder(BasicBlock entry, Set<BasicBlock> stopBlocks) {
+        List<BasicBlock> postorder = new ArrayList<>();
+        Set<BasicBlock> visited = new HashSet<>();
+        Deque<BasicBlock> stack = new ArrayDeque<>();
+        Deque<Iterator<BasicBlock>> iterators = new ArrayDeque<>();
+
+        visited.add(entry);
+        stack.push(entry);
+        iterators.push(successorsOf(entry).iterator());
+        while (!stack.isEmpty()) {
+            Iterator<BasicBlock> successors = iterators.peek();
+            if (successors.hasNext()) {
+                BasicBlock successor = successors.next();
+                if (!stopBlocks.contains(successor) && visited.add(successor)) {
+                    stack.push(successor);
+                    iterators.push(successorsOf(successor).iterator());
+                }
+            }
+            else {
+                postorder.add(stack.pop());
+                iterators.pop();
+            }
+        }
+        Collections.reverse(postorder);
+        return postorder;
+    }
+}
@@ -0,0 +1,238 @@
+package ir.dataflow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import ast.Addition;
+import ast.BoolLiteral;
+import ast.Division;
+import ast.Expression;
+import ast.FloatLiteral;
+import ast.FunctionCall;
+import ast.IntegerLiteral;
+import ast.LogicalAnd;
+import ast.LogicalNot;
+import ast.LogicalOr;
+import ast.Modulo;
+import ast.Multiplication;
+import ast.Power;
+import ast.Relation;
+import ast.Subtraction;
+import ast.VariableReference;
+import ir.tac.Add;
+import ir.tac.And;
+import ir.tac.Assign;
+import ir.tac.BEQ;
+import ir.tac.BGE;
+import ir.tac.BGT;
+import ir.tac.BLE;
+import ir.tac.BLT;
+import ir.tac.BNE;
+import ir.tac.Call;
+import ir.tac.Comparison;
+import ir.tac.Div;
+import ir.tac.Load;
+import ir.tac.Mod;
+import ir.tac.Mul;
+import ir.tac.Neg;
+import ir.tac.Or;
+import ir.tac.Phi;
+import ir.tac.Pow;
+import ir.tac.Return;
+import ir.tac.Store;
+import ir.tac.Sub;
+import ir.tac.TAC;
+import ir.tac.Value;
+import ir.tac.Variable;
+
+// Variables an instruction defines and reads, for the analyses. Variables are identified by their
+// lexeme like everywhere else in the optimizer.
+public class DefUse {
+
+    private DefUse() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static String name(Variable variable) {
+        return variable.getSymbol().token().lexeme();
+    }
+
+    // variable written by the instruction, null if none
+    public static Variable def(TAC instruction) {
+        if (instruction instanceof Call) {
+            return ((Call) instruction).getReturnVariable();
+        }
+        return instruction.getDest();
+    }
+
+    // calls of user functions may read and write any variable
+    public static boolean isUserCall(TAC instruction) {
+        return (instruction instanceof Call) && !((Call) instruction).isPredefined();
+    }
+
+    // Names of the variables the instruction reads into uses. Returns false when that set is not
+    // known exactly (a call argument the IR does not model), callers must then assume every variable.
+    // A user call still adds its arguments, which it reads in any case.
+    public static boolean uses(TAC instruction, Set<String> uses) {
+        if (instruction instanceof Assign) {
+            addValue(((Assign) instruction).getRight(), uses);
+        }
+        else if (instruction instanceof Neg) {
+            addValue(((Neg) instruction).getRight(), uses);
+        }
+        else if (instruction instanceof Return) {
+            addValue(((Return) instruction).getReturnValue(), uses);
+        }
+        else if (instruction instanceof Load) {
+            addValue(((Load) instruction).getLeft(), uses);
+        }
+        else if (instruction instanceof Phi) {
+            for (Value argument : ((Phi) instruction).getArguments().values()) {
+                addValue(argument, uses);
+            }
+        }
+        else if (instruction instanceof Store) {
+            addValue(((Store) instruction).getValue(), uses);
+            addValue(((Store) instruction).getLeft(), uses);
+        }
+        else if (instruction instanceof Call) {
+            Call call = (Call) instruction;
+            if (!call.isPredefined()) {
+                for (Value argument : call.getArgumentValues()) {
+                    addValue(argument, uses);
+                }
+                return false;
+            }
+            if (call.hasArgs() && call.getArgs() != null && call.getArgs().getExpressionParameters() != null) {
+                for (Expression argument : call.getArgs().getExpressionParameters()) {
+                    if (!addExpression(argument, uses)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        else if (instruction instanceof BEQ) {
+            addValue(((BEQ) instruction).getLeft(), uses);
+        }
+        else if (instruction instanceof BNE) {
+            addValue(((BNE) instruction).getLeft(), uses);
+        }
+        else if (instruction instanceof BLT) {
+            addValue(((BLT) instruction).getLeft(), uses);
+        }
+        else if (instruction instanceof BLE) {
+            addValue(((BLE) instruction).getLeft(), uses);
+        }
+        else if (instruction instanceof BGT) {
+            addValue(((BGT) instruction).getLeft(), uses);
+        }
+        else if (instruction instanceof BGE) {
+            addValue(((BGE) instruction).getLeft(), uses);
+        }
+        else {
+            for (Value operand : operands(instruction)) {
+                addValue(operand, uses);
+            }
+        }
+        return true;
+    }
+
+    // left and right operand of a binary instruction, empty for everything else
+    public static List<Value> operands(TAC instruction) {
+        List<Value> operands = new ArrayList<>();
+        if (instruction instanceof Add) {
+            operands.add(((Add) instruction).getLeft());
+            operands.add(((Add) instruction).getRight());
+        }
+        else if (instruction instanceof Sub) {
+            operands.add(((Sub) instruction).getLeft());
+            operands.add(((Sub) instruction).getRight());
+        }
+        else if (instruction instanceof Mul) {
+            operands.add(((Mul) instruction).getLeft());
+            operands.add(((Mul) instruction).getRight());
+        }
+        else if (instruction instanceof Div) {
+            operands.add(((Div) instruction).getLeft());
+            operands.add(((Div) instruction).getRight());
+        }
+        else if (instruction instanceof Mod) {
+            operands.add(((Mod) instruction).getLeft());
+            operands.add(((Mod) instruction).getRight());
+        }
+        else if (instruction instanceof Pow) {
+            operands.add(((Pow) instruction).getLeft());
+            operands.add(((Pow) instruction).getRight());
+        }
+        else if (instruction instanceof And) {
+            operands.add(((And) instruction).getLeft());
+            operands.add(((And) instruction).getRight());
+        }
+        else if (instruction instanceof Or) {
+            operands.add(((Or) instruction).getLeft());
+            operands.add(((Or) instruction).getRight());
+        }
+        else if (instruction instanceof Comparison) {
+            operands.add(((Comparison) instruction).getLeft());
+            operands.add(((Comparison) instruction).getRight());
+        }
+        return operands;
+    }
+
+    private static void addValue(Value value, Set<String> uses) {
+        if (value instanceof Variable) {
+            uses.add(name((Variable) value));
+        }
+    }
+
+    // variables read by a call argument, false for expressions the IR leaves to the AST
+    private static boolean addExpression(Expression expression, Set<String> uses) {
+        if (expression instanceof VariableReference) {
+            uses.add(((VariableReference) expression).getIdent().token().lexeme());
+            return true;
+        }
+        if (expression instanceof IntegerLiteral || expression instanceof FloatLiteral || expression instanceof BoolLiteral) {
+            return true;
+        }
+        if (expression instanceof Addition) {
+            return addExpression(((Addition) expression).getLeftSide(), uses) && addExpression(((Addition) expression).getRightSide(), uses);
+        }
+        if (expression instanceof Subtraction) {
+            return addExpression(((Subtraction) expression).getLeftSide(), uses) && addExpression(((Subtraction) expression).getRightSide(), uses);
+        }
+        if (expression instanceof Multiplication) {
+            return addExpression(((Multiplication) expression).getLeftSide(), uses) && addExpression(((Multiplication) expression).getRightSide(), uses);
+        }
+        if (expression instanceof Division) {
+            return addExpression(((Division) expression).getLeftSide(), uses) && addExpression(((Division) expression).getRightSide(), uses);
+        }
+        if (expression instanceof Modulo) {
+            return addExpression(((Modulo) expression).getLeftSide(), uses) && addExpression(((Modulo) expression).getRightSide(), uses);
+        }
+        if (expression instanceof Power) {
+            return addExpression(((Power) expression).getLeftSide(), uses) && addExpression(((Power) expression).getRightSide(), uses);
+        }
+        if (expression instanceof LogicalAnd) {
+            return addExpression(((LogicalAnd) expression).getLeftSide(), uses) && addExpression(((LogicalAnd) expression).getRightSide(), uses);
+        }
+        if (expression instanceof LogicalOr) {
+            return addExpression(((LogicalOr) expression).getLeftSide(), uses) && addExpression(((LogicalOr) expression).getRightSide(), uses);
+        }
+        if (expression instanceof Relation) {
+            return addExpression(((Relation) expression).getLeftSide(), uses) && addExpression(((Relation) expression).getRightSide(), uses);
+        }
+        if (expression instanceof LogicalNot) {
+            return addExpression(((LogicalNot) expression).getExpression(), uses);
+        }
+        if (expression instanceof FunctionCall) {
+            FunctionCall call = (FunctionCall) expression;
+            String functionName = call.getFunctionName().token().lexeme();
+            if (!functionName.equals("readInt") && !functionName.equals("readFloat") && !functionName.equals("readBool")) {
+                return false;
+            }
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,6 @@
+package ir.dataflow;
+
+public enum Direction {
+    FORWARD,    // facts flow from the entry along successor edges
+    BACKWARD    // facts flow from the exits against successor edges
+}
@@ -0,0 +1,131 @@
+package ir.dataflow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ir.cfg.BasicBlock;
+
+// Dominator tree and dominance frontiers of the blocks reachable from an entry, over the same
+// edges as DataflowSolver. Immediate dominators come from Cooper, Harvey and Kennedy's iterative
+// algorithm: intersect the dominators of the processed predecessors in reverse postorder until
+// nothing changes, which for reducible graphs takes two passes.
+public class Dominators {
+    private final List<BasicBlock> order;
+    private final Map<BasicBlock, Integer> index = new HashMap<>();
+    private final Map<BasicBlock, List<BasicBlock>> predecessors = new HashMap<>();
+    private final Map<BasicBlock, List<BasicBlock>> children = new HashMap<>();
+    private final Map<BasicBlock, Set<BasicBlock>> frontiers = new HashMap<>();
+    private final int[] idom;
+
+    public Dominators(BasicBlock entry, Set<BasicBlock> stopBlocks) {
+        order = DataflowSolver.reversePostorder(entry, stopBlocks);
+        int numBlocks = order.size();
+        for (int i = 0; i < numBlocks; i++) {
+            index.put(order.get(i), i);
+            predecessors.put(order.get(i), new ArrayList<>());
+            children.put(order.get(i), new ArrayList<>());
+            frontiers.put(order.get(i), new LinkedHashSet<>());
+        }
+        for (BasicBlock block : order) {
+            for (BasicBlock successor : DataflowSolver.successorsOf(block)) {
+                if (index.containsKey(successor) && !(stopBlocks.contains(successor) && successor != entry)
+                        && !predecessors.get(successor).contains(block)) {
+                    predecessors.get(successor).add(block);
+                }
+            }
+        }
+
+        idom = new int[numBlocks];
+        Arrays.fill(idom, -1);
+        idom[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = 1; b < numBlocks; b++) {
+                int newIdom = -1;
+                for (BasicBlock predecessor : predecessors.get(order.get(b))) {
+                    int p = index.get(predecessor);
+                    if (idom[p] < 0) {
+                        continue;
+                    }
+                    newIdom = (newIdom < 0) ? p : intersect(p, newIdom);
+                }
+                if (newIdom != idom[b]) {
+                    idom[b] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+        for (int b = 1; b < numBlocks; b++) {
+            children.get(order.get(idom[b])).add(order.get(b));
+        }
+
+        // a join point is in the frontier of every block from its predecessors up to its idom
+        for (int b = 0; b < numBlocks; b++) {
+            BasicBlock block = order.get(b);
+            if (predecessors.get(block).size() < 2) {
+                continue;
+            }
+            for (BasicBlock predecessor : predecessors.get(block)) {
+                int runner = index.get(predecessor);
+                while (runner != idom[b]) {
+                    frontiers.get(order.get(runner)).add(block);
+                    runner = idom[runner];
+                }
+            }
+        }
+    }
+
+    private int intersect(int left, int right) {
+        while (left != right) {
+            while (left > right) {
+                left = idom[left];
+            }
+            while (right > left) {
+                right = idom[right];
+            }
+        }
+        return left;
+    }
+
+    // reachable blocks in reverse postorder, so every block comes after its dominators
+    public List<BasicBlock> blocks() {
+        return order;
+    }
+
+    public BasicBlock entry() {
+        return order.get(0);
+    }
+
+    // immediate dominator, null for the entry
+    public BasicBlock idom(BasicBlock block) {
+        int b = index.get(block);
+        return (b == 0) ? null : order.get(idom[b]);
+    }
+
+    public List<BasicBlock> children(BasicBlock block) {
+        return children.get(block);
+    }
+
+    public List<BasicBlock> predecessors(BasicBlock block) {
+        return predecessors.get(block);
+    }
+
+    public boolean dominates(BasicBlock dominator, BasicBlock block) {
+        int d = index.get(dominator);
+        int b = index.get(block);
+        while (b > d) {
+            b = idom[b];
+        }
+        return b == d;
+    }
+
+    public Set<BasicBlock> frontier(BasicBlock block) {
+        return frontiers.get(block);
+    }
+}
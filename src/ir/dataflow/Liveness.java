@@ -0,0 +1,108 @@
+package ir.dataflow;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import ir.cfg.BasicBlock;
+import ir.tac.Call;
+import ir.tac.Return;
+import ir.tac.TAC;
+
+// Backward analysis of the live variables as bit sets over a VariableNumbering.
+//
+// The strong variant is the one DCE wants: an instruction whose result is dead does not make its
+// operands live, so a whole chain of dead computations is found in one run. The register
+// allocator needs plain liveness instead, as every instruction left in the code still reads its
+// operands from registers.
+//
+// All variables stand in for reads the IR does not show (user calls, call arguments left to the
+// AST) and, with liveAtExit, for the globals the caller may read after a function returns.
+// Variables marked local (spill temporaries) are never read that way, only as the arguments of a
+// user call.
+public class Liveness extends DataflowAnalysis<long[]> {
+    private final VariableNumbering variables;
+    private final boolean liveAtExit;
+    private final boolean strong;
+    private final long[] allVariables;
+
+    public Liveness(VariableNumbering variables, boolean liveAtExit, boolean strong) {
+        this.variables = variables;
+        this.liveAtExit = liveAtExit;
+        this.strong = strong;
+        this.allVariables = Bits.full(variables.size());
+    }
+
+    // no call and no caller can read these variables
+    public void setLocal(Set<String> names) {
+        for (String name : names) {
+            int number = variables.numberOf(name);
+            if (number >= 0) {
+                Bits.clear(allVariables, number);
+            }
+        }
+    }
+
+    public VariableNumbering variables() {
+        return variables;
+    }
+
+    @Override
+    public Direction direction() {
+        return Direction.BACKWARD;
+    }
+
+    @Override
+    public long[] boundary(BasicBlock block) {
+        return liveAtExit ? allVariables.clone() : Bits.create(variables.size());
+    }
+
+    @Override
+    public long[] meet(long[] left, long[] right) {
+        Bits.or(left, right);
+        return left;
+    }
+
+    @Override
+    public long[] copy(long[] fact) {
+        return fact.clone();
+    }
+
+    @Override
+    public void step(TAC instruction, long[] live) {
+        if (strong && isDead(instruction, live)) {
+            return;
+        }
+        int dest = variables.def(instruction);
+        if (dest >= 0) {
+            Bits.clear(live, dest);
+        }
+        if ((instruction instanceof Return) && liveAtExit) {
+            Bits.or(live, allVariables);
+        }
+        int[] uses = variables.uses(instruction);
+        if (uses == null) {
+            Bits.or(live, allVariables);
+            for (int use : variables.knownUses(instruction)) {
+                Bits.set(live, use);
+            }
+            return;
+        }
+        for (int use : uses) {
+            Bits.set(live, use);
+        }
+    }
+
+    // instruction without side effects whose result nobody reads
+    public boolean isDead(TAC instruction, long[] live) {
+        if (instruction.getDest() == null || (instruction instanceof Call)) {
+            return false;
+        }
+        int dest = variables.def(instruction);
+        return dest >= 0 && !Bits.get(live, dest);
+    }
+
+    @Override
+    public boolean isEqual(long[] left, long[] right) {
+        return Arrays.equals(left, right);
+    }
+}
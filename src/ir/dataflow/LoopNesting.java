@@ -0,0 +1,87 @@
+package ir.dataflow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ir.cfg.BasicBlock;
+
+// Loop depth of every block reachable from an entry. An edge to a block that comes no later in
+// reverse postorder closes a loop headed by that block; the body is everything that reaches the
+// edge's source without passing the header. Loops sharing a header count once. Co2 only has
+// structured loops, so the graphs are reducible and this finds exactly the natural loops.
+public class LoopNesting {
+
+    private LoopNesting() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static Map<BasicBlock, Integer> depths(BasicBlock entry, Set<BasicBlock> stopBlocks) {
+        Map<BasicBlock, Integer> depths = new HashMap<>();
+        for (BasicBlock block : DataflowSolver.reversePostorder(entry, stopBlocks)) {
+            depths.put(block, 0);
+        }
+        for (Set<BasicBlock> body : loops(entry, stopBlocks).values()) {
+            for (BasicBlock block : body) {
+                depths.merge(block, 1, Integer::sum);
+            }
+        }
+        return depths;
+    }
+
+    // loop header -> blocks of its natural loop, the header included
+    public static Map<BasicBlock, Set<BasicBlock>> loops(BasicBlock entry, Set<BasicBlock> stopBlocks) {
+        List<BasicBlock> order = DataflowSolver.reversePostorder(entry, stopBlocks);
+        Map<BasicBlock, Integer> index = new HashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            index.put(order.get(i), i);
+        }
+
+        Map<BasicBlock, List<BasicBlock>> predecessors = new HashMap<>();
+        for (BasicBlock block : order) {
+            predecessors.put(block, new ArrayList<>());
+        }
+        // loop header -> sources of its back edges
+        Map<BasicBlock, List<BasicBlock>> backEdges = new LinkedHashMap<>();
+        for (BasicBlock block : order) {
+            for (BasicBlock successor : DataflowSolver.successorsOf(block)) {
+                Integer successorIndex = index.get(successor);
+                if (successorIndex == null || (stopBlocks.contains(successor) && successor != entry)) {
+                    continue;
+                }
+                predecessors.get(successor).add(block);
+                if (successorIndex <= index.get(block)) {
+                    backEdges.computeIfAbsent(successor, header -> new ArrayList<>()).add(block);
+                }
+            }
+        }
+
+        Map<BasicBlock, Set<BasicBlock>> loops = new LinkedHashMap<>();
+        for (Map.Entry<BasicBlock, List<BasicBlock>> loop : backEdges.entrySet()) {
+            BasicBlock header = loop.getKey();
+            Set<BasicBlock> body = new HashSet<>();
+            body.add(header);
+            Deque<BasicBlock> pending = new ArrayDeque<>();
+            for (BasicBlock source : loop.getValue()) {
+                if (body.add(source)) {
+                    pending.push(source);
+                }
+            }
+            while (!pending.isEmpty()) {
+                for (BasicBlock predecessor : predecessors.get(pending.pop())) {
+                    if (body.add(predecessor)) {
+                        pending.push(predecessor);
+                    }
+                }
+            }
+            loops.put(header, body);
+        }
+        return loops;
+    }
+}
@@ -0,0 +1,109 @@
+package ir.dataflow;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ir.cfg.BasicBlock;
+import ir.tac.TAC;
+
+// Forward analysis of the definitions that may reach a point, as bit sets over numbered
+// definitions. Numbers 0..variables.size()-1 stand for the value every variable has on entry to
+// the function, the instructions writing a variable follow. A call of a user function may write
+// any variable, so it is a definition of all of them that kills none.
+public class ReachingDefinitions extends DataflowAnalysis<long[]> {
+    private final VariableNumbering variables;
+    private final Map<TAC, Integer> numberOf = new IdentityHashMap<>();
+    // instructions writing each variable, and the user calls
+    private final long[][] writesOf;
+    private final long[] callDefinitions;
+    private final int size;
+
+    public ReachingDefinitions(List<BasicBlock> blocks, VariableNumbering variables) {
+        this.variables = variables;
+        int count = variables.size();
+        for (BasicBlock block : blocks) {
+            for (TAC instruction : block.getInstructions().getInstructions()) {
+                if (variables.def(instruction) >= 0 || DefUse.isUserCall(instruction)) {
+                    numberOf.put(instruction, count++);
+                }
+            }
+        }
+        size = count;
+
+        writesOf = new long[variables.size()][];
+        for (int i = 0; i < variables.size(); i++) {
+            writesOf[i] = Bits.create(size);
+        }
+        callDefinitions = Bits.create(size);
+        for (Map.Entry<TAC, Integer> definition : numberOf.entrySet()) {
+            int dest = variables.def(definition.getKey());
+            if (dest >= 0) {
+                Bits.set(writesOf[dest], definition.getValue());
+            }
+            if (DefUse.isUserCall(definition.getKey())) {
+                Bits.set(callDefinitions, definition.getValue());
+            }
+        }
+    }
+
+    @Override
+    public Direction direction() {
+        return Direction.FORWARD;
+    }
+
+    // only the entry values reach the first instruction
+    @Override
+    public long[] boundary(BasicBlock block) {
+        long[] entryValues = Bits.create(size);
+        for (int i = 0; i < variables.size(); i++) {
+            Bits.set(entryValues, i);
+        }
+        return entryValues;
+    }
+
+    @Override
+    public long[] meet(long[] left, long[] right) {
+        Bits.or(left, right);
+        return left;
+    }
+
+    @Override
+    public long[] copy(long[] fact) {
+        return fact.clone();
+    }
+
+    @Override
+    public void step(TAC instruction, long[] reaching) {
+        int dest = variables.def(instruction);
+        if (dest >= 0) {
+            Bits.andNot(reaching, writesOf[dest]);
+            Bits.clear(reaching, dest);
+        }
+        Integer number = numberOf.get(instruction);
+        if (number != null) {
+            Bits.set(reaching, number);
+        }
+    }
+
+    // true if the function writes the variable anywhere
+    public boolean isDefined(int variable) {
+        return Bits.nextSetBit(writesOf[variable], 0) >= 0;
+    }
+
+    // true if only the entry value of the variable can reach, i.e. it was not written on any path
+    public boolean isUndefined(int variable, long[] reaching) {
+        return Bits.get(reaching, variable) && !Bits.intersects(reaching, writesOf[variable]) && !isWrittenByCall(reaching);
+    }
+
+    // true if a user call, which may write any variable, can reach
+    public boolean isWrittenByCall(long[] reaching) {
+        return Bits.intersects(reaching, callDefinitions);
+    }
+
+    @Override
+    public boolean isEqual(long[] left, long[] right) {
+        return Arrays.equals(left, right);
+    }
+}
@@ -0,0 +1,169 @@
+package ir.dataflow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ir.tac.Add;
+import ir.tac.And;
+import ir.tac.Comparison;
+import ir.tac.Div;
+import ir.tac.Literal;
+import ir.tac.Mod;
+import ir.tac.Mul;
+import ir.tac.Or;
+import ir.tac.Pow;
+import ir.tac.Sub;
+import ir.tac.TAC;
+import ir.tac.Value;
+import ir.tac.Variable;
+
+// Value numbers of global value numbering (see Compiler.globalValueNumbering): two values with
+// the same number are equal wherever both are defined. An expression is keyed by its operator and
+// the numbers of its operands, the operands of a commutative operator in ascending order, so
+// a + b and b + a find each other. Variables and expressions are scoped like the dominator tree
+// walk that numbers them and are forgotten when the walk leaves the block that defined them.
+public class ValueTable {
+    private static final int ADD = 0;
+    private static final int SUB = 1;
+    private static final int MUL = 2;
+    private static final int DIV = 3;
+    private static final int MOD = 4;
+    private static final int POW = 5;
+    private static final int AND = 6;
+    private static final int OR = 7;
+    private static final int CMP = 8;
+
+    private final Map<String, Integer> variables = new HashMap<>();
+    private final Map<String, Integer> literals = new HashMap<>();
+    private final Map<Key, Variable> expressions = new HashMap<>();
+    private final Deque<List<String>> variableScopes = new ArrayDeque<>();
+    private final Deque<List<Key>> expressionScopes = new ArrayDeque<>();
+    private int numValues = 0;
+
+    public void enterScope() {
+        variableScopes.push(new ArrayList<>());
+        expressionScopes.push(new ArrayList<>());
+    }
+
+    public void exitScope() {
+        for (String name : variableScopes.pop()) {
+            variables.remove(name);
+        }
+        for (Key key : expressionScopes.pop()) {
+            expressions.remove(key);
+        }
+    }
+
+    public int newNumber() {
+        return numValues++;
+    }
+
+    public void setNumber(Variable variable, int number) {
+        String name = DefUse.name(variable);
+        if (variables.put(name, number) == null) {
+            variableScopes.peek().add(name);
+        }
+    }
+
+    // number of the value, -1 for a variable without one in this scope
+    public int numberOf(Value value) {
+        if (value instanceof Literal) {
+            return literals.computeIfAbsent(value.toString(), lexeme -> newNumber());
+        }
+        if (value instanceof Variable) {
+            return variables.getOrDefault(DefUse.name((Variable) value), -1);
+        }
+        return -1;
+    }
+
+    // key of the expression the instruction computes, null if it is no expression or an operand has no number
+    public Key keyOf(TAC instruction) {
+        int operator = operatorOf(instruction);
+        if (operator < 0) {
+            return null;
+        }
+        List<Value> operands = DefUse.operands(instruction);
+        int left = numberOf(operands.get(0));
+        int right = numberOf(operands.get(1));
+        if (left < 0 || right < 0) {
+            return null;
+        }
+        boolean isCommutative = operator == ADD || operator == MUL || operator == AND || operator == OR;
+        if (isCommutative && left > right) {
+            return new Key(operator, right, left);
+        }
+        return new Key(operator, left, right);
+    }
+
+    // variable holding the expression in a dominating block, null if there is none
+    public Variable holderOf(Key key) {
+        return expressions.get(key);
+    }
+
+    public void setHolder(Key key, Variable holder) {
+        if (expressions.put(key, holder) == null) {
+            expressionScopes.peek().add(key);
+        }
+    }
+
+    private static int operatorOf(TAC instruction) {
+        if (instruction instanceof Add) {
+            return ADD;
+        }
+        if (instruction instanceof Sub) {
+            return SUB;
+        }
+        if (instruction instanceof Mul) {
+            return MUL;
+        }
+        if (instruction instanceof Div) {
+            return DIV;
+        }
+        if (instruction instanceof Mod) {
+            return MOD;
+        }
+        if (instruction instanceof Pow) {
+            return POW;
+        }
+        if (instruction instanceof And) {
+            return AND;
+        }
+        if (instruction instanceof Or) {
+            return OR;
+        }
+        if (instruction instanceof Comparison) {
+            return CMP;
+        }
+        return -1;
+    }
+
+    public static final class Key {
+        private final int operator;
+        private final int left;
+        private final int right;
+
+        private Key(int operator, int left, int right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return operator == key.operator && left == key.left && right == key.right;
+        }
+
+        @Override
+        public int hashCode() {
+            return (operator * 31 + left) * 31 + right;
+        }
+    }
+}
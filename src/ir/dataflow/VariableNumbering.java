@@ -0,0 +1,130 @@
+package ir.dataflow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ir.cfg.BasicBlock;
+import ir.tac.TAC;
+import ir.tac.Variable;
+
+// Dense numbering 0..size()-1 of the variables defined or read in one function, so the analyses
+// can keep their facts as bit sets (see Bits). The def and the uses of every instruction are
+// resolved to numbers once, here, instead of going through the lexemes on every visit.
+public class VariableNumbering {
+    private final Map<String, Integer> numbers = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final Map<TAC, Integer> defs = new IdentityHashMap<>();
+    private final Map<TAC, int[]> uses = new IdentityHashMap<>();
+    // of the instructions whose uses are not known exactly, the ones they are known to read
+    private final Map<TAC, int[]> knownUses = new IdentityHashMap<>();
+
+    public VariableNumbering(List<BasicBlock> blocks) {
+        Set<String> instructionUses = new LinkedHashSet<>();
+        for (BasicBlock block : blocks) {
+            for (TAC instruction : block.getInstructions().getInstructions()) {
+                Variable dest = DefUse.def(instruction);
+                defs.put(instruction, (dest == null) ? -1 : add(DefUse.name(dest)));
+
+                instructionUses.clear();
+                boolean isKnown = DefUse.uses(instruction, instructionUses);
+                int[] numbered = new int[instructionUses.size()];
+                int i = 0;
+                for (String name : instructionUses) {
+                    numbered[i++] = add(name);
+                }
+                if (isKnown) {
+                    uses.put(instruction, numbered);
+                }
+                else {
+                    // unknown uses, the name set still gets numbered
+                    uses.put(instruction, null);
+                    knownUses.put(instruction, numbered);
+                }
+            }
+        }
+    }
+
+    private int add(String name) {
+        Integer number = numbers.get(name);
+        if (number == null) {
+            number = names.size();
+            numbers.put(name, number);
+            names.add(name);
+        }
+        return number;
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    // number of the variable, -1 if the function never mentions it
+    public int numberOf(String name) {
+        return numbers.getOrDefault(name, -1);
+    }
+
+    public String nameOf(int number) {
+        return names.get(number);
+    }
+
+    // number of the variable the instruction writes, -1 if none
+    public int def(TAC instruction) {
+        Integer number = defs.get(instruction);
+        if (number != null) {
+            return number;
+        }
+        // instruction created after the numbering, e.g. by a rewrite
+        Variable dest = DefUse.def(instruction);
+        return (dest == null) ? -1 : numberOf(DefUse.name(dest));
+    }
+
+    // numbers of the variables the instruction reads, null when the uses are not known exactly
+    // (see DefUse.uses) and every variable has to be assumed
+    public int[] uses(TAC instruction) {
+        if (uses.containsKey(instruction)) {
+            return uses.get(instruction);
+        }
+        Set<String> instructionUses = new LinkedHashSet<>();
+        if (!DefUse.uses(instruction, instructionUses)) {
+            return null;
+        }
+        int[] numbered = new int[instructionUses.size()];
+        int count = 0;
+        for (String name : instructionUses) {
+            int number = numberOf(name);
+            if (number >= 0) {
+                numbered[count++] = number;
+            }
+        }
+        return (count == numbered.length) ? numbered : Arrays.copyOf(numbered, count);
+    }
+
+    // numbers of the variables the instruction reads for sure, also when it may read others (the
+    // arguments of a user call)
+    public int[] knownUses(TAC instruction) {
+        int[] numbered = uses(instruction);
+        if (numbered != null) {
+            return numbered;
+        }
+        if (knownUses.containsKey(instruction)) {
+            return knownUses.get(instruction);
+        }
+        Set<String> instructionUses = new LinkedHashSet<>();
+        DefUse.uses(instruction, instructionUses);
+        int[] known = new int[instructionUses.size()];
+        int count = 0;
+        for (String name : instructionUses) {
+            int number = numberOf(name);
+            if (number >= 0) {
+                known[count++] = number;
+            }
+        }
+        return Arrays.copyOf(known, count);
+    }
+}
@@ -0,0 +1,119 @@
+package ir.regalloc;
+
+import java.util.List;
+
+import ir.dataflow.Bits;
+
+// Conservative coalescing of copies. The two ends of a copy that do not interfere are merged
+// into one node when that cannot turn a colorable graph uncolorable:
+//
+//   Briggs: the merged node has fewer than numColors neighbors of significant degree (>= numColors)
+//   George: every neighbor of one end already interferes with the other end or has insignificant degree
+//
+// The moves are retried until nothing merges any more, as every merge changes the degrees.
+public class Coalescing {
+
+    private Coalescing() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    // Representative of every node: the node itself, or the node it was merged into. moves holds
+    // {dest, source} node pairs of the copies.
+    public static int[] coalesce(InterferenceGraph graph, int numColors, List<int[]> moves) {
+        int size = graph.size();
+        int[] alias = new int[size];
+        int[] degree = new int[size];
+        long[][] adjacent = new long[size][];
+        for (int node = 0; node < size; node++) {
+            alias[node] = node;
+            degree[node] = graph.degree(node);
+            adjacent[node] = Bits.create(size);
+            int[] neighbors = graph.neighbors(node);
+            for (int i = 0; i < degree[node]; i++) {
+                Bits.set(adjacent[node], neighbors[i]);
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int[] move : moves) {
+                int left = find(alias, move[0]);
+                int right = find(alias, move[1]);
+                if (left == right || Bits.get(adjacent[left], right)) {
+                    continue;
+                }
+                if (briggs(left, right, adjacent, degree, numColors)) {
+                    merge(left, right, alias, adjacent, degree);
+                }
+                else if (george(left, right, adjacent, degree, numColors)) {
+                    merge(left, right, alias, adjacent, degree);
+                }
+                else if (george(right, left, adjacent, degree, numColors)) {
+                    merge(right, left, alias, adjacent, degree);
+                }
+                else {
+                    continue;
+                }
+                changed = true;
+            }
+        }
+
+        for (int node = 0; node < size; node++) {
+            alias[node] = find(alias, node);
+        }
+        return alias;
+    }
+
+    private static int find(int[] alias, int node) {
+        while (alias[node] != node) {
+            alias[node] = alias[alias[node]];
+            node = alias[node];
+        }
+        return node;
+    }
+
+    private static boolean briggs(int left, int right, long[][] adjacent, int[] degree, int numColors) {
+        int significant = 0;
+        for (int t = Bits.nextSetBit(adjacent[left], 0); t >= 0; t = Bits.nextSetBit(adjacent[left], t + 1)) {
+            // a neighbor of both ends loses one edge in the merge
+            int mergedDegree = Bits.get(adjacent[right], t) ? degree[t] - 1 : degree[t];
+            if (mergedDegree >= numColors) {
+                significant++;
+            }
+        }
+        for (int t = Bits.nextSetBit(adjacent[right], 0); t >= 0; t = Bits.nextSetBit(adjacent[right], t + 1)) {
+            if (!Bits.get(adjacent[left], t) && degree[t] >= numColors) {
+                significant++;
+            }
+        }
+        return significant < numColors;
+    }
+
+    // merging from into into is safe if every neighbor of from is harmless for into
+    private static boolean george(int into, int from, long[][] adjacent, int[] degree, int numColors) {
+        for (int t = Bits.nextSetBit(adjacent[from], 0); t >= 0; t = Bits.nextSetBit(adjacent[from], t + 1)) {
+            if (degree[t] >= numColors && !Bits.get(adjacent[into], t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void merge(int into, int from, int[] alias, long[][] adjacent, int[] degree) {
+        alias[from] = into;
+        for (int t = Bits.nextSetBit(adjacent[from], 0); t >= 0; t = Bits.nextSetBit(adjacent[from], t + 1)) {
+            Bits.clear(adjacent[t], from);
+            if (Bits.get(adjacent[into], t)) {
+                degree[t]--;
+            }
+            else {
+                Bits.set(adjacent[into], t);
+                Bits.set(adjacent[t], into);
+                degree[into]++;
+            }
+        }
+        adjacent[from] = Bits.create(0);
+        degree[from] = 0;
+    }
+}
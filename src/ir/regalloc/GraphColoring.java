@@ -0,0 +1,131 @@
+package ir.regalloc;
+
+import java.util.Arrays;
+
+// Chaitin-style simplify/select with Briggs' optimistic coloring.
+//
+// Simplify keeps the remaining nodes in buckets by current degree (doubly linked lists over node
+// numbers), so the next node of degree < numColors is found without scanning the graph and
+// removing a node only moves each of its neighbors down one bucket. When every remaining node
+// has degree >= numColors the one with the lowest spill cost per edge is pushed anyway instead
+// of being spilled right away; select only spills it if its neighbors really took every color.
+public class GraphColoring {
+
+    private GraphColoring() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    // Color of every node in 0..numColors-1, -1 for the nodes that have to be spilled.
+    // spillCosts[node] is the price of keeping the node in memory, e.g. its use frequency.
+    public static int[] color(InterferenceGraph graph, int numColors, double[] spillCosts) {
+        int size = graph.size();
+        int[] degree = new int[size];
+        int maxDegree = 0;
+        for (int node = 0; node < size; node++) {
+            degree[node] = graph.degree(node);
+            maxDegree = Math.max(maxDegree, degree[node]);
+        }
+
+        // degree buckets
+        int[] head = new int[maxDegree + 1];
+        int[] next = new int[size];
+        int[] previous = new int[size];
+        Arrays.fill(head, -1);
+        for (int node = size - 1; node >= 0; node--) {
+            link(node, degree[node], head, next, previous);
+        }
+
+        // simplify
+        boolean[] removed = new boolean[size];
+        int[] stack = new int[size];
+        int lowestBucket = 0;
+        for (int top = 0; top < size; top++) {
+            while (head[lowestBucket] < 0) {
+                lowestBucket++;
+            }
+            int node;
+            if (lowestBucket < numColors) {
+                node = head[lowestBucket];
+            }
+            else {
+                node = cheapestSpill(head, next, degree, spillCosts, lowestBucket);
+            }
+
+            unlink(node, degree[node], head, next, previous);
+            removed[node] = true;
+            stack[top] = node;
+            int[] neighbors = graph.neighbors(node);
+            for (int i = 0; i < graph.degree(node); i++) {
+                int neighbor = neighbors[i];
+                if (!removed[neighbor]) {
+                    unlink(neighbor, degree[neighbor], head, next, previous);
+                    degree[neighbor]--;
+                    link(neighbor, degree[neighbor], head, next, previous);
+                }
+            }
+            if (lowestBucket > 0) {
+                lowestBucket--;
+            }
+        }
+
+        // select, in reverse simplify order
+        int[] colors = new int[size];
+        Arrays.fill(colors, -1);
+        boolean[] taken = new boolean[numColors];
+        for (int top = size - 1; top >= 0; top--) {
+            int node = stack[top];
+            Arrays.fill(taken, false);
+            int[] neighbors = graph.neighbors(node);
+            for (int i = 0; i < graph.degree(node); i++) {
+                int neighborColor = colors[neighbors[i]];
+                if (neighborColor >= 0) {
+                    taken[neighborColor] = true;
+                }
+            }
+            for (int color = 0; color < numColors; color++) {
+                if (!taken[color]) {
+                    colors[node] = color;
+                    break;
+                }
+            }
+        }
+        return colors;
+    }
+
+    // remaining node with the lowest spill cost per interference, ties go to the higher degree
+    private static int cheapestSpill(int[] head, int[] next, int[] degree, double[] spillCosts, int lowestBucket) {
+        int cheapest = -1;
+        double cheapestCost = 0;
+        for (int bucket = head.length - 1; bucket >= lowestBucket; bucket--) {
+            for (int node = head[bucket]; node >= 0; node = next[node]) {
+                double cost = spillCosts[node] / degree[node];
+                if (cheapest < 0 || cost < cheapestCost) {
+                    cheapest = node;
+                    cheapestCost = cost;
+                }
+            }
+        }
+        return cheapest;
+    }
+
+    private static void link(int node, int bucket, int[] head, int[] next, int[] previous) {
+        next[node] = head[bucket];
+        previous[node] = -1;
+        if (head[bucket] >= 0) {
+            previous[head[bucket]] = node;
+        }
+        head[bucket] = node;
+    }
+
+    private static void unlink(int node, int bucket, int[] head, int[] next, int[] previous) {
+        if (previous[node] >= 0) {
+            next[previous[node]] = next[node];
+        }
+        else {
+            head[bucket] = next[node];
+        }
+        if (next[node] >= 0) {
+            previous[next[node]] = previous[node];
+        }
+    }
+}
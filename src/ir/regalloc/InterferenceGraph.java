@@ -0,0 +1,101 @@
+package ir.regalloc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ir.dataflow.Bits;
+
+// Interference graph over variables numbered 0..size()-1. Edges are kept twice: a bit matrix
+// answers "do a and b interfere" in constant time and keeps addEdge() free of duplicates, the
+// adjacency lists let simplify and select visit the neighbors of a node in O(degree).
+public class InterferenceGraph {
+    private final Map<String, Integer> numbers = new HashMap<>();
+    private final String[] names;
+    private final long[][] matrix;
+    private final int[][] adjacency;
+    private final int[] degree;
+
+    public InterferenceGraph(List<String> variables) {
+        int size = variables.size();
+        names = variables.toArray(new String[size]);
+        for (int i = 0; i < size; i++) {
+            numbers.put(names[i], i);
+        }
+        matrix = new long[size][];
+        adjacency = new int[size][];
+        degree = new int[size];
+        for (int i = 0; i < size; i++) {
+            matrix[i] = Bits.create(size);
+            adjacency[i] = new int[4];
+        }
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    // number of the variable, -1 if it is not in the graph
+    public int numberOf(String name) {
+        return numbers.getOrDefault(name, -1);
+    }
+
+    public String nameOf(int node) {
+        return names[node];
+    }
+
+    public void addEdge(int left, int right) {
+        if (left == right || Bits.get(matrix[left], right)) {
+            return;
+        }
+        Bits.set(matrix[left], right);
+        Bits.set(matrix[right], left);
+        addNeighbor(left, right);
+        addNeighbor(right, left);
+    }
+
+    private void addNeighbor(int node, int neighbor) {
+        if (degree[node] == adjacency[node].length) {
+            adjacency[node] = Arrays.copyOf(adjacency[node], 2 * degree[node]);
+        }
+        adjacency[node][degree[node]++] = neighbor;
+    }
+
+    public boolean interferes(int left, int right) {
+        return Bits.get(matrix[left], right);
+    }
+
+    public int degree(int node) {
+        return degree[node];
+    }
+
+    // neighbors of the node, only the first degree(node) entries are valid
+    public int[] neighbors(int node) {
+        return adjacency[node];
+    }
+
+    // Graph over the nodes that are their own alias (see Coalescing), named like them; every
+    // other node is merged into its alias with all its edges. nodeOf[node] is set to the number
+    // of the merged node in the new graph.
+    public InterferenceGraph merge(int[] alias, int[] nodeOf) {
+        List<String> merged = new ArrayList<>();
+        for (int node = 0; node < size(); node++) {
+            if (alias[node] == node) {
+                nodeOf[node] = merged.size();
+                merged.add(names[node]);
+            }
+        }
+        for (int node = 0; node < size(); node++) {
+            nodeOf[node] = nodeOf[alias[node]];
+        }
+        InterferenceGraph graph = new InterferenceGraph(merged);
+        for (int node = 0; node < size(); node++) {
+            for (int i = 0; i < degree[node]; i++) {
+                graph.addEdge(nodeOf[node], nodeOf[adjacency[node][i]]);
+            }
+        }
+        return graph;
+    }
+}
@@ -0,0 +1,128 @@
+package ir.regalloc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+// Linear-scan register allocation over live intervals with lifetime holes (Wimmer and
+// Moessenboeck's variant of Poletto and Sarkar). Intervals are visited by start position; one
+// that is live at the current position is active, one in a lifetime hole is inactive and its
+// register may be handed to an interval that fits in the hole.
+//
+// A variable keeps one location for its whole lifetime: the TAC carries no per-use locations
+// and call arguments are looked up by name, so an interval is never split between a register
+// and memory. When no register is free for all of the current interval, either the current
+// interval or the intervals holding the register with the lowest total spill weight go to
+// memory, whichever is cheaper.
+public class LinearScan {
+
+    private LinearScan() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    // Sets the register of every interval to one of 0..numRegisters-1, or to -1 if it spilled.
+    public static void allocate(List<LiveInterval> intervals, int numRegisters) {
+        List<LiveInterval> unhandled = new ArrayList<>();
+        for (LiveInterval interval : intervals) {
+            interval.finish();
+            interval.setRegister(-1);
+            if (!interval.isEmpty()) {
+                unhandled.add(interval);
+            }
+        }
+        unhandled.sort(Comparator.comparingInt(LiveInterval::start));
+
+        List<LiveInterval> active = new ArrayList<>();
+        List<LiveInterval> inactive = new ArrayList<>();
+        int[] freeUntil = new int[numRegisters];
+        double[] weight = new double[numRegisters];
+
+        for (LiveInterval current : unhandled) {
+            int position = current.start();
+
+            Iterator<LiveInterval> it = active.iterator();
+            while (it.hasNext()) {
+                LiveInterval interval = it.next();
+                if (interval.end() <= position) {
+                    it.remove();
+                }
+                else if (!interval.covers(position)) {
+                    it.remove();
+                    inactive.add(interval);
+                }
+            }
+            it = inactive.iterator();
+            while (it.hasNext()) {
+                LiveInterval interval = it.next();
+                if (interval.end() <= position) {
+                    it.remove();
+                }
+                else if (interval.covers(position)) {
+                    it.remove();
+                    active.add(interval);
+                }
+            }
+
+            // how long each register stays free
+            Arrays.fill(freeUntil, Integer.MAX_VALUE);
+            for (LiveInterval interval : active) {
+                freeUntil[interval.register()] = 0;
+            }
+            for (LiveInterval interval : inactive) {
+                int intersection = interval.nextIntersection(current);
+                if (intersection >= 0) {
+                    freeUntil[interval.register()] = Math.min(freeUntil[interval.register()], intersection);
+                }
+            }
+            int best = 0;
+            for (int register = 1; register < numRegisters; register++) {
+                if (freeUntil[register] > freeUntil[best]) {
+                    best = register;
+                }
+            }
+            if (freeUntil[best] >= current.end()) {
+                current.setRegister(best);
+                active.add(current);
+                continue;
+            }
+
+            // every register is taken somewhere in the interval, spill the cheapest side
+            Arrays.fill(weight, 0);
+            for (LiveInterval interval : active) {
+                weight[interval.register()] += interval.spillWeight();
+            }
+            for (LiveInterval interval : inactive) {
+                if (interval.nextIntersection(current) >= 0) {
+                    weight[interval.register()] += interval.spillWeight();
+                }
+            }
+            best = 0;
+            for (int register = 1; register < numRegisters; register++) {
+                if (weight[register] < weight[best]) {
+                    best = register;
+                }
+            }
+            if (weight[best] >= current.spillWeight()) {
+                continue;
+            }
+            spill(active, best, current);
+            spill(inactive, best, current);
+            current.setRegister(best);
+            active.add(current);
+        }
+    }
+
+    // sends the intervals in register that overlap current to memory
+    private static void spill(List<LiveInterval> intervals, int register, LiveInterval current) {
+        Iterator<LiveInterval> it = intervals.iterator();
+        while (it.hasNext()) {
+            LiveInterval interval = it.next();
+            if (interval.register() == register && interval.nextIntersection(current) >= 0) {
+                interval.setRegister(-1);
+                it.remove();
+            }
+        }
+    }
+}
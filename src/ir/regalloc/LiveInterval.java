@@ -0,0 +1,148 @@
+package ir.regalloc;
+
+import java.util.Arrays;
+
+// Positions at which one variable is live, as sorted, disjoint ranges [from, to) over the linear
+// order of the instructions. The gaps between ranges are lifetime holes: another variable may
+// use the register there.
+//
+// Ranges are added backwards, from the last instruction to the first (see
+// Compiler.getLiveIntervals), so addRange() only ever has to extend or prepend the first range.
+public class LiveInterval {
+    private final String name;
+    // ranges in reverse order while building, the first range is the last element
+    private int[] from = new int[2];
+    private int[] to = new int[2];
+    private int numRanges = 0;
+    private boolean reversed = false;
+
+    private double spillCost = 0;
+    private int register = -1;
+
+    public LiveInterval(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public void addRange(int rangeFrom, int rangeTo) {
+        if (numRanges > 0 && rangeTo >= from[numRanges - 1]) {
+            from[numRanges - 1] = Math.min(from[numRanges - 1], rangeFrom);
+            to[numRanges - 1] = Math.max(to[numRanges - 1], rangeTo);
+            return;
+        }
+        if (numRanges == from.length) {
+            from = Arrays.copyOf(from, 2 * numRanges);
+            to = Arrays.copyOf(to, 2 * numRanges);
+        }
+        from[numRanges] = rangeFrom;
+        to[numRanges] = rangeTo;
+        numRanges++;
+    }
+
+    // the variable is written at position, nothing before it in the first range is live
+    public void setFrom(int position) {
+        if (numRanges == 0) {
+            addRange(position, position + 1);
+        }
+        else {
+            from[numRanges - 1] = position;
+        }
+    }
+
+    // called once all ranges are added
+    void finish() {
+        if (reversed) {
+            return;
+        }
+        for (int i = 0, j = numRanges - 1; i < j; i++, j--) {
+            int swap = from[i];
+            from[i] = from[j];
+            from[j] = swap;
+            swap = to[i];
+            to[i] = to[j];
+            to[j] = swap;
+        }
+        reversed = true;
+    }
+
+    public boolean isEmpty() {
+        return numRanges == 0;
+    }
+
+    public int start() {
+        return reversed ? from[0] : from[numRanges - 1];
+    }
+
+    public int end() {
+        return reversed ? to[numRanges - 1] : to[0];
+    }
+
+    // number of positions the variable is live at
+    public int length() {
+        int length = 0;
+        for (int i = 0; i < numRanges; i++) {
+            length += to[i] - from[i];
+        }
+        return length;
+    }
+
+    public boolean covers(int position) {
+        for (int i = 0; i < numRanges; i++) {
+            if (position < from[i]) {
+                return false;
+            }
+            if (position < to[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // first position live in both intervals, -1 if they never overlap
+    public int nextIntersection(LiveInterval other) {
+        int i = 0;
+        int j = 0;
+        while (i < numRanges && j < other.numRanges) {
+            int start = Math.max(from[i], other.from[j]);
+            if (start < to[i] && start < other.to[j]) {
+                return start;
+            }
+            if (to[i] <= other.to[j]) {
+                i++;
+            }
+            else {
+                j++;
+            }
+        }
+        return -1;
+    }
+
+    public void addSpillCost(double cost) {
+        spillCost += cost;
+    }
+
+    // cost of keeping the variable in memory per position it would free a register for
+    public double spillWeight() {
+        return spillCost / Math.max(1, length());
+    }
+
+    public int register() {
+        return register;
+    }
+
+    public void setRegister(int register) {
+        this.register = register;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder ranges = new StringBuilder(name);
+        for (int i = 0; i < numRanges; i++) {
+            ranges.append(" [").append(from[i]).append(", ").append(to[i]).append(")");
+        }
+        return ranges.toString();
+    }
+}
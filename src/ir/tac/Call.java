@@ -1,5 +1,6 @@
 package ir.tac;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import ast.ArgumentList;
@@ -16,6 +17,8 @@ public class Call extends TAC {
     private List<Symbol> expressionList;
     private boolean hasArgs;
     private Variable returnVariable;
+    // arguments of a user call, evaluated before it in parameter order (see Compiler.inlineFunctions)
+    private List<Value> argumentValues = new ArrayList<>();
 
     public Call(int id, BasicBlock dest, Symbol functionName) {
         super(id);
@@ -81,6 +84,14 @@ public class Call extends TAC {
             || currFunctionName.equals("readInt") || currFunctionName.equals("readFloat") || currFunctionName.equals("readBool") || currFunctionName.equals("println"));
     }
 
+    public List<Value> getArgumentValues() {
+        return argumentValues;
+    }
+
+    public void setArgumentValues(List<Value> argumentValues) {
+        this.argumentValues = argumentValues;
+    }
+
     public BasicBlock getDestinationBlock() {
         return destinationBlock;
     }
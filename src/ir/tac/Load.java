@@ -2,6 +2,8 @@ package ir.tac;
 
 import ir.cfg.TACVisitor;
 
+// dest = memory[left + right]. Spill code leaves left null for the frame pointer (R30) and has
+// the offset of the stack slot as a literal right.
 public class Load extends TAC {
     private int id;
     private Variable dest;
@@ -16,6 +18,18 @@ public class Load extends TAC {
         this.right = right;
     }
 
+    public Variable getDest() {
+        return dest;
+    }
+
+    public Value getLeft() {
+        return left;
+    }
+
+    public Value getRight() {
+        return right;
+    }
+
     @Override
     public void accept(TACVisitor visitor) {
         throw new UnsupportedOperationException("Unimplemented method 'accept'");
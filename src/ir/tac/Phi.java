@@ -0,0 +1,39 @@
+package ir.tac;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ir.cfg.BasicBlock;
+import ir.cfg.TACVisitor;
+
+// dest = the argument of the predecessor control came from. Only exists between SSA construction
+// and destruction (see Compiler.constructSSA and destructSSA), always at the start of its block.
+public class Phi extends TAC {
+    private int id;
+    private Variable dest;
+    private Map<BasicBlock, Value> arguments = new LinkedHashMap<>();
+
+    public Phi(int id, Variable dest) {
+        super(id, dest);
+        this.id = id;
+        this.dest = dest;
+    }
+
+    public Variable getDest() {
+        return dest;
+    }
+
+    // predecessor -> value flowing in along its edge
+    public Map<BasicBlock, Value> getArguments() {
+        return arguments;
+    }
+
+    public void setArgument(BasicBlock predecessor, Value value) {
+        arguments.put(predecessor, value);
+    }
+
+    @Override
+    public void accept(TACVisitor visitor) {
+        throw new UnsupportedOperationException("Unimplemented method 'accept'");
+    }
+}
@@ -2,20 +2,34 @@ package ir.tac;
 
 import ir.cfg.TACVisitor;
 
+// memory[left + right] = value. Writes no variable, so it has no dest; like Load, a null left
+// stands for the frame pointer (R30).
 public class Store extends TAC {
     private int id;
-    private Variable dest;
+    private Value value;
     private Value left;
     private Value right;
 
-    public Store(int id, Variable dest, Value left, Value right) {
-        super(id, dest);
+    public Store(int id, Value value, Value left, Value right) {
+        super(id);
         this.id = id;
-        this.dest = dest;
+        this.value = value;
         this.left = left;
         this.right = right;
     }
 
+    public Value getValue() {
+        return value;
+    }
+
+    public Value getLeft() {
+        return left;
+    }
+
+    public Value getRight() {
+        return right;
+    }
+
     @Override
     public void accept(TACVisitor visitor) {
         throw new UnsupportedOperationException("Unimplemented method 'accept'");
@@ -52,6 +52,10 @@ public class TACList implements Iterable<TAC>{
         return this.instructions.iterator();
     }
 
+    public static void resetNumbering() {
+        nextTACNumber = 0;
+    }
+
     public static int getNextTACNumber() {
         int toReturn = nextTACNumber;
         nextTACNumber++;